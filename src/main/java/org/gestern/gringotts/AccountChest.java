@@ -10,6 +10,10 @@ import org.bukkit.inventory.DoubleChestInventory;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.InventoryHolder;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Represents a storage unit for an account.
  *
@@ -79,6 +83,29 @@ public class AccountChest {
         return block != null ? block.getLocation() : null;
     }
 
+    /**
+     * Blocks holding the inventory of this account chest: the container block, or both halves of a double chest.
+     *
+     * @return container blocks of this account chest, empty if there is no valid container
+     */
+    public List<Block> containerBlocks() {
+        Chest[] chests = connectedChests();
+
+        if (chests.length > 0) {
+            List<Block> blocks = new ArrayList<>(chests.length);
+
+            for (Chest chest : chests) {
+                blocks.add(chest.getBlock());
+            }
+
+            return blocks;
+        }
+
+        Block block = Util.chestBlock(sign);
+
+        return block != null ? Collections.singletonList(block) : Collections.emptyList();
+    }
+
     /**
      * Get inventory of this account chest.
      *
@@ -91,14 +118,12 @@ public class AccountChest {
     }
 
     /**
-     * Get account inventory of this account chest, which is based on the container inventory.
+     * Get inventory of this account chest, if it is still a valid vault. Invalid vaults are removed from storage.
      *
-     * @return account inventory of this account chest
+     * @return inventory of this AccountChest, or null if it is not valid or has no inventory
      */
-    private AccountInventory accountInventory() {
-        Inventory inventory = inventory();
-
-        return inventory != null ? new AccountInventory(inventory) : null;
+    Inventory validInventory() {
+        return updateInvalid() ? null : inventory();
     }
 
     /**
@@ -107,7 +132,17 @@ public class AccountChest {
      * @return true if valid, false if not and was removed from storage.
      */
     private boolean updateInvalid() {
-        if (notValid()) {
+        return updateInvalid(chest());
+    }
+
+    /**
+     * Test if this chest is valid with the given container, and if not, removes it from storage.
+     *
+     * @param chest container of this chest, as returned by {@link #chest()}
+     * @return true if valid, false if not and was removed from storage.
+     */
+    private boolean updateInvalid(InventoryHolder chest) {
+        if (notValid(chest)) {
             Gringotts.instance.getLogger().info("Destroying orphaned vault: " + this);
             destroy();
 
@@ -118,21 +153,31 @@ public class AccountChest {
     }
 
     /**
-     * Return balance of this chest.
+     * Return balance of this chest. The contents are only counted if they may have changed since they were last
+     * counted, see {@link VaultBalances}. The vault is checked for validity when it is counted, which includes the
+     * periodic verification of its balance.
      *
      * @return balance of this chest
      */
     public long balance() {
-        if (updateInvalid()) {
-            return 0;
+        VaultBalances balances = Gringotts.instance.getAccounting().getVaultBalances();
+        Long          known    = balances.get(this);
+
+        if (known != null) {
+            return known;
         }
 
-        AccountInventory inv = accountInventory();
-        if (inv == null) {
+        InventoryHolder chest = chest();
+
+        if (updateInvalid(chest)) {
             return 0;
         }
 
-        return inv.balance();
+        long balance = new AccountInventory(chest.getInventory()).balance();
+
+        balances.put(this, balance);
+
+        return balance;
     }
 
     /**
@@ -144,13 +189,16 @@ public class AccountChest {
      * @return amount actually added
      */
     public long add(long value) {
-        if (updateInvalid()) {
+        // the container is looked up once, for the validity check and the change
+        InventoryHolder chest = chest();
+
+        if (updateInvalid(chest)) {
             return 0;
         }
 
-        AccountInventory inv = accountInventory();
+        Gringotts.instance.getAccounting().getVaultBalances().invalidate(this);
 
-        return inv == null ? 0 : inv.add(value);
+        return new AccountInventory(chest.getInventory()).add(value);
     }
 
     /**
@@ -162,13 +210,16 @@ public class AccountChest {
      * @return amount actually removed from this chest
      */
     public long remove(long value) {
-        if (updateInvalid()) {
+        // the container is looked up once, for the validity check and the change
+        InventoryHolder chest = chest();
+
+        if (updateInvalid(chest)) {
             return 0;
         }
 
-        AccountInventory inv = accountInventory();
+        Gringotts.instance.getAccounting().getVaultBalances().invalidate(this);
 
-        return inv == null ? 0 : inv.remove(value);
+        return new AccountInventory(chest.getInventory()).remove(value);
     }
 
     /**
@@ -178,8 +229,12 @@ public class AccountChest {
      *
      * @return false if the chest can be considered a valid vault
      */
-    @SuppressWarnings("SimplifiableIfStatement")
     public boolean notValid() {
+        return notValid(chest());
+    }
+
+    @SuppressWarnings("SimplifiableIfStatement")
+    private boolean notValid(InventoryHolder chest) {
         // is it still a sign?
         if (!Util.isSignBlock(sign.getBlock())) {
             return true;
@@ -188,14 +243,14 @@ public class AccountChest {
         String[] lines = sign.getLines();
         String   line0 = lines[0].toLowerCase().trim();
 
-        return !line0.matches(Configuration.CONF.vaultPattern) || lines[2] == null || lines[2].length() == 0 || chest() == null;
+        return !line0.matches(Configuration.CONF.vaultPattern) || lines[2] == null || lines[2].length() == 0 || chest == null;
     }
 
     /**
      * Triggered on destruction of physical chest or sign.
      */
     void destroy() {
-        Gringotts.instance.getDao().deleteAccountChest(this);
+        Gringotts.instance.getAccounting().removeChest(this);
 
         sign.getBlock().breakNaturally();
     }
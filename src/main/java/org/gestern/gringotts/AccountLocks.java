@@ -0,0 +1,130 @@
+package org.gestern.gringotts;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Serializes operations on the same account, while operations on different accounts may run in parallel.
+ * <p>
+ * Accounts are mapped to a fixed number of locks by their key, so that no lock has to be created or removed per
+ * account. Operations on several accounts take all their locks at once, in the order of the locks, which keeps two
+ * transfers between the same accounts in opposite directions from waiting on each other forever. Locks are reentrant,
+ * so an operation may call other operations on the same accounts.
+ * <p>
+ * Locks must not be held while waiting for the main thread, which may need them itself. <code>/gringotts stats</code>
+ * shows how often an operation had to wait.
+ */
+public final class AccountLocks {
+    private static final int             STRIPES = 64;
+    private static final ReentrantLock[] locks   = new ReentrantLock[STRIPES];
+
+    private static final LongAdder       acquired  = new LongAdder();
+    private static final LongAdder       contended = new LongAdder();
+    private static final LongAccumulator maxWait   = new LongAccumulator(Math::max, 0);
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    private AccountLocks() {
+    }
+
+    /**
+     * Key of an account.
+     *
+     * @param type  account type
+     * @param owner id of the account holder
+     * @return key of the account
+     */
+    public static String key(String type, String owner) {
+        return type + ":" + owner;
+    }
+
+    /**
+     * Run an operation while holding the locks of some accounts.
+     *
+     * @param operation the operation
+     * @param accounts  keys of the accounts the operation changes
+     * @param <V>       result of the operation
+     * @return result of the operation
+     */
+    public static <V> V call(Supplier<V> operation, String... accounts) {
+        int[] stripes = new int[accounts.length];
+
+        for (int i = 0; i < accounts.length; i++) {
+            int hash = accounts[i].hashCode();
+
+            stripes[i] = (hash ^ hash >>> 16) & (STRIPES - 1);
+        }
+
+        Arrays.sort(stripes);
+
+        int held = 0;
+
+        try {
+            for (int i = 0; i < stripes.length; i++) {
+                // accounts sharing a lock take it once
+                if (i == 0 || stripes[i] != stripes[i - 1]) {
+                    lock(locks[stripes[i]]);
+
+                    stripes[held++] = stripes[i];
+                }
+            }
+
+            return operation.get();
+        } finally {
+            while (held > 0) {
+                locks[stripes[--held]].unlock();
+            }
+        }
+    }
+
+    private static void lock(ReentrantLock lock) {
+        acquired.increment();
+
+        if (lock.tryLock()) {
+            return;
+        }
+
+        contended.increment();
+
+        long start = System.nanoTime();
+
+        lock.lock();
+
+        maxWait.accumulate(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Number of locks taken.
+     *
+     * @return locks taken
+     */
+    public static long getAcquired() {
+        return acquired.sum();
+    }
+
+    /**
+     * Number of locks that were held by another thread when they were taken.
+     *
+     * @return contended locks
+     */
+    public static long getContended() {
+        return contended.sum();
+    }
+
+    /**
+     * Longest wait for a lock held by another thread, in milliseconds.
+     *
+     * @return longest wait
+     */
+    public static long getMaxWait() {
+        return maxWait.get();
+    }
+}
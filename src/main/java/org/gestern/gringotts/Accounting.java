@@ -1,8 +1,26 @@
 package org.gestern.gringotts;
 
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.Sign;
 import org.gestern.gringotts.accountholder.AccountHolder;
+import org.gestern.gringotts.data.AccountChestLocation;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Level;
 
 /**
  * Manages accounts.
@@ -10,6 +28,44 @@ import java.util.Collection;
  * @author jast
  */
 public class Accounting {
+    /**
+     * Faces of a container block a vault sign can be on: attached to one of its sides, or standing on top.
+     */
+    private static final BlockFace[] SIGN_FACES = {
+            BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH, BlockFace.WEST, BlockFace.UP
+    };
+
+    private final VaultIndex                      vaultIndex       = new VaultIndex();
+    private final VaultBalances                   vaultBalances    = new VaultBalances();
+    /**
+     * Vaults of each account by account key, loaded on first access.
+     */
+    private final Map<String, List<AccountChest>> chestCache       = new ConcurrentHashMap<>();
+    private final LongAdder                       chestCacheHits   = new LongAdder();
+    private final LongAdder                       chestCacheMisses = new LongAdder();
+    /**
+     * Incremented before cached vaults are dropped, so that a load running meanwhile does not keep its result.
+     */
+    private final AtomicLong                      chestVersion     = new AtomicLong();
+    /**
+     * Accounts known to exist in storage.
+     */
+    private final Set<String>                     knownAccounts    = ConcurrentHashMap.newKeySet();
+    /**
+     * Last queued vault write. Vault writes are chained, so that removing and re-adding a vault at the same position
+     * reach the database in order.
+     */
+    private       CompletableFuture<Boolean>      chestWrites      = CompletableFuture.completedFuture(true);
+
+    /**
+     * Instantiates a new Accounting, loading the positions of all registered vaults.
+     */
+    public Accounting() {
+        vaultIndex.load(Gringotts.instance.getDao().retrieveChestLocations());
+
+        Gringotts.instance.getLogger().fine("Indexed " + vaultIndex.size() + " vaults.");
+    }
+
     /**
      * Get the account associated with an account holder.
      * If it was not yet stored in the data storage, it will be persisted.
@@ -19,59 +75,437 @@ public class Accounting {
      */
     public GringottsAccount getAccount(AccountHolder owner) {
         GringottsAccount account = new GringottsAccount(owner);
+        String           key     = key(owner);
+
+        if (!knownAccounts.contains(key)) {
+            Gringotts.instance.getDao().storeAccount(account);
 
-        Gringotts.instance.getDao().storeAccount(account);
+            knownAccounts.add(key);
+        }
 
         return account;
     }
 
+    /**
+     * Forget about an account that was deleted from storage.
+     *
+     * @param owner owner of the account
+     */
+    public void forgetAccount(AccountHolder owner) {
+        knownAccounts.remove(key(owner));
+        invalidateChests(owner);
+    }
+
+    /**
+     * Forget about an account that was deleted from storage, without resolving its account holder.
+     *
+     * @param type  account type
+     * @param owner id of the account holder
+     */
+    public void forgetAccount(String type, String owner) {
+        String key = type + ":" + owner;
+
+        knownAccounts.remove(key);
+        invalidateChests(key);
+    }
+
+    private static String key(AccountHolder owner) {
+        return owner.getType() + ":" + owner.getId();
+    }
+
+    /**
+     * Get the vaults of an account.
+     * The vaults are read from storage on first access and then kept until one of them is added or removed. Vaults
+     * broken without an event, such as by other plugins, are found when their balance is verified, see
+     * {@link VaultBalances}.
+     *
+     * @param account the account
+     * @return vaults of the account
+     */
+    public List<AccountChest> getChests(GringottsAccount account) {
+        String             key    = key(account.owner);
+        List<AccountChest> cached = chestCache.get(key);
+
+        if (cached != null) {
+            chestCacheHits.increment();
+
+            return cached;
+        }
+
+        chestCacheMisses.increment();
+
+        // storage is read outside of the cache map, so that other accounts' vaults can be read meanwhile
+        long               version = chestVersion.get();
+        List<AccountChest> loaded  = Collections.unmodifiableList(
+                new ArrayList<>(Gringotts.instance.getDao().retrieveChests(account))
+        );
+
+        if (chestVersion.get() != version) {
+            return loaded;
+        }
+
+        cached = chestCache.putIfAbsent(key, loaded);
+
+        // vaults dropped between the check and the insert may include these
+        if (chestVersion.get() != version) {
+            chestCache.remove(key, loaded);
+        }
+
+        return cached == null ? loaded : cached;
+    }
+
+    /**
+     * Count the money in the vault containers of an account, which is none if vault containers are disabled.
+     * Must be called on the main thread.
+     *
+     * @param account the account
+     * @return money in the vaults in cents
+     */
+    public long countVaults(GringottsAccount account) {
+        long balance = 0;
+
+        if (Configuration.CONF.useVaultContainer) {
+            for (AccountChest chest : getChests(account)) {
+                balance += chest.balance();
+            }
+        }
+
+        return balance;
+    }
+
+    /**
+     * Count the money in some vaults of an account without loading chunks or caching the vaults, which is none if
+     * vault containers are disabled. Must be called on the main thread.
+     *
+     * @param account   the account
+     * @param locations locations of the vaults of the account
+     * @return money in the vaults in cents, or null if a vault is in a chunk that is not loaded
+     */
+    public Long countLoadedVaults(GringottsAccount account, Collection<AccountChestLocation> locations) {
+        if (!Configuration.CONF.useVaultContainer) {
+            return 0L;
+        }
+
+        for (AccountChestLocation location : locations) {
+            if (!isLoaded(location)) {
+                return null;
+            }
+        }
+
+        long balance = 0;
+
+        for (AccountChestLocation location : locations) {
+            Block          block = Bukkit.getWorld(location.world).getBlockAt(location.x, location.y, location.z);
+            Optional<Sign> sign  = Util.getBlockStateAs(block, Sign.class);
+
+            if (sign.isPresent()) {
+                balance += new AccountChest(sign.get(), account).balance();
+            }
+        }
+
+        return balance;
+    }
+
+    /**
+     * Whether the chunks of a vault sign and of the containers it may be attached to are loaded.
+     */
+    private static boolean isLoaded(AccountChestLocation location) {
+        World world = Bukkit.getWorld(location.world);
+
+        if (world == null) {
+            return false;
+        }
+
+        // a double chest attached to the sign reaches up to two blocks away
+        for (int x = (location.x - 2) >> 4; x <= (location.x + 2) >> 4; x++) {
+            for (int z = (location.z - 2) >> 4; z <= (location.z + 2) >> 4; z++) {
+                if (!world.isChunkLoaded(x, z)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Drop the cached vaults of an account.
+     *
+     * @param owner owner of the account
+     */
+    public void invalidateChests(AccountHolder owner) {
+        invalidateChests(key(owner));
+    }
+
+    private void invalidateChests(String key) {
+        chestVersion.incrementAndGet();
+        chestCache.remove(key);
+    }
+
+    /**
+     * Drop the cached vaults of all accounts with a vault sign at or next to the given block, and the balance of a
+     * vault with its sign or container at the block.
+     * Call this when the block is about to be destroyed.
+     *
+     * @param block the block
+     */
+    public void invalidateChests(Block block) {
+        vaultBalances.invalidate(block);
+        invalidateChests(vaultIndex.get(block));
+
+        for (BlockFace face : SIGN_FACES) {
+            invalidateChests(vaultIndex.get(block.getRelative(face)));
+        }
+    }
+
+    private void invalidateChests(AccountChestLocation location) {
+        if (location != null) {
+            invalidateChests(location.type + ":" + location.owner);
+        }
+    }
+
+    /**
+     * Drop the cached vaults of all accounts with a vault in the given world, and all vault balances.
+     *
+     * @param world the world
+     */
+    public void invalidateChests(World world) {
+        vaultBalances.clear();
+
+        String name = world.getName();
+
+        chestVersion.incrementAndGet();
+        chestCache.values().removeIf(chests -> {
+            for (AccountChest chest : chests) {
+                if (chest.sign.getWorld().getName().equals(name)) {
+                    return true;
+                }
+            }
+
+            return false;
+        });
+    }
+
+    /**
+     * Reload the vault index and drop all cached vault lists.
+     * Call this after vaults were changed in storage without going through this class.
+     */
+    public void reloadChests() {
+        vaultIndex.load(Gringotts.instance.getDao().retrieveChestLocations());
+        chestVersion.incrementAndGet();
+        chestCache.clear();
+        vaultBalances.clear();
+    }
+
+    /**
+     * Number of accounts with cached vaults.
+     *
+     * @return number of cached vault lists
+     */
+    public int getChestCacheSize() {
+        return chestCache.size();
+    }
+
+    /**
+     * Number of vault lookups answered from the cache.
+     *
+     * @return cache hits
+     */
+    public long getChestCacheHits() {
+        return chestCacheHits.sum();
+    }
+
+    /**
+     * Number of vault lookups that had to read from storage.
+     *
+     * @return cache misses
+     */
+    public long getChestCacheMisses() {
+        return chestCacheMisses.sum();
+    }
+
+    /**
+     * Index of the positions of all registered vaults.
+     *
+     * @return the vault index
+     */
+    public VaultIndex getVaultIndex() {
+        return vaultIndex;
+    }
+
+    /**
+     * Last counted balances of all vaults.
+     *
+     * @return the vault balances
+     */
+    public VaultBalances getVaultBalances() {
+        return vaultBalances;
+    }
+
     /**
      * Determine if a given AccountChest would be connected to an AccountChest already in storage.
      * Alas! need to call this every time we try to add an account chest, since chests can be added
      * without us noticing ...
+     * <p>
+     * Only vaults with a sign next to one of the container blocks of the given chest can be connected to it,
+     * so only those are looked up in the vault index.
      *
-     * @param chest     chest to check for connectedness
-     * @param allChests set of all chests that might be a candidate for connectedness
+     * @param chest chest to check for connectedness
      * @return whether given chest is connected to any existing chest
      */
-    // TODO perhaps this could be more elegantly done with block metadata
-    private boolean chestConnected(AccountChest chest, Collection<AccountChest> allChests) {
-        for (AccountChest ac : allChests) {
-            if (ac.connected(chest)) {
-                return true;
+    private boolean chestConnected(AccountChest chest) {
+        for (Block container : chest.containerBlocks()) {
+            for (BlockFace face : SIGN_FACES) {
+                Block                candidate = container.getRelative(face);
+                AccountChestLocation stored    = vaultIndex.get(candidate);
+
+                if (stored == null) {
+                    continue;
+                }
+
+                AccountChest existing = resolve(stored);
+
+                if (existing == null) {
+                    // the stored vault is gone, the database entry is cleaned up when its account is next read
+                    vaultIndex.remove(stored.world, stored.x, stored.y, stored.z);
+                } else if (existing.connected(chest)) {
+                    return true;
+                }
             }
         }
 
         return false;
     }
 
+    /**
+     * Create the account chest at a stored location.
+     *
+     * @param location stored location of the vault sign
+     * @return the account chest, or null if the world, sign or account holder no longer exist
+     */
+    private AccountChest resolve(AccountChestLocation location) {
+        World world = Bukkit.getWorld(location.world);
+
+        if (world == null) {
+            return null;
+        }
+
+        Optional<Sign> optionalSign = Util.getBlockStateAs(
+                world.getBlockAt(location.x, location.y, location.z),
+                Sign.class
+        );
+
+        if (!optionalSign.isPresent()) {
+            return null;
+        }
+
+        AccountHolder owner = Gringotts.instance.getAccountHolderFactory().get(location.type, location.owner);
+
+        if (owner == null) {
+            return null;
+        }
+
+        return new AccountChest(optionalSign.get(), new GringottsAccount(owner));
+    }
+
+    /**
+     * Queue a vault write after all previously queued ones.
+     *
+     * @param write starts the write
+     * @return result of the write
+     */
+    private synchronized CompletableFuture<Boolean> queueChestWrite(Supplier<CompletableFuture<Boolean>> write) {
+        chestWrites = chestWrites
+                .handle((result, error) -> result)
+                .thenCompose(previous -> write.get());
+
+        return chestWrites;
+    }
+
     /**
      * Save an AccountChest to Account association.
+     * The vault is registered right away and stored in the background. If storing fails, the error is logged and the
+     * vault is unregistered again.
      *
      * @param chest chest to add to the account
      * @return false if the specified AccountChest is already registered or would be connected to a registered chest. true if the association was successful.
-     * @throws GringottsStorageException when saving of account chest failed
+     * @see #addChest(AccountChest, Runnable)
      */
     public boolean addChest(AccountChest chest) {
-        // TODO refactor to do a more intelligent/quick query
-        Collection<AccountChest> allChests = Gringotts.instance.getDao().retrieveChests();
+        return addChest(chest, () -> {
+        });
+    }
+
+    /**
+     * Save an AccountChest to Account association.
+     * The vault is registered right away and stored in the background. If storing fails, the error is logged, the
+     * vault is unregistered again and the given callback is run on the main thread, so that whoever created the vault
+     * can be told that it doesn't exist after all.
+     *
+     * @param chest  chest to add to the account
+     * @param failed run on the main thread if the vault could not be stored
+     * @return false if the specified AccountChest is already registered or would be connected to a registered chest. true if the association was successful.
+     */
+    public boolean addChest(AccountChest chest, Runnable failed) {
+        Sign                 mark   = chest.sign;
+        AccountChestLocation stored = vaultIndex.get(mark.getWorld().getName(), mark.getX(), mark.getY(), mark.getZ());
 
         // if there is an invalid stored chest on location of new chest, remove it from storage.
-        if (allChests.contains(chest)) {
+        if (stored != null) {
             Gringotts.instance.getLogger().info("removing orphaned vault: " + chest);
-            Gringotts.instance.getDao().deleteAccountChest(chest);
-            allChests.remove(chest);
+            removeChest(chest);
         }
 
-        if (chestConnected(chest, allChests)) {
+        if (chestConnected(chest)) {
             return false;
         }
 
-        if (!Gringotts.instance.getDao().storeAccountChest(chest)) {
-            throw new GringottsStorageException("Could not save account chest: " + chest);
-        }
+        AccountChestLocation location = AccountChestLocation.of(chest);
+
+        vaultIndex.add(location);
+        invalidateChests(chest.account.owner);
+
+        queueChestWrite(() -> Gringotts.instance.getAsyncDao().storeAccountChest(chest)).whenComplete((saved, error) -> {
+            if (error != null || !saved) {
+                Gringotts.instance.getLogger().log(Level.SEVERE, "Could not save account chest: " + chest, error);
+
+                if (vaultIndex.get(location.world, location.x, location.y, location.z) == location) {
+                    vaultIndex.remove(location.world, location.x, location.y, location.z);
+                }
+
+                Bukkit.getScheduler().runTask(Gringotts.instance, failed);
+            }
+
+            // vaults read while this one was being stored don't contain it yet
+            invalidateChests(chest.account.owner);
+        });
 
         return true;
     }
 
+    /**
+     * Remove an AccountChest from storage. The vault is unregistered right away and deleted in the background.
+     *
+     * @param chest chest to remove
+     * @return true if the chest was registered
+     */
+    public boolean removeChest(AccountChest chest) {
+        Sign                 mark    = chest.sign;
+        AccountChestLocation removed = vaultIndex.remove(mark.getWorld().getName(), mark.getX(), mark.getY(), mark.getZ());
+
+        invalidateChests(chest.account.owner);
+        invalidateChests(removed);
+        vaultBalances.invalidate(chest);
+
+        queueChestWrite(() -> Gringotts.instance.getAsyncDao().deleteAccountChest(chest)).whenComplete((deleted, error) -> {
+            if (error != null) {
+                Gringotts.instance.getLogger().log(Level.SEVERE, "Could not delete account chest: " + chest, error);
+            }
+
+            invalidateChests(chest.account.owner);
+            invalidateChests(removed);
+        });
+
+        return removed != null;
+    }
 }
@@ -0,0 +1,385 @@
+package org.gestern.gringotts;
+
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.scheduler.BukkitTask;
+import org.gestern.gringotts.accountholder.AccountHolder;
+import org.gestern.gringotts.data.AccountChestLocation;
+import org.gestern.gringotts.data.DAO;
+import org.gestern.gringotts.data.StoredAccount;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+/**
+ * Leaderboard of the last known total balances of all player accounts, richest first.
+ * <p>
+ * Balances are kept in a sorted set, so that every update takes logarithmic time. They are updated whenever the
+ * total balance of an account is computed, and adjusted by the amount of every successful addition or removal.
+ * <p>
+ * Every {@link Configuration#baltopRebuildInterval} seconds, the storage is read in the background: accounts
+ * without vaults are ranked by their virtual balance, accounts that no longer exist are dropped, and the vaults of
+ * online players are counted on the main thread, at most {@link Configuration#baltopTickBudget} milliseconds per tick.
+ * Vaults are only counted if all of them are in loaded chunks, and the counted vaults are not kept in the vault cache.
+ * Other accounts with vaults keep their last known balance, or are ranked by their virtual balance if there is none.
+ * Balances computed while the rebuild is running are newer and are kept.
+ * <p>
+ * The first {@link #TOP_SIZE} accounts are copied to an array when they are read after a change, so that the top
+ * placeholders don't walk the ranking on every request.
+ */
+public class BalanceTop {
+    private static final String TYPE     = "player";
+    /**
+     * Number of accounts in the snapshot of the top of the ranking.
+     */
+    private static final int    TOP_SIZE = 100;
+
+    private static final Comparator<Entry> RICHEST_FIRST = Comparator
+            .comparingLong((Entry entry) -> entry.cents)
+            .reversed()
+            .thenComparing(entry -> entry.owner);
+
+    private final Map<String, Entry>  entries    = new ConcurrentHashMap<>();
+    private final NavigableSet<Entry> ranking    = new ConcurrentSkipListSet<>(RICHEST_FIRST);
+    private final AtomicBoolean       rebuilding = new AtomicBoolean();
+    /**
+     * Set when the ranking changed since {@link #top} was copied.
+     */
+    private final AtomicBoolean       topChanged = new AtomicBoolean(true);
+    private volatile Entry[]          top        = new Entry[0];
+    private       BukkitTask          countTask;
+
+    /**
+     * Schedule the periodic rebuild, starting with one right away.
+     */
+    public void start() {
+        long interval = Math.max(1, Configuration.CONF.baltopRebuildInterval) * 20L;
+
+        Bukkit.getScheduler().runTaskTimerAsynchronously(Gringotts.instance, this::rebuild, 1, interval);
+    }
+
+    /**
+     * Record the total balance of an account, which was just computed.
+     *
+     * @param owner   account holder
+     * @param balance total balance in cents
+     */
+    public void observed(AccountHolder owner, long balance) {
+        if (TYPE.equals(owner.getType())) {
+            put(owner.getId(), owner.getName(), balance, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Adjust the last known balance of an account by an amount that was added or removed.
+     * Nothing happens if the account is not ranked yet.
+     *
+     * @param owner  account holder
+     * @param amount change of the balance in cents
+     */
+    public void changed(AccountHolder owner, long amount) {
+        if (!TYPE.equals(owner.getType())) {
+            return;
+        }
+
+        // an adjusted balance is as old as the balance it is based on
+        entries.computeIfPresent(owner.getId(), (id, old) -> replace(
+                old,
+                new Entry(id, old.name, old.cents + amount, old.updated)
+        ));
+    }
+
+    /**
+     * Remove an account that was deleted.
+     *
+     * @param type  account type
+     * @param owner id of the account holder
+     */
+    public void remove(String type, String owner) {
+        if (TYPE.equals(type)) {
+            entries.computeIfPresent(owner, (id, old) -> replace(old, null));
+        }
+    }
+
+    /**
+     * Set the balance of an account, unless the known balance is newer.
+     *
+     * @param updated time the balance was read, in milliseconds since the epoch
+     */
+    private void put(String owner, String name, long balance, long updated) {
+        entries.compute(owner, (id, old) -> {
+            if (old != null && old.updated > updated) {
+                return old;
+            }
+
+            return replace(old, new Entry(id, name != null || old == null ? name : old.name, balance, updated));
+        });
+    }
+
+    /**
+     * Replace an entry in the ranking. Must be called while computing the entry's mapping, which keeps updates of the
+     * same account in order.
+     */
+    private Entry replace(Entry old, Entry updated) {
+        if (old != null) {
+            ranking.remove(old);
+        }
+
+        if (updated != null) {
+            ranking.add(updated);
+        }
+
+        topChanged.set(true);
+
+        return updated;
+    }
+
+    /**
+     * Number of ranked accounts.
+     *
+     * @return number of accounts
+     */
+    public int size() {
+        return ranking.size();
+    }
+
+    /**
+     * The ranked accounts on a page of the leaderboard.
+     *
+     * @param page     page number, starting at 1
+     * @param pageSize entries per page
+     * @return the entries on the page, richest first
+     */
+    public List<Entry> getPage(int page, int pageSize) {
+        long    from     = (long) (page - 1) * pageSize;
+        Entry[] snapshot = top();
+
+        if (from >= 0 && from + pageSize <= snapshot.length) {
+            return Arrays.asList(snapshot).subList((int) from, (int) from + pageSize);
+        }
+
+        return ranking.stream()
+                .skip(from)
+                .limit(pageSize)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * The account at a rank of the leaderboard.
+     *
+     * @param rank rank, starting at 1 for the richest account
+     * @return the entry, or null if fewer accounts are ranked
+     */
+    public Entry get(int rank) {
+        Entry[] snapshot = top();
+
+        if (rank <= snapshot.length) {
+            return rank < 1 ? null : snapshot[rank - 1];
+        }
+
+        if (snapshot.length < TOP_SIZE) {
+            return null;
+        }
+
+        List<Entry> page = getPage(rank, 1);
+
+        return page.isEmpty() ? null : page.get(0);
+    }
+
+    /**
+     * The first accounts of the ranking, copied again if the ranking changed since the last copy.
+     */
+    private Entry[] top() {
+        if (!topChanged.getAndSet(false)) {
+            return top;
+        }
+
+        // cleared before copying, so that a change made during the copy is picked up by the next read
+        Entry[] snapshot = ranking.stream().limit(TOP_SIZE).toArray(Entry[]::new);
+
+        top = snapshot;
+
+        return snapshot;
+    }
+
+    /**
+     * Read all accounts from storage, then count the vaults of the accounts that have some.
+     */
+    private void rebuild() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+
+        // balances read by the rebuild count as read just before it started, so that newer ones are kept
+        long                since       = System.currentTimeMillis() - 1;
+        DAO                                     dao        = Gringotts.instance.getDao();
+        Map<String, List<AccountChestLocation>> vaults     = new HashMap<>();
+        Set<String>                             stored     = new HashSet<>();
+        List<StoredAccount>                     withVaults = new ArrayList<>();
+
+        try {
+            dao.forEachChestLocation(location -> {
+                if (TYPE.equals(location.type)) {
+                    vaults.computeIfAbsent(location.owner, owner -> new ArrayList<>()).add(location);
+                }
+            });
+
+            dao.forEachAccount(account -> {
+                if (!TYPE.equals(account.type)) {
+                    return;
+                }
+
+                stored.add(account.owner);
+
+                if (vaults.containsKey(account.owner)) {
+                    withVaults.add(account);
+
+                    // ranked by the virtual balance until the vaults are counted, or if they can't be
+                    if (!entries.containsKey(account.owner)) {
+                        put(account.owner, null, account.cents, since);
+                    }
+                } else {
+                    put(account.owner, null, account.cents, since);
+                }
+            });
+        } catch (RuntimeException e) {
+            Gringotts.instance.getLogger().log(Level.WARNING, "Failed to rebuild the balance leaderboard.", e);
+
+            rebuilding.set(false);
+
+            return;
+        }
+
+        for (String owner : entries.keySet()) {
+            if (!stored.contains(owner)) {
+                entries.computeIfPresent(owner, (id, old) -> old.updated <= since ? replace(old, null) : old);
+            }
+        }
+
+        if (withVaults.isEmpty()) {
+            rebuilding.set(false);
+        } else {
+            Bukkit.getScheduler().runTask(Gringotts.instance, () -> countTask = Bukkit.getScheduler().runTaskTimer(
+                    Gringotts.instance,
+                    new VaultCount(withVaults, vaults, since),
+                    0,
+                    1
+            ));
+        }
+    }
+
+    /**
+     * Counts the vaults of the online players among some accounts on the main thread, a few per tick.
+     */
+    private class VaultCount implements Runnable {
+        private final List<StoredAccount>                     accounts;
+        private final Map<String, List<AccountChestLocation>> vaults;
+        private final long                                    since;
+        private       int                                     next;
+
+        private VaultCount(List<StoredAccount> accounts, Map<String, List<AccountChestLocation>> vaults, long since) {
+            this.accounts = accounts;
+            this.vaults   = vaults;
+            this.since    = since;
+        }
+
+        @Override
+        public void run() {
+            Accounting accounting = Gringotts.instance.getAccounting();
+            long       budget     = TimeUnit.MILLISECONDS.toNanos(Math.max(1, Configuration.CONF.baltopTickBudget));
+            long       deadline   = System.nanoTime() + budget;
+
+            try {
+                while (next < accounts.size() && System.nanoTime() < deadline) {
+                    StoredAccount account = accounts.get(next++);
+
+                    // offline players keep their last known balance, counting them would load their chunks
+                    if (!isOnline(account.owner)) {
+                        continue;
+                    }
+
+                    AccountHolder owner = Gringotts.instance.getAccountHolderFactory().get(TYPE, account.owner);
+
+                    if (owner == null) {
+                        continue;
+                    }
+
+                    Long total = accounting.countLoadedVaults(new GringottsAccount(owner), vaults.get(account.owner));
+
+                    if (total != null) {
+                        put(account.owner, owner.getName(), account.cents + total, since);
+                    }
+                }
+            } catch (RuntimeException e) {
+                Gringotts.instance.getLogger().log(Level.WARNING, "Failed to count vaults for the leaderboard.", e);
+
+                next = accounts.size();
+            }
+
+            if (next >= accounts.size()) {
+                countTask.cancel();
+                rebuilding.set(false);
+            }
+        }
+    }
+
+    private static boolean isOnline(String owner) {
+        try {
+            return Bukkit.getPlayer(UUID.fromString(owner)) != null;
+        } catch (IllegalArgumentException e) {
+            // not a player id
+            return false;
+        }
+    }
+
+    /**
+     * Last known total balance of an account.
+     */
+    public static final class Entry {
+        /**
+         * Id of the account holder.
+         */
+        public final String owner;
+        /**
+         * Total balance in cents.
+         */
+        public final long   cents;
+        /**
+         * Time the balance was read, in milliseconds since the epoch.
+         */
+        public final long   updated;
+
+        private volatile String name;
+
+        private Entry(String owner, String name, long cents, long updated) {
+            this.owner   = owner;
+            this.name    = name;
+            this.cents   = cents;
+            this.updated = updated;
+        }
+
+        /**
+         * Name of the account holder, looked up when it was not known yet.
+         *
+         * @return the name, or the id if the player's name is unknown
+         */
+        public String getName() {
+            if (name == null) {
+                try {
+                    OfflinePlayer player = Bukkit.getOfflinePlayer(UUID.fromString(owner));
+
+                    name = player.getName();
+                } catch (IllegalArgumentException ignored) {
+                    // not a player id
+                }
+            }
+
+            return name == null ? owner : name;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.gestern.gringotts;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+/**
+ * Collects the virtual balances (cents) changed by the steps of a transfer, and writes them to storage together in a
+ * single transaction when the transfer is done.
+ * <p>
+ * A transfer removes from one account, adds to another, and may pay taxes or refund the sender. Each of these steps
+ * reads and writes the virtual balance of an account. Within a transaction, reads see the balances written by earlier
+ * steps, and each account is written once, with its final balance. Items are moved in the world right away, and the
+ * balances are written right after, so a crash can't leave one leg of a transfer written without the other.
+ * <p>
+ * Transactions run on the main thread, where all steps of the transfer run as well. The accounts of a transfer are
+ * locked with {@link AccountLocks} until its balances are written.
+ */
+public final class CentsTransaction {
+    private static final ThreadLocal<CentsTransaction> CURRENT = new ThreadLocal<>();
+
+    private final Map<String, GringottsAccount> accounts = new HashMap<>();
+    private final Map<String, Long>             cents    = new LinkedHashMap<>();
+
+    private CentsTransaction() {
+    }
+
+    /**
+     * Run a transfer on the main thread in a transaction, and wait for it if called from another thread.
+     * A transfer started within another one becomes part of it.
+     *
+     * @param transfer the transfer
+     * @param accounts keys of the accounts the transfer changes, see {@link AccountLocks#key(String, String)}
+     * @param <V>      result of the transfer
+     * @return result of the transfer
+     */
+    public static <V> V run(Supplier<V> transfer, String... accounts) {
+        // locks are taken on the main thread, never while waiting for it
+        return MainThreadCalls.await(MainThreadCalls.call(() -> AccountLocks.call(() -> runHere(transfer), accounts)));
+    }
+
+    private static <V> V runHere(Supplier<V> transfer) {
+        if (CURRENT.get() != null) {
+            return transfer.get();
+        }
+
+        CentsTransaction transaction = new CentsTransaction();
+
+        CURRENT.set(transaction);
+
+        try {
+            return transfer.get();
+        } finally {
+            CURRENT.remove();
+
+            // items have been moved already, so the balances are written even if a step failed
+            transaction.commit();
+        }
+    }
+
+    /**
+     * The transaction running on this thread.
+     *
+     * @return the transaction, or null if none is running
+     */
+    static CentsTransaction current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * The virtual balance of an account written within this transaction.
+     *
+     * @param account the account
+     * @return the balance in cents, or null if it was not written yet
+     */
+    Long get(GringottsAccount account) {
+        return cents.get(key(account));
+    }
+
+    /**
+     * Write the virtual balance of an account when the transaction is committed.
+     *
+     * @param account the account
+     * @param amount  balance in cents
+     */
+    void put(GringottsAccount account, long amount) {
+        String key = key(account);
+
+        accounts.putIfAbsent(key, account);
+        cents.put(key, amount);
+    }
+
+    private void commit() {
+        if (cents.isEmpty()) {
+            return;
+        }
+
+        Map<GringottsAccount, Long> balances = new LinkedHashMap<>();
+
+        for (Map.Entry<String, Long> balance : cents.entrySet()) {
+            balances.put(accounts.get(balance.getKey()), balance.getValue());
+        }
+
+        try {
+            if (!Gringotts.instance.getDao().storeCents(balances)) {
+                Gringotts.instance.getLogger().warning(
+                        "Some virtual balances of a transfer could not be written, their accounts may no longer exist."
+                );
+            }
+        } catch (RuntimeException e) {
+            Gringotts.instance.getLogger().log(Level.SEVERE, "Failed to write the virtual balances " + cents, e);
+        }
+    }
+
+    private static String key(GringottsAccount account) {
+        return AccountLocks.key(account.owner.getType(), account.owner.getId());
+    }
+}
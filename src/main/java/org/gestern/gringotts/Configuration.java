@@ -30,8 +30,6 @@ public enum Configuration {
      */
     CONF;
 
-    private final Logger log = Gringotts.instance.getLogger();
-
     /**
      * Regular expression defining what patterns on a sign will create a valid vault.
      * Subpattern 1 denotes the type of the vault.
@@ -66,6 +64,11 @@ public enum Configuration {
      * Use ender chests as player vaults.
      */
     public boolean useVaultEnderChest = true;
+    /**
+     * Seconds after which the last counted balance of a vault is counted again, to catch changes made without an
+     * event. 0 counts vaults on every balance check.
+     */
+    public int     vaultVerifyInterval = 300;
     /**
      * Balance command shows vault balance.
      */
@@ -74,10 +77,156 @@ public enum Configuration {
      * Balance command shows inventory balance.
      */
     public boolean balanceShowInventory = true;
+    /**
+     * Milliseconds other threads wait for balance checks and changes, which run on the main thread.
+     */
+    public long    balanceTimeout = 1000;
+    /**
+     * Seconds between rebuilds of the balance leaderboard from storage.
+     */
+    public int     baltopRebuildInterval = 600;
+    /**
+     * Milliseconds per tick a leaderboard rebuild may spend on the main thread counting the contents of vaults.
+     */
+    public long    baltopTickBudget = 2;
     /**
      * if true, the denomination finding process will include shulker boxes
      */
     public boolean includeShulkerBoxes = true;
+    /**
+     * Keep virtual balances in memory and write changes to the database in batches.
+     */
+    public boolean centsCacheEnabled = false;
+    /**
+     * Seconds between writes of changed virtual balances to the database.
+     */
+    public int     centsCacheFlushInterval = 5;
+    /**
+     * Number of changed virtual balances that triggers an immediate write to the database.
+     */
+    public int     centsCacheMaxPending = 1000;
+    /**
+     * Fraction of the maximum heap that, when still in use after a garbage collection, triggers a write and
+     * drops unchanged balances from memory. 0 disables the check.
+     */
+    public double  centsCacheMemoryThreshold = 0.85;
+    /**
+     * Write decreased virtual balances to the database immediately, so a crash can not restore spent money.
+     */
+    public boolean centsCacheFlushDecreases = true;
+    /**
+     * Write the balances changed during a tick in a single transaction at the next tick, instead of one by one.
+     * Takes precedence over {@link #centsCacheFlushDecreases}.
+     */
+    public boolean centsCacheGroupCommit = false;
+    /**
+     * Storage implementation: "ebean", "jdbc", "journal" or "cache".
+     */
+    public String  storageBackend = "ebean";
+    /**
+     * Maximum number of database connections of the jdbc storage backend.
+     */
+    public int     storagePoolSize = 4;
+    /**
+     * Size in bytes of the journal file of the journal storage backend.
+     */
+    public long    journalSize = 67108864;
+    /**
+     * Seconds between snapshots of the cache storage backend.
+     */
+    public int     cacheSnapshotInterval = 60;
+    /**
+     * SQLite journal mode. WAL lets readers continue while a write is in progress.
+     */
+    public String  sqliteJournalMode = "WAL";
+    /**
+     * SQLite synchronous setting. NORMAL only syncs the write-ahead log on checkpoints.
+     */
+    public String  sqliteSynchronous = "NORMAL";
+    /**
+     * Bytes of the database file SQLite may access through memory mapping.
+     */
+    public long    sqliteMmapSize = 268435456;
+    /**
+     * SQLite page cache size. Negative values are in KiB, positive values in pages.
+     */
+    public int     sqliteCacheSize = -16000;
+    /**
+     * Milliseconds to wait for a lock held by another connection.
+     */
+    public int     sqliteBusyTimeout = 5000;
+    /**
+     * Where SQLite keeps temporary tables and indices.
+     */
+    public String  sqliteTempStore = "MEMORY";
+    /**
+     * Bytes of the write-ahead log file kept after a checkpoint.
+     */
+    public long    sqliteJournalSizeLimit = 67108864;
+    /**
+     * Seconds between passive checkpoints of the write-ahead log. 0 leaves checkpoints to SQLite.
+     */
+    public int     sqliteCheckpointInterval = 60;
+    /**
+     * Number of threads running database operations in the background.
+     */
+    public int     storageThreads = 2;
+    /**
+     * Maximum number of database operations waiting for a thread.
+     */
+    public int     storageQueueSize = 1000;
+    /**
+     * Record every change to account balances in the transaction ledger.
+     */
+    public boolean ledgerEnabled = true;
+    /**
+     * Maximum number of ledger entries waiting to be written.
+     */
+    public int     ledgerQueueSize = 10000;
+    /**
+     * Maximum number of ledger entries written in one transaction.
+     */
+    public int     ledgerBatchSize = 500;
+    /**
+     * Milliseconds a ledger entry may wait for more entries to fill a batch.
+     */
+    public long    ledgerMaxDelay = 500;
+    /**
+     * Milliseconds a thread other than the main thread waits for space in a full ledger queue.
+     */
+    public long    ledgerBlockTimeout = 50;
+    /**
+     * Record the plugin that started each change in the ledger.
+     */
+    public boolean ledgerRecordPlugin = false;
+    /**
+     * Measure the calls to the storage backend.
+     */
+    public boolean instrumentationEnabled = false;
+    /**
+     * Milliseconds after which a storage call is logged as slow (0 to disable).
+     */
+    public long    instrumentationSlowThreshold = 50;
+    /**
+     * Milliseconds per tick an account purge may spend on the main thread counting the contents of vaults.
+     */
+    public long    purgeTickBudget = 5;
+    /**
+     * Only report what purges requested by other plugins would delete, instead of deleting it.
+     */
+    public boolean purgeDryRun = false;
+    /**
+     * Seconds between backups of the database. 0 disables them.
+     */
+    public int     backupInterval = 21600;
+    /**
+     * Number of database backups to keep. 0 keeps all of them.
+     */
+    public int     backupKeep = 7;
+    /**
+     * Compress database backups with gzip.
+     */
+    public boolean backupCompress = true;
     /**
      * Currency configuration.
      */
@@ -127,6 +276,7 @@ public enum Configuration {
      * @param savedConfig config to read and set values with
      */
     public void readConfig(FileConfiguration savedConfig) {
+        Logger log     = Gringotts.instance.getLogger();
         String version = Bukkit.getBukkitVersion();
 
         if (Util.versionAtLeast(version, "1.3.1")) {
@@ -165,13 +315,60 @@ public enum Configuration {
 
         CONF.useVaultContainer   = savedConfig.getBoolean("usevault.container", true);
         CONF.includeShulkerBoxes = savedConfig.getBoolean("usevault.include-shulker-boxes", true);
+        CONF.vaultVerifyInterval = savedConfig.getInt("usevault.verify-interval", 300);
 
         CONF.balanceShowInventory = savedConfig.getBoolean("balance.show-inventory", true);
         CONF.balanceShowVault     = savedConfig.getBoolean("balance.show-vault", true);
+        CONF.balanceTimeout       = savedConfig.getLong("balance.timeout", 1000);
+
+        CONF.baltopRebuildInterval = savedConfig.getInt("baltop.rebuild-interval", 600);
+        CONF.baltopTickBudget      = savedConfig.getLong("baltop.tick-budget", 2);
 
         CONF.language = savedConfig.getString("language", "custom");
 
         CONF.vaultPattern        = savedConfig.getString("vault_pattern", "[^\\[]*\\[(\\w*) ?vault\\]");
+
+        CONF.centsCacheEnabled         = savedConfig.getBoolean("storage.cents-cache.enabled", false);
+        CONF.centsCacheFlushInterval   = savedConfig.getInt("storage.cents-cache.flush-interval", 5);
+        CONF.centsCacheMaxPending      = savedConfig.getInt("storage.cents-cache.max-pending", 1000);
+        CONF.centsCacheMemoryThreshold = savedConfig.getDouble("storage.cents-cache.memory-threshold", 0.85);
+        CONF.centsCacheFlushDecreases  = savedConfig.getBoolean("storage.cents-cache.flush-decreases", true);
+        CONF.centsCacheGroupCommit     = savedConfig.getBoolean("storage.cents-cache.group-commit", false);
+
+        CONF.storageBackend  = savedConfig.getString("storage.backend", "ebean");
+        CONF.storagePoolSize = savedConfig.getInt("storage.pool-size", 4);
+        CONF.journalSize     = savedConfig.getLong("storage.journal.size", 67108864);
+
+        CONF.cacheSnapshotInterval = savedConfig.getInt("storage.cache.snapshot-interval", 60);
+
+        CONF.sqliteJournalMode        = savedConfig.getString("storage.sqlite.journal-mode", "WAL");
+        CONF.sqliteSynchronous        = savedConfig.getString("storage.sqlite.synchronous", "NORMAL");
+        CONF.sqliteMmapSize           = savedConfig.getLong("storage.sqlite.mmap-size", 268435456);
+        CONF.sqliteCacheSize          = savedConfig.getInt("storage.sqlite.cache-size", -16000);
+        CONF.sqliteBusyTimeout        = savedConfig.getInt("storage.sqlite.busy-timeout", 5000);
+        CONF.sqliteTempStore          = savedConfig.getString("storage.sqlite.temp-store", "MEMORY");
+        CONF.sqliteJournalSizeLimit   = savedConfig.getLong("storage.sqlite.journal-size-limit", 67108864);
+        CONF.sqliteCheckpointInterval = savedConfig.getInt("storage.sqlite.checkpoint-interval", 60);
+
+        CONF.storageThreads   = savedConfig.getInt("storage.executor.threads", 2);
+        CONF.storageQueueSize = savedConfig.getInt("storage.executor.queue-size", 1000);
+
+        CONF.ledgerEnabled      = savedConfig.getBoolean("storage.ledger.enabled", true);
+        CONF.ledgerQueueSize    = savedConfig.getInt("storage.ledger.queue-size", 10000);
+        CONF.ledgerBatchSize    = savedConfig.getInt("storage.ledger.batch-size", 500);
+        CONF.ledgerMaxDelay     = savedConfig.getLong("storage.ledger.max-delay", 500);
+        CONF.ledgerBlockTimeout = savedConfig.getLong("storage.ledger.block-timeout", 50);
+        CONF.ledgerRecordPlugin = savedConfig.getBoolean("storage.ledger.record-plugin", false);
+
+        CONF.instrumentationEnabled       = savedConfig.getBoolean("storage.instrumentation.enabled", false);
+        CONF.instrumentationSlowThreshold = savedConfig.getLong("storage.instrumentation.slow-threshold", 50);
+
+        CONF.purgeTickBudget = savedConfig.getLong("storage.purge.tick-budget", 5);
+        CONF.purgeDryRun     = savedConfig.getBoolean("storage.purge.dry-run", false);
+
+        CONF.backupInterval = savedConfig.getInt("storage.backup.interval", 21600);
+        CONF.backupKeep     = savedConfig.getInt("storage.backup.keep", 7);
+        CONF.backupCompress = savedConfig.getBoolean("storage.backup.compress", true);
     }
 
     /**
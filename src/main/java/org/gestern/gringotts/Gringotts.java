@@ -29,19 +29,32 @@ import org.gestern.gringotts.api.dependency.DependencyProvider;
 import org.gestern.gringotts.api.impl.GringottsEco;
 import org.gestern.gringotts.api.impl.ReserveConnector;
 import org.gestern.gringotts.api.impl.VaultConnector;
+import org.gestern.gringotts.commands.BaltopExecutor;
 import org.gestern.gringotts.commands.GringottsExecutor;
 import org.gestern.gringotts.commands.MoneyAdminExecutor;
 import org.gestern.gringotts.commands.MoneyExecutor;
 import org.gestern.gringotts.currency.Denomination;
+import org.gestern.gringotts.data.AsyncDAO;
+import org.gestern.gringotts.data.CacheDAO;
 import org.gestern.gringotts.data.DAO;
+import org.gestern.gringotts.data.DatabaseBackup;
 import org.gestern.gringotts.data.DerbyDAO;
 import org.gestern.gringotts.data.EBeanDAO;
+import org.gestern.gringotts.data.ExecutorAsyncDAO;
+import org.gestern.gringotts.data.InstrumentedDAO;
+import org.gestern.gringotts.data.JdbcDAO;
+import org.gestern.gringotts.data.JournalDAO;
+import org.gestern.gringotts.data.Ledger;
 import org.gestern.gringotts.data.Migration;
+import org.gestern.gringotts.data.SqliteProfile;
+import org.gestern.gringotts.data.StorageExecutor;
+import org.gestern.gringotts.data.WriteBehindDAO;
 import org.gestern.gringotts.dependency.DependencyProviderImpl;
 import org.gestern.gringotts.dependency.GenericDependency;
 import org.gestern.gringotts.dependency.placeholdersapi.PlaceholderAPIDependency;
 import org.gestern.gringotts.event.AccountListener;
 import org.gestern.gringotts.event.PlayerVaultListener;
+import org.gestern.gringotts.event.VaultBalanceListener;
 import org.gestern.gringotts.event.VaultCreator;
 
 import java.io.File;
@@ -61,12 +74,19 @@ public class Gringotts extends JavaPlugin {
     public static Gringotts instance;
 
     private static final String MESSAGES_YML = "messages.yml";
+    private static final String DATABASE_URL = "jdbc:sqlite:{DIR}{NAME}.db";
 
     private final AccountHolderFactory accountHolderFactory = new AccountHolderFactory();
     private final DependencyProvider   dependencies         = new DependencyProviderImpl(this);
-    private final EbeanServer          ebean;
+    private       EbeanServer          ebean;
     private       Accounting           accounting;
+    private       BalanceTop           balanceTop;
     private       DAO                  dao;
+    private       StorageExecutor      storageExecutor;
+    private       AsyncDAO             asyncDao;
+    private       InstrumentedDAO      instrumentation;
+    private       DatabaseBackup       backup;
+    private       Ledger               ledger;
     private       Eco                  eco;
 
     /**
@@ -75,7 +95,15 @@ public class Gringotts extends JavaPlugin {
     public Gringotts() {
         // Set instance when class is being initialized
         instance = this;
+    }
 
+    /**
+     * Create the Ebean server. This is only done when it is first used, so that the ORM is not loaded
+     * when the configured storage backend doesn't need it.
+     *
+     * @return the Ebean server
+     */
+    private EbeanServer createDatabase() {
         ServerConfig dbConfig = new ServerConfig();
 
         dbConfig.setDefaultServer(false);
@@ -94,8 +122,10 @@ public class Gringotts extends JavaPlugin {
         ClassLoader previous = Thread.currentThread().getContextClassLoader();
 
         Thread.currentThread().setContextClassLoader(getClassLoader());
-        ebean = EbeanServerFactory.create(dbConfig);
+        EbeanServer server = EbeanServerFactory.create(dbConfig);
         Thread.currentThread().setContextClassLoader(previous);
+
+        return server;
     }
 
     public String getVersion() {
@@ -108,16 +138,41 @@ public class Gringotts extends JavaPlugin {
     @Override
     public void onEnable() {
         try {
-            // just call DAO once to ensure it's loaded before startup is complete
-            dao = getDAO();
-
             // load and init configuration
             saveDefaultConfig(); // saves default configuration if no config.yml exists yet
             reloadConfig();
 
+            // just call DAO once to ensure it's loaded before startup is complete
+            // storage settings come from the configuration, so this needs to happen after loading it
+            dao = getDAO();
+
+            storageExecutor = new StorageExecutor(
+                    Configuration.CONF.storageThreads,
+                    Configuration.CONF.storageQueueSize
+            );
+            asyncDao        = new ExecutorAsyncDAO(dao, storageExecutor);
+
+            if (Configuration.CONF.ledgerEnabled) {
+                ledger = new Ledger(
+                        dao,
+                        Configuration.CONF.ledgerQueueSize,
+                        Configuration.CONF.ledgerBatchSize,
+                        Configuration.CONF.ledgerMaxDelay,
+                        Configuration.CONF.ledgerBlockTimeout,
+                        Configuration.CONF.ledgerRecordPlugin
+                );
+            }
+
+            scheduleCheckpoints();
+            scheduleBackups();
+
             accounting = new Accounting();
+            balanceTop = new BalanceTop();
             eco        = new GringottsEco();
 
+            balanceTop.start();
+            accounting.getVaultBalances().start();
+
             if (!(this.dependencies.hasDependency("vault") ||
                     this.dependencies.hasDependency("reserve"))) {
                 Bukkit.getPluginManager().disablePlugin(this);
@@ -248,6 +303,19 @@ public class Gringotts extends JavaPlugin {
     public void onDisable() {
         this.dependencies.onDisable();
 
+        // let queued database operations finish before closing the connection
+        if (storageExecutor != null && !storageExecutor.shutdownAndWait(10)) {
+            getLogger().warning("Database operations were still running on shutdown.");
+        }
+
+        if (backup != null) {
+            backup.stop();
+        }
+
+        if (ledger != null) {
+            ledger.shutdown();
+        }
+
         // shut down db connection
         try {
             if (dao != null) {
@@ -305,6 +373,7 @@ public class Gringotts extends JavaPlugin {
         registerCommand(new String[]{"balance", "money"}, new MoneyExecutor());
         registerCommand("moneyadmin", new MoneyAdminExecutor());
         registerCommand("gringotts", new GringottsExecutor(this));
+        registerCommand("baltop", new BaltopExecutor());
     }
 
     @SuppressWarnings("UnusedReturnValue")
@@ -344,6 +413,7 @@ public class Gringotts extends JavaPlugin {
         manager.registerEvents(new AccountListener(), this);
         manager.registerEvents(new PlayerVaultListener(), this);
         manager.registerEvents(new VaultCreator(), this);
+        manager.registerEvents(new VaultBalanceListener(), this);
 
         // listeners for other account types are loaded with dependencies
     }
@@ -412,8 +482,6 @@ public class Gringotts extends JavaPlugin {
     }
 
     private DAO getDAO() {
-        setupEBean();
-
         // legacy support: migrate derby if it hasn't happened yet
         // automatically migrate derby to eBeans if db exists and migration flag hasn't been set
         Migration migration = new Migration();
@@ -422,16 +490,93 @@ public class Gringotts extends JavaPlugin {
         if (!migration.isDerbyMigrated() && (derbyDAO = DerbyDAO.getDao()) != null) {
             getLogger().info("Derby database detected. Migrating to Bukkit-supported database ...");
 
+            setupEBean();
             migration.doDerbyMigration(derbyDAO);
         }
 
         if (!migration.isUUIDMigrated()) {
             getLogger().info("Player database not migrated to UUIDs yet. Attempting migration");
 
+            setupEBean();
             migration.doUUIDMigration();
         }
 
-        return EBeanDAO.getDao();
+        // the backend is created after the migrations,
+        // since the journal and cache backends convert the migrated database
+        DAO     backend;
+        boolean database = false;
+
+        if ("journal".equalsIgnoreCase(Configuration.CONF.storageBackend)) {
+            backend = JournalDAO.getDao();
+        } else if ("cache".equalsIgnoreCase(Configuration.CONF.storageBackend)) {
+            CacheDAO cache = CacheDAO.getDao();
+
+            cache.start();
+
+            backend = cache;
+        } else if ("jdbc".equalsIgnoreCase(Configuration.CONF.storageBackend)) {
+            // both database backends use the same tables, so switching between them needs no data migration
+            backend  = JdbcDAO.getDao();
+            database = true;
+        } else {
+            setupEBean();
+
+            backend  = EBeanDAO.getDao();
+            database = true;
+        }
+
+        // measured below the balance cache, so that only calls reaching the storage backend are counted
+        if (Configuration.CONF.instrumentationEnabled) {
+            instrumentation = new InstrumentedDAO(backend);
+            backend         = instrumentation;
+        }
+
+        // the journal and cache backends keep all balances in memory already
+        if (Configuration.CONF.centsCacheEnabled && !database) {
+            getLogger().info("The cents-cache is only used with the ebean and jdbc storage backends.");
+        } else if (Configuration.CONF.centsCacheEnabled) {
+            WriteBehindDAO cached = new WriteBehindDAO(backend);
+
+            cached.start();
+
+            return cached;
+        }
+
+        return backend;
+    }
+
+    /**
+     * Periodically copy the database's write-ahead log into the database file without blocking.
+     */
+    private void scheduleCheckpoints() {
+        if (Configuration.CONF.sqliteCheckpointInterval <= 0) {
+            return;
+        }
+
+        long interval = Configuration.CONF.sqliteCheckpointInterval * 20L;
+
+        getServer().getScheduler().runTaskTimerAsynchronously(this, () -> {
+            try {
+                dao.checkpoint(false);
+            } catch (GringottsStorageException e) {
+                getLogger().warning(e.getMessage());
+            }
+        }, interval, interval);
+    }
+
+    /**
+     * Periodically back up the database, unless the storage backend keeps its data elsewhere.
+     */
+    private void scheduleBackups() {
+        // the journal and cache backends only read the database once, to convert it
+        if ("journal".equalsIgnoreCase(Configuration.CONF.storageBackend) ||
+                "cache".equalsIgnoreCase(Configuration.CONF.storageBackend)) {
+            return;
+        }
+
+        backup = new DatabaseBackup(new File(getDataFolder(), "backups"), getDatabaseUrl());
+
+        backup.start();
     }
 
     /**
@@ -475,10 +620,23 @@ public class Gringotts extends JavaPlugin {
      *
      * @return ebean server instance or null if not enabled all EBean related methods has been removed with Minecraft 1.12 - see <a href="https://www.spigotmc.org/threads/194144/">...</a>
      */
-    public EbeanServer getDatabase() {
+    public synchronized EbeanServer getDatabase() {
+        if (ebean == null) {
+            ebean = createDatabase();
+        }
+
         return ebean;
     }
 
+    /**
+     * JDBC url of the Gringotts database.
+     *
+     * @return the database url
+     */
+    public String getDatabaseUrl() {
+        return replaceDatabaseString(DATABASE_URL);
+    }
+
     /**
      * Install ddl.
      */
@@ -508,10 +666,11 @@ public class Gringotts extends JavaPlugin {
     public void configureDbConfig(ServerConfig config) {
         DataSourceConfig ds = new DataSourceConfig();
         ds.setDriver("org.sqlite.JDBC");
-        ds.setUrl("jdbc:sqlite:{DIR}{NAME}.db");
+        ds.setUrl(DATABASE_URL);
         ds.setUsername("bukkit");
         ds.setPassword("walrus");
         ds.setIsolationLevel(TransactionIsolation.getLevel("SERIALIZABLE"));
+        ds.setCustomProperties(SqliteProfile.pragmas());
 
         if (ds.getDriver().contains("sqlite")) {
             config.setDatabasePlatform(new SQLitePlatform());
@@ -530,6 +689,51 @@ public class Gringotts extends JavaPlugin {
         return dao;
     }
 
+    /**
+     * Asynchronous access to the DAO, running on the storage executor.
+     *
+     * @return the async dao
+     */
+    public AsyncDAO getAsyncDao() {
+        return asyncDao;
+    }
+
+    /**
+     * Transaction ledger recording changes to account balances.
+     *
+     * @return the ledger, or null if it is disabled
+     */
+    public Ledger getLedger() {
+        return ledger;
+    }
+
+    /**
+     * Timings of the calls to the storage backend.
+     *
+     * @return the instrumentation, or null if it is disabled
+     */
+    public InstrumentedDAO getInstrumentation() {
+        return instrumentation;
+    }
+
+    /**
+     * Database backups.
+     *
+     * @return the database backups, or null if the storage backend doesn't keep its data in the database
+     */
+    public DatabaseBackup getBackup() {
+        return backup;
+    }
+
+    /**
+     * Executor running database operations.
+     *
+     * @return the storage executor
+     */
+    public StorageExecutor getStorageExecutor() {
+        return storageExecutor;
+    }
+
     /**
      * The account holder factory is the place to go if you need an AccountHolder instance for an id.
      *
@@ -548,6 +752,15 @@ public class Gringotts extends JavaPlugin {
         return accounting;
     }
 
+    /**
+     * Leaderboard of the richest players.
+     *
+     * @return the balance leaderboard
+     */
+    public BalanceTop getBalanceTop() {
+        return balanceTop;
+    }
+
     /**
      * Gets eco.
      *
@@ -1,6 +1,5 @@
 package org.gestern.gringotts;
 
-import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.OfflinePlayer;
@@ -13,13 +12,12 @@ import org.gestern.gringotts.accountholder.AccountHolder;
 import org.gestern.gringotts.accountholder.PlayerAccountHolder;
 import org.gestern.gringotts.api.TransactionResult;
 import org.gestern.gringotts.currency.Denomination;
-import org.gestern.gringotts.data.DAO;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.*;
+import java.util.function.Supplier;
 
 /**
  * Implementation of inventory-based accounts with a virtual overflow capacity.
@@ -28,8 +26,7 @@ import java.util.concurrent.*;
  * @author jast
  */
 public class GringottsAccount {
-    public final  AccountHolder owner;
-    private final DAO           dao = Gringotts.instance.getDao();
+    public final AccountHolder owner;
 
     public GringottsAccount(AccountHolder owner) {
         if (owner == null) {
@@ -46,23 +43,7 @@ public class GringottsAccount {
      * @return will be completed after function is called
      */
     private static <V> CompletableFuture<V> callSync(Callable<V> callMe) {
-        final CompletableFuture<V> f = new CompletableFuture<>();
-
-        Runnable runMe = () -> {
-            try {
-                f.complete(callMe.call());
-            } catch (Exception e) {
-                f.completeExceptionally(e);
-            }
-        };
-
-        if (Bukkit.isPrimaryThread()) {
-            runMe.run();
-        } else {
-            Bukkit.getScheduler().scheduleSyncDelayedTask(Gringotts.instance, runMe);
-        }
-
-        return f;
+        return MainThreadCalls.call(callMe);
     }
 
     /**
@@ -71,16 +52,28 @@ public class GringottsAccount {
      * @return current balance of this account in cents
      */
     public long getBalance() {
-        CompletableFuture<Long> cents     = getCents();
-        CompletableFuture<Long> playerInv = countPlayerInventory();
-        CompletableFuture<Long> chestInv  = countChestInventories();
+        return getTimeout(countBalance());
+    }
 
-        // order of combination is important, because chestInv/playerInv might have to run on main thread
-        CompletableFuture<Long> f = chestInv
-                .thenCombine(playerInv, Long::sum)
-                .thenCombine(cents, Long::sum);
+    /**
+     * Current balance of this account in cents, without waiting for it.
+     *
+     * @return will be completed on the main thread with the current balance of this account in cents
+     */
+    public CompletableFuture<Long> getBalanceAsync() {
+        return MainThreadCalls.completeOnMainThread(countBalance());
+    }
 
-        return getTimeout(f);
+    private CompletableFuture<Long> countBalance() {
+        // the virtual balance is read in the background while the items are counted on the main thread
+        CompletableFuture<Long> cents = getCents();
+        CompletableFuture<Long> items = callSync(() -> countChests() + countInventory());
+
+        return items.thenCombine(cents, Long::sum).thenApply(balance -> {
+            Gringotts.instance.getBalanceTop().observed(owner, balance);
+
+            return balance;
+        });
     }
 
     /**
@@ -139,89 +132,101 @@ public class GringottsAccount {
      * @return Whether amount successfully added
      */
     public TransactionResult add(long amount) {
-        Callable<TransactionResult> callMe = () -> {
-            // Cannot add negative amount
-            if (amount < 0) {
-                return TransactionResult.ERROR;
-            }
+        TransactionResult result = getTimeout(callSync(() -> AccountLocks.call(() -> addNow(amount), lockKey())));
+
+        if (result == TransactionResult.SUCCESS) {
+            Gringotts.instance.getBalanceTop().changed(owner, amount);
+        }
 
-            long centsStored = dao.retrieveCents(this);
+        return result;
+    }
+
+    /**
+     * Add an amount in cents to this account. Must be called on the main thread.
+     *
+     * @param amount amount in cents to add
+     * @return Whether amount successfully added
+     */
+    private TransactionResult addNow(long amount) {
+        // Cannot add negative amount
+        if (amount < 0) {
+            return TransactionResult.ERROR;
+        }
 
-            long remaining = amount + centsStored;
+        long centsStored = retrieveCents();
 
-            // add currency to account's vaults
-            if (Configuration.CONF.useVaultContainer) {
-                for (AccountChest chest : dao.retrieveChests(this)) {
-                    remaining -= chest.add(remaining);
+        long remaining = amount + centsStored;
 
-                    if (remaining <= 0) {
-                        break;
-                    }
+        // add currency to account's vaults
+        if (Configuration.CONF.useVaultContainer) {
+            for (AccountChest chest : Gringotts.instance.getAccounting().getChests(this)) {
+                remaining -= chest.add(remaining);
 
-                    if (Configuration.CONF.includeShulkerBoxes) {
-                        remaining = addToShulkerBox(remaining, chest.chest().getInventory());
-                    }
+                if (remaining <= 0) {
+                    break;
+                }
+
+                if (Configuration.CONF.includeShulkerBoxes) {
+                    remaining = addToShulkerBox(remaining, chest.chest().getInventory());
                 }
             }
+        }
 
-            // add stuff to player's inventory and enderchest too, when they are online
-            Optional<Player> playerOpt = playerOwner();
+        // add stuff to player's inventory and enderchest too, when they are online
+        Optional<Player> playerOpt = playerOwner();
 
-            if (playerOpt.isPresent()) {
-                Player player = playerOpt.get();
+        if (playerOpt.isPresent()) {
+            Player player = playerOpt.get();
 
-                if (remaining > 0 && Permissions.USE_VAULT_INVENTORY.isAllowed(player)) {
-                    remaining -= new AccountInventory(player.getInventory()).add(remaining);
+            if (remaining > 0 && Permissions.USE_VAULT_INVENTORY.isAllowed(player)) {
+                remaining -= new AccountInventory(player.getInventory()).add(remaining);
 
-                    if (Configuration.CONF.includeShulkerBoxes && remaining > 0) {
-                        remaining = addToShulkerBox(remaining, player.getInventory());
-                    }
+                if (Configuration.CONF.includeShulkerBoxes && remaining > 0) {
+                    remaining = addToShulkerBox(remaining, player.getInventory());
                 }
-                if (remaining > 0 && Configuration.CONF.useVaultEnderChest && Permissions.USE_VAULT_ENDERCHEST.isAllowed(player)) {
-                    remaining -= new AccountInventory(player.getEnderChest()).add(remaining);
+            }
+            if (remaining > 0 && Configuration.CONF.useVaultEnderChest && Permissions.USE_VAULT_ENDERCHEST.isAllowed(player)) {
+                remaining -= new AccountInventory(player.getEnderChest()).add(remaining);
 
-                    if (Configuration.CONF.includeShulkerBoxes && remaining > 0) {
-                        remaining = addToShulkerBox(remaining, player.getEnderChest());
-                    }
+                if (Configuration.CONF.includeShulkerBoxes && remaining > 0) {
+                    remaining = addToShulkerBox(remaining, player.getEnderChest());
                 }
             }
+        }
 
-            // allow smallest denom value as threshold for available space
-            // TODO make maximum virtual amount configurable
-            // this is under the assumption that there is always at least 1 denomination
-            List<Denomination> denoms             = Configuration.CONF.getCurrency().getDenominations();
-            long               smallestDenomValue = denoms.get(denoms.size() - 1).getValue();
+        // allow smallest denom value as threshold for available space
+        // TODO make maximum virtual amount configurable
+        // this is under the assumption that there is always at least 1 denomination
+        List<Denomination> denoms             = Configuration.CONF.getCurrency().getDenominations();
+        long               smallestDenomValue = denoms.get(denoms.size() - 1).getValue();
 
-            if (remaining < smallestDenomValue) {
-                dao.storeCents(this, remaining);
-                remaining = 0;
-            }
+        if (remaining < smallestDenomValue) {
+            storeCents(remaining);
+            remaining = 0;
+        }
 
-            if (remaining == 0) {
-                return TransactionResult.SUCCESS;
-            } else {
-                if (Configuration.CONF.dropOverflowingItem) {
-                    for (Denomination denomination : Configuration.CONF.getCurrency().getDenominations()) {
-                        if (denomination.getValue() <= remaining) {
-                            ItemStack stack        = new ItemStack(denomination.getKey().type);
-                            int       stackSize    = stack.getMaxStackSize();
-                            long      denItemCount = denomination.getValue() > 0 ? remaining / denomination.getValue() : 0;
-                            while (denItemCount > 0) {
-                                int remainderStackSize = denItemCount > stackSize ? stackSize : (int) denItemCount;
-                                stack.setAmount(remainderStackSize);
-                                denItemCount -= remainderStackSize;
-                                remaining -= remainderStackSize * denomination.getValue();
-                                playerOpt.get().getWorld().dropItem(playerOpt.get().getLocation(), stack);
-                            }
+        if (remaining == 0) {
+            return TransactionResult.SUCCESS;
+        } else {
+            if (Configuration.CONF.dropOverflowingItem) {
+                for (Denomination denomination : Configuration.CONF.getCurrency().getDenominations()) {
+                    if (denomination.getValue() <= remaining) {
+                        ItemStack stack        = new ItemStack(denomination.getKey().type);
+                        int       stackSize    = stack.getMaxStackSize();
+                        long      denItemCount = denomination.getValue() > 0 ? remaining / denomination.getValue() : 0;
+                        while (denItemCount > 0) {
+                            int remainderStackSize = denItemCount > stackSize ? stackSize : (int) denItemCount;
+                            stack.setAmount(remainderStackSize);
+                            denItemCount -= remainderStackSize;
+                            remaining -= remainderStackSize * denomination.getValue();
+                            playerOpt.get().getWorld().dropItem(playerOpt.get().getLocation(), stack);
                         }
                     }
                 }
-
-                return TransactionResult.INSUFFICIENT_SPACE;
             }
-        };
 
-        return getTimeout(callSync(callMe));
+            return TransactionResult.INSUFFICIENT_SPACE;
+        }
     }
 
     /**
@@ -232,102 +237,94 @@ public class GringottsAccount {
      * @return amount actually removed.
      */
     public TransactionResult remove(long amount) {
-        Callable<TransactionResult> callMe = () -> {
+        Supplier<TransactionResult> removeNow = () -> {
             // Cannot remove negative amount
             if (amount < 0) {
                 return TransactionResult.ERROR;
             }
 
+            long           cents = retrieveCents();
+            WithdrawalPlan plan  = withdrawalPlan();
+
             // Make sure we have enough to remove
-            if (getBalance() < amount) {
+            if (plan.getBalance() + cents < amount) {
                 return TransactionResult.INSUFFICIENT_FUNDS;
             }
 
-            long remaining = amount;
-
-            // Now remove the physical amount left
-            if (Configuration.CONF.useVaultContainer) {
-                for (AccountChest chest : dao.retrieveChests(this)) {
-                    remaining -= chest.remove(remaining);
-
-                    if (remaining <= 0) {
-                        break;
-                    }
-
-                    if (Configuration.CONF.includeShulkerBoxes) {
-                        remaining = removeFromShulkerBox(remaining, chest.chest().getInventory());
-                    }
-                }
-            }
-
-            Optional<Player> playerOpt = playerOwner();
-
-            if (playerOpt.isPresent()) {
-                Player player = playerOpt.get();
-
-                if (Permissions.USE_VAULT_INVENTORY.isAllowed(player) && remaining > 0) {
-                    remaining -= new AccountInventory(player.getInventory()).remove(remaining);
+            long remaining = plan.take(amount);
+            long newCents  = cents;
 
-                    if (Configuration.CONF.includeShulkerBoxes && remaining > 0) {
-                        remaining = removeFromShulkerBox(remaining, player.getInventory());
-                    }
-                }
-                if (Configuration.CONF.useVaultEnderChest && remaining > 0) {
-                    remaining -= new AccountInventory(player.getEnderChest()).remove(remaining);
-
-                    if (Configuration.CONF.includeShulkerBoxes && remaining > 0) {
-                        remaining = removeFromShulkerBox(remaining, player.getEnderChest());
-                    }
-                }
+            if (remaining < 0) {
+                // took too much, give back the extra together with the virtual balance, keeping what doesn't fit
+                newCents = plan.give(cents - remaining);
+            } else if (remaining > 0) {
+                // cannot represent the leftover in our denominations, take them from the virtual reserve
+                newCents = cents - remaining;
             }
 
-            if (remaining < 0)
-                // took too much, pay back the extra
-                return add(-remaining);
+            plan.apply();
 
-            if (remaining > 0) {
-                // cannot represent the leftover in our denominations, take them from the virtual reserve
-                long cents = dao.retrieveCents(this);
-                dao.storeCents(this, cents - remaining);
+            if (newCents != cents) {
+                storeCents(newCents);
             }
 
             return TransactionResult.SUCCESS;
         };
 
-        return getTimeout(callSync(callMe));
+        TransactionResult result = getTimeout(callSync(() -> AccountLocks.call(removeNow, lockKey())));
+
+        if (result == TransactionResult.SUCCESS) {
+            Gringotts.instance.getBalanceTop().changed(owner, -amount);
+        }
+
+        return result;
     }
 
-    public long addToShulkerBox(long remaining, Inventory inventory) {
-        for (ItemStack itemStack : inventory.all(Material.SHULKER_BOX).values()) {
-            if (itemStack.getItemMeta() instanceof BlockStateMeta) {
-                BlockStateMeta blockState = (BlockStateMeta) itemStack.getItemMeta();
-                if (blockState.getBlockState() instanceof ShulkerBox) {
-                    ShulkerBox shulkerBox = (ShulkerBox) blockState.getBlockState();
+    private String lockKey() {
+        return AccountLocks.key(owner.getType(), owner.getId());
+    }
 
-                    remaining -= new AccountInventory(shulkerBox.getInventory()).add(remaining);
+    /**
+     * Read the money items of all inventories of this account that money is taken from. Must be called on the main
+     * thread.
+     */
+    private WithdrawalPlan withdrawalPlan() {
+        WithdrawalPlan plan = new WithdrawalPlan();
 
-                    shulkerBox.update();
-                    blockState.setBlockState(shulkerBox);
-                    itemStack.setItemMeta(blockState);
+        if (Configuration.CONF.useVaultContainer) {
+            for (AccountChest chest : Gringotts.instance.getAccounting().getChests(this)) {
+                Inventory inventory = chest.validInventory();
 
-                    if (remaining <= 0) {
-                        break;
-                    }
+                if (inventory != null) {
+                    plan.add(inventory, chest);
                 }
             }
         }
 
-        return remaining;
+        Optional<Player> playerOpt = playerOwner();
+
+        if (playerOpt.isPresent()) {
+            Player player = playerOpt.get();
+
+            if (Permissions.USE_VAULT_INVENTORY.isAllowed(player)) {
+                plan.add(player.getInventory(), null);
+            }
+            if (Configuration.CONF.useVaultEnderChest && Permissions.USE_VAULT_ENDERCHEST.isAllowed(player)) {
+                plan.add(player.getEnderChest(), null);
+            }
+        }
+
+        return plan;
     }
 
-    public long removeFromShulkerBox(long remaining, Inventory inventory) {
+    public long addToShulkerBox(long remaining, Inventory inventory) {
         for (ItemStack itemStack : inventory.all(Material.SHULKER_BOX).values()) {
             if (itemStack.getItemMeta() instanceof BlockStateMeta) {
                 BlockStateMeta blockState = (BlockStateMeta) itemStack.getItemMeta();
                 if (blockState.getBlockState() instanceof ShulkerBox) {
                     ShulkerBox shulkerBox = (ShulkerBox) blockState.getBlockState();
 
-                    remaining -= new AccountInventory(shulkerBox.getInventory()).remove(remaining);
+                    remaining -= new AccountInventory(shulkerBox.getInventory()).add(remaining);
 
                     shulkerBox.update();
                     blockState.setBlockState(shulkerBox);
@@ -365,33 +362,29 @@ public class GringottsAccount {
     }
 
     private CompletableFuture<Long> countChestInventories() {
-        Callable<Long> callMe = () -> {
-            Collection<AccountChest> chests  = dao.retrieveChests(this);
-            long                     balance = 0;
+        return callSync(this::countChests);
+    }
 
-            if (Configuration.CONF.useVaultContainer) {
-                for (AccountChest chest : chests) {
-                    balance += chest.balance();
-                }
-            }
+    /**
+     * Count the money in the vaults and ender chest of this account. Must be called on the main thread.
+     */
+    private long countChests() {
+        long balance = Gringotts.instance.getAccounting().countVaults(this);
 
-            Optional<Player> playerOpt = playerOwner();
-            if (playerOpt.isPresent()) {
-                Player player = playerOpt.get();
+        Optional<Player> playerOpt = playerOwner();
+        if (playerOpt.isPresent()) {
+            Player player = playerOpt.get();
 
-                if (Configuration.CONF.useVaultEnderChest && Permissions.USE_VAULT_ENDERCHEST.isAllowed(player)) {
-                    balance += new AccountInventory(player.getEnderChest()).balance();
-                }
+            if (Configuration.CONF.useVaultEnderChest && Permissions.USE_VAULT_ENDERCHEST.isAllowed(player)) {
+                balance += new AccountInventory(player.getEnderChest()).balance();
             }
-            return balance;
-        };
-
-        return callSync(callMe);
+        }
+        return balance;
     }
 
     private CompletableFuture<Long> countChestInventory(int index) {
         Callable<Long> callMe = () -> {
-            List<AccountChest> chests = new ArrayList<>(dao.retrieveChests(this));
+            List<AccountChest> chests = Gringotts.instance.getAccounting().getChests(this);
 
             if (Configuration.CONF.useVaultContainer && index < chests.size() && index >= 0) {
                 return chests.get(index).balance();
@@ -413,7 +406,7 @@ public class GringottsAccount {
 
     private CompletableFuture<Location> countChestLocation(int index) {
         Callable<Location> callMe = () -> {
-            List<AccountChest> chests = new ArrayList<>(dao.retrieveChests(this));
+            List<AccountChest> chests = Gringotts.instance.getAccounting().getChests(this);
 
             if (Configuration.CONF.useVaultContainer && index < chests.size() && index >= 0) {
                 return chests.get(index).chestLocation();
@@ -425,35 +418,62 @@ public class GringottsAccount {
     }
 
     private CompletableFuture<Collection<AccountChest>> getChests() {
-        return callSync(() -> dao.retrieveChests(this));
+        return callSync(() -> Gringotts.instance.getAccounting().getChests(this));
     }
 
     private CompletableFuture<Long> countPlayerInventory() {
-        Callable<Long> callMe = () -> {
-            long balance = 0;
+        return callSync(this::countInventory);
+    }
 
-            Optional<Player> playerOpt = playerOwner();
-            if (playerOpt.isPresent() && Permissions.USE_VAULT_INVENTORY.isAllowed(playerOpt.get())) {
-                Player player = playerOpt.get();
+    /**
+     * Count the money in the inventory of the player owning this account, if online. Must be called on the main thread.
+     */
+    private long countInventory() {
+        long balance = 0;
 
-                balance += new AccountInventory(player.getInventory()).balance();
-            }
-            return balance;
-        };
+        Optional<Player> playerOpt = playerOwner();
+        if (playerOpt.isPresent() && Permissions.USE_VAULT_INVENTORY.isAllowed(playerOpt.get())) {
+            Player player = playerOpt.get();
 
-        return callSync(callMe);
+            balance += new AccountInventory(player.getInventory()).balance();
+        }
+        return balance;
     }
 
     private CompletableFuture<Long> getCents() {
-        return CompletableFuture.supplyAsync(() -> dao.retrieveCents(this));
+        // a transaction holds the locks of its accounts, so it must not wait for the executor, which may need them
+        if (CentsTransaction.current() != null) {
+            return CompletableFuture.completedFuture(retrieveCents());
+        }
+
+        return Gringotts.instance.getAsyncDao().retrieveCents(this);
     }
 
-    private <V> V getTimeout(CompletableFuture<V> f) {
-        try {
-            return f.get(1, TimeUnit.SECONDS);
-        } catch (InterruptedException | ExecutionException | TimeoutException e) {
-            throw new GringottsException(e);
+    /**
+     * Virtual balance of this account, including changes of the transaction running on this thread.
+     */
+    private long retrieveCents() {
+        CentsTransaction transaction = CentsTransaction.current();
+        Long             written     = transaction == null ? null : transaction.get(this);
+
+        return written != null ? written : Gringotts.instance.getDao().retrieveCents(this);
+    }
+
+    /**
+     * Store the virtual balance of this account, or leave it to the transaction running on this thread.
+     */
+    private void storeCents(long amount) {
+        CentsTransaction transaction = CentsTransaction.current();
+
+        if (transaction == null) {
+            Gringotts.instance.getDao().storeCents(this, amount);
+        } else {
+            transaction.put(this, amount);
         }
     }
 
+    private <V> V getTimeout(CompletableFuture<V> f) {
+        return MainThreadCalls.await(f);
+    }
+
 }
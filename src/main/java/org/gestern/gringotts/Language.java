@@ -46,6 +46,10 @@ public enum Language {
     public String moneyadmin_rm_sender;
     public String moneyadmin_rm_target;
     public String moneyadmin_rm_error;
+    //baltop command
+    public String baltop_header;
+    public String baltop_entry;
+    public String baltop_empty;
     //gringotts vaults
     public String vault_created;
     public String vault_error;
@@ -150,6 +154,17 @@ public enum Language {
                 "moneyadmin.rm.error",
                 "Could not remove %value from account %player");
 
+        //baltop command
+        LANG.baltop_header = translator.apply(
+                "baltop.header",
+                "Richest players (page %page of %pages):");
+        LANG.baltop_entry = translator.apply(
+                "baltop.entry",
+                "%rank. %player: %balance");
+        LANG.baltop_empty = translator.apply(
+                "baltop.empty",
+                "There is no page %page of the leaderboard.");
+
         //gringotts vaults
         LANG.vault_created = translator.apply(
                 "vault.created",
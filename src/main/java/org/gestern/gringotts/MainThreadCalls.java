@@ -0,0 +1,158 @@
+package org.gestern.gringotts;
+
+import org.bukkit.Bukkit;
+
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Runs account operations on the main thread, where the world and inventories may be accessed.
+ * <p>
+ * Calls from the main thread run right away. Calls from other threads are queued, and all calls queued until the
+ * next tick run in a single scheduled task, instead of one task each. Other threads wait at most
+ * {@link Configuration#balanceTimeout} milliseconds for the result.
+ */
+public final class MainThreadCalls {
+    private static final Queue<Runnable> queue     = new ConcurrentLinkedQueue<>();
+    private static final AtomicBoolean   scheduled = new AtomicBoolean();
+
+    private static final LongAdder       queued   = new LongAdder();
+    private static final LongAdder       batches  = new LongAdder();
+    private static final LongAdder       timeouts = new LongAdder();
+    private static final LongAccumulator maxWait  = new LongAccumulator(Math::max, 0);
+
+    private MainThreadCalls() {
+    }
+
+    /**
+     * Call a function in the main thread. The returned CompletableFuture will be completed after the function is
+     * called.
+     *
+     * @param callMe function to call
+     * @param <V>    result of the function
+     * @return will be completed after function is called
+     */
+    public static <V> CompletableFuture<V> call(Callable<V> callMe) {
+        final CompletableFuture<V> f = new CompletableFuture<>();
+
+        Runnable runMe = () -> {
+            try {
+                f.complete(callMe.call());
+            } catch (Exception e) {
+                f.completeExceptionally(e);
+            }
+        };
+
+        if (Bukkit.isPrimaryThread()) {
+            runMe.run();
+        } else {
+            queued.increment();
+
+            // queued before checking for a scheduled task, which then can't miss it
+            queue.add(runMe);
+
+            if (scheduled.compareAndSet(false, true)) {
+                Bukkit.getScheduler().runTask(Gringotts.instance, MainThreadCalls::runQueued);
+            }
+        }
+
+        return f;
+    }
+
+    /**
+     * Complete the result of a call on the main thread, so that actions depending on it may access the world.
+     * Results completed on the main thread already are passed on right away.
+     *
+     * @param f   result of the call
+     * @param <V> type of the result
+     * @return will be completed on the main thread after f is completed
+     */
+    public static <V> CompletableFuture<V> completeOnMainThread(CompletableFuture<V> f) {
+        return f.handle((result, error) -> call(f::join)).thenCompose(Function.identity());
+    }
+
+    private static void runQueued() {
+        scheduled.set(false);
+        batches.increment();
+
+        Runnable next;
+
+        while ((next = queue.poll()) != null) {
+            next.run();
+        }
+    }
+
+    /**
+     * Wait for the result of a call, at most {@link Configuration#balanceTimeout} milliseconds.
+     *
+     * @param f   result of the call
+     * @param <V> type of the result
+     * @return the result
+     * @throws GringottsException if the call failed, or didn't complete in time
+     */
+    public static <V> V await(CompletableFuture<V> f) {
+        if (f.isDone()) {
+            return join(f, 0);
+        }
+
+        long start = System.nanoTime();
+
+        try {
+            return join(f, Math.max(1, Configuration.CONF.balanceTimeout));
+        } finally {
+            maxWait.accumulate(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    private static <V> V join(CompletableFuture<V> f, long timeout) {
+        try {
+            return f.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timeouts.increment();
+
+            throw new GringottsException(e);
+        } catch (InterruptedException | ExecutionException e) {
+            throw new GringottsException(e);
+        }
+    }
+
+    /**
+     * Number of calls from other threads that were queued for the main thread.
+     *
+     * @return queued calls
+     */
+    public static long getQueued() {
+        return queued.sum();
+    }
+
+    /**
+     * Number of scheduled tasks that ran queued calls.
+     *
+     * @return batches
+     */
+    public static long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * Number of waits for a result that timed out.
+     *
+     * @return timeouts
+     */
+    public static long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * Longest wait for a result, in milliseconds.
+     *
+     * @return longest wait
+     */
+    public static long getMaxWait() {
+        return maxWait.get();
+    }
+}
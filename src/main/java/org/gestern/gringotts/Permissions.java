@@ -33,7 +33,11 @@ public enum Permissions {
     /**
      * Command deposit permissions.
      */
-    COMMAND_DEPOSIT("gringotts.command.deposit");
+    COMMAND_DEPOSIT("gringotts.command.deposit"),
+    /**
+     * Command baltop permissions.
+     */
+    COMMAND_BALTOP("gringotts.command.baltop");
 
     /**
      * The Node.
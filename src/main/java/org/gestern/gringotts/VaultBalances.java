@@ -0,0 +1,341 @@
+package org.gestern.gringotts;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.inventory.DoubleChestInventory;
+import org.bukkit.inventory.Inventory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Last counted balance of each vault container, so that the contents of a vault are only counted again after they
+ * may have changed.
+ * <p>
+ * Inventory, block and explosion events that may change a container drop its balance, as does every change made by
+ * Gringotts. These events are seen before the change is applied, so balances counted during the rest of the tick are
+ * not kept. Changes without an event, such as those made by other plugins, are caught by counting every balance
+ * again after at most {@link Configuration#vaultVerifyInterval} seconds: once a second, due balances of vaults in
+ * loaded chunks are counted again for at most {@link #VERIFY_BUDGET_MILLIS} milliseconds, and those of vaults in
+ * unloaded chunks are dropped. Counting checks that the vault is still valid, so a balance read from here is trusted
+ * without looking at the vault. Balances that were off are counted as drifted in <code>/gringotts stats</code>.
+ * <p>
+ * Must be used on the main thread, where the containers are changed.
+ */
+public class VaultBalances {
+    private static final long VERIFY_BUDGET_MILLIS = 1;
+
+    /**
+     * vault id -> last counted balance
+     */
+    private final Map<String, Entry>  vaults     = new ConcurrentHashMap<>();
+    /**
+     * container block key -> id of the vault it belongs to
+     */
+    private final Map<String, String> containers = new ConcurrentHashMap<>();
+    /**
+     * vault ids and block keys invalidated during this tick, whose change may not be applied yet
+     */
+    private final Set<String>         changing   = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean       clearing   = new AtomicBoolean();
+
+    private final LongAdder hits          = new LongAdder();
+    private final LongAdder counts        = new LongAdder();
+    private final LongAdder verifications = new LongAdder();
+    private final LongAdder drifted       = new LongAdder();
+
+    /**
+     * Key of a block, in the format of {@link AccountChest#id}.
+     *
+     * @param world world of the block
+     * @param x     block x
+     * @param y     block y
+     * @param z     block z
+     * @return key of the block
+     */
+    private static String key(World world, int x, int y, int z) {
+        return world.getUID() + "_" + x + "_" + y + "_" + z;
+    }
+
+    private static String key(Block block) {
+        return key(block.getWorld(), block.getX(), block.getY(), block.getZ());
+    }
+
+    /**
+     * Start verifying due balances once a second.
+     */
+    public void start() {
+        Bukkit.getScheduler().runTaskTimer(Gringotts.instance, this::verify, 20, 20);
+    }
+
+    /**
+     * Count due balances again, within the time budget. Due balances of vaults in unloaded chunks are dropped instead,
+     * so that verifying never loads a chunk.
+     */
+    private void verify() {
+        long now      = System.nanoTime();
+        long deadline = now + TimeUnit.MILLISECONDS.toNanos(VERIFY_BUDGET_MILLIS);
+
+        for (Entry entry : vaults.values()) {
+            if (System.nanoTime() - deadline >= 0) {
+                return;
+            }
+
+            if (now - entry.verifyAt < 0) {
+                continue;
+            }
+
+            AccountChest chest = entry.chest;
+
+            if (chest.sign.getWorld().isChunkLoaded(chest.sign.getX() >> 4, chest.sign.getZ() >> 4)) {
+                chest.balance();
+            } else {
+                invalidate(chest.id);
+            }
+        }
+    }
+
+    /**
+     * The last counted balance of a vault.
+     *
+     * @param chest the vault
+     * @return balance in cents, or null if it must be counted, because it may have changed or is due for verification
+     */
+    public Long get(AccountChest chest) {
+        if (Configuration.CONF.vaultVerifyInterval <= 0) {
+            return null;
+        }
+
+        Entry entry = vaults.get(chest.id);
+
+        if (entry == null) {
+            return null;
+        }
+
+        if (System.nanoTime() - entry.verifyAt >= 0) {
+            verifications.increment();
+
+            return null;
+        }
+
+        hits.increment();
+
+        return entry.cents;
+    }
+
+    /**
+     * Keep the balance a vault was just counted with.
+     *
+     * @param chest the vault
+     * @param cents balance in cents
+     */
+    public void put(AccountChest chest, long cents) {
+        counts.increment();
+
+        if (Configuration.CONF.vaultVerifyInterval <= 0 || changing.contains(chest.id)) {
+            return;
+        }
+
+        // verifications are spread over the second half of the interval, so that vaults counted together don't
+        // all need to be counted again in the same tick
+        long         interval = TimeUnit.SECONDS.toNanos(Configuration.CONF.vaultVerifyInterval);
+        long         delay    = interval / 2 + ThreadLocalRandom.current().nextLong(interval / 2 + 1);
+        List<String> blocks   = new ArrayList<>();
+
+        for (Block block : chest.containerBlocks()) {
+            String key = key(block);
+
+            if (changing.contains(key)) {
+                return;
+            }
+
+            blocks.add(key);
+        }
+
+        Entry old = vaults.put(chest.id, new Entry(chest, cents, System.nanoTime() + delay, blocks));
+
+        if (old != null) {
+            // the balance was due for verification, since changed vaults are dropped
+            if (old.cents != cents) {
+                drifted.increment();
+
+                Gringotts.instance.getLogger().fine(String.format(
+                        "Balance of %s drifted from %d to %d without an event.",
+                        chest,
+                        old.cents,
+                        cents
+                ));
+            }
+
+            unmap(chest.id, old);
+        }
+
+        for (String block : blocks) {
+            containers.put(block, chest.id);
+        }
+    }
+
+    /**
+     * Drop the balance of a vault, which will be counted again on the next read.
+     *
+     * @param chest the vault
+     */
+    public void invalidate(AccountChest chest) {
+        invalidate(chest.id);
+    }
+
+    /**
+     * Drop the balance of the vault with the given sign or container block.
+     *
+     * @param block sign or container block
+     */
+    public void invalidate(Block block) {
+        String key = key(block);
+
+        changing(key);
+        invalidate(key);
+
+        String vault = containers.get(key);
+
+        if (vault != null) {
+            invalidate(vault);
+        }
+    }
+
+    /**
+     * Drop the balance of the vault with the given container inventory, both halves of a double chest included.
+     *
+     * @param inventory the inventory
+     */
+    public void invalidate(Inventory inventory) {
+        if (inventory instanceof DoubleChestInventory) {
+            DoubleChestInventory chest = (DoubleChestInventory) inventory;
+
+            invalidate(chest.getLeftSide().getLocation());
+            invalidate(chest.getRightSide().getLocation());
+        } else {
+            invalidate(inventory.getLocation());
+        }
+    }
+
+    private void invalidate(Location location) {
+        if (location == null || location.getWorld() == null) {
+            return;
+        }
+
+        String key   = key(location.getWorld(), location.getBlockX(), location.getBlockY(), location.getBlockZ());
+        String vault = containers.get(key);
+
+        changing(key);
+
+        if (vault != null) {
+            invalidate(vault);
+        }
+    }
+
+    private void invalidate(String vault) {
+        changing(vault);
+
+        Entry entry = vaults.remove(vault);
+
+        if (entry != null) {
+            unmap(vault, entry);
+        }
+    }
+
+    /**
+     * Keep balances of a vault or container block from being kept until the next tick.
+     */
+    private void changing(String key) {
+        changing.add(key);
+
+        if (clearing.compareAndSet(false, true)) {
+            Bukkit.getScheduler().runTask(Gringotts.instance, () -> {
+                clearing.set(false);
+                changing.clear();
+            });
+        }
+    }
+
+    private void unmap(String vault, Entry entry) {
+        for (String block : entry.containers) {
+            containers.remove(block, vault);
+        }
+    }
+
+    /**
+     * Drop all balances.
+     */
+    public void clear() {
+        vaults.clear();
+        containers.clear();
+    }
+
+    /**
+     * Number of vaults with a known balance.
+     *
+     * @return number of balances
+     */
+    public int size() {
+        return vaults.size();
+    }
+
+    /**
+     * Number of balance reads that didn't need to count the vault.
+     *
+     * @return reads without counting
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Number of times the contents of a vault were counted.
+     *
+     * @return counts
+     */
+    public long getCounts() {
+        return counts.sum();
+    }
+
+    /**
+     * Number of balances counted again because they were due for verification.
+     *
+     * @return verifications
+     */
+    public long getVerifications() {
+        return verifications.sum();
+    }
+
+    /**
+     * Number of verified balances that had changed without an event.
+     *
+     * @return drifted balances
+     */
+    public long getDrifted() {
+        return drifted.sum();
+    }
+
+    private static final class Entry {
+        private final AccountChest chest;
+        private final long         cents;
+        private final long         verifyAt;
+        private final List<String> containers;
+
+        private Entry(AccountChest chest, long cents, long verifyAt, List<String> containers) {
+            this.chest      = chest;
+            this.cents      = cents;
+            this.verifyAt   = verifyAt;
+            this.containers = containers;
+        }
+    }
+}
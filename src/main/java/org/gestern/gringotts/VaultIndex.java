@@ -0,0 +1,169 @@
+package org.gestern.gringotts;
+
+import org.bukkit.block.Block;
+import org.gestern.gringotts.data.AccountChestLocation;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory spatial index of the marker signs of all registered vaults.
+ * <p>
+ * Entries are grouped per world and chunk, and keyed by their packed block coordinates within a chunk group,
+ * so that finding the vault at or next to a given block takes a constant number of hash lookups.
+ */
+public class VaultIndex {
+    /**
+     * world name -> chunk key -> packed block position -> vault
+     */
+    private final Map<String, Map<Long, Map<Long, AccountChestLocation>>> worlds = new ConcurrentHashMap<>();
+
+    /**
+     * Pack block coordinates into a single long: 26 bits x, 26 bits z, 12 bits y.
+     *
+     * @param x block x
+     * @param y block y
+     * @param z block z
+     * @return packed block position
+     */
+    public static long pack(int x, int y, int z) {
+        return ((long) x & 0x3FFFFFF) << 38 | ((long) z & 0x3FFFFFF) << 12 | ((long) y & 0xFFF);
+    }
+
+    /**
+     * Key of the chunk containing the given block coordinates.
+     *
+     * @param x block x
+     * @param z block z
+     * @return chunk key
+     */
+    public static long chunkKey(int x, int z) {
+        return ((long) (x >> 4)) << 32 | ((long) (z >> 4) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Replace the contents of this index.
+     *
+     * @param locations all registered vaults
+     */
+    public void load(Collection<AccountChestLocation> locations) {
+        worlds.clear();
+
+        for (AccountChestLocation location : locations) {
+            add(location);
+        }
+    }
+
+    /**
+     * Add a vault to the index, replacing any vault at the same position.
+     *
+     * @param location vault to add
+     */
+    public void add(AccountChestLocation location) {
+        worlds.computeIfAbsent(location.world, w -> new ConcurrentHashMap<>())
+                .computeIfAbsent(chunkKey(location.x, location.z), c -> new ConcurrentHashMap<>())
+                .put(pack(location.x, location.y, location.z), location);
+    }
+
+    /**
+     * Remove the vault at the given position from the index.
+     *
+     * @param world world name
+     * @param x     block x
+     * @param y     block y
+     * @param z     block z
+     * @return the removed vault, or null if there was none
+     */
+    public AccountChestLocation remove(String world, int x, int y, int z) {
+        Map<Long, Map<Long, AccountChestLocation>> chunks = worlds.get(world);
+
+        if (chunks == null) {
+            return null;
+        }
+
+        long                            chunkKey = chunkKey(x, z);
+        Map<Long, AccountChestLocation> chunk    = chunks.get(chunkKey);
+
+        if (chunk == null) {
+            return null;
+        }
+
+        AccountChestLocation removed = chunk.remove(pack(x, y, z));
+
+        if (chunk.isEmpty()) {
+            chunks.remove(chunkKey, chunk);
+        }
+
+        return removed;
+    }
+
+    /**
+     * Get the vault whose sign is at the given position.
+     *
+     * @param world world name
+     * @param x     block x
+     * @param y     block y
+     * @param z     block z
+     * @return the vault, or null if there is none
+     */
+    public AccountChestLocation get(String world, int x, int y, int z) {
+        Map<Long, Map<Long, AccountChestLocation>> chunks = worlds.get(world);
+
+        if (chunks == null) {
+            return null;
+        }
+
+        Map<Long, AccountChestLocation> chunk = chunks.get(chunkKey(x, z));
+
+        return chunk == null ? null : chunk.get(pack(x, y, z));
+    }
+
+    /**
+     * Get the vault whose sign is the given block.
+     *
+     * @param block block to check
+     * @return the vault, or null if there is none
+     */
+    public AccountChestLocation get(Block block) {
+        return get(block.getWorld().getName(), block.getX(), block.getY(), block.getZ());
+    }
+
+    /**
+     * All vaults with their sign in the given chunk.
+     *
+     * @param world  world name
+     * @param chunkX chunk x
+     * @param chunkZ chunk z
+     * @return vaults in the chunk
+     */
+    public Collection<AccountChestLocation> getChunk(String world, int chunkX, int chunkZ) {
+        Map<Long, Map<Long, AccountChestLocation>> chunks = worlds.get(world);
+
+        if (chunks == null) {
+            return Collections.emptyList();
+        }
+
+        Map<Long, AccountChestLocation> chunk = chunks.get(chunkKey(chunkX << 4, chunkZ << 4));
+
+        return chunk == null ? Collections.emptyList() : Collections.unmodifiableCollection(chunk.values());
+    }
+
+    /**
+     * Number of indexed vaults.
+     *
+     * @return number of indexed vaults
+     */
+    public int size() {
+        int size = 0;
+
+        for (Map<Long, Map<Long, AccountChestLocation>> chunks : worlds.values()) {
+            for (Map<Long, AccountChestLocation> chunk : chunks.values()) {
+                size += chunk.size();
+            }
+        }
+
+        return size;
+    }
+}
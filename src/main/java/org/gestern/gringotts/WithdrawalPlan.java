@@ -0,0 +1,280 @@
+package org.gestern.gringotts;
+
+import org.bukkit.Material;
+import org.bukkit.block.ShulkerBox;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.BlockStateMeta;
+import org.gestern.gringotts.currency.Denomination;
+import org.gestern.gringotts.currency.GringottsCurrency;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Removes money from the inventories of an account in a single pass.
+ * <p>
+ * The money items of all inventories are read once. Items to take and change to give back are then planned on these
+ * copies, and only the slots whose contents end up different are written, once each. Inventories are taken from in
+ * the order they were added, the smallest denominations first, like {@link AccountInventory#remove(long)}. Shulker
+ * boxes are taken from after the other items of the inventory holding them, if enabled.
+ * <p>
+ * Must be used on the main thread, and applied in the same tick it was read.
+ */
+class WithdrawalPlan {
+    private final GringottsCurrency currency = Configuration.CONF.getCurrency();
+    private final List<Storage>     storages = new ArrayList<>();
+    private       long              balance;
+
+    /**
+     * Add an inventory to take from, after the ones added before.
+     *
+     * @param inventory the inventory
+     * @param chest     vault the inventory belongs to, or null
+     */
+    void add(Inventory inventory, AccountChest chest) {
+        Storage storage = new Storage(inventory, chest, null, -1, null, null);
+
+        storages.add(storage);
+
+        if (!Configuration.CONF.includeShulkerBoxes) {
+            return;
+        }
+
+        for (int slot = 0; slot < storage.contents.length; slot++) {
+            ItemStack item = storage.contents[slot];
+
+            if (item == null || item.getType() != Material.SHULKER_BOX) {
+                continue;
+            }
+
+            if (item.getItemMeta() instanceof BlockStateMeta) {
+                BlockStateMeta meta = (BlockStateMeta) item.getItemMeta();
+
+                if (meta.getBlockState() instanceof ShulkerBox) {
+                    ShulkerBox box = (ShulkerBox) meta.getBlockState();
+
+                    storages.add(new Storage(box.getInventory(), chest, storage, slot, meta, box));
+                }
+            }
+        }
+    }
+
+    /**
+     * Value of all money items in the added inventories.
+     *
+     * @return balance in cents
+     */
+    long getBalance() {
+        return balance;
+    }
+
+    /**
+     * Plan to take items worth an amount. Whole items are taken, so the last one may be worth more than was left to
+     * take.
+     *
+     * @param amount amount in cents
+     * @return the part of the amount no items were left for, or minus the value taken in excess
+     */
+    long take(long amount) {
+        List<Denomination> denominations = currency.getDenominations();
+        long               remaining     = amount;
+
+        for (Storage storage : storages) {
+            for (int d = denominations.size() - 1; d >= 0; d--) {
+                Denomination denomination = denominations.get(d);
+                long         value        = denomination.getValue();
+
+                for (int slot = 0; slot < storage.contents.length && remaining > 0; slot++) {
+                    if (storage.denominations[slot] != denomination || storage.amounts[slot] == 0) {
+                        continue;
+                    }
+
+                    long count = Math.min(storage.amounts[slot], (remaining + value - 1) / value);
+
+                    storage.amounts[slot] -= (int) count;
+                    remaining             -= count * value;
+                }
+
+                if (remaining <= 0) {
+                    return remaining;
+                }
+            }
+        }
+
+        return remaining;
+    }
+
+    /**
+     * Plan to give items worth a value, the largest denominations first. Items are added to stacks of the same
+     * denomination before empty slots are used.
+     *
+     * @param value value in cents
+     * @return the part of the value that could not be given as items
+     */
+    long give(long value) {
+        long remaining = value;
+
+        for (Denomination denomination : currency.getDenominations()) {
+            long count = remaining / denomination.getValue();
+
+            if (count == 0) {
+                continue;
+            }
+
+            long left = give(denomination, give(denomination, count, true), false);
+
+            remaining -= (count - left) * denomination.getValue();
+        }
+
+        return remaining;
+    }
+
+    /**
+     * Plan to give items of one denomination, either to stacks of it or to empty slots.
+     *
+     * @return number of items that did not fit
+     */
+    private long give(Denomination denomination, long count, boolean stacks) {
+        ItemStack template = new ItemStack(denomination.getKey().type);
+
+        for (Storage storage : storages) {
+            int max = Math.min(template.getMaxStackSize(), storage.inventory.getMaxStackSize());
+
+            for (int slot = 0; slot < storage.contents.length && count > 0; slot++) {
+                if (stacks ? storage.denominations[slot] != denomination : !storage.isEmpty(slot)) {
+                    continue;
+                }
+
+                int added = (int) Math.min(max - storage.amounts[slot], count);
+
+                if (added <= 0) {
+                    continue;
+                }
+
+                storage.denominations[slot] = denomination;
+                storage.amounts[slot]      += added;
+                count                      -= added;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Write all slots that changed, and drop the counted balances of the vaults they belong to.
+     */
+    void apply() {
+        // shulker boxes are written to the slot holding them after their contents were changed
+        for (int i = storages.size() - 1; i >= 0; i--) {
+            Storage storage = storages.get(i);
+
+            if (storage.apply() && storage.chest != null) {
+                Gringotts.instance.getAccounting().getVaultBalances().invalidate(storage.chest);
+            }
+        }
+    }
+
+    /**
+     * Copy of the money items in an inventory, with the planned changes.
+     */
+    private class Storage {
+        private final Inventory      inventory;
+        private final AccountChest   chest;
+        private final Storage        parent;
+        private final int            parentSlot;
+        private final BlockStateMeta meta;
+        private final ShulkerBox     box;
+        private final ItemStack[]    contents;
+        private final Denomination[] denominations;
+        private final int[]          amounts;
+        private final Denomination[] originalDenominations;
+        private final int[]          original;
+
+        private Storage(Inventory inventory,
+                        AccountChest chest,
+                        Storage parent,
+                        int parentSlot,
+                        BlockStateMeta meta,
+                        ShulkerBox box) {
+            this.inventory             = inventory;
+            this.chest                 = chest;
+            this.parent                = parent;
+            this.parentSlot            = parentSlot;
+            this.meta                  = meta;
+            this.box                   = box;
+            // armor and other special slots are neither counted nor written, like Inventory.removeItem does
+            this.contents              = inventory.getStorageContents();
+            this.denominations         = new Denomination[contents.length];
+            this.amounts               = new int[contents.length];
+            this.originalDenominations = new Denomination[contents.length];
+            this.original              = new int[contents.length];
+
+            for (int slot = 0; slot < contents.length; slot++) {
+                ItemStack item = contents[slot];
+
+                if (item == null || item.getType() == Material.AIR) {
+                    continue;
+                }
+
+                // shulker boxes are read as storages of their own
+                Denomination denomination = item.getType() == Material.SHULKER_BOX
+                        && Configuration.CONF.includeShulkerBoxes ? null : currency.getDenominationOf(item);
+
+                if (denomination != null) {
+                    denominations[slot]         = denomination;
+                    originalDenominations[slot] = denomination;
+                    amounts[slot]               = item.getAmount();
+                    original[slot]              = item.getAmount();
+                    balance                    += denomination.getValue() * item.getAmount();
+                }
+            }
+        }
+
+        private boolean isEmpty(int slot) {
+            ItemStack item = contents[slot];
+
+            return denominations[slot] == null ? item == null || item.getType() == Material.AIR : amounts[slot] == 0;
+        }
+
+        /**
+         * Write the slots that changed.
+         *
+         * @return whether any slot was written
+         */
+        private boolean apply() {
+            boolean written = false;
+
+            for (int slot = 0; slot < contents.length; slot++) {
+                Denomination denomination = denominations[slot];
+                boolean      same         = denomination == originalDenominations[slot];
+
+                if (denomination == null || same && amounts[slot] == original[slot]) {
+                    continue;
+                }
+
+                ItemStack item = null;
+
+                if (amounts[slot] > 0) {
+                    // keep the exact item of a stack that only changed its amount
+                    item = new ItemStack(same ? contents[slot] : denomination.getKey().type);
+
+                    item.setAmount(amounts[slot]);
+                }
+
+                inventory.setItem(slot, item);
+                written = true;
+            }
+
+            if (written && parent != null) {
+                ItemStack holder = parent.contents[parentSlot];
+
+                meta.setBlockState(box);
+                holder.setItemMeta(meta);
+                parent.inventory.setItem(parentSlot, holder);
+            }
+
+            return written;
+        }
+    }
+}
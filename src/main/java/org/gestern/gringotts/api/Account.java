@@ -2,6 +2,8 @@ package org.gestern.gringotts.api;
 
 import org.bukkit.Location;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Defines actions possible on an account in an economy.
  */
@@ -127,6 +129,63 @@ public interface Account {
      */
     Transaction send(double value);
 
+    /**
+     * Return the balance of this account, without waiting for it on the calling thread.
+     * The future is completed on the main server thread, so that actions depending on it may access the world.
+     * Implementations without asynchronous support complete it right away, with the result of {@link #balance()}.
+     *
+     * @return future balance of this account.
+     */
+    default CompletableFuture<Double> balanceAsync() {
+        return CompletableFuture.completedFuture(balance());
+    }
+
+    /**
+     * Return whether this account has at least the specified amount, without waiting for it on the calling thread.
+     * The future is completed on the main server thread, like {@link #balanceAsync()}.
+     *
+     * @param value the amount to check
+     * @return future whether this account has at least the specified amount.
+     */
+    default CompletableFuture<Boolean> hasAsync(double value) {
+        return CompletableFuture.completedFuture(has(value));
+    }
+
+    /**
+     * Add an amount to this account's balance, without waiting for it on the calling thread.
+     * The future is completed on the main server thread, like {@link #balanceAsync()}.
+     *
+     * @param value the amount to be added.
+     * @return future result of adding (success or failure type)
+     */
+    default CompletableFuture<TransactionResult> addAsync(double value) {
+        return CompletableFuture.completedFuture(add(value));
+    }
+
+    /**
+     * Remove an amount from this account's balance, without waiting for it on the calling thread.
+     * The future is completed on the main server thread, like {@link #balanceAsync()}.
+     *
+     * @param value the amount to be removed
+     * @return future result of removing (success or failure type)
+     */
+    default CompletableFuture<TransactionResult> removeAsync(double value) {
+        return CompletableFuture.completedFuture(remove(value));
+    }
+
+    /**
+     * Send an amount to another account, without waiting for it on the calling thread.
+     * Equivalent to <code>send(value).to(to)</code>, so no taxes are applied.
+     * The future is completed on the main server thread, like {@link #balanceAsync()}.
+     *
+     * @param to    the account to receive the amount
+     * @param value the amount to be transferred
+     * @return future result of the transfer (success or failure type)
+     */
+    default CompletableFuture<TransactionResult> transferAsync(Account to, double value) {
+        return CompletableFuture.completedFuture(send(value).to(to));
+    }
+
     /**
      * Return the type of this account. Default account types are "player" and "bank".
      * The economy plugin specifies any other types.
@@ -10,11 +10,14 @@ import org.gestern.gringotts.accountholder.AccountHolderFactory;
 import org.gestern.gringotts.accountholder.PlayerAccountHolder;
 import org.gestern.gringotts.api.*;
 import org.gestern.gringotts.currency.GringottsCurrency;
-import org.gestern.gringotts.data.DAO;
+import org.gestern.gringotts.data.Ledger;
+import org.gestern.gringotts.data.LedgerEntry;
 
 import java.util.Collections;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 /**
  * The type Gringotts eco.
@@ -22,8 +25,11 @@ import java.util.UUID;
 public class GringottsEco implements Eco {
 
     private static final String               TAG_PLAYER    = "player";
+    /**
+     * Set while a transfer runs on this thread, see {@link #transferring(Supplier)}.
+     */
+    private static final ThreadLocal<Boolean> TRANSFERRING  = new ThreadLocal<>();
     private final        AccountHolderFactory accountOwners = Gringotts.instance.getAccountHolderFactory();
-    private final        DAO                  dao           = Gringotts.instance.getDao();
 
     /**
      * Account account.
@@ -169,6 +175,53 @@ public class GringottsEco implements Eco {
         return custom(parts[0], parts[1]);
     }
 
+    /**
+     * Run a transfer, during which the single adds and removes of its steps are not recorded in the ledger. The
+     * transfer records itself instead.
+     *
+     * @param transfer the transfer
+     * @param <V>      result of the transfer
+     * @return result of the transfer
+     */
+    static <V> V transferring(Supplier<V> transfer) {
+        boolean outer = TRANSFERRING.get() != null;
+
+        TRANSFERRING.set(Boolean.TRUE);
+
+        try {
+            return transfer.get();
+        } finally {
+            if (!outer) {
+                TRANSFERRING.remove();
+            }
+        }
+    }
+
+    /**
+     * Record a change to account balances in the transaction ledger, if it is enabled.
+     *
+     * @param kind   kind of change
+     * @param source account money was taken from, or null
+     * @param target account money was given to, or null
+     * @param value  amount of the change
+     * @param result result of the change
+     */
+    static void record(LedgerEntry.Kind kind, Account source, Account target, double value, TransactionResult result) {
+        Ledger ledger = Gringotts.instance.getLedger();
+
+        if (ledger == null) {
+            return;
+        }
+
+        ledger.record(
+                kind,
+                source == null ? null : source.type() + ":" + source.id(),
+                target == null ? null : target.type() + ":" + target.id(),
+                Configuration.CONF.getCurrency().getCentValue(value),
+                result.name()
+        );
+    }
+
     private static class InvalidAccount implements BankAccount, PlayerAccount {
 
         private final String type;
@@ -546,7 +599,8 @@ public class GringottsEco implements Eco {
          */
         @Override
         public Account delete() {
-            dao.deleteAccount(acc);
+            Gringotts.instance.getAsyncDao().deleteAccount(acc);
+            Gringotts.instance.getAccounting().forgetAccount(acc.owner);
             throw new RuntimeException("deleting accounts not supported by Gringotts");
         }
 
@@ -629,7 +683,8 @@ public class GringottsEco implements Eco {
          */
         @Override
         public TransactionResult setBalance(double newBalance) {
-            return add(balance() - newBalance);
+            // read and change the balance in one step, so no other change can come in between
+            return CentsTransaction.run(() -> add(newBalance - balance()), AccountLocks.key(type(), id()));
         }
 
         /**
@@ -644,7 +699,13 @@ public class GringottsEco implements Eco {
                 return remove(-value);
             }
 
-            return acc.add(Configuration.CONF.getCurrency().getCentValue(value));
+            TransactionResult result = acc.add(Configuration.CONF.getCurrency().getCentValue(value));
+
+            if (TRANSFERRING.get() == null) {
+                record(LedgerEntry.Kind.ADD, null, this, value, result);
+            }
+
+            return result;
         }
 
         /**
@@ -659,7 +720,13 @@ public class GringottsEco implements Eco {
                 return add(-value);
             }
 
-            return acc.remove(Configuration.CONF.getCurrency().getCentValue(value));
+            TransactionResult result = acc.remove(Configuration.CONF.getCurrency().getCentValue(value));
+
+            if (TRANSFERRING.get() == null) {
+                record(LedgerEntry.Kind.REMOVE, this, null, value, result);
+            }
+
+            return result;
         }
 
         /**
@@ -673,6 +740,64 @@ public class GringottsEco implements Eco {
             return new GringottsTransaction(this, value);
         }
 
+        /**
+         * Balance without waiting for it. The storage is read in the background while the items are counted on the
+         * main thread.
+         *
+         * @return the future balance
+         */
+        @Override
+        public CompletableFuture<Double> balanceAsync() {
+            return acc.getBalanceAsync().thenApply(Configuration.CONF.getCurrency()::getDisplayValue);
+        }
+
+        /**
+         * Has without waiting for it.
+         *
+         * @param value the value
+         * @return the future boolean
+         */
+        @Override
+        public CompletableFuture<Boolean> hasAsync(double value) {
+            long cents = Configuration.CONF.getCurrency().getCentValue(value);
+
+            return acc.getBalanceAsync().thenApply(balance -> balance >= cents);
+        }
+
+        /**
+         * Add without waiting for it. Runs with the calls queued for the main thread by other threads.
+         *
+         * @param value the value
+         * @return the future transaction result
+         */
+        @Override
+        public CompletableFuture<TransactionResult> addAsync(double value) {
+            return MainThreadCalls.call(() -> add(value));
+        }
+
+        /**
+         * Remove without waiting for it. Runs with the calls queued for the main thread by other threads.
+         *
+         * @param value the value
+         * @return the future transaction result
+         */
+        @Override
+        public CompletableFuture<TransactionResult> removeAsync(double value) {
+            return MainThreadCalls.call(() -> remove(value));
+        }
+
+        /**
+         * Transfer without waiting for it. Runs with the calls queued for the main thread by other threads.
+         *
+         * @param to    the account to receive the value
+         * @param value the value
+         * @return the future transaction result
+         */
+        @Override
+        public CompletableFuture<TransactionResult> transferAsync(Account to, double value) {
+            return MainThreadCalls.call(() -> send(value).to(to));
+        }
+
         /**
          * Type string.
          *
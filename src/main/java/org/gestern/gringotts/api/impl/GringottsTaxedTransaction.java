@@ -1,8 +1,11 @@
 package org.gestern.gringotts.api.impl;
 
+import org.gestern.gringotts.AccountLocks;
+import org.gestern.gringotts.CentsTransaction;
 import org.gestern.gringotts.api.Account;
 import org.gestern.gringotts.api.TaxedTransaction;
 import org.gestern.gringotts.api.TransactionResult;
+import org.gestern.gringotts.data.LedgerEntry;
 
 /**
  * The type Gringotts taxed transaction.
@@ -29,6 +32,21 @@ public class GringottsTaxedTransaction extends GringottsTransaction implements T
         this.taxes = taxes;
     }
 
+    @Override
+    public TransactionResult to(Account to) {
+        if (collector == null) {
+            return super.to(to);
+        }
+
+        // the collector is locked with the other accounts, so that all locks are taken in order at once
+        return CentsTransaction.run(
+                () -> GringottsEco.transferring(() -> transfer(to)),
+                AccountLocks.key(from.type(), from.id()),
+                AccountLocks.key(to.type(), to.id()),
+                AccountLocks.key(collector.type(), collector.id())
+        );
+    }
+
     /**
      * Complete the transaction by sending the transaction amount to a given account.
      *
@@ -36,14 +54,16 @@ public class GringottsTaxedTransaction extends GringottsTransaction implements T
      * @return result of the transaction.
      */
     @Override
-    public TransactionResult to(Account recipient) {
+    protected TransactionResult transfer(Account recipient) {
         TransactionResult taxResult = from.remove(taxes);
 
         if (taxResult != TransactionResult.SUCCESS) {
+            GringottsEco.record(LedgerEntry.Kind.TAX, from, collector, taxes, taxResult);
+
             return taxResult;
         }
 
-        TransactionResult result = super.to(recipient);
+        TransactionResult result = super.transfer(recipient);
 
         // undo taxing if transaction failed
         if (result != TransactionResult.SUCCESS) {
@@ -54,6 +74,8 @@ public class GringottsTaxedTransaction extends GringottsTransaction implements T
             }
         }
 
+        GringottsEco.record(LedgerEntry.Kind.TAX, from, collector, taxes, result);
+
         return result;
     }
 
@@ -1,10 +1,13 @@
 package org.gestern.gringotts.api.impl;
 
+import org.gestern.gringotts.AccountLocks;
+import org.gestern.gringotts.CentsTransaction;
 import org.gestern.gringotts.Configuration;
 import org.gestern.gringotts.api.Account;
 import org.gestern.gringotts.api.TaxedTransaction;
 import org.gestern.gringotts.api.Transaction;
 import org.gestern.gringotts.api.TransactionResult;
+import org.gestern.gringotts.data.LedgerEntry;
 
 public class GringottsTransaction implements Transaction {
 
@@ -41,6 +44,22 @@ public class GringottsTransaction implements Transaction {
 
     @Override
     public TransactionResult to(Account to) {
+        // the steps of the transfer are recorded in the ledger as one transfer, not as single adds and removes
+        return CentsTransaction.run(
+                () -> GringottsEco.transferring(() -> transfer(to)),
+                AccountLocks.key(from.type(), from.id()),
+                AccountLocks.key(to.type(), to.id())
+        );
+    }
+
+    /**
+     * Move the value of this transaction to a given account. Runs on the main thread, within a transaction that
+     * writes the changed virtual balances of all accounts involved at once.
+     *
+     * @param to account to receive the value
+     * @return result of the transaction
+     */
+    protected TransactionResult transfer(Account to) {
         if (value < 0) {
             return TransactionResult.ERROR;
         }
@@ -55,10 +74,14 @@ public class GringottsTransaction implements Transaction {
                 from.add(value);
             }
 
+            GringottsEco.record(LedgerEntry.Kind.TRANSFER, from, to, value, added);
+
             // returns success or reason add failed
             return added;
         }
 
+        GringottsEco.record(LedgerEntry.Kind.TRANSFER, from, to, value, removed);
+
         // return reason remove failed
         return removed;
     }
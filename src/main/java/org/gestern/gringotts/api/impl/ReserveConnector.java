@@ -4,11 +4,13 @@ import net.tnemc.core.Reserve;
 import net.tnemc.core.economy.EconomyAPI;
 import net.tnemc.core.economy.response.*;
 import org.bukkit.World;
+import org.gestern.gringotts.Configuration;
 import org.gestern.gringotts.Gringotts;
 import org.gestern.gringotts.Language;
 import org.gestern.gringotts.api.Account;
 import org.gestern.gringotts.api.Eco;
 import org.gestern.gringotts.api.TransactionResult;
+import org.gestern.gringotts.data.AccountPurge;
 
 import java.math.BigDecimal;
 import java.util.UUID;
@@ -1054,23 +1056,39 @@ public class ReserveConnector implements EconomyAPI {
     }
 
     /**
-     * Purges the database of accounts with the default balance.
+     * Purges the database of player accounts with the default balance.
+     * The purge runs in the background and logs its result, see {@link AccountPurge}.
      *
-     * @return True if the purge was completed successfully.
+     * @return True if the purge was started, false if another purge is running.
      */
     @Override
     public boolean purgeAccounts() {
-        return false;
+        long startBalance = Configuration.CONF.getCurrency().getCentValue(Configuration.CONF.startBalancePlayer);
+
+        return purge(startBalance, startBalance);
     }
 
     /**
-     * Purges the database of accounts with a balance under the specified one.
+     * Purges the database of player accounts with a balance under the specified one.
+     * The purge runs in the background and logs its result, see {@link AccountPurge}.
      *
      * @param amount The amount that an account's balance has to be under in order to be removed.
-     * @return True if the purge was completed successfully.
+     * @return True if the purge was started, false if another purge is running.
      */
     @Override
     public boolean purgeAccountsUnder(BigDecimal amount) {
-        return false;
+        return purge(Long.MIN_VALUE, Configuration.CONF.getCurrency().getCentValue(amount.doubleValue()) - 1);
+    }
+
+    private static boolean purge(long minCents, long maxCents) {
+        return new AccountPurge(
+                Gringotts.instance.getDao(),
+                "player",
+                minCents,
+                maxCents,
+                Configuration.CONF.purgeDryRun,
+                result -> {
+                }
+        ).start();
     }
 }
@@ -6,6 +6,7 @@ import net.milkbowl.vault.economy.EconomyResponse.ResponseType;
 import org.bukkit.Bukkit;
 import org.bukkit.OfflinePlayer;
 import org.gestern.gringotts.Gringotts;
+import org.gestern.gringotts.MainThreadCalls;
 import org.gestern.gringotts.Util;
 import org.gestern.gringotts.api.Account;
 import org.gestern.gringotts.api.Eco;
@@ -128,8 +129,13 @@ public class VaultConnector implements Economy {
     }
 
     private EconomyResponse withdrawPlayer(Account account, double amount) {
-        TransactionResult removed = account.remove(amount);
+        // the new balance is read in the same main thread call as the removal
+        return MainThreadCalls.await(
+                account.removeAsync(amount).thenApply(removed -> withdrawn(account, amount, removed))
+        );
+    }
 
+    private static EconomyResponse withdrawn(Account account, double amount, TransactionResult removed) {
         switch (removed) {
             case SUCCESS:
                 return new EconomyResponse(amount, account.balance(), ResponseType.SUCCESS, null);
@@ -155,8 +161,11 @@ public class VaultConnector implements Economy {
     }
 
     private EconomyResponse depositPlayer(Account account, double amount) {
-        TransactionResult added = account.add(amount);
+        // the new balance is read in the same main thread call as the addition
+        return MainThreadCalls.await(account.addAsync(amount).thenApply(added -> deposited(account, amount, added)));
+    }
 
+    private static EconomyResponse deposited(Account account, double amount, TransactionResult added) {
         switch (added) {
             case SUCCESS:
                 return new EconomyResponse(amount, account.balance(), ResponseType.SUCCESS, null);
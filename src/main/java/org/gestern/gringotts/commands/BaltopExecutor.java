@@ -0,0 +1,102 @@
+package org.gestern.gringotts.commands;
+
+import com.google.common.collect.Lists;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.gestern.gringotts.BalanceTop;
+import org.gestern.gringotts.Configuration;
+import org.gestern.gringotts.Gringotts;
+import org.gestern.gringotts.Language;
+import org.gestern.gringotts.Permissions;
+
+import java.util.List;
+
+/**
+ * Shows the leaderboard of the richest players.
+ */
+public class BaltopExecutor extends GringottsAbstractExecutor {
+    private static final int PAGE_SIZE = 10;
+
+    private static final String TAG_PAGE = "%page";
+
+    private static final String TAG_PAGES = "%pages";
+
+    private static final String TAG_RANK = "%rank";
+
+    /**
+     * Executes the given command, returning its success.
+     * <br>
+     * If false is returned, then the "usage" plugin.yml entry for this command
+     * (if defined) will be sent to the player.
+     *
+     * @param sender       Source of the command
+     * @param cmd          Command which was executed
+     * @param commandLabel Alias of the command which was used
+     * @param args         Passed command arguments
+     * @return true if a valid command, otherwise false
+     */
+    @Override
+    public boolean onCommand(CommandSender sender,
+                             Command cmd,
+                             String commandLabel,
+                             String[] args) {
+        testPermission(sender, cmd, Permissions.COMMAND_BALTOP.node);
+
+        int page = 1;
+
+        if (args.length > 0) {
+            try {
+                page = Integer.parseInt(args[0]);
+            } catch (NumberFormatException ignored) {
+                return false;
+            }
+        }
+
+        BalanceTop balanceTop = Gringotts.instance.getBalanceTop();
+        int        pages      = (balanceTop.size() + PAGE_SIZE - 1) / PAGE_SIZE;
+
+        if (page < 1 || page > pages) {
+            sender.sendMessage(Language.LANG.baltop_empty.replace(TAG_PAGE, String.valueOf(page)));
+
+            return true;
+        }
+
+        sender.sendMessage(Language.LANG.baltop_header
+                .replace(TAG_PAGES, String.valueOf(pages))
+                .replace(TAG_PAGE, String.valueOf(page)));
+
+        int rank = (page - 1) * PAGE_SIZE;
+
+        for (BalanceTop.Entry entry : balanceTop.getPage(page, PAGE_SIZE)) {
+            double balance = Configuration.CONF.getCurrency().getDisplayValue(entry.cents);
+
+            sender.sendMessage(Language.LANG.baltop_entry
+                    .replace(TAG_RANK, String.valueOf(++rank))
+                    .replace(TAG_PLAYER, entry.getName())
+                    .replace(TAG_BALANCE, eco.currency().format(balance)));
+        }
+
+        return true;
+    }
+
+    /**
+     * Requests a list of possible completions for a command argument.
+     *
+     * @param sender  Source of the command.  For players tab-completing a
+     *                command inside of a command block, this will be the player, not
+     *                the command block.
+     * @param command Command which was executed
+     * @param alias   The alias used
+     * @param args    The arguments passed to the command, including final
+     *                partial argument to be completed and command label
+     * @return A List of possible completions for the final argument, or null
+     * to default to the command executor
+     */
+    @Override
+    public List<String> onTabComplete(CommandSender sender,
+                                      Command command,
+                                      String alias,
+                                      String[] args) {
+        return Lists.newArrayList();
+    }
+}
@@ -12,23 +12,58 @@ import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.BookMeta;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.gestern.gringotts.AccountLocks;
+import org.gestern.gringotts.Accounting;
 import org.gestern.gringotts.Configuration;
 import org.gestern.gringotts.Gringotts;
+import org.gestern.gringotts.GringottsStorageException;
 import org.gestern.gringotts.Language;
+import org.gestern.gringotts.MainThreadCalls;
+import org.gestern.gringotts.VaultBalances;
 import org.gestern.gringotts.api.dependency.Dependency;
 import org.gestern.gringotts.currency.Denomination;
 import org.gestern.gringotts.currency.GringottsCurrency;
+import org.gestern.gringotts.data.AccountArchive;
+import org.gestern.gringotts.data.AccountPurge;
+import org.gestern.gringotts.data.DAO;
+import org.gestern.gringotts.data.DatabaseBackup;
+import org.gestern.gringotts.data.InstrumentedDAO;
+import org.gestern.gringotts.data.Ledger;
+import org.gestern.gringotts.data.StorageExecutor;
+import org.gestern.gringotts.data.WriteBehindDAO;
 
+import java.io.File;
+import java.text.SimpleDateFormat;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Administrative commands not related to ingame money.
  */
 public class GringottsExecutor extends GringottsAbstractExecutor {
-    private static final List<String> commands = Arrays.asList("reload", "dependencies", "denominations");
-    private final Gringotts gringotts;
+    private static final List<String> commands = Arrays.asList(
+            "reload", "dependencies", "denominations", "stats", "storage", "timings", "export", "import", "purge",
+            "backup"
+    );
+    private static final String       ARCHIVE_SUFFIX = ".ndjson.gz";
+    private static final Pattern      ARCHIVE_NAME   = Pattern.compile("[\\w.-]+");
+
+    private final Gringotts     gringotts;
+    /**
+     * Whether an export or import is running. Only one may run at a time.
+     */
+    private final AtomicBoolean archiveRunning = new AtomicBoolean();
 
     /**
      * Instantiates a new Gringotts executor.
@@ -221,11 +256,403 @@ public class GringottsExecutor extends GringottsAbstractExecutor {
                 }
                 break;
             }
+            case "stats": {
+                Accounting accounting = Gringotts.instance.getAccounting();
+                long       hits       = accounting.getChestCacheHits();
+                long       lookups    = hits + accounting.getChestCacheMisses();
+
+                sender.sendMessage(String.format(
+                        "Vaults: %d indexed, cached for %d accounts, %d/%d lookups from cache (%.1f%%)",
+                        accounting.getVaultIndex().size(),
+                        accounting.getChestCacheSize(),
+                        hits,
+                        lookups,
+                        lookups > 0 ? 100.0 * hits / lookups : 0.0
+                ));
+
+                VaultBalances balances = accounting.getVaultBalances();
+                long          reads    = balances.getHits() + balances.getCounts();
+
+                sender.sendMessage(String.format(
+                        "Vault balances: %d known, %d/%d reads without counting (%.1f%%), %d verified, %d drifted",
+                        balances.size(),
+                        balances.getHits(),
+                        reads,
+                        reads > 0 ? 100.0 * balances.getHits() / reads : 0.0,
+                        balances.getVerifications(),
+                        balances.getDrifted()
+                ));
+
+                sender.sendMessage(String.format(
+                        "Account locks: %d taken, %d contended, longest wait %d ms",
+                        AccountLocks.getAcquired(),
+                        AccountLocks.getContended(),
+                        AccountLocks.getMaxWait()
+                ));
+
+                StorageExecutor executor = Gringotts.instance.getStorageExecutor();
+
+                sender.sendMessage(String.format(
+                        "Storage executor: %d active, %d queued (max %d), %d completed, %d run by caller",
+                        executor.getActiveCount(),
+                        executor.getQueueDepth(),
+                        executor.getMaxQueueDepth(),
+                        executor.getCompletedTaskCount(),
+                        executor.getCallerRuns()
+                ));
+
+                sender.sendMessage(String.format(
+                        "Main thread calls from other threads: %d in %d tasks, longest wait %d ms, %d timed out",
+                        MainThreadCalls.getQueued(),
+                        MainThreadCalls.getBatches(),
+                        MainThreadCalls.getMaxWait(),
+                        MainThreadCalls.getTimeouts()
+                ));
+
+                DAO dao = Gringotts.instance.getDao();
+
+                if (dao instanceof WriteBehindDAO) {
+                    WriteBehindDAO cache = (WriteBehindDAO) dao;
+
+                    sender.sendMessage(String.format(
+                            "Balances: %d cached, %d waiting to be written",
+                            cache.getCachedCount(),
+                            cache.getPendingCount()
+                    ));
+                }
+
+                Ledger ledger = Gringotts.instance.getLedger();
+
+                if (ledger != null) {
+                    sender.sendMessage(String.format(
+                            "Ledger: %d recorded, %d written in %d batches, %d queued, %d waits, %d dropped, %d failed",
+                            ledger.getRecorded(),
+                            ledger.getWritten(),
+                            ledger.getBatches(),
+                            ledger.getQueueDepth(),
+                            ledger.getBlocked(),
+                            ledger.getDropped(),
+                            ledger.getFailed()
+                    ));
+                }
+
+                return true;
+            }
+            case "storage": {
+                Map<String, String> settings = Gringotts.instance.getDao().getStorageSettings();
+
+                if (settings.isEmpty()) {
+                    sender.sendMessage("The storage backend has no settings to report.");
+
+                    return true;
+                }
+
+                sender.sendMessage("Database settings in effect:");
+
+                for (Map.Entry<String, String> setting : settings.entrySet()) {
+                    sender.sendMessage(" - " + setting.getKey() + ": " + setting.getValue());
+                }
+
+                return true;
+            }
+            case "timings": {
+                InstrumentedDAO instrumentation = gringotts.getInstrumentation();
+
+                if (instrumentation == null) {
+                    sender.sendMessage("Storage instrumentation is disabled (storage.instrumentation.enabled).");
+
+                    return true;
+                }
+
+                if (args.length > 1 && "reset".equalsIgnoreCase(args[1])) {
+                    instrumentation.reset();
+
+                    sender.sendMessage("Storage timings reset.");
+
+                    return true;
+                }
+
+                sendTimings(sender, instrumentation, args.length > 1 ? args[1] : null);
+
+                return true;
+            }
+            case "export": {
+                String name = args.length > 1
+                        ? args[1]
+                        : "gringotts-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+
+                File file = archiveFile(name);
+
+                if (file == null) {
+                    sender.sendMessage("Invalid file name: " + name);
+
+                    return true;
+                }
+
+                runArchive(sender, "Exporting to " + file.getName() + " ...", archive -> archive.export(file), false);
+
+                return true;
+            }
+            case "import": {
+                if (args.length < 2) {
+                    return false;
+                }
+
+                File file = archiveFile(args[1]);
+
+                if (file == null || !file.isFile()) {
+                    sender.sendMessage("No export file " + args[1] + " in " + archiveFolder());
+
+                    return true;
+                }
+
+                runArchive(sender, "Importing from " + file.getName() + " ...", archive -> archive.importFrom(file), true);
+
+                return true;
+            }
+            case "purge": {
+                if (args.length < 2) {
+                    return false;
+                }
+
+                double amount;
+
+                try {
+                    amount = Double.parseDouble(args[1]);
+                } catch (NumberFormatException e) {
+                    sender.sendMessage("Invalid amount: " + args[1]);
+
+                    return true;
+                }
+
+                boolean      dryRun = args.length < 3 || !"confirm".equalsIgnoreCase(args[2]);
+                AccountPurge purge  = new AccountPurge(
+                        gringotts.getDao(),
+                        "player",
+                        Long.MIN_VALUE,
+                        Configuration.CONF.getCurrency().getCentValue(amount) - 1,
+                        dryRun,
+                        sender::sendMessage
+                );
+
+                if (!purge.start()) {
+                    sender.sendMessage("A purge is already running.");
+
+                    return true;
+                }
+
+                sender.sendMessage(dryRun
+                        ? "Checking which player accounts with a balance under " + args[1] + " would be purged ..."
+                        : "Purging player accounts with a balance under " + args[1] + " ...");
+
+                return true;
+            }
+            case "backup": {
+                DatabaseBackup backup = gringotts.getBackup();
+
+                if (backup == null) {
+                    sender.sendMessage("The " + Configuration.CONF.storageBackend +
+                            " storage backend doesn't keep its data in the database, there is nothing to back up.");
+
+                    return true;
+                }
+
+                String action = args.length > 1 ? args[1].toLowerCase() : "list";
+
+                if ("now".equals(action)) {
+                    sender.sendMessage("Backing up the database ...");
+
+                    runBackup(sender, () -> Lists.newArrayList("Backed up to " + backup.backup().getName()));
+
+                    return true;
+                }
+
+                if ("preview".equals(action)) {
+                    if (args.length < 3) {
+                        return false;
+                    }
+
+                    File file = backup.find(args[2]);
+
+                    if (file == null) {
+                        sender.sendMessage("No backup " + args[2] + " in " + backup.getFolder());
+
+                        return true;
+                    }
+
+                    sender.sendMessage("Comparing " + file.getName() + " with the current accounts ...");
+
+                    runBackup(sender, () -> backup.preview(file, gringotts.getDao(), eco.currency()));
+
+                    return true;
+                }
+
+                if (!"list".equals(action)) {
+                    return false;
+                }
+
+                List<File> backups = backup.list();
+
+                sender.sendMessage(backups.isEmpty() ? "No backups yet." : "Backups, newest first:");
+
+                for (File file : backups) {
+                    sender.sendMessage(String.format(" %s (%d KiB)", file.getName(), file.length() / 1024));
+                }
+
+                return true;
+            }
         }
 
         return false;
     }
 
+    /**
+     * Send the storage timings of all methods, or the latency histogram of one method.
+     */
+    private void sendTimings(CommandSender sender, InstrumentedDAO instrumentation, String method) {
+        List<InstrumentedDAO.MethodTimings> timings = instrumentation.getTimings();
+        double                              seconds = (System.currentTimeMillis() - instrumentation.getSince()) / 1000.0;
+
+        if (method != null) {
+            for (InstrumentedDAO.MethodTimings timing : timings) {
+                if (timing.getMethod().equalsIgnoreCase(method)) {
+                    long[] buckets   = InstrumentedDAO.getBuckets();
+                    long[] histogram = timing.getHistogram();
+
+                    sender.sendMessage("Latency of " + timing.getMethod() + ":");
+
+                    for (int i = 0; i < histogram.length; i++) {
+                        sender.sendMessage(String.format(
+                                " %s %.1f ms: %d",
+                                i < buckets.length ? "<" : ">=",
+                                (i < buckets.length ? buckets[i] : buckets[buckets.length - 1]) / 1000.0,
+                                histogram[i]
+                        ));
+                    }
+
+                    return;
+                }
+            }
+
+            sender.sendMessage("No storage calls of " + method + " measured.");
+
+            return;
+        }
+
+        sender.sendMessage(String.format("Storage calls in the last %.0f s, slowest in total first:", seconds));
+
+        if (timings.isEmpty()) {
+            sender.sendMessage(" none");
+        }
+
+        for (InstrumentedDAO.MethodTimings timing : timings) {
+            long calls = timing.getCalls();
+            long p99   = timing.getPercentileMicros(99);
+
+            sender.sendMessage(String.format(
+                    " %s: %d calls, %.1f ms total, avg %.2f ms, p99 %s, max %.1f ms, " +
+                            "main thread %d calls %.1f ms, %d errors, %d slow",
+                    timing.getMethod(),
+                    calls,
+                    timing.getTotalNanos() / 1e6,
+                    calls > 0 ? timing.getTotalNanos() / 1e6 / calls : 0.0,
+                    p99 < 0 ? "slower" : String.format("< %.1f ms", p99 / 1000.0),
+                    timing.getMaxNanos() / 1e6,
+                    timing.getMainThreadCalls(),
+                    timing.getMainThreadNanos() / 1e6,
+                    timing.getErrors(),
+                    timing.getSlowCalls()
+            ));
+        }
+    }
+
+    private File archiveFolder() {
+        return new File(gringotts.getDataFolder(), "exports");
+    }
+
+    /**
+     * File of an export in the exports folder.
+     *
+     * @param name file name, with or without suffix
+     * @return the file, or null if the name is not a plain file name
+     */
+    private File archiveFile(String name) {
+        if (!ARCHIVE_NAME.matcher(name).matches() || name.startsWith(".")) {
+            return null;
+        }
+
+        return new File(archiveFolder(), name.endsWith(ARCHIVE_SUFFIX) ? name : name + ARCHIVE_SUFFIX);
+    }
+
+    /**
+     * Run an export or import in the background, reporting progress to the sender.
+     *
+     * @param sender       receives progress and result
+     * @param start        message sent when starting
+     * @param operation    the export or import, returning a summary
+     * @param reloadVaults whether vaults changed in storage, so that the vault index has to be reloaded afterwards
+     */
+    private void runArchive(CommandSender sender,
+                            String start,
+                            Function<AccountArchive, String> operation,
+                            boolean reloadVaults) {
+        if (!archiveRunning.compareAndSet(false, true)) {
+            sender.sendMessage("An export or import is already running.");
+
+            return;
+        }
+
+        sender.sendMessage(start);
+
+        BukkitScheduler scheduler = gringotts.getServer().getScheduler();
+        Consumer<String> message  = text -> scheduler.runTask(gringotts, () -> sender.sendMessage(text));
+
+        scheduler.runTaskAsynchronously(gringotts, () -> {
+            try {
+                //noinspection ResultOfMethodCallIgnored
+                archiveFolder().mkdirs();
+
+                message.accept(operation.apply(new AccountArchive(gringotts.getDao(), message)));
+            } catch (GringottsStorageException e) {
+                gringotts.getLogger().log(Level.SEVERE, e.getMessage(), e.getCause());
+
+                message.accept("Failed: " + e.getMessage());
+            } finally {
+                if (reloadVaults) {
+                    scheduler.runTask(gringotts, () -> Gringotts.instance.getAccounting().reloadChests());
+                }
+
+                archiveRunning.set(false);
+            }
+        });
+    }
+
+    /**
+     * Run a backup operation in the background and send the lines it returns to the sender.
+     *
+     * @param sender    receives the result
+     * @param operation the backup or preview
+     */
+    private void runBackup(CommandSender sender, Supplier<List<String>> operation) {
+        BukkitScheduler scheduler = gringotts.getServer().getScheduler();
+
+        scheduler.runTaskAsynchronously(gringotts, () -> {
+            List<String> lines;
+
+            try {
+                lines = operation.get();
+            } catch (GringottsStorageException e) {
+                gringotts.getLogger().log(Level.SEVERE, e.getMessage(), e.getCause());
+
+                lines = Lists.newArrayList("Failed: " + e.getMessage());
+            }
+
+            List<String> result = lines;
+
+            scheduler.runTask(gringotts, () -> result.forEach(sender::sendMessage));
+        });
+    }
+
     /**
      * Requests a list of possible completions for a command argument.
      *
@@ -254,6 +681,51 @@ public class GringottsExecutor extends GringottsAbstractExecutor {
                     .collect(Collectors.toList());
         }
 
+        if (args.length == 2 && "timings".equalsIgnoreCase(args[0])) {
+            List<String>    options         = Lists.newArrayList("reset");
+            InstrumentedDAO instrumentation = gringotts.getInstrumentation();
+
+            if (instrumentation != null) {
+                instrumentation.getTimings().forEach(timing -> options.add(timing.getMethod()));
+            }
+
+            return options.stream()
+                    .filter(option -> startsWithIgnoreCase(option, args[1]))
+                    .collect(Collectors.toList());
+        }
+
+        if (args.length == 2 && "backup".equalsIgnoreCase(args[0])) {
+            return Stream.of("list", "now", "preview")
+                    .filter(option -> startsWithIgnoreCase(option, args[1]))
+                    .collect(Collectors.toList());
+        }
+
+        if (args.length == 3 && "backup".equalsIgnoreCase(args[0]) && "preview".equalsIgnoreCase(args[1])) {
+            DatabaseBackup backup = gringotts.getBackup();
+
+            if (backup != null) {
+                return backup.list().stream()
+                        .map(File::getName)
+                        .filter(name -> startsWithIgnoreCase(name, args[2]))
+                        .collect(Collectors.toList());
+            }
+        }
+
+        if (args.length == 3 && "purge".equalsIgnoreCase(args[0])) {
+            return startsWithIgnoreCase("confirm", args[2]) ? Lists.newArrayList("confirm") : Lists.newArrayList();
+        }
+
+        if (args.length == 2 && "import".equalsIgnoreCase(args[0])) {
+            String[] files = archiveFolder().list((dir, name) -> name.endsWith(ARCHIVE_SUFFIX));
+
+            if (files != null) {
+                return Arrays.stream(files)
+                        .filter(name -> startsWithIgnoreCase(name, args[1]))
+                        .sorted()
+                        .collect(Collectors.toList());
+            }
+        }
+
         return Lists.newArrayList();
     }
 }
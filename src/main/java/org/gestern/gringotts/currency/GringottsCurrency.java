@@ -195,7 +195,7 @@ public class GringottsCurrency {
      * @param stack the stack to get the denomination for
      * @return denomination for the item stack, or null if there is no such denomination
      */
-    private Denomination getDenominationOf(ItemStack stack) {
+    public Denomination getDenominationOf(ItemStack stack) {
         DenominationKey d = new DenominationKey(stack);
 
         return denoms.get(d);
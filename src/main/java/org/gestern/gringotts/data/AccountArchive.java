@@ -0,0 +1,293 @@
+package org.gestern.gringotts.data;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.gestern.gringotts.GringottsStorageException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Export and import of all accounts, balances and vault locations as gzip compressed newline-delimited JSON.
+ * <p>
+ * The first line of an archive identifies the format. It is followed by one line per account and one line per vault,
+ * with every vault after the account it belongs to:
+ * <pre>
+ * {"kind":"gringotts-export","version":1,"created":1700000000000}
+ * {"kind":"account","type":"player","owner":"...","cents":1050}
+ * {"kind":"vault","type":"player","owner":"...","world":"world","x":10,"y":64,"z":-3}
+ * </pre>
+ * Both directions stream: records are written as they are read from storage and imported in small batches, so
+ * memory use doesn't depend on the number of accounts.
+ */
+public class AccountArchive {
+    private static final String FORMAT     = "gringotts-export";
+    private static final int    VERSION    = 1;
+    private static final int    BATCH_SIZE = 500;
+    private static final long   PROGRESS   = TimeUnit.SECONDS.toNanos(5);
+
+    private final Gson             gson = new Gson();
+    private final DAO              dao;
+    private final Consumer<String> progress;
+    private       long             accounts;
+    private       long             vaults;
+    private       long             start;
+    private       long             lastProgress;
+
+    /**
+     * Create an archive tool.
+     *
+     * @param dao      storage to export from or import into
+     * @param progress receives progress messages
+     */
+    public AccountArchive(DAO dao, Consumer<String> progress) {
+        this.dao      = dao;
+        this.progress = progress;
+    }
+
+    /**
+     * Write all accounts and vaults to a file. The file is only created once the export is complete.
+     *
+     * @param file file to write
+     * @return summary of the export
+     */
+    public String export(File file) {
+        File temporary = new File(file.getPath() + ".tmp");
+
+        begin();
+
+        try {
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(new FileOutputStream(temporary), 64 * 1024),
+                    StandardCharsets.UTF_8
+            ))) {
+                JsonObject header = new JsonObject();
+
+                header.addProperty("kind", FORMAT);
+                header.addProperty("version", VERSION);
+                header.addProperty("created", System.currentTimeMillis());
+                writeLine(out, header);
+
+                dao.forEachAccount(account -> {
+                    JsonObject line = new JsonObject();
+
+                    line.addProperty("kind", "account");
+                    line.addProperty("type", account.type);
+                    line.addProperty("owner", account.owner);
+                    line.addProperty("cents", account.cents);
+                    writeLine(out, line);
+
+                    accounts++;
+                    reportProgress("Exported");
+                });
+
+                dao.forEachChestLocation(location -> {
+                    JsonObject line = new JsonObject();
+
+                    line.addProperty("kind", "vault");
+                    line.addProperty("type", location.type);
+                    line.addProperty("owner", location.owner);
+                    line.addProperty("world", location.world);
+                    line.addProperty("x", location.x);
+                    line.addProperty("y", location.y);
+                    line.addProperty("z", location.z);
+                    writeLine(out, line);
+
+                    vaults++;
+                    reportProgress("Exported");
+                });
+            }
+
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | UncheckedIOException e) {
+            throw new GringottsStorageException("Failed to write export file " + file, e);
+        } finally {
+            // only left behind if the export failed
+            //noinspection ResultOfMethodCallIgnored
+            temporary.delete();
+        }
+
+        return summary("Exported", null);
+    }
+
+    /**
+     * Read accounts and vaults from a file written by {@link #export(File)}.
+     * Accounts that exist already get the balance from the file. Vaults at positions already taken are skipped.
+     *
+     * @param file file to read
+     * @return summary of the import
+     */
+    public String importFrom(File file) {
+        List<StoredAccount>        accountBatch = new ArrayList<>(BATCH_SIZE);
+        List<AccountChestLocation> vaultBatch   = new ArrayList<>(BATCH_SIZE);
+        long[]                     stored       = new long[2];
+
+        begin();
+
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(file), 64 * 1024),
+                StandardCharsets.UTF_8
+        ))) {
+            readHeader(in.readLine());
+
+            String text;
+            int    lineNumber = 1;
+
+            while ((text = in.readLine()) != null) {
+                lineNumber++;
+
+                if (text.isEmpty()) {
+                    continue;
+                }
+
+                JsonObject line = parse(text, lineNumber);
+                String     kind = string(line, "kind", lineNumber);
+
+                if ("account".equals(kind)) {
+                    accountBatch.add(new StoredAccount(
+                            string(line, "type", lineNumber),
+                            string(line, "owner", lineNumber),
+                            number(line, "cents", lineNumber).longValue()
+                    ));
+                } else if ("vault".equals(kind)) {
+                    vaultBatch.add(new AccountChestLocation(
+                            string(line, "world", lineNumber),
+                            number(line, "x", lineNumber).intValue(),
+                            number(line, "y", lineNumber).intValue(),
+                            number(line, "z", lineNumber).intValue(),
+                            string(line, "type", lineNumber),
+                            string(line, "owner", lineNumber)
+                    ));
+                } else {
+                    throw new GringottsStorageException("Unknown record kind '" + kind + "' in line " + lineNumber);
+                }
+
+                if (accountBatch.size() >= BATCH_SIZE || vaultBatch.size() >= BATCH_SIZE) {
+                    flush(accountBatch, vaultBatch, stored);
+                }
+            }
+
+            flush(accountBatch, vaultBatch, stored);
+        } catch (IOException e) {
+            throw new GringottsStorageException("Failed to read import file " + file, e);
+        }
+
+        return summary("Imported", String.format("%d new accounts, %d new vaults", stored[0], stored[1]));
+    }
+
+    /**
+     * Import the pending batches. Accounts go first, since vaults can only be stored for existing accounts.
+     */
+    private void flush(List<StoredAccount> accountBatch, List<AccountChestLocation> vaultBatch, long[] stored) {
+        if (!accountBatch.isEmpty()) {
+            stored[0] += dao.importAccounts(accountBatch);
+            accounts  += accountBatch.size();
+
+            accountBatch.clear();
+        }
+
+        if (!vaultBatch.isEmpty()) {
+            stored[1] += dao.importChestLocations(vaultBatch);
+            vaults    += vaultBatch.size();
+
+            vaultBatch.clear();
+        }
+
+        reportProgress("Imported");
+    }
+
+    private void readHeader(String text) {
+        if (text == null) {
+            throw new GringottsStorageException("Import file is empty.");
+        }
+
+        JsonObject header = parse(text, 1);
+
+        if (!FORMAT.equals(string(header, "kind", 1))) {
+            throw new GringottsStorageException("Not a Gringotts export file.");
+        }
+
+        if (number(header, "version", 1).intValue() > VERSION) {
+            throw new GringottsStorageException("Export file was written by a newer version of Gringotts.");
+        }
+    }
+
+    private JsonObject parse(String text, int lineNumber) {
+        try {
+            return JsonParser.parseString(text).getAsJsonObject();
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new GringottsStorageException("Invalid JSON in line " + lineNumber, e);
+        }
+    }
+
+    private static String string(JsonObject line, String name, int lineNumber) {
+        JsonElement value = line.get(name);
+
+        if (value == null || !value.isJsonPrimitive()) {
+            throw new GringottsStorageException("Missing '" + name + "' in line " + lineNumber);
+        }
+
+        return value.getAsString();
+    }
+
+    private static Number number(JsonObject line, String name, int lineNumber) {
+        JsonElement value = line.get(name);
+
+        if (value == null || !value.isJsonPrimitive() || !value.getAsJsonPrimitive().isNumber()) {
+            throw new GringottsStorageException("Missing or invalid '" + name + "' in line " + lineNumber);
+        }
+
+        return value.getAsNumber();
+    }
+
+    private void writeLine(Writer out, JsonObject line) {
+        try {
+            out.write(gson.toJson(line));
+            out.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void begin() {
+        accounts     = 0;
+        vaults       = 0;
+        start        = System.nanoTime();
+        lastProgress = start;
+    }
+
+    private void reportProgress(String action) {
+        long now = System.nanoTime();
+
+        if (now - lastProgress >= PROGRESS) {
+            lastProgress = now;
+
+            progress.accept(summary(action, null));
+        }
+    }
+
+    private String summary(String action, String details) {
+        double seconds = Math.max(1, System.nanoTime() - start) / 1e9;
+
+        return String.format(
+                "%s %d accounts and %d vaults in %.1f s (%.0f records/s)%s",
+                action,
+                accounts,
+                vaults,
+                seconds,
+                (accounts + vaults) / seconds,
+                details == null ? "" : ", " + details
+        );
+    }
+}
@@ -0,0 +1,81 @@
+package org.gestern.gringotts.data;
+
+import org.bukkit.block.Sign;
+import org.gestern.gringotts.AccountChest;
+
+import java.util.Objects;
+
+/**
+ * Stored position of an account chest's marker sign, together with the account it belongs to.
+ * Unlike {@link AccountChest}, this does not require the world or block to be loaded.
+ */
+public final class AccountChestLocation {
+    /**
+     * Name of the world the sign is in.
+     */
+    public final String world;
+    public final int    x;
+    public final int    y;
+    public final int    z;
+    /**
+     * Type of the owning account.
+     */
+    public final String type;
+    /**
+     * Id of the owning account holder.
+     */
+    public final String owner;
+
+    public AccountChestLocation(String world, int x, int y, int z, String type, String owner) {
+        this.world = world;
+        this.x     = x;
+        this.y     = y;
+        this.z     = z;
+        this.type  = type;
+        this.owner = owner;
+    }
+
+    /**
+     * Create the stored location of an account chest.
+     *
+     * @param chest the account chest
+     * @return location of the chest's sign and its owner
+     */
+    public static AccountChestLocation of(AccountChest chest) {
+        Sign mark = chest.sign;
+
+        return new AccountChestLocation(
+                mark.getWorld().getName(),
+                mark.getX(),
+                mark.getY(),
+                mark.getZ(),
+                chest.account.owner.getType(),
+                chest.account.owner.getId()
+        );
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+
+        AccountChestLocation other = (AccountChestLocation) obj;
+
+        return x == other.x && y == other.y && z == other.z && world.equals(other.world);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(world, x, y, z);
+    }
+
+    @Override
+    public String toString() {
+        return "AccountChestLocation(" + type + ":" + owner + "," + world + ": " + x + "," + y + "," + z + ")";
+    }
+}
@@ -0,0 +1,304 @@
+package org.gestern.gringotts.data;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+import org.gestern.gringotts.Accounting;
+import org.gestern.gringotts.Configuration;
+import org.gestern.gringotts.Gringotts;
+import org.gestern.gringotts.GringottsAccount;
+import org.gestern.gringotts.accountholder.AccountHolder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Deletes the accounts of a type whose balance is within a range, while the server keeps running.
+ * <p>
+ * Accounts without vaults are chosen by their virtual balance alone, which the storage filters for. The money in the
+ * vaults of the other accounts has to be counted in the world, so these are checked on the main thread, spending at
+ * most {@link Configuration#purgeTickBudget} milliseconds per tick. Only vaults in loaded chunks are counted, since a
+ * chunk load can't be bounded by the budget; accounts with a vault in an unloaded chunk are skipped. Accounts of
+ * online players are never purged.
+ * <p>
+ * Accounts are deleted together with their vaults in batches of {@link #BATCH_SIZE}, and only if their virtual
+ * balance didn't change since they were chosen. A dry run only reports what would be deleted.
+ */
+public class AccountPurge {
+    private static final int BATCH_SIZE = 500;
+
+    /**
+     * Whether a purge is running. Only one may run at a time.
+     */
+    private static final AtomicBoolean running = new AtomicBoolean();
+
+    private final DAO                 dao;
+    private final String              type;
+    private final long                minCents;
+    private final long                maxCents;
+    private final boolean             dryRun;
+    private final Consumer<String>    report;
+    private final BukkitScheduler     scheduler       = Bukkit.getScheduler();
+    /**
+     * Accounts with vaults whose balance has to be counted, and those among them found within the range.
+     */
+    private final List<StoredAccount>                     vaultCandidates = new ArrayList<>();
+    private final List<StoredAccount>                     vaultAccounts   = new ArrayList<>();
+    /**
+     * Vaults of the accounts to check by account holder id.
+     */
+    private final Map<String, List<AccountChestLocation>> vaults          = new HashMap<>();
+    private       Set<String>                             online;
+    private       BukkitTask                              checkTask;
+    private       int                                     checked;
+    private       int                                     virtualCandidates;
+    private       int                                     virtualPurged;
+    private       int                                     vaultPurged;
+    private       int                                     skippedOnline;
+    private       int                                     skippedUnknown;
+    private       int                                     skippedUnloaded;
+    private       long                                    start;
+
+    /**
+     * Create a purge.
+     *
+     * @param dao      storage to purge
+     * @param type     type of the accounts to purge
+     * @param minCents lowest balance to purge
+     * @param maxCents highest balance to purge
+     * @param dryRun   only report what would be deleted
+     * @param report   receives the result on the main thread
+     */
+    public AccountPurge(DAO dao, String type, long minCents, long maxCents, boolean dryRun, Consumer<String> report) {
+        this.dao      = dao;
+        this.type     = type;
+        this.minCents = minCents;
+        this.maxCents = maxCents;
+        this.dryRun   = dryRun;
+        this.report   = report;
+    }
+
+    /**
+     * Whether a purge is running.
+     *
+     * @return true if a purge is running
+     */
+    public static boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * Start the purge in the background. The result is logged and passed to the report.
+     *
+     * @return true if the purge was started, false if another purge is running
+     */
+    public boolean start() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+
+        start = System.nanoTime();
+
+        // the online players have to be read on the main thread
+        sync(() -> {
+            online = new HashSet<>();
+
+            for (Player player : Bukkit.getOnlinePlayers()) {
+                online.add(player.getUniqueId().toString());
+            }
+
+            async(this::purgeVirtual);
+        });
+
+        return true;
+    }
+
+    /**
+     * Purge the accounts without vaults and collect the accounts with vaults to check.
+     */
+    private void purgeVirtual() {
+        List<StoredAccount> candidates = new ArrayList<>();
+
+        // collected first, so that no read is open on the storage while deleting
+        dao.forEachPurgeCandidate(type, minCents, maxCents, false, account -> collect(account, candidates));
+
+        virtualCandidates = candidates.size();
+        virtualPurged     = purge(candidates);
+
+        dao.forEachPurgeCandidate(type, minCents, maxCents, true, account -> collect(account, vaultCandidates));
+
+        if (vaultCandidates.isEmpty()) {
+            finish();
+        } else {
+            Set<String> owners = new HashSet<>();
+
+            for (StoredAccount candidate : vaultCandidates) {
+                owners.add(candidate.owner);
+            }
+
+            dao.forEachChestLocation(location -> {
+                if (type.equals(location.type) && owners.contains(location.owner)) {
+                    vaults.computeIfAbsent(location.owner, owner -> new ArrayList<>()).add(location);
+                }
+            });
+
+            sync(() -> checkTask = scheduler.runTaskTimer(Gringotts.instance, this::checkVaults, 0, 1));
+        }
+    }
+
+    private void collect(StoredAccount account, List<StoredAccount> candidates) {
+        if (online.contains(account.owner)) {
+            skippedOnline++;
+        } else {
+            candidates.add(account);
+        }
+    }
+
+    /**
+     * Count the money in the vaults of the next accounts, until the time budget of this tick is spent.
+     */
+    private void checkVaults() {
+        Accounting accounting = Gringotts.instance.getAccounting();
+        long       budget     = TimeUnit.MILLISECONDS.toNanos(Math.max(1, Configuration.CONF.purgeTickBudget));
+        long       deadline   = System.nanoTime() + budget;
+
+        try {
+            while (checked < vaultCandidates.size() && System.nanoTime() < deadline) {
+                StoredAccount candidate = vaultCandidates.get(checked++);
+                AccountHolder owner     = Gringotts.instance.getAccountHolderFactory().get(type, candidate.owner);
+
+                if (owner == null) {
+                    // without the holder, the vaults can't be counted
+                    skippedUnknown++;
+
+                    continue;
+                }
+
+                GringottsAccount           account   = new GringottsAccount(owner);
+                List<AccountChestLocation> locations = vaults.getOrDefault(candidate.owner, Collections.emptyList());
+                Long                       counted   = accounting.countLoadedVaults(account, locations);
+
+                if (counted == null) {
+                    // counting would load the chunks of the vaults
+                    skippedUnloaded++;
+
+                    continue;
+                }
+
+                long balance = candidate.cents + counted;
+
+                if (balance >= minCents && balance <= maxCents) {
+                    vaultAccounts.add(candidate);
+                }
+            }
+        } catch (RuntimeException e) {
+            checkTask.cancel();
+            fail(e);
+
+            return;
+        }
+
+        if (checked == vaultCandidates.size()) {
+            checkTask.cancel();
+
+            async(() -> {
+                vaultPurged = purge(vaultAccounts);
+
+                finish();
+            });
+        }
+    }
+
+    /**
+     * Delete accounts in batches.
+     *
+     * @return number of accounts deleted, or that would be deleted in a dry run
+     */
+    private int purge(List<StoredAccount> accounts) {
+        if (dryRun) {
+            return accounts.size();
+        }
+
+        Accounting accounting = Gringotts.instance.getAccounting();
+        int        purged     = 0;
+
+        for (int from = 0; from < accounts.size(); from += BATCH_SIZE) {
+            List<StoredAccount> batch = accounts.subList(from, Math.min(accounts.size(), from + BATCH_SIZE));
+
+            // accounts stay unlocked during the delete, which only removes those whose balance is still unchanged
+            purged += dao.purgeAccounts(batch);
+
+            for (StoredAccount account : batch) {
+                accounting.forgetAccount(account.type, account.owner);
+                Gringotts.instance.getBalanceTop().remove(account.type, account.owner);
+            }
+        }
+
+        return purged;
+    }
+
+    private void finish() {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        String result  = String.format(
+                "%s %d of %d %s accounts without vaults and %d of %d with vaults in %.1f s. " +
+                        "%d vault balances were within range. Skipped %d online and %d unknown account holders, " +
+                        "and %d accounts with vaults in unloaded chunks.",
+                dryRun ? "Purge dry run would delete" : "Purged",
+                virtualPurged,
+                virtualCandidates,
+                type,
+                vaultPurged,
+                vaultCandidates.size(),
+                seconds,
+                vaultAccounts.size(),
+                skippedOnline,
+                skippedUnknown,
+                skippedUnloaded
+        );
+
+        sync(() -> {
+            if (!dryRun && vaultPurged > 0) {
+                Gringotts.instance.getAccounting().reloadChests();
+            }
+
+            Gringotts.instance.getLogger().info(result);
+            report.accept(result);
+
+            running.set(false);
+        });
+    }
+
+    private void fail(RuntimeException e) {
+        Gringotts.instance.getLogger().log(Level.SEVERE, "Account purge failed.", e);
+
+        sync(() -> {
+            report.accept("Purge failed: " + e.getMessage());
+
+            running.set(false);
+        });
+    }
+
+    private void sync(Runnable step) {
+        scheduler.runTask(Gringotts.instance, step);
+    }
+
+    private void async(Runnable step) {
+        scheduler.runTaskAsynchronously(Gringotts.instance, () -> {
+            try {
+                step.run();
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+        });
+    }
+}
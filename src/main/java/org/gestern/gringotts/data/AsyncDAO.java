@@ -0,0 +1,124 @@
+package org.gestern.gringotts.data;
+
+import org.gestern.gringotts.AccountChest;
+import org.gestern.gringotts.GringottsAccount;
+import org.gestern.gringotts.accountholder.AccountHolder;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous companion to {@link DAO}. Every operation returns immediately with a future of the result
+ * of the corresponding {@link DAO} method.
+ * <p>
+ * Operations are run on the storage executor, except for those that access the world or call events, which
+ * complete on the main server thread.
+ */
+public interface AsyncDAO {
+    /**
+     * @see DAO#storeAccountChest(AccountChest)
+     */
+    CompletableFuture<Boolean> storeAccountChest(AccountChest chest);
+
+    /**
+     * @see DAO#deleteAccountChest(AccountChest)
+     */
+    CompletableFuture<Boolean> deleteAccountChest(AccountChest chest);
+
+    /**
+     * Completes on the main thread, since storing an account calls an event.
+     *
+     * @see DAO#storeAccount(GringottsAccount)
+     */
+    CompletableFuture<Boolean> storeAccount(GringottsAccount account);
+
+    /**
+     * @see DAO#hasAccount(AccountHolder)
+     */
+    CompletableFuture<Boolean> hasAccount(AccountHolder accountHolder);
+
+    /**
+     * @see DAO#renameAccount(String, AccountHolder, String)
+     */
+    CompletableFuture<Boolean> renameAccount(String type, AccountHolder holder, String newName);
+
+    /**
+     * @see DAO#renameAccount(String, String, String)
+     */
+    CompletableFuture<Boolean> renameAccount(String type, String oldName, String newName);
+
+    /**
+     * Completes on the main thread, since vault signs are looked up in the world.
+     *
+     * @see DAO#retrieveChests()
+     */
+    CompletableFuture<Collection<AccountChest>> retrieveChests();
+
+    /**
+     * @see DAO#retrieveChestLocations()
+     */
+    CompletableFuture<Collection<AccountChestLocation>> retrieveChestLocations();
+
+    /**
+     * Completes on the main thread, since vault signs are looked up in the world.
+     *
+     * @see DAO#retrieveChests(GringottsAccount)
+     */
+    CompletableFuture<Collection<AccountChest>> retrieveChests(GringottsAccount account);
+
+    /**
+     * @see DAO#getAccounts()
+     */
+    CompletableFuture<Collection<String>> getAccounts();
+
+    /**
+     * @see DAO#getAccounts(String)
+     */
+    CompletableFuture<Collection<String>> getAccounts(String type);
+
+    /**
+     * @see DAO#storeCents(GringottsAccount, long)
+     */
+    CompletableFuture<Boolean> storeCents(GringottsAccount account, long amount);
+
+    /**
+     * @see DAO#storeCents(Map)
+     */
+    CompletableFuture<Boolean> storeCents(Map<GringottsAccount, Long> balances);
+
+    /**
+     * @see DAO#retrieveCents(GringottsAccount)
+     */
+    CompletableFuture<Long> retrieveCents(GringottsAccount account);
+
+    /**
+     * @see DAO#deleteAccount(GringottsAccount)
+     */
+    CompletableFuture<Boolean> deleteAccount(GringottsAccount acc);
+
+    /**
+     * @see DAO#deleteAccount(String, String)
+     */
+    CompletableFuture<Boolean> deleteAccount(String type, String account);
+
+    /**
+     * @see DAO#deleteAccountChests(GringottsAccount)
+     */
+    CompletableFuture<Boolean> deleteAccountChests(GringottsAccount acc);
+
+    /**
+     * @see DAO#deleteAccountChests(String)
+     */
+    CompletableFuture<Boolean> deleteAccountChests(String account);
+
+    /**
+     * @see DAO#getStorageSettings()
+     */
+    CompletableFuture<Map<String, String>> getStorageSettings();
+
+    /**
+     * @see DAO#checkpoint(boolean)
+     */
+    CompletableFuture<Void> checkpoint(boolean truncate);
+}
@@ -1,38 +1,417 @@
 package org.gestern.gringotts.data;
 
 import org.bukkit.Bukkit;
-import org.gestern.gringotts.AccountChest;
-import org.gestern.gringotts.GringottsAccount;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.Sign;
+import org.bukkit.scheduler.BukkitTask;
+import org.gestern.gringotts.*;
 import org.gestern.gringotts.accountholder.AccountHolder;
 import org.gestern.gringotts.event.CalculateStartBalanceEvent;
 
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
 import java.util.*;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * DAO keeping all accounts and vault locations in memory only, written to a snapshot file periodically.
+ * <p>
+ * Accounts are kept in concurrent tables indexed by holder and by type, and vaults in a concurrent table indexed by
+ * position. Balance reads and writes don't lock at all. Creating, renaming and deleting accounts and vaults is
+ * serialized, so the indexes always agree with each other.
+ * <p>
+ * A background task writes the whole state to a compact binary snapshot whenever something changed, and once more on
+ * shutdown. The snapshot is written to a temporary file, synced to the disk and renamed over the previous one, so
+ * there is always a complete snapshot. After a crash, the changes since the last snapshot are lost. On the first start,
+ * the accounts and vaults of the SQLite database are converted.
+ */
 public class CacheDAO implements DAO {
-    public static  Map<String, AccountChest>     Chests   = new HashMap<>();
-    public static  Map<String, GringottsAccount> Accounts = new HashMap<>();
-    private static CacheDAO                      dao;
+    private static final int    SNAPSHOT_MAGIC   = 0x47434150;
+    private static final int    SNAPSHOT_VERSION = 1;
+    private static final String SNAPSHOT         = "snapshot.dat";
+    private static final String LEDGER           = "ledger.log";
+
+    /**
+     * Marks a case-insensitive holder key shared by several accounts.
+     */
+    private static final CachedAccount AMBIGUOUS = new CachedAccount("", "");
+
+    private static CacheDAO dao;
+
+    private final    Logger                                   log            = Gringotts.instance.getLogger();
+    private final    Path                                     directory;
+    private final    LedgerFile                               ledger;
+    /**
+     * Accounts by "type:owner".
+     */
+    private final    Map<String, CachedAccount>               accounts       = new ConcurrentHashMap<>();
+    /**
+     * Accounts by lower case "type:owner", for accounts stored with different case by older versions.
+     */
+    private final    Map<String, CachedAccount>               lowerAccounts  = new ConcurrentHashMap<>();
+    private final    Map<String, Set<CachedAccount>>          accountsByType = new ConcurrentHashMap<>();
+    /**
+     * Vaults by sign position. Keys only carry the position, the owner is the mapped account.
+     */
+    private final    Map<AccountChestLocation, CachedAccount> vaults         = new ConcurrentHashMap<>();
+    /**
+     * Guards changes to the account and vault tables, but not to balances.
+     */
+    private final    Object                                   structure      = new Object();
+    private final    Object                                   snapshotLock   = new Object();
+    /**
+     * Number of changes so far, and at the time the last snapshot was started.
+     */
+    private final    AtomicLong                               changes        = new AtomicLong();
+    private volatile long                                     snapshotChanges;
+    private volatile long                                     snapshotTime;
+    private volatile long                                     snapshotMillis;
+    private          BukkitTask                               snapshotTask;
+
+    private CacheDAO(Path directory) {
+        this.directory = directory;
+        this.ledger    = new LedgerFile(directory.resolve(LEDGER));
+
+        Path snapshot = directory.resolve(SNAPSHOT);
+
+        try {
+            Files.createDirectories(directory);
+            readSnapshot(snapshot);
+        } catch (IOException e) {
+            throw new GringottsStorageException("Failed to read cache snapshot " + snapshot, e);
+        }
+
+        log.info(String.format(
+                "Loaded %d accounts and %d vaults from cache snapshot.",
+                accounts.size(),
+                vaults.size()
+        ));
+    }
 
-    public static CacheDAO getDao() {
+    /**
+     * Gets dao.
+     *
+     * @return the dao
+     */
+    public synchronized static CacheDAO getDao() {
         if (dao != null) {
             return dao;
         }
 
-        dao = new CacheDAO();
+        File    folder    = Gringotts.instance.getDataFolder();
+        Path    directory = new File(folder, "cache").toPath();
+        File    database  = new File(folder, "Gringotts.db");
+        // a snapshot is written on first start, so its absence means nothing has been stored here yet
+        boolean empty     = !Files.exists(directory.resolve(SNAPSHOT));
+
+        dao = new CacheDAO(directory);
+
+        if (empty) {
+            if (database.exists()) {
+                dao.convert(Gringotts.instance.getDatabaseUrl());
+            }
+
+            dao.snapshot(true);
+        }
 
         return dao;
     }
 
+    /**
+     * Start writing snapshots in the background.
+     */
+    public void start() {
+        long interval = Math.max(1, Configuration.CONF.cacheSnapshotInterval) * 20L;
+
+        snapshotTask = Bukkit.getScheduler().runTaskTimerAsynchronously(
+                Gringotts.instance,
+                () -> {
+                    try {
+                        snapshot(false);
+                    } catch (GringottsStorageException e) {
+                        log.severe(e.getMessage());
+                    }
+                },
+                interval,
+                interval
+        );
+    }
+
+    private static String key(String type, String owner) {
+        return type + ":" + owner;
+    }
+
+    private static AccountChestLocation position(String world, int x, int y, int z) {
+        return new AccountChestLocation(world, x, y, z, null, null);
+    }
+
+    private static AccountChestLocation position(Sign mark) {
+        return position(mark.getWorld().getName(), mark.getX(), mark.getY(), mark.getZ());
+    }
+
+    /**
+     * Copy all accounts and vaults from a database using the tables of {@link EBeanDAO} and {@link JdbcDAO}.
+     *
+     * @param url jdbc url of the database
+     */
+    private void convert(String url) {
+        log.info("Converting accounts and vaults from " + url + " to cache storage ...");
+
+        long start = System.nanoTime();
+
+        try (Connection connection = DriverManager.getConnection(url)) {
+            SqlTransfer.forEachAccount(connection, account -> {
+                if (!accounts.containsKey(key(account.type, account.owner))) {
+                    addAccount(account.type, account.owner, account.cents);
+                }
+            });
+
+            // vaults of deleted accounts are not returned, since they are joined with their account
+            SqlTransfer.forEachChestLocation(connection, location -> {
+                CachedAccount account = accounts.get(key(location.type, location.owner));
+
+                if (account != null) {
+                    addVault(position(location.world, location.x, location.y, location.z), account);
+                }
+            });
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to convert database " + url, e);
+        }
+
+        log.info(String.format(
+                "Converted %d accounts and %d vaults in %d ms.",
+                accounts.size(),
+                vaults.size(),
+                (System.nanoTime() - start) / 1000000
+        ));
+    }
+
+    /**
+     * Get an account, by exact type and owner or, failing that, by a unique case-insensitive match.
+     *
+     * @return the account, or null if there is no such account
+     */
+    private CachedAccount account(String type, String owner) {
+        CachedAccount account = accounts.get(key(type, owner));
+
+        if (account != null) {
+            return account;
+        }
+
+        account = lowerAccounts.get(key(type, owner).toLowerCase(Locale.ROOT));
+
+        return account == AMBIGUOUS ? null : account;
+    }
+
+    private CachedAccount account(AccountHolder owner) {
+        return account(owner.getType(), owner.getId());
+    }
+
+    // ---- table changes, called with the structure lock held ----
+
+    private CachedAccount addAccount(String type, String owner, long amount) {
+        CachedAccount account = new CachedAccount(type, owner);
+
+        account.cents.set(amount);
+        index(account);
+        accountsByType.computeIfAbsent(type, k -> ConcurrentHashMap.newKeySet()).add(account);
+        changes.incrementAndGet();
+
+        return account;
+    }
+
+    private void index(CachedAccount account) {
+        String key = key(account.type, account.owner);
+
+        accounts.put(key, account);
+        lowerAccounts.merge(key.toLowerCase(Locale.ROOT), account, (existing, added) -> AMBIGUOUS);
+    }
+
+    private void unindex(CachedAccount account) {
+        String key = key(account.type, account.owner);
+
+        accounts.remove(key);
+        lowerAccounts.remove(key.toLowerCase(Locale.ROOT), account);
+    }
+
+    private void addVault(AccountChestLocation position, CachedAccount account) {
+        vaults.put(position, account);
+        account.vaults.add(position);
+        changes.incrementAndGet();
+    }
+
+    private boolean removeVaults(CachedAccount account) {
+        if (account.vaults.isEmpty()) {
+            return false;
+        }
+
+        for (AccountChestLocation position : account.vaults) {
+            vaults.remove(position, account);
+        }
+
+        account.vaults.clear();
+        changes.incrementAndGet();
+
+        return true;
+    }
+
+    // ---- snapshots ----
+
+    /**
+     * Write the whole state to a new snapshot.
+     *
+     * @param force write even if nothing changed since the last snapshot
+     */
+    private void snapshot(boolean force) {
+        synchronized (snapshotLock) {
+            long                changed = changes.get();
+            List<CachedAccount> copy;
+
+            if (!force && changed == snapshotChanges) {
+                return;
+            }
+
+            // only the account list is copied, balances and vaults are read while writing
+            synchronized (structure) {
+                copy = new ArrayList<>(accounts.values());
+            }
+
+            long start     = System.nanoTime();
+            Path snapshot  = directory.resolve(SNAPSHOT);
+            Path temporary = directory.resolve(SNAPSHOT + ".tmp");
+
+            try {
+                writeSnapshot(temporary, copy);
+
+                Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new GringottsStorageException("Failed to write cache snapshot " + snapshot, e);
+            }
+
+            snapshotChanges = changed;
+            snapshotTime    = System.currentTimeMillis();
+            snapshotMillis  = (System.nanoTime() - start) / 1000000;
+        }
+    }
+
+    private void writeSnapshot(Path file, List<CachedAccount> copy) throws IOException {
+        CRC32 crc = new CRC32();
+
+        try (FileOutputStream stream = new FileOutputStream(file.toFile());
+             BufferedOutputStream buffered = new BufferedOutputStream(stream, 64 * 1024)) {
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(buffered, crc));
+
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(copy.size());
+
+            for (CachedAccount account : copy) {
+                List<AccountChestLocation> positions = new ArrayList<>(account.vaults);
+
+                out.writeUTF(account.type);
+                out.writeUTF(account.owner);
+                out.writeLong(account.cents.get());
+                out.writeInt(positions.size());
+
+                for (AccountChestLocation position : positions) {
+                    out.writeUTF(position.world);
+                    out.writeInt(position.x);
+                    out.writeInt(position.y);
+                    out.writeInt(position.z);
+                }
+            }
+
+            out.flush();
+
+            new DataOutputStream(buffered).writeLong(crc.getValue());
+
+            buffered.flush();
+            stream.getFD().sync();
+        }
+    }
+
+    private void readSnapshot(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        CRC32 crc = new CRC32();
+
+        try (InputStream buffered = new BufferedInputStream(Files.newInputStream(file), 64 * 1024)) {
+            DataInputStream in = new DataInputStream(new CheckedInputStream(buffered, crc));
+
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new GringottsStorageException("Unsupported cache snapshot " + file);
+            }
+
+            int count = in.readInt();
+
+            for (int i = 0; i < count; i++) {
+                CachedAccount account   = addAccount(in.readUTF(), in.readUTF(), in.readLong());
+                int           positions = in.readInt();
+
+                for (int j = 0; j < positions; j++) {
+                    addVault(position(in.readUTF(), in.readInt(), in.readInt(), in.readInt()), account);
+                }
+            }
+
+            long checksum = crc.getValue();
+
+            if (new DataInputStream(buffered).readLong() != checksum) {
+                throw new GringottsStorageException("Cache snapshot " + file + " is corrupted.");
+            }
+        }
+
+        snapshotChanges = changes.get();
+    }
+
+    // ---- DAO ----
+
     @Override
     public boolean storeAccountChest(AccountChest chest) {
-        Chests.put(chest.id, chest);
+        AccountChestLocation position = position(chest.sign);
+
+        synchronized (structure) {
+            CachedAccount account = account(chest.account.owner);
+
+            if (account == null || vaults.containsKey(position)) {
+                return false;
+            }
+
+            addVault(position, account);
+        }
 
         return true;
     }
 
     @Override
     public boolean deleteAccountChest(AccountChest chest) {
-        Chests.remove(chest.id);
+        return deleteAccountChest(position(chest.sign));
+    }
+
+    private boolean deleteAccountChest(AccountChestLocation position) {
+        synchronized (structure) {
+            CachedAccount account = vaults.remove(position);
+
+            if (account == null) {
+                return false;
+            }
+
+            account.vaults.remove(position);
+            changes.incrementAndGet();
+        }
 
         return true;
     }
@@ -47,46 +426,34 @@ public class CacheDAO implements DAO {
 
         // If removed, it will break backwards compatibility :(
         if (Objects.equals(owner.getType(), "town") || Objects.equals(owner.getType(), "nation")) {
-            if (hasAccount(new AccountHolder() {
-                @Override
-                public String getName() {
-                    return owner.getName();
-                }
-
-                @Override
-                public void sendMessage(String message) {
+            String legacyId = owner.getType() + "-" + owner.getName();
 
-                }
-
-                @Override
-                public String getType() {
-                    return owner.getType();
-                }
-
-                @Override
-                public String getId() {
-                    return owner.getType() + "-" + owner.getName();
-                }
-            })) {
-                renameAccount(owner.getType(), owner.getType() + "-" + owner.getName(), owner.getId());
+            if (renameAccount(owner.getType(), legacyId, owner.getId())) {
+                return false;
+            }
+        }
 
+        synchronized (structure) {
+            if (account(owner) != null) {
                 return false;
             }
+
+            addAccount(owner.getType(), owner.getId(), 0);
         }
 
+        // the account has to exist before the start balance can be stored
         CalculateStartBalanceEvent startBalanceEvent = new CalculateStartBalanceEvent(account.owner);
 
         Bukkit.getPluginManager().callEvent(startBalanceEvent);
 
-        account.add(startBalanceEvent.startValue);
-        Accounts.put(account.owner.getId(), account);
+        if (startBalanceEvent.startValue > 0) account.add(startBalanceEvent.startValue);
 
         return true;
     }
 
     @Override
     public boolean hasAccount(AccountHolder accountHolder) {
-        return Accounts.containsKey(accountHolder.getId());
+        return account(accountHolder) != null;
     }
 
     @Override
@@ -96,61 +463,342 @@ public class CacheDAO implements DAO {
 
     @Override
     public boolean renameAccount(String type, String oldName, String newName) {
-        return false;
+        synchronized (structure) {
+            CachedAccount account = account(type, oldName);
+            CachedAccount target  = accounts.get(key(type, newName));
+
+            if (account == null || (target != null && target != account)) {
+                return false;
+            }
+
+            unindex(account);
+            account.owner = newName;
+            index(account);
+            changes.incrementAndGet();
+        }
+
+        return true;
     }
 
     @Override
     public Collection<AccountChest> retrieveChests() {
-        return Chests.values();
+        List<AccountChest> chests = new LinkedList<>();
+
+        for (AccountChestLocation location : retrieveChestLocations()) {
+            World world = Bukkit.getWorld(location.world);
+
+            if (world == null) {
+                continue; // skip vaults in non-existing worlds
+            }
+
+            Block signBlock = world.getBlockAt(location.x, location.y, location.z);
+            Optional<Sign> optionalSign = Util.getBlockStateAs(
+                    signBlock,
+                    Sign.class
+            );
+
+            if (optionalSign.isPresent()) {
+                AccountHolder owner = Gringotts.instance.getAccountHolderFactory().get(location.type, location.owner);
+
+                if (owner == null) {
+                    log.info(String.format(
+                            "AccountHolder %s:%s is not valid. Deleting associated account chest at %s",
+                            location.type,
+                            location.owner,
+                            signBlock.getLocation()
+                    ));
+
+                    deleteAccountChest(position(location.world, location.x, location.y, location.z));
+                } else {
+                    chests.add(new AccountChest(optionalSign.get(), new GringottsAccount(owner)));
+                }
+            } else {
+                // remove accountchest from storage if it is not a valid chest
+                deleteAccountChest(position(location.world, location.x, location.y, location.z));
+            }
+        }
+
+        return chests;
+    }
+
+    @Override
+    public Collection<AccountChestLocation> retrieveChestLocations() {
+        List<AccountChestLocation> locations = new ArrayList<>(vaults.size());
+
+        forEachChestLocation(locations::add);
+
+        return locations;
     }
 
     @Override
     public Collection<AccountChest> retrieveChests(GringottsAccount account) {
-        return null;
+        List<AccountChest> chests = new LinkedList<>();
+        CachedAccount      cached = account(account.owner);
+
+        if (cached == null) {
+            return chests;
+        }
+
+        for (AccountChestLocation location : new ArrayList<>(cached.vaults)) {
+            World world = Bukkit.getWorld(location.world);
+
+            if (world == null) {
+                continue; // skip chest if it is in non-existent world
+            }
+
+            Optional<Sign> optionalSign = Util.getBlockStateAs(
+                    world.getBlockAt(location.x, location.y, location.z),
+                    Sign.class
+            );
+
+            if (optionalSign.isPresent()) {
+                chests.add(new AccountChest(optionalSign.get(), account));
+            } else {
+                // remove accountchest from storage if it is not a valid chest
+                deleteAccountChest(location);
+            }
+        }
+
+        return chests;
     }
 
     @Override
     public Collection<String> getAccounts() {
-        return Accounts.keySet();
+        return new ArrayList<>(accounts.keySet());
     }
 
     @Override
     public Collection<String> getAccounts(String type) {
-        return null;
+        List<String> returned = new ArrayList<>();
+
+        for (CachedAccount account : accountsByType.getOrDefault(type, Collections.emptySet())) {
+            returned.add(key(type, account.owner));
+        }
+
+        return returned;
     }
 
     @Override
     public boolean storeCents(GringottsAccount account, long amount) {
-        return false;
+        CachedAccount cached = account(account.owner);
+
+        if (cached == null) {
+            return false;
+        }
+
+        cached.cents.set(amount);
+        changes.incrementAndGet();
+
+        return true;
     }
 
     @Override
     public long retrieveCents(GringottsAccount account) {
-        return 0;
+        CachedAccount cached = account(account.owner);
+
+        return cached == null ? 0 : cached.cents.get();
     }
 
     @Override
     public boolean deleteAccount(GringottsAccount acc) {
-        return false;
+        return deleteAccount(acc.owner.getType(), acc.owner.getId());
     }
 
     @Override
     public boolean deleteAccount(String type, String account) {
-        return false;
+        synchronized (structure) {
+            CachedAccount cached = account(type, account);
+
+            if (cached == null) {
+                return false;
+            }
+
+            removeVaults(cached);
+            unindex(cached);
+            accountsByType.get(cached.type).remove(cached);
+            changes.incrementAndGet();
+        }
+
+        return true;
     }
 
     @Override
     public boolean deleteAccountChests(GringottsAccount acc) {
-        return false;
+        synchronized (structure) {
+            CachedAccount cached = account(acc.owner);
+
+            return cached != null && removeVaults(cached);
+        }
     }
 
+    /**
+     * Delete all vaults of an account.
+     *
+     * @param account "type:owner" of the account, since this backend has no account ids
+     * @return true if vaults were deleted
+     */
     @Override
     public boolean deleteAccountChests(String account) {
-        return false;
+        synchronized (structure) {
+            CachedAccount cached = accounts.get(account);
+
+            return cached != null && removeVaults(cached);
+        }
+    }
+
+    @Override
+    public void forEachAccount(Consumer<StoredAccount> visitor) {
+        for (CachedAccount account : accounts.values()) {
+            visitor.accept(new StoredAccount(account.type, account.owner, account.cents.get()));
+        }
+    }
+
+    @Override
+    public void forEachChestLocation(Consumer<AccountChestLocation> visitor) {
+        for (Map.Entry<AccountChestLocation, CachedAccount> vault : vaults.entrySet()) {
+            AccountChestLocation position = vault.getKey();
+            CachedAccount        account  = vault.getValue();
+
+            visitor.accept(new AccountChestLocation(
+                    position.world,
+                    position.x,
+                    position.y,
+                    position.z,
+                    account.type,
+                    account.owner
+            ));
+        }
+    }
+
+    @Override
+    public int importAccounts(Collection<StoredAccount> accounts) {
+        int created = 0;
+
+        synchronized (structure) {
+            for (StoredAccount account : accounts) {
+                CachedAccount cached = this.accounts.get(key(account.type, account.owner));
+
+                if (cached == null) {
+                    addAccount(account.type, account.owner, account.cents);
+
+                    created++;
+                } else {
+                    cached.cents.set(account.cents);
+                    changes.incrementAndGet();
+                }
+            }
+        }
+
+        return created;
+    }
+
+    @Override
+    public int importChestLocations(Collection<AccountChestLocation> locations) {
+        int stored = 0;
+
+        synchronized (structure) {
+            for (AccountChestLocation location : locations) {
+                CachedAccount        account  = accounts.get(key(location.type, location.owner));
+                AccountChestLocation position = position(location.world, location.x, location.y, location.z);
+
+                if (account != null && !vaults.containsKey(position)) {
+                    addVault(position, account);
+
+                    stored++;
+                }
+            }
+        }
+
+        return stored;
+    }
+
+    @Override
+    public int purgeAccounts(Collection<StoredAccount> accounts) {
+        int purged = 0;
+
+        synchronized (structure) {
+            for (StoredAccount account : accounts) {
+                CachedAccount cached = this.accounts.get(key(account.type, account.owner));
+
+                if (cached == null || cached.cents.get() != account.cents) {
+                    continue;
+                }
+
+                removeVaults(cached);
+                unindex(cached);
+                accountsByType.get(cached.type).remove(cached);
+                changes.incrementAndGet();
+
+                purged++;
+            }
+        }
+
+        return purged;
+    }
+
+    @Override
+    public boolean storeLedgerEntries(List<LedgerEntry> entries) {
+        ledger.append(entries);
+
+        return true;
+    }
+
+    @Override
+    public Map<String, String> getStorageSettings() {
+        Map<String, String> settings = new LinkedHashMap<>();
+
+        settings.put("directory", directory.toString());
+        settings.put("accounts", String.valueOf(accounts.size()));
+        settings.put("vaults", String.valueOf(vaults.size()));
+        settings.put("snapshot_interval", Configuration.CONF.cacheSnapshotInterval + " s");
+        settings.put(
+                "snapshot_last",
+                snapshotTime == 0 ? "never" : new Date(snapshotTime) + " (" + snapshotMillis + " ms)"
+        );
+        settings.put("snapshot_pending_changes", String.valueOf(changes.get() - snapshotChanges));
+
+        return settings;
+    }
+
+    /**
+     * Write a snapshot now, if anything changed since the last one.
+     */
+    @Override
+    public void checkpoint(boolean truncate) {
+        snapshot(false);
     }
 
     @Override
     public void shutdown() {
+        if (snapshotTask != null) {
+            snapshotTask.cancel();
+        }
+
+        try {
+            snapshot(false);
+        } catch (GringottsStorageException e) {
+            log.severe(e.getMessage());
+        }
 
+        try {
+            ledger.close();
+        } catch (IOException e) {
+            log.warning("Failed to close ledger file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * An account in memory. The type never changes, the owner only by renaming.
+     */
+    private static final class CachedAccount {
+        private final    String                    type;
+        private final    AtomicLong                cents  = new AtomicLong();
+        private final    Set<AccountChestLocation> vaults = ConcurrentHashMap.newKeySet();
+        private volatile String                    owner;
+
+        private CachedAccount(String type, String owner) {
+            this.type  = type;
+            this.owner = owner;
+        }
     }
 }
@@ -0,0 +1,202 @@
+package org.gestern.gringotts.data;
+
+import org.gestern.gringotts.GringottsStorageException;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small fixed-size pool of JDBC connections, each with its own cache of prepared statements.
+ * Connections are opened on demand up to the pool size and kept open until {@link #shutdown()}.
+ */
+public class ConnectionPool {
+    private final String                          url;
+    private final Properties                      properties;
+    private final int                             size;
+    private final long                            timeoutMillis;
+    private final BlockingQueue<PooledConnection> idle;
+    private final List<PooledConnection>          all = new ArrayList<>();
+    private       boolean                         closed;
+
+    /**
+     * Create a connection pool.
+     *
+     * @param url           JDBC url of the database
+     * @param properties    connection properties
+     * @param size          maximum number of open connections
+     * @param timeoutMillis how long to wait for a free connection before giving up
+     */
+    public ConnectionPool(String url, Properties properties, int size, long timeoutMillis) {
+        this.url           = url;
+        this.properties    = properties;
+        this.size          = Math.max(1, size);
+        this.timeoutMillis = timeoutMillis;
+        this.idle          = new ArrayBlockingQueue<>(this.size);
+    }
+
+    /**
+     * Borrow a connection from the pool. It must be closed to return it.
+     *
+     * @return a connection
+     * @throws GringottsStorageException if no connection could be opened or none became free in time
+     */
+    public PooledConnection getConnection() {
+        PooledConnection connection = idle.poll();
+
+        if (connection == null) {
+            connection = open();
+        }
+
+        if (connection == null) {
+            try {
+                connection = idle.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (connection == null) {
+            throw new GringottsStorageException("Timed out waiting for a database connection.");
+        }
+
+        return connection;
+    }
+
+    /**
+     * Open a new connection if the pool is not full yet.
+     *
+     * @return the new connection, or null if the pool is full
+     */
+    private synchronized PooledConnection open() {
+        if (closed) {
+            throw new GringottsStorageException("Connection pool has been shut down.");
+        }
+
+        if (all.size() >= size) {
+            return null;
+        }
+
+        try {
+            PooledConnection connection = new PooledConnection(DriverManager.getConnection(url, properties));
+
+            all.add(connection);
+
+            return connection;
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Could not connect to database " + url, e);
+        }
+    }
+
+    /**
+     * Close all connections. Connections that are borrowed at this time are closed as well.
+     */
+    public synchronized void shutdown() {
+        closed = true;
+
+        for (PooledConnection connection : all) {
+            connection.closeConnection();
+        }
+
+        all.clear();
+        idle.clear();
+    }
+
+    /**
+     * A pooled connection. Prepared statements created through {@link #prepare(String)} are cached and reused,
+     * so they must not be closed by the caller.
+     */
+    public class PooledConnection implements AutoCloseable {
+        private final Connection                     connection;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * The underlying connection.
+         *
+         * @return the connection
+         */
+        public Connection connection() {
+            return connection;
+        }
+
+        /**
+         * Get a prepared statement for the given SQL, reusing a cached one if there is one.
+         *
+         * @param sql the statement
+         * @return prepared statement with cleared parameters
+         * @throws SQLException if the statement could not be prepared
+         */
+        public PreparedStatement prepare(String sql) throws SQLException {
+            QueryTrace.statement(sql);
+
+            PreparedStatement statement = statements.get(sql);
+
+            if (statement == null) {
+                statement = connection.prepareStatement(sql);
+
+                statements.put(sql, statement);
+            } else {
+                statement.clearParameters();
+            }
+
+            return statement;
+        }
+
+        /**
+         * Return this connection to the pool. An unfinished transaction is rolled back.
+         */
+        @Override
+        public void close() {
+            try {
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                // connection is broken, drop it so a new one is opened instead
+                synchronized (ConnectionPool.this) {
+                    all.remove(this);
+                }
+
+                closeConnection();
+
+                return;
+            }
+
+            synchronized (ConnectionPool.this) {
+                if (!closed && idle.offer(this)) {
+                    return;
+                }
+            }
+
+            closeConnection();
+        }
+
+        private void closeConnection() {
+            try {
+                for (PreparedStatement statement : statements.values()) {
+                    statement.close();
+                }
+
+                connection.close();
+            } catch (SQLException ignored) {
+                // closing anyway
+            }
+
+            statements.clear();
+        }
+    }
+}
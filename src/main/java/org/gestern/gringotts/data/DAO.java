@@ -5,7 +5,14 @@ import org.gestern.gringotts.GringottsAccount;
 import org.gestern.gringotts.GringottsStorageException;
 import org.gestern.gringotts.accountholder.AccountHolder;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * The interface Dao.
@@ -73,6 +80,21 @@ public interface DAO {
      */
     Collection<AccountChest> retrieveChests();
 
+    /**
+     * Get the stored locations of all chests registered with Gringotts, without accessing the world.
+     *
+     * @return locations of all chests registered with Gringotts
+     */
+    default Collection<AccountChestLocation> retrieveChestLocations() {
+        List<AccountChestLocation> locations = new ArrayList<>();
+
+        for (AccountChest chest : retrieveChests()) {
+            locations.add(AccountChestLocation.of(chest));
+        }
+
+        return locations;
+    }
+
     /**
      * Get all chests belonging to the given account.
      * If a stored chest turns out to be invalid, that chest is removed from storage.
@@ -106,6 +128,23 @@ public interface DAO {
      */
     boolean storeCents(GringottsAccount account, long amount);
 
+    /**
+     * Store amounts of cents to several accounts at once.
+     * Implementations should write all amounts within a single transaction.
+     *
+     * @param balances accounts mapped to the amount to store to each of them
+     * @return true if all amounts were stored, false otherwise.
+     */
+    default boolean storeCents(Map<GringottsAccount, Long> balances) {
+        boolean stored = true;
+
+        for (Map.Entry<GringottsAccount, Long> balance : balances.entrySet()) {
+            stored &= storeCents(balance.getKey(), balance.getValue());
+        }
+
+        return stored;
+    }
+
     /**
      * Get the cents stored for a given account.
      *
@@ -114,6 +153,16 @@ public interface DAO {
      */
     long retrieveCents(GringottsAccount account);
 
+    /**
+     * Get the cents stored for a given account, telling a missing account apart from an empty one.
+     *
+     * @param account account to query
+     * @return amount of cents stored in the account, or null if the account is not stored
+     */
+    default Long findCents(GringottsAccount account) {
+        return hasAccount(account.owner) ? retrieveCents(account) : null;
+    }
+
     /**
      * Delete an account and associated data from the storage.
      *
@@ -147,6 +196,123 @@ public interface DAO {
      */
     boolean deleteAccountChests(String account);
 
+    /**
+     * Pass every stored account to a visitor, without loading all of them into memory at once.
+     *
+     * @param visitor called for each account
+     */
+    default void forEachAccount(Consumer<StoredAccount> visitor) {
+        throw new GringottsStorageException("This storage does not support exporting accounts.");
+    }
+
+    /**
+     * Pass the location of every stored vault to a visitor, without loading all of them into memory at once.
+     *
+     * @param visitor called for each vault
+     */
+    default void forEachChestLocation(Consumer<AccountChestLocation> visitor) {
+        retrieveChestLocations().forEach(visitor);
+    }
+
+    /**
+     * Create missing accounts and set the balance of all given accounts, without calling any events.
+     * Implementations should write all accounts within a single transaction.
+     *
+     * @param accounts accounts to write
+     * @return number of accounts that were created
+     */
+    default int importAccounts(Collection<StoredAccount> accounts) {
+        throw new GringottsStorageException("This storage does not support importing accounts.");
+    }
+
+    /**
+     * Store vaults whose position is not taken yet. Vaults of accounts that don't exist are skipped.
+     * Implementations should write all vaults within a single transaction.
+     *
+     * @param locations vaults to write
+     * @return number of vaults that were stored
+     */
+    default int importChestLocations(Collection<AccountChestLocation> locations) {
+        throw new GringottsStorageException("This storage does not support importing vaults.");
+    }
+
+    /**
+     * Pass the accounts of a type that may hold little enough money to be purged to a visitor.
+     * Accounts without vaults are passed if their virtual balance is between minCents and maxCents. Accounts with
+     * vaults are passed if their virtual balance is at most maxCents, since the money in their vaults can only add
+     * to it and has to be counted in the world.
+     *
+     * @param type       account type
+     * @param minCents   lowest balance to purge
+     * @param maxCents   highest balance to purge
+     * @param withVaults true to visit the accounts with vaults, false to visit the accounts without
+     * @param visitor    called for each account
+     */
+    default void forEachPurgeCandidate(String type,
+                                       long minCents,
+                                       long maxCents,
+                                       boolean withVaults,
+                                       Consumer<StoredAccount> visitor) {
+        Set<String> vaultOwners = new HashSet<>();
+
+        forEachChestLocation(location -> {
+            if (type.equals(location.type)) {
+                vaultOwners.add(location.owner);
+            }
+        });
+
+        forEachAccount(account -> {
+            if (!type.equals(account.type) || vaultOwners.contains(account.owner) != withVaults) {
+                return;
+            }
+
+            if (account.cents <= maxCents && (withVaults || account.cents >= minCents)) {
+                visitor.accept(account);
+            }
+        });
+    }
+
+    /**
+     * Delete accounts together with their vaults. An account whose virtual balance is no longer the given one is
+     * kept, since it changed after it was chosen to be purged.
+     * Implementations should delete all accounts within a single transaction.
+     *
+     * @param accounts accounts to delete, with the balance they were chosen with
+     * @return number of accounts that were deleted
+     */
+    default int purgeAccounts(Collection<StoredAccount> accounts) {
+        throw new GringottsStorageException("This storage does not support purging accounts.");
+    }
+
+    /**
+     * Append entries to the transaction ledger.
+     * Implementations should write all entries within a single transaction.
+     *
+     * @param entries entries to append, in the order they were recorded
+     * @return true if the entries were stored, false if this storage has no ledger
+     */
+    default boolean storeLedgerEntries(List<LedgerEntry> entries) {
+        return false;
+    }
+
+    /**
+     * Settings in effect for the underlying database, for diagnostics.
+     *
+     * @return setting values by name, empty if there is nothing to report
+     */
+    default Map<String, String> getStorageSettings() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Copy the database's write-ahead log into the database file, if it uses one.
+     *
+     * @param truncate true to wait for other connections and empty the log, false to copy only what can be copied
+     *                 without waiting
+     */
+    default void checkpoint(boolean truncate) {
+    }
+
     /**
      * Shutdown the database connection.
      */
@@ -0,0 +1,366 @@
+package org.gestern.gringotts.data;
+
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+import org.gestern.gringotts.Configuration;
+import org.gestern.gringotts.Gringotts;
+import org.gestern.gringotts.GringottsStorageException;
+import org.gestern.gringotts.api.Currency;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Copies of the SQLite database, taken while the server keeps running.
+ * <p>
+ * A backup is read through its own connection on a background thread. In WAL mode, <code>VACUUM INTO</code> writes a
+ * compacted copy of the database from a single read transaction, which never blocks writers. In other journal modes
+ * a reader would block writers for the whole copy, so the driver's backup command is used instead, which copies a few
+ * pages at a time and releases its lock in between.
+ * <p>
+ * Backups are written to the <code>backups</code> folder, compressed if {@link Configuration#backupCompress} is set,
+ * every {@link Configuration#backupInterval} seconds. Only the newest {@link Configuration#backupKeep} are kept.
+ */
+public class DatabaseBackup {
+    private static final String  PREFIX = "Gringotts-";
+    private static final Pattern NAME   = Pattern.compile("Gringotts-\\d{8}-\\d{6}\\.db(\\.gz)?");
+
+    private final File          folder;
+    private final String        url;
+    private final Logger        log     = Gringotts.instance.getLogger();
+    /**
+     * Whether a backup or preview is running. Only one may run at a time.
+     */
+    private final AtomicBoolean running = new AtomicBoolean();
+    private       BukkitTask    task;
+
+    /**
+     * Create backups of a database.
+     *
+     * @param folder folder to write the backups to
+     * @param url    JDBC url of the database
+     */
+    public DatabaseBackup(File folder, String url) {
+        this.folder = folder;
+        this.url    = url;
+    }
+
+    /**
+     * Folder the backups are written to.
+     *
+     * @return the backup folder
+     */
+    public File getFolder() {
+        return folder;
+    }
+
+    /**
+     * Schedule the periodic backup, unless it is disabled.
+     */
+    public void start() {
+        if (Configuration.CONF.backupInterval <= 0) {
+            return;
+        }
+
+        long interval = Configuration.CONF.backupInterval * 20L;
+
+        task = Bukkit.getScheduler().runTaskTimerAsynchronously(Gringotts.instance, () -> {
+            try {
+                backup();
+            } catch (GringottsStorageException e) {
+                log.log(Level.SEVERE, e.getMessage(), e.getCause());
+            }
+        }, interval, interval);
+    }
+
+    /**
+     * Cancel the periodic backup.
+     */
+    public void stop() {
+        if (task != null) {
+            task.cancel();
+        }
+    }
+
+    /**
+     * Back up the database now, then delete the oldest backups beyond the configured number.
+     * Call this on a background thread.
+     *
+     * @return the backup file
+     * @throws GringottsStorageException if another backup is running or the backup failed
+     */
+    public File backup() {
+        if (!running.compareAndSet(false, true)) {
+            throw new GringottsStorageException("A backup is already running.");
+        }
+
+        long   start  = System.nanoTime();
+        String name   = PREFIX + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        File   copy   = new File(folder, name + ".db.tmp");
+        File   packed = new File(folder, name + ".db.gz.tmp");
+        File   target = new File(folder, name + (Configuration.CONF.backupCompress ? ".db.gz" : ".db"));
+
+        try {
+            //noinspection ResultOfMethodCallIgnored
+            folder.mkdirs();
+
+            Files.deleteIfExists(copy.toPath());
+
+            try (Connection connection = DriverManager.getConnection(url, SqliteProfile.connectionProperties())) {
+                copy(connection, copy);
+            }
+
+            if (Configuration.CONF.backupCompress) {
+                try (InputStream in = Files.newInputStream(copy.toPath());
+                     OutputStream out = new GZIPOutputStream(Files.newOutputStream(packed.toPath()))) {
+                    transfer(in, out);
+                }
+
+                Files.delete(copy.toPath());
+                Files.move(packed.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                Files.move(copy.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+
+            int deleted = rotate();
+
+            log.info(String.format(
+                    "Backed up the database to %s (%d KiB) in %.1f s, deleted %d old backups.",
+                    target.getName(),
+                    target.length() / 1024,
+                    (System.nanoTime() - start) / 1e9,
+                    deleted
+            ));
+
+            return target;
+        } catch (SQLException | IOException e) {
+            throw new GringottsStorageException("Failed to back up the database to " + target.getName() + ".", e);
+        } finally {
+            deleteQuietly(copy);
+            deleteQuietly(packed);
+
+            running.set(false);
+        }
+    }
+
+    /**
+     * Copy the database of a connection to a new file.
+     */
+    private static void copy(Connection connection, File file) throws SQLException {
+        String mode;
+
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery("PRAGMA journal_mode")) {
+            mode = result.next() ? result.getString(1) : "";
+        }
+
+        if ("wal".equalsIgnoreCase(mode)) {
+            try (PreparedStatement statement = connection.prepareStatement("VACUUM INTO ?")) {
+                statement.setString(1, file.getAbsolutePath());
+                statement.execute();
+            }
+        } else {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("backup to \"" + file.getAbsolutePath() + "\"");
+            }
+        }
+    }
+
+    /**
+     * Delete the oldest backups beyond the configured number.
+     *
+     * @return number of backups deleted
+     */
+    private int rotate() {
+        int keep = Configuration.CONF.backupKeep;
+
+        if (keep <= 0) {
+            return 0;
+        }
+
+        List<File> backups = list();
+        int        deleted = 0;
+
+        for (File backup : backups.subList(Math.min(keep, backups.size()), backups.size())) {
+            if (backup.delete()) {
+                deleted++;
+            } else {
+                log.warning("Could not delete old backup " + backup.getName());
+            }
+        }
+
+        return deleted;
+    }
+
+    /**
+     * All backups, newest first.
+     *
+     * @return the backup files
+     */
+    public List<File> list() {
+        File[] files = folder.listFiles((dir, name) -> NAME.matcher(name).matches());
+
+        if (files == null) {
+            return new ArrayList<>();
+        }
+
+        List<File> backups = new ArrayList<>(Arrays.asList(files));
+
+        // names sort by the time they were taken
+        backups.sort(Comparator.comparing(File::getName).reversed());
+
+        return backups;
+    }
+
+    /**
+     * A backup by its file name.
+     *
+     * @param name file name
+     * @return the backup, or null if there is no backup with that name
+     */
+    public File find(String name) {
+        for (File backup : list()) {
+            if (backup.getName().equals(name)) {
+                return backup;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Compare a backup with the current state of the storage, to see what restoring it would change.
+     * Only virtual balances and vault positions are stored, so the money in vaults is not compared.
+     * Call this on a background thread.
+     *
+     * @param backup   the backup
+     * @param dao      current storage
+     * @param currency currency to format amounts with
+     * @return lines of the report
+     * @throws GringottsStorageException if another backup is running or the backup could not be read
+     */
+    public List<String> preview(File backup, DAO dao, Currency currency) {
+        if (!running.compareAndSet(false, true)) {
+            throw new GringottsStorageException("A backup is already running.");
+        }
+
+        File copy = new File(folder, "preview.db.tmp");
+
+        try {
+            try (InputStream in = Files.newInputStream(backup.toPath())) {
+                Files.copy(
+                        backup.getName().endsWith(".gz") ? new GZIPInputStream(in) : in,
+                        copy.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING
+                );
+            }
+
+            Map<String, Long> backupCents   = new HashMap<>();
+            AtomicInteger     backupVaults  = new AtomicInteger();
+            AtomicInteger     currentVaults = new AtomicInteger();
+
+            try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + copy.getAbsolutePath())) {
+                SqlTransfer.forEachAccount(
+                        connection,
+                        account -> backupCents.put(account.type + ":" + account.owner, account.cents)
+                );
+                SqlTransfer.forEachChestLocation(connection, location -> backupVaults.incrementAndGet());
+            }
+
+            Map<String, Long> remaining    = new HashMap<>(backupCents);
+            long              backupTotal  = 0;
+            AtomicLong        currentTotal = new AtomicLong();
+            AtomicInteger     current      = new AtomicInteger();
+            AtomicInteger     created      = new AtomicInteger();
+            AtomicInteger     changed      = new AtomicInteger();
+
+            for (long cents : backupCents.values()) {
+                backupTotal += cents;
+            }
+
+            dao.forEachAccount(account -> {
+                Long before = remaining.remove(account.type + ":" + account.owner);
+
+                current.incrementAndGet();
+                currentTotal.addAndGet(account.cents);
+
+                if (before == null) {
+                    created.incrementAndGet();
+                } else if (before != account.cents) {
+                    changed.incrementAndGet();
+                }
+            });
+            dao.forEachChestLocation(location -> currentVaults.incrementAndGet());
+
+            Configuration conf  = Configuration.CONF;
+            List<String>  lines = new ArrayList<>();
+
+            lines.add("Restoring " + backup.getName() + " would change:");
+            lines.add(String.format(
+                    " Accounts: %d in backup, %d now. %d would be restored, %d created since would be lost.",
+                    backupCents.size(),
+                    current.get(),
+                    remaining.size(),
+                    created.get()
+            ));
+            lines.add(String.format(
+                    " Virtual balances: %d differ. Total %s in backup, %s now.",
+                    changed.get(),
+                    currency.format(conf.getCurrency().getDisplayValue(backupTotal)),
+                    currency.format(conf.getCurrency().getDisplayValue(currentTotal.get()))
+            ));
+            lines.add(String.format(" Vaults: %d in backup, %d now.", backupVaults.get(), currentVaults.get()));
+
+            return lines;
+        } catch (SQLException | IOException e) {
+            throw new GringottsStorageException("Failed to read backup " + backup.getName() + ".", e);
+        } finally {
+            deleteQuietly(copy);
+
+            running.set(false);
+        }
+    }
+
+    private static void transfer(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[65536];
+        int    read;
+
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+    }
+
+    private static void deleteQuietly(File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException ignored) {
+            // left for the next backup to overwrite
+        }
+    }
+}
@@ -14,6 +14,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 /**
@@ -24,12 +25,16 @@ import java.util.logging.Logger;
  */
 public class DerbyDAO implements DAO {
 
-    private static final String            DB_NAME = "GringottsDB";
+    private static final String            DB_NAME    = "GringottsDB";
+    /**
+     * Number of rows fetched from the database at once when reading for migration.
+     */
+    private static final int               FETCH_SIZE = 500;
     /**
      * Singleton DAO instance.
      */
     private static       DerbyDAO          dao;
-    private final        Logger            log     = Gringotts.instance.getLogger();
+    private final        Logger            log        = Gringotts.instance.getLogger();
     private final        Driver            driver;
     /**
      * Full connection string for database, without connect options.
@@ -356,92 +361,98 @@ public class DerbyDAO implements DAO {
     }
 
     /**
-     * Migration method: Get all account raw data.
+     * Migration method: number of rows in a table.
      *
-     * @return list of {{DerbyAccount}} describing the accounts
+     * @param table "account" or "accountchest"
+     * @return row count
      */
-    public synchronized List<DerbyAccount> getAccountsRaw() {
+    public synchronized int countRaw(String table) {
+        if (!"account".equals(table) && !"accountchest".equals(table)) {
+            throw new IllegalArgumentException("Unknown table " + table);
+        }
 
-        List<DerbyAccount> accounts = new LinkedList<>();
-        Statement stmt = null;
-        ResultSet result = null;
         try {
             checkConnection();
-            stmt = connection.createStatement();
-            result = stmt.executeQuery("select * from account");
 
-            while (result.next()) {
-                int id = result.getInt("id");
-                String type = result.getString("type");
-                String owner = result.getString("owner");
-                long cents = result.getLong("cents");
-                accounts.add(new DerbyAccount(id, type, owner, cents));
+            try (Statement stmt = connection.createStatement();
+                 ResultSet result = stmt.executeQuery("select count(*) from " + table)) {
+                return result.next() ? result.getInt(1) : 0;
             }
-
         } catch (SQLException e) {
-            throw new GringottsStorageException("Failed to get set of accounts", e);
-        } finally {
-            try {
-                if (result != null) {
-                    result.close();
-                }
-            } catch (SQLException ignored) {
-            }
-            try {
-                if (stmt != null) {
-                    stmt.close();
-                }
-            } catch (SQLException ignored) {
-            }
+            throw new GringottsStorageException("Failed to count rows of " + table, e);
         }
-
-        return accounts;
     }
 
     /**
-     * Migration method: Get all accountchest raw data.
+     * Migration method: pass the raw data of all accounts after the given id to a visitor, in order of id.
+     * Rows are read from a forward-only cursor, so they are never all held in memory.
      *
-     * @return ...
+     * @param afterId only accounts with a greater id are visited
+     * @param visitor called for each account
      */
-    public synchronized List<DerbyAccountChest> getChestsRaw() {
-        List<DerbyAccountChest> chests = new LinkedList<>();
-        Statement stmt = null;
-        ResultSet result = null;
+    public synchronized void forEachAccountRaw(int afterId, Consumer<DerbyAccount> visitor) {
         try {
             checkConnection();
-            stmt = connection.createStatement();
-            result = stmt.executeQuery("select * from accountchest");
-
-            while (result.next()) {
-                int id = result.getInt("id");
-                String world = result.getString("world");
-                int x = result.getInt("x");
-                int y = result.getInt("y");
-                int z = result.getInt("z");
-                int account = result.getInt("account");
 
-                chests.add(new DerbyAccountChest(id, world, x, y, z, account));
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "select id, type, owner, cents from account where id > ? order by id",
+                    ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY
+            )) {
+                stmt.setInt(1, afterId);
+                stmt.setFetchSize(FETCH_SIZE);
+
+                try (ResultSet result = stmt.executeQuery()) {
+                    while (result.next()) {
+                        visitor.accept(new DerbyAccount(
+                                result.getInt(1),
+                                result.getString(2),
+                                result.getString(3),
+                                result.getLong(4)
+                        ));
+                    }
+                }
             }
-
         } catch (SQLException e) {
             throw new GringottsStorageException("Failed to get set of accounts", e);
-        } finally {
-            try {
-                if (result != null) {
-                    result.close();
-                }
-            } catch (SQLException ignored) {
-            }
-            try {
-                if (stmt != null) {
-                    stmt.close();
-                }
-            } catch (SQLException ignored) {
-            }
         }
+    }
 
-        return chests;
+    /**
+     * Migration method: pass the raw data of all account chests after the given id to a visitor, in order of id.
+     * Rows are read from a forward-only cursor, so they are never all held in memory.
+     *
+     * @param afterId only chests with a greater id are visited
+     * @param visitor called for each chest
+     */
+    public synchronized void forEachChestRaw(int afterId, Consumer<DerbyAccountChest> visitor) {
+        try {
+            checkConnection();
 
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "select id, world, x, y, z, account from accountchest where id > ? order by id",
+                    ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY
+            )) {
+                stmt.setInt(1, afterId);
+                stmt.setFetchSize(FETCH_SIZE);
+
+                try (ResultSet result = stmt.executeQuery()) {
+                    while (result.next()) {
+                        visitor.accept(new DerbyAccountChest(
+                                result.getInt(1),
+                                result.getString(2),
+                                result.getInt(3),
+                                result.getInt(4),
+                                result.getInt(5),
+                                result.getInt(6)
+                        ));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to get set of account chests", e);
+        }
     }
 
     /* (non-Javadoc)
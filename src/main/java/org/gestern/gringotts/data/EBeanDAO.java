@@ -4,6 +4,7 @@ import com.avaje.ebean.EbeanServer;
 import com.avaje.ebean.SqlQuery;
 import com.avaje.ebean.SqlRow;
 import com.avaje.ebean.SqlUpdate;
+import com.avaje.ebean.Transaction;
 import org.bukkit.Bukkit;
 import org.bukkit.World;
 import org.bukkit.block.Block;
@@ -12,16 +13,83 @@ import org.gestern.gringotts.*;
 import org.gestern.gringotts.accountholder.AccountHolder;
 import org.gestern.gringotts.event.CalculateStartBalanceEvent;
 
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 /**
  * The type E bean dao.
+ * <p>
+ * Reads run concurrently. Writes are serialized by this DAO, since the database allows only one writer at a time
+ * anyway.
  */
 public class EBeanDAO implements DAO {
-    private static EBeanDAO    dao;
-    private final  EbeanServer db  = Gringotts.instance.getDatabase();
-    private final  Logger      log = Gringotts.instance.getLogger();
+    /**
+     * Marks accounts that differ only in case in {@link #upperCaseIds}.
+     */
+    private static final int                  AMBIGUOUS    = -1;
+    private static       EBeanDAO             dao;
+    private final        EbeanServer          db           = Gringotts.instance.getDatabase();
+    private final        Logger               log          = Gringotts.instance.getLogger();
+    private final        ReentrantLock        writeLock    = new ReentrantLock();
+    /**
+     * Primary keys of accounts by "type:owner", resolved once per account holder.
+     */
+    private final        Map<String, Integer> accountIds   = new ConcurrentHashMap<>();
+    /**
+     * Primary keys of accounts stored with upper case letters, by lower case "type:owner". Only these can match a
+     * lower case account holder case-insensitively without matching it exactly.
+     */
+    private final        Map<String, Integer> upperCaseIds = new ConcurrentHashMap<>();
+
+    private EBeanDAO() {
+        // the ledger is not an entity, so it isn't part of the generated DDL
+        sqlUpdate(LedgerEntry.CREATE_TABLE).execute();
+
+        Transaction    transaction = db.createTransaction();
+        SchemaMigrator migrator    = new SchemaMigrator(log);
+
+        try {
+            migrator.migrate(transaction.getConnection());
+            migrator.checkQueryPlans(transaction.getConnection());
+        } finally {
+            transaction.end();
+        }
+
+        loadUpperCaseIds();
+    }
+
+    /**
+     * Read the accounts stored with upper case letters, which takes the only case-insensitive scan of the account
+     * table that most account holders need.
+     */
+    private void loadUpperCaseIds() {
+        upperCaseIds.clear();
+
+        List<SqlRow> rows = sqlQuery(
+                "SELECT id, type, owner FROM gringotts_account WHERE type <> lower(type) OR owner <> lower(owner)"
+        ).findList();
+
+        for (SqlRow row : rows) {
+            addUpperCaseId(key(row.getString("type"), row.getString("owner")), row.getInteger("id"));
+        }
+    }
+
+    private void addUpperCaseId(String key, int id) {
+        String lower = key.toLowerCase(Locale.ROOT);
+
+        if (!lower.equals(key)) {
+            upperCaseIds.merge(lower, id, (known, added) -> known.equals(added) ? known : AMBIGUOUS);
+        }
+    }
+
+    private void removeUpperCaseId(String key, int id) {
+        upperCaseIds.remove(key.toLowerCase(Locale.ROOT), id);
+    }
 
     /**
      * Gets dao.
@@ -47,33 +115,125 @@ public class EBeanDAO implements DAO {
         return Arrays.asList(EBeanAccount.class, EBeanAccountChest.class);
     }
 
+    private SqlQuery sqlQuery(String sql) {
+        QueryTrace.statement(sql);
+
+        return db.createSqlQuery(sql);
+    }
+
+    private SqlUpdate sqlUpdate(String sql) {
+        QueryTrace.statement(sql);
+
+        return db.createSqlUpdate(sql);
+    }
+
+    private static String key(String type, String owner) {
+        return type + ":" + owner;
+    }
+
+    /**
+     * Get the primary key of the account of an account holder.
+     * Account ids are looked up by exact type and owner, falling back to a case-insensitive match for accounts
+     * stored with different case by older versions, and are remembered from then on. The fallback only queries the
+     * database for account holders with upper case letters in their id; all others can only match an account stored
+     * with upper case letters, which are kept in memory.
+     *
+     * @param type  account type
+     * @param owner account holder id
+     * @return the account id, or null if there is no such account
+     */
+    private Integer accountId(String type, String owner) {
+        String  key = key(type, owner);
+        Integer id  = accountIds.get(key);
+
+        if (id != null) {
+            return id;
+        }
+
+        SqlQuery exact = sqlQuery("SELECT id FROM gringotts_account WHERE type = :type AND owner = :owner");
+
+        exact.setParameter("type", type);
+        exact.setParameter("owner", owner);
+
+        SqlRow row = exact.findUnique();
+
+        if (row == null && key.toLowerCase(Locale.ROOT).equals(key)) {
+            id = upperCaseIds.get(key);
+
+            if (id == null || id == AMBIGUOUS) {
+                return null;
+            }
+
+            accountIds.put(key, id);
+
+            return id;
+        }
+
+        if (row == null) {
+            SqlQuery ignoreCase = sqlQuery(
+                    "SELECT id FROM gringotts_account WHERE lower(type) = lower(:type) AND lower(owner) = lower(:owner)"
+            );
+
+            ignoreCase.setParameter("type", type);
+            ignoreCase.setParameter("owner", owner);
+
+            List<SqlRow> rows = ignoreCase.findList();
+
+            if (rows.size() != 1) {
+                return null;
+            }
+
+            row = rows.get(0);
+        }
+
+        id = row.getInteger("id");
+
+        accountIds.put(key, id);
+
+        return id;
+    }
+
+    private Integer accountId(AccountHolder owner) {
+        return accountId(owner.getType(), owner.getId());
+    }
+
     @Override
-    public synchronized boolean storeAccountChest(AccountChest chest) {
-        SqlUpdate storeChest = db.createSqlUpdate(
-                "insert into gringotts_accountchest (world,x,y,z,account) " +
-                        "values (:world, :x, :y, :z, (select id from gringotts_account where owner=:owner and " +
-                        "type=:type))");
+    public boolean storeAccountChest(AccountChest chest) {
+        writeLock.lock();
 
-        Sign mark = chest.sign;
-        storeChest.setParameter("world", mark.getWorld().getName());
-        storeChest.setParameter("x", mark.getX());
-        storeChest.setParameter("y", mark.getY());
-        storeChest.setParameter("z", mark.getZ());
-        storeChest.setParameter("owner", chest.account.owner.getId());
-        storeChest.setParameter("type", chest.account.owner.getType());
+        try {
+            Integer account = accountId(chest.account.owner);
+
+            if (account == null) {
+                return false;
+            }
+
+            SqlUpdate storeChest = sqlUpdate(
+                    "insert into gringotts_accountchest (world,x,y,z,account) values (:world, :x, :y, :z, :account)"
+            );
 
-        return storeChest.execute() > 0;
+            Sign mark = chest.sign;
+            storeChest.setParameter("world", mark.getWorld().getName());
+            storeChest.setParameter("x", mark.getX());
+            storeChest.setParameter("y", mark.getY());
+            storeChest.setParameter("z", mark.getZ());
+            storeChest.setParameter("account", account);
+
+            return storeChest.execute() > 0;
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     @Override
-    public synchronized boolean deleteAccountChest(AccountChest chest) {
+    public boolean deleteAccountChest(AccountChest chest) {
         Sign mark = chest.sign;
 
         return deleteAccountChest(mark.getWorld().getName(), mark.getX(), mark.getY(), mark.getZ());
     }
 
     @Override
-    public synchronized boolean storeAccount(GringottsAccount account) {
+    public boolean storeAccount(GringottsAccount account) {
         AccountHolder owner = account.owner;
 
         if (hasAccount(owner)) {
@@ -118,31 +278,40 @@ public class EBeanDAO implements DAO {
         acc.setOwner(owner.getId());
         acc.setType(owner.getType());
 
+        writeLock.lock();
+
+        try {
+            // another thread may have created the account since it was looked up, which is not an error
+            if (hasAccount(owner)) {
+                return false;
+            }
+
+            db.save(acc);
+
+            accountIds.put(key(owner.getType(), owner.getId()), acc.getId());
+            addUpperCaseId(key(owner.getType(), owner.getId()), acc.getId());
+        } finally {
+            writeLock.unlock();
+        }
+
+        // the account has to exist before the start balance can be stored
         CalculateStartBalanceEvent startBalanceEvent = new CalculateStartBalanceEvent(account.owner);
 
         Bukkit.getPluginManager().callEvent(startBalanceEvent);
 
         if (startBalanceEvent.startValue > 0) account.add(startBalanceEvent.startValue);
 
-        db.save(acc);
-
         return true;
     }
 
     @Override
-    public synchronized boolean hasAccount(AccountHolder accountHolder) {
-        int accCount = db
-                .find(EBeanAccount.class)
-                .where()
-                .ieq("type", accountHolder.getType()).ieq("owner", accountHolder.getId())
-                .findRowCount();
-
-        return accCount == 1;
+    public boolean hasAccount(AccountHolder accountHolder) {
+        return accountId(accountHolder) != null;
     }
 
     @Override
-    public synchronized Collection<AccountChest> retrieveChests() {
-        List<SqlRow> result = db.createSqlQuery(
+    public Collection<AccountChest> retrieveChests() {
+        List<SqlRow> result = sqlQuery(
                 "SELECT ac.world, ac.x, ac.y, ac.z, a.type, a.owner FROM gringotts_accountchest ac JOIN gringotts_account a ON ac.account = a.id "
         ).findList();
 
@@ -199,17 +368,45 @@ public class EBeanDAO implements DAO {
         return chests;
     }
 
+    @Override
+    public Collection<AccountChestLocation> retrieveChestLocations() {
+        List<SqlRow> result = sqlQuery(
+                "SELECT ac.world, ac.x, ac.y, ac.z, a.type, a.owner FROM gringotts_accountchest ac JOIN gringotts_account a ON ac.account = a.id "
+        ).findList();
+
+        List<AccountChestLocation> locations = new ArrayList<>(result.size());
+
+        for (SqlRow c : result) {
+            locations.add(new AccountChestLocation(
+                    c.getString("world"),
+                    c.getInteger("x"),
+                    c.getInteger("y"),
+                    c.getInteger("z"),
+                    c.getString("type"),
+                    c.getString("owner")
+            ));
+        }
+
+        return locations;
+    }
+
     private boolean deleteAccountChest(String world, int x, int y, int z) {
-        SqlUpdate deleteChest = db.createSqlUpdate(
-                "delete from gringotts_accountchest where world = :world and x = :x and y = :y and z = :z"
-        );
+        writeLock.lock();
 
-        deleteChest.setParameter("world", world);
-        deleteChest.setParameter("x", x);
-        deleteChest.setParameter("y", y);
-        deleteChest.setParameter("z", z);
+        try {
+            SqlUpdate deleteChest = sqlUpdate(
+                    "delete from gringotts_accountchest where world = :world and x = :x and y = :y and z = :z"
+            );
+
+            deleteChest.setParameter("world", world);
+            deleteChest.setParameter("x", x);
+            deleteChest.setParameter("y", y);
+            deleteChest.setParameter("z", z);
 
-        return deleteChest.execute() > 0;
+            return deleteChest.execute() > 0;
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     /**
@@ -235,28 +432,52 @@ public class EBeanDAO implements DAO {
      */
     @Override
     public boolean renameAccount(String type, String oldName, String newName) {
-        SqlUpdate renameAccount = db.createSqlUpdate(
-                "UPDATE gringotts_account SET owner = :newName WHERE owner = :oldName and type = :type"
-        );
+        writeLock.lock();
 
-        renameAccount.setParameter("type", type);
-        renameAccount.setParameter("oldName", oldName);
-        renameAccount.setParameter("newName", newName);
+        try {
+            Integer account = accountId(type, oldName);
 
-        return renameAccount.execute() > 0;
+            if (account == null) {
+                return false;
+            }
+
+            SqlUpdate renameAccount = sqlUpdate(
+                    "UPDATE gringotts_account SET owner = :newName WHERE id = :account"
+            );
+
+            renameAccount.setParameter("account", account);
+            renameAccount.setParameter("newName", newName);
+
+            accountIds.remove(key(type, oldName));
+            accountIds.remove(key(type, newName));
+
+            if (renameAccount.execute() == 0) {
+                return false;
+            }
+
+            removeUpperCaseId(key(type, oldName), account);
+            addUpperCaseId(key(type, newName), account);
+
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     @Override
-    public synchronized List<AccountChest> retrieveChests(GringottsAccount account) {
+    public List<AccountChest> retrieveChests(GringottsAccount account) {
         // TODO ensure world interaction is done in sync task
-        SqlQuery getChests = db.createSqlQuery("SELECT ac.world, ac.x, ac.y, ac.z " +
-                "FROM gringotts_accountchest ac JOIN gringotts_account a ON ac.account = a.id " +
-                "WHERE a.owner = :owner and a.type = :type");
+        List<AccountChest> chests = new LinkedList<>();
+        Integer            id     = accountId(account.owner);
+
+        if (id == null) {
+            return chests;
+        }
 
-        getChests.setParameter("owner", account.owner.getId());
-        getChests.setParameter("type", account.owner.getType());
+        SqlQuery getChests = sqlQuery("SELECT world, x, y, z FROM gringotts_accountchest WHERE account = :account");
+
+        getChests.setParameter("account", id);
 
-        List<AccountChest> chests = new LinkedList<>();
         for (SqlRow result : getChests.findSet()) {
             String worldName = result.getString("world");
             int x = result.getInteger("x");
@@ -292,7 +513,7 @@ public class EBeanDAO implements DAO {
      */
     @Override
     public List<String> getAccounts() {
-        SqlQuery getAccounts = db.createSqlQuery("SELECT type, owner FROM gringotts_account");
+        SqlQuery getAccounts = sqlQuery("SELECT type, owner FROM gringotts_account");
 
         List<String> returned = new LinkedList<>();
 
@@ -316,7 +537,7 @@ public class EBeanDAO implements DAO {
      */
     @Override
     public List<String> getAccounts(String type) {
-        SqlQuery getAccounts = db.createSqlQuery("SELECT owner FROM gringotts_account WHERE type = :type");
+        SqlQuery getAccounts = sqlQuery("SELECT owner FROM gringotts_account WHERE type = :type");
 
         getAccounts.setParameter("type", type);
 
@@ -334,62 +555,329 @@ public class EBeanDAO implements DAO {
     }
 
     @Override
-    public synchronized boolean storeCents(GringottsAccount account, long amount) {
-        SqlUpdate up = db.createSqlUpdate("UPDATE gringotts_account SET cents = :cents " +
-                "WHERE owner = :owner and type = :type");
+    public boolean storeCents(GringottsAccount account, long amount) {
+        writeLock.lock();
 
-        up.setParameter("cents", amount);
-        up.setParameter("owner", account.owner.getId());
-        up.setParameter("type", account.owner.getType());
+        try {
+            Integer id = accountId(account.owner);
 
-        return up.execute() == 1;
+            if (id == null) {
+                return false;
+            }
+
+            SqlUpdate up = sqlUpdate("UPDATE gringotts_account SET cents = :cents WHERE id = :id");
+
+            up.setParameter("cents", amount);
+            up.setParameter("id", id);
+
+            return up.execute() == 1;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean storeCents(Map<GringottsAccount, Long> balances) {
+        if (balances.isEmpty()) {
+            return true;
+        }
+
+        int updated = 0;
+
+        writeLock.lock();
+
+        try {
+            db.beginTransaction();
+
+            for (Map.Entry<GringottsAccount, Long> balance : balances.entrySet()) {
+                Integer id = accountId(balance.getKey().owner);
+
+                if (id == null) {
+                    continue;
+                }
+
+                SqlUpdate up = sqlUpdate("UPDATE gringotts_account SET cents = :cents WHERE id = :id");
+
+                up.setParameter("cents", balance.getValue());
+                up.setParameter("id", id);
+
+                updated += up.execute();
+            }
+
+            db.commitTransaction();
+        } finally {
+            db.endTransaction();
+            writeLock.unlock();
+        }
+
+        return updated == balances.size();
     }
 
     @Override
-    public synchronized long retrieveCents(GringottsAccount account) {
-        // can this NPE? (probably doesn't)
-        return db.find(EBeanAccount.class)
-                .where()
-                .ieq("type", account.owner.getType())
-                .ieq("owner", account.owner.getId())
-                .findUnique().cents;
+    public long retrieveCents(GringottsAccount account) {
+        Long cents = findCents(account);
+
+        return cents == null ? 0 : cents;
     }
 
     @Override
-    public synchronized boolean deleteAccount(GringottsAccount acc) {
+    public Long findCents(GringottsAccount account) {
+        Integer id = accountId(account.owner);
+
+        if (id == null) {
+            return null;
+        }
+
+        SqlQuery getCents = sqlQuery("SELECT cents FROM gringotts_account WHERE id = :id");
+
+        getCents.setParameter("id", id);
+
+        SqlRow row = getCents.findUnique();
+
+        return row == null ? null : row.getLong("cents");
+    }
+
+    @Override
+    public boolean deleteAccount(GringottsAccount acc) {
         return deleteAccount(acc.owner.getType(), acc.owner.getId());
     }
 
     @Override
-    public synchronized boolean deleteAccount(String type, String account) {
-        SqlUpdate renameAccount = db.createSqlUpdate(
-                "DELETE FROM gringotts_account WHERE owner = :account and type = :type"
-        );
+    public boolean deleteAccount(String type, String account) {
+        writeLock.lock();
+
+        try {
+            Integer id = accountId(type, account);
+
+            if (id == null) {
+                return false;
+            }
+
+            SqlUpdate renameAccount = sqlUpdate(
+                    "DELETE FROM gringotts_account WHERE id = :id"
+            );
 
-        renameAccount.setParameter("type", type);
-        renameAccount.setParameter("account", account);
+            renameAccount.setParameter("id", id);
 
-        return renameAccount.execute() > 0;
+            accountIds.remove(key(type, account));
+            removeUpperCaseId(key(type, account), id);
+
+            return renameAccount.execute() > 0;
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     @Override
-    public synchronized boolean deleteAccountChests(GringottsAccount acc) {
-        return deleteAccountChests(acc.owner.getId());
+    public boolean deleteAccountChests(GringottsAccount acc) {
+        Integer id = accountId(acc.owner);
+
+        return id != null && deleteAccountChests(String.valueOf(id));
     }
 
     @Override
-    public synchronized boolean deleteAccountChests(String account) {
-        SqlUpdate renameAccount = db.createSqlUpdate(
-                "DELETE FROM gringotts_accountchest WHERE account = :account"
-        );
+    public boolean deleteAccountChests(String account) {
+        writeLock.lock();
 
-        renameAccount.setParameter("account", account);
+        try {
+            SqlUpdate renameAccount = sqlUpdate(
+                    "DELETE FROM gringotts_accountchest WHERE account = :account"
+            );
+
+            renameAccount.setParameter("account", account);
 
-        return renameAccount.execute() > 0;
+            return renameAccount.execute() > 0;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void forEachAccount(Consumer<StoredAccount> visitor) {
+        // reads run on their own connection, so other operations don't have to wait for the visitor
+        Transaction transaction = db.createTransaction();
+
+        try {
+            SqlTransfer.forEachAccount(transaction.getConnection(), visitor);
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to read accounts.", e);
+        } finally {
+            transaction.end();
+        }
     }
 
     @Override
-    public synchronized void shutdown() {
-        // probably handled by Bukkit?
+    public void forEachChestLocation(Consumer<AccountChestLocation> visitor) {
+        Transaction transaction = db.createTransaction();
+
+        try {
+            SqlTransfer.forEachChestLocation(transaction.getConnection(), visitor);
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to read account chests.", e);
+        } finally {
+            transaction.end();
+        }
+    }
+
+    @Override
+    public int importAccounts(Collection<StoredAccount> accounts) {
+        Transaction transaction = db.createTransaction();
+
+        writeLock.lock();
+
+        try {
+            int created = SqlTransfer.importAccounts(transaction.getConnection(), accounts);
+
+            transaction.commit();
+
+            if (created > 0) {
+                loadUpperCaseIds();
+            }
+
+            return created;
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to import " + accounts.size() + " accounts.", e);
+        } finally {
+            transaction.end();
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public int importChestLocations(Collection<AccountChestLocation> locations) {
+        Transaction transaction = db.createTransaction();
+
+        writeLock.lock();
+
+        try {
+            int stored = SqlTransfer.importChestLocations(transaction.getConnection(), locations);
+
+            transaction.commit();
+
+            return stored;
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to import " + locations.size() + " account chests.", e);
+        } finally {
+            transaction.end();
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void forEachPurgeCandidate(String type,
+                                      long minCents,
+                                      long maxCents,
+                                      boolean withVaults,
+                                      Consumer<StoredAccount> visitor) {
+        Transaction transaction = db.createTransaction();
+
+        try {
+            SqlTransfer.forEachPurgeCandidate(
+                    transaction.getConnection(),
+                    type,
+                    minCents,
+                    maxCents,
+                    withVaults,
+                    visitor
+            );
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to read accounts to purge.", e);
+        } finally {
+            transaction.end();
+        }
+    }
+
+    @Override
+    public int purgeAccounts(Collection<StoredAccount> accounts) {
+        Transaction transaction = db.createTransaction();
+
+        writeLock.lock();
+
+        try {
+            int purged = SqlTransfer.purgeAccounts(transaction.getConnection(), accounts);
+
+            transaction.commit();
+
+            loadUpperCaseIds();
+
+            return purged;
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to purge " + accounts.size() + " accounts.", e);
+        } finally {
+            transaction.end();
+
+            for (StoredAccount account : accounts) {
+                accountIds.remove(key(account.type, account.owner));
+            }
+
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean storeLedgerEntries(List<LedgerEntry> entries) {
+        if (entries.isEmpty()) {
+            return true;
+        }
+
+        Transaction transaction = db.createTransaction();
+
+        writeLock.lock();
+
+        try (PreparedStatement insert = transaction.getConnection().prepareStatement(LedgerEntry.INSERT)) {
+            for (LedgerEntry entry : entries) {
+                entry.bind(insert);
+                insert.addBatch();
+            }
+
+            insert.executeBatch();
+            transaction.commit();
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to store " + entries.size() + " ledger entries.", e);
+        } finally {
+            transaction.end();
+            writeLock.unlock();
+        }
+
+        return true;
+    }
+
+    @Override
+    public Map<String, String> getStorageSettings() {
+        Transaction transaction = db.createTransaction();
+
+        try {
+            return SqliteProfile.report(transaction.getConnection());
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to read database settings.", e);
+        } finally {
+            transaction.end();
+        }
+    }
+
+    @Override
+    public void checkpoint(boolean truncate) {
+        Transaction transaction = db.createTransaction();
+
+        writeLock.lock();
+
+        try {
+            SqliteProfile.checkpoint(transaction.getConnection(), truncate);
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to checkpoint database.", e);
+        } finally {
+            transaction.end();
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        // connections are probably handled by Bukkit? but leave a compact database file behind
+        try {
+            checkpoint(true);
+        } catch (GringottsStorageException e) {
+            log.warning(e.getMessage());
+        }
     }
 }
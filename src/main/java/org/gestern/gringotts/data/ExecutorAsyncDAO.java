@@ -0,0 +1,192 @@
+package org.gestern.gringotts.data;
+
+import org.bukkit.Bukkit;
+import org.gestern.gringotts.AccountChest;
+import org.gestern.gringotts.AccountLocks;
+import org.gestern.gringotts.Gringotts;
+import org.gestern.gringotts.GringottsAccount;
+import org.gestern.gringotts.accountholder.AccountHolder;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * {@link AsyncDAO} running the operations of a {@link DAO} on an executor.
+ * <p>
+ * {@link #storeAccount(GringottsAccount)}, {@link #retrieveChests()} and {@link #retrieveChests(GringottsAccount)}
+ * are the exception: they call events or read vault signs, so they run on the main thread, right away when called from
+ * it. All other operations, including storing and deleting vaults, run on the executor and don't block the caller.
+ * Operations that change or remove balances hold the locks of their accounts, like the changes on the main thread.
+ */
+public class ExecutorAsyncDAO implements AsyncDAO {
+    private final DAO      dao;
+    private final Executor executor;
+
+    /**
+     * Create an asynchronous view of a DAO.
+     *
+     * @param dao      the DAO to run operations on
+     * @param executor executor to run the operations
+     */
+    public ExecutorAsyncDAO(DAO dao, Executor executor) {
+        this.dao      = dao;
+        this.executor = executor;
+    }
+
+    private <V> CompletableFuture<V> async(Supplier<V> operation) {
+        return CompletableFuture.supplyAsync(operation, executor);
+    }
+
+    /**
+     * Run an operation on the executor while holding the locks of some accounts.
+     */
+    private <V> CompletableFuture<V> async(Supplier<V> operation, String... accounts) {
+        return async(() -> AccountLocks.call(operation, accounts));
+    }
+
+    private static String key(GringottsAccount account) {
+        return AccountLocks.key(account.owner.getType(), account.owner.getId());
+    }
+
+    /**
+     * Run an operation on the main thread. Runs it right away when already on the main thread.
+     */
+    private static <V> CompletableFuture<V> sync(Supplier<V> operation) {
+        if (Bukkit.isPrimaryThread()) {
+            try {
+                return CompletableFuture.completedFuture(operation.get());
+            } catch (RuntimeException e) {
+                CompletableFuture<V> failed = new CompletableFuture<>();
+
+                failed.completeExceptionally(e);
+
+                return failed;
+            }
+        }
+
+        CompletableFuture<V> f = new CompletableFuture<>();
+
+        Bukkit.getScheduler().runTask(Gringotts.instance, () -> {
+            try {
+                f.complete(operation.get());
+            } catch (RuntimeException e) {
+                f.completeExceptionally(e);
+            }
+        });
+
+        return f;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> storeAccountChest(AccountChest chest) {
+        return async(() -> dao.storeAccountChest(chest));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> deleteAccountChest(AccountChest chest) {
+        return async(() -> dao.deleteAccountChest(chest));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> storeAccount(GringottsAccount account) {
+        return sync(() -> dao.storeAccount(account));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> hasAccount(AccountHolder accountHolder) {
+        return async(() -> dao.hasAccount(accountHolder));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> renameAccount(String type, AccountHolder holder, String newName) {
+        return async(
+                () -> dao.renameAccount(type, holder, newName),
+                AccountLocks.key(type, holder.getId()),
+                AccountLocks.key(type, newName)
+        );
+    }
+
+    @Override
+    public CompletableFuture<Boolean> renameAccount(String type, String oldName, String newName) {
+        return async(
+                () -> dao.renameAccount(type, oldName, newName),
+                AccountLocks.key(type, oldName),
+                AccountLocks.key(type, newName)
+        );
+    }
+
+    @Override
+    public CompletableFuture<Collection<AccountChest>> retrieveChests() {
+        return sync(dao::retrieveChests);
+    }
+
+    @Override
+    public CompletableFuture<Collection<AccountChestLocation>> retrieveChestLocations() {
+        return async(dao::retrieveChestLocations);
+    }
+
+    @Override
+    public CompletableFuture<Collection<AccountChest>> retrieveChests(GringottsAccount account) {
+        return sync(() -> dao.retrieveChests(account));
+    }
+
+    @Override
+    public CompletableFuture<Collection<String>> getAccounts() {
+        return async(dao::getAccounts);
+    }
+
+    @Override
+    public CompletableFuture<Collection<String>> getAccounts(String type) {
+        return async(() -> dao.getAccounts(type));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> storeCents(GringottsAccount account, long amount) {
+        return async(() -> dao.storeCents(account, amount), key(account));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> storeCents(Map<GringottsAccount, Long> balances) {
+        String[] accounts = balances.keySet().stream().map(ExecutorAsyncDAO::key).toArray(String[]::new);
+
+        return async(() -> dao.storeCents(balances), accounts);
+    }
+
+    @Override
+    public CompletableFuture<Long> retrieveCents(GringottsAccount account) {
+        return async(() -> dao.retrieveCents(account));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> deleteAccount(GringottsAccount acc) {
+        return async(() -> dao.deleteAccount(acc), key(acc));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> deleteAccount(String type, String account) {
+        return async(() -> dao.deleteAccount(type, account), AccountLocks.key(type, account));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> deleteAccountChests(GringottsAccount acc) {
+        return async(() -> dao.deleteAccountChests(acc));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> deleteAccountChests(String account) {
+        return async(() -> dao.deleteAccountChests(account));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, String>> getStorageSettings() {
+        return async(dao::getStorageSettings);
+    }
+
+    @Override
+    public CompletableFuture<Void> checkpoint(boolean truncate) {
+        return CompletableFuture.runAsync(() -> dao.checkpoint(truncate), executor);
+    }
+}
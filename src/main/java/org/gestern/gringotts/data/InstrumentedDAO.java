@@ -0,0 +1,451 @@
+package org.gestern.gringotts.data;
+
+import org.bukkit.Bukkit;
+import org.gestern.gringotts.AccountChest;
+import org.gestern.gringotts.Configuration;
+import org.gestern.gringotts.Gringotts;
+import org.gestern.gringotts.GringottsAccount;
+import org.gestern.gringotts.accountholder.AccountHolder;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Measures the calls to another DAO: number of calls and errors and a latency histogram per method, with the share
+ * of calls made on the main server thread, where they add to the tick time.
+ * <p>
+ * Calls taking longer than {@link Configuration#instrumentationSlowThreshold} milliseconds are logged with their
+ * arguments, the calling thread and the SQL statements they ran, at most once every
+ * {@link #SLOW_LOG_INTERVAL_MILLIS} milliseconds per method. Statements are only collected while the slow call log
+ * is enabled.
+ * <p>
+ * Every call is wrapped and measured, so this is only installed when {@link Configuration#instrumentationEnabled} is
+ * set.
+ */
+public class InstrumentedDAO implements DAO {
+    /**
+     * Upper bounds of the histogram buckets in microseconds. The last bucket holds everything slower.
+     */
+    private static final long[] BUCKETS = {100, 500, 1000, 5000, 10000, 50000, 100000, 500000};
+
+    private static final long SLOW_LOG_INTERVAL_MILLIS = 10000;
+
+    private final DAO                        backend;
+    private final Logger                     log     = Gringotts.instance.getLogger();
+    private final Map<String, MethodTimings> methods = new ConcurrentHashMap<>();
+    private final long                       slowThreshold;
+    private volatile long                    since   = System.currentTimeMillis();
+
+    /**
+     * Measure the calls to a DAO.
+     *
+     * @param backend DAO to measure
+     */
+    public InstrumentedDAO(DAO backend) {
+        this.backend       = backend;
+        this.slowThreshold = TimeUnit.MILLISECONDS.toNanos(Configuration.CONF.instrumentationSlowThreshold);
+    }
+
+    /**
+     * Upper bounds of the histogram buckets in microseconds, see {@link MethodTimings#getHistogram()}.
+     *
+     * @return bucket bounds
+     */
+    public static long[] getBuckets() {
+        return BUCKETS.clone();
+    }
+
+    /**
+     * Timings of all methods called so far, slowest in total first.
+     *
+     * @return timings by method
+     */
+    public List<MethodTimings> getTimings() {
+        return methods.values().stream()
+                .sorted(Comparator.comparingLong(MethodTimings::getTotalNanos).reversed())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Time when measuring started or the timings were last reset.
+     *
+     * @return milliseconds since the epoch
+     */
+    public long getSince() {
+        return since;
+    }
+
+    /**
+     * Discard all timings.
+     */
+    public void reset() {
+        methods.clear();
+
+        since = System.currentTimeMillis();
+    }
+
+    private <T> T timed(String method, Supplier<T> call, Object... arguments) {
+        // statements are only collected for the slow call log
+        boolean tracing = slowThreshold > 0 && QueryTrace.begin();
+        boolean failed  = true;
+        long    start   = System.nanoTime();
+
+        try {
+            T result = call.get();
+
+            failed = false;
+
+            return result;
+        } finally {
+            long         nanos      = System.nanoTime() - start;
+            List<String> statements = tracing ? QueryTrace.end() : Collections.emptyList();
+
+            record(method, nanos, failed, statements, arguments);
+        }
+    }
+
+    private void timedRun(String method, Runnable call, Object... arguments) {
+        timed(method, () -> {
+            call.run();
+
+            return null;
+        }, arguments);
+    }
+
+    private void record(String method, long nanos, boolean failed, List<String> statements, Object[] arguments) {
+        MethodTimings timings = methods.computeIfAbsent(method, MethodTimings::new);
+        boolean       main    = Bukkit.isPrimaryThread();
+
+        timings.add(nanos, failed, main);
+
+        if (slowThreshold > 0 && nanos >= slowThreshold && timings.shouldLogSlow()) {
+            log.warning(String.format(
+                    "Slow storage call %s took %.1f ms on thread %s%s. Arguments: %s. SQL: %s",
+                    method,
+                    nanos / 1e6,
+                    Thread.currentThread().getName(),
+                    failed ? " and failed" : "",
+                    Arrays.stream(arguments).map(InstrumentedDAO::describe).collect(Collectors.joining(", ")),
+                    statements.isEmpty() ? "none" : String.join("; ", statements)
+            ));
+        }
+    }
+
+    private static String describe(Object argument) {
+        if (argument instanceof GringottsAccount) {
+            AccountHolder owner = ((GringottsAccount) argument).owner;
+
+            return owner.getType() + ":" + owner.getId();
+        }
+
+        if (argument instanceof AccountHolder) {
+            return ((AccountHolder) argument).getType() + ":" + ((AccountHolder) argument).getId();
+        }
+
+        if (argument instanceof AccountChest) {
+            return ((AccountChest) argument).sign.getLocation().toString();
+        }
+
+        if (argument instanceof Collection) {
+            return ((Collection<?>) argument).size() + " items";
+        }
+
+        if (argument instanceof Map) {
+            return ((Map<?, ?>) argument).size() + " entries";
+        }
+
+        return String.valueOf(argument);
+    }
+
+    @Override
+    public boolean storeAccountChest(AccountChest chest) {
+        return timed("storeAccountChest", () -> backend.storeAccountChest(chest), chest);
+    }
+
+    @Override
+    public boolean deleteAccountChest(AccountChest chest) {
+        return timed("deleteAccountChest", () -> backend.deleteAccountChest(chest), chest);
+    }
+
+    @Override
+    public boolean storeAccount(GringottsAccount account) {
+        return timed("storeAccount", () -> backend.storeAccount(account), account);
+    }
+
+    @Override
+    public boolean hasAccount(AccountHolder accountHolder) {
+        return timed("hasAccount", () -> backend.hasAccount(accountHolder), accountHolder);
+    }
+
+    @Override
+    public boolean renameAccount(String type, AccountHolder holder, String newName) {
+        return timed("renameAccount", () -> backend.renameAccount(type, holder, newName), type, holder, newName);
+    }
+
+    @Override
+    public boolean renameAccount(String type, String oldName, String newName) {
+        return timed("renameAccount", () -> backend.renameAccount(type, oldName, newName), type, oldName, newName);
+    }
+
+    @Override
+    public Collection<AccountChest> retrieveChests() {
+        return timed("retrieveChests", backend::retrieveChests);
+    }
+
+    @Override
+    public Collection<AccountChestLocation> retrieveChestLocations() {
+        return timed("retrieveChestLocations", backend::retrieveChestLocations);
+    }
+
+    @Override
+    public Collection<AccountChest> retrieveChests(GringottsAccount account) {
+        return timed("retrieveChests(account)", () -> backend.retrieveChests(account), account);
+    }
+
+    @Override
+    public Collection<String> getAccounts() {
+        return timed("getAccounts", backend::getAccounts);
+    }
+
+    @Override
+    public Collection<String> getAccounts(String type) {
+        return timed("getAccounts(type)", () -> backend.getAccounts(type), type);
+    }
+
+    @Override
+    public boolean storeCents(GringottsAccount account, long amount) {
+        return timed("storeCents", () -> backend.storeCents(account, amount), account, amount);
+    }
+
+    @Override
+    public boolean storeCents(Map<GringottsAccount, Long> balances) {
+        return timed("storeCents(batch)", () -> backend.storeCents(balances), balances);
+    }
+
+    @Override
+    public long retrieveCents(GringottsAccount account) {
+        return timed("retrieveCents", () -> backend.retrieveCents(account), account);
+    }
+
+    @Override
+    public Long findCents(GringottsAccount account) {
+        return timed("findCents", () -> backend.findCents(account), account);
+    }
+
+    @Override
+    public boolean deleteAccount(GringottsAccount acc) {
+        return timed("deleteAccount", () -> backend.deleteAccount(acc), acc);
+    }
+
+    @Override
+    public boolean deleteAccount(String type, String account) {
+        return timed("deleteAccount", () -> backend.deleteAccount(type, account), type, account);
+    }
+
+    @Override
+    public boolean deleteAccountChests(GringottsAccount acc) {
+        return timed("deleteAccountChests", () -> backend.deleteAccountChests(acc), acc);
+    }
+
+    @Override
+    public boolean deleteAccountChests(String account) {
+        return timed("deleteAccountChests", () -> backend.deleteAccountChests(account), account);
+    }
+
+    @Override
+    public void forEachAccount(Consumer<StoredAccount> visitor) {
+        timedRun("forEachAccount", () -> backend.forEachAccount(visitor));
+    }
+
+    @Override
+    public void forEachChestLocation(Consumer<AccountChestLocation> visitor) {
+        timedRun("forEachChestLocation", () -> backend.forEachChestLocation(visitor));
+    }
+
+    @Override
+    public int importAccounts(Collection<StoredAccount> accounts) {
+        return timed("importAccounts", () -> backend.importAccounts(accounts), accounts);
+    }
+
+    @Override
+    public int importChestLocations(Collection<AccountChestLocation> locations) {
+        return timed("importChestLocations", () -> backend.importChestLocations(locations), locations);
+    }
+
+    @Override
+    public void forEachPurgeCandidate(String type,
+                                      long minCents,
+                                      long maxCents,
+                                      boolean withVaults,
+                                      Consumer<StoredAccount> visitor) {
+        timedRun(
+                "forEachPurgeCandidate",
+                () -> backend.forEachPurgeCandidate(type, minCents, maxCents, withVaults, visitor),
+                type,
+                minCents,
+                maxCents,
+                withVaults
+        );
+    }
+
+    @Override
+    public int purgeAccounts(Collection<StoredAccount> accounts) {
+        return timed("purgeAccounts", () -> backend.purgeAccounts(accounts), accounts);
+    }
+
+    @Override
+    public boolean storeLedgerEntries(List<LedgerEntry> entries) {
+        return timed("storeLedgerEntries", () -> backend.storeLedgerEntries(entries), entries);
+    }
+
+    @Override
+    public Map<String, String> getStorageSettings() {
+        return backend.getStorageSettings();
+    }
+
+    @Override
+    public void checkpoint(boolean truncate) {
+        timedRun("checkpoint", () -> backend.checkpoint(truncate), truncate);
+    }
+
+    @Override
+    public void shutdown() {
+        backend.shutdown();
+    }
+
+    /**
+     * Call counts and latency histogram of one DAO method.
+     */
+    public static class MethodTimings {
+        private final String      method;
+        private final LongAdder   calls      = new LongAdder();
+        private final LongAdder   errors     = new LongAdder();
+        private final LongAdder   slow       = new LongAdder();
+        private final LongAdder   totalNanos = new LongAdder();
+        private final LongAdder   mainCalls  = new LongAdder();
+        private final LongAdder   mainNanos  = new LongAdder();
+        private final AtomicLong  maxNanos   = new AtomicLong();
+        private final AtomicLong  lastSlow   = new AtomicLong();
+        private final LongAdder[] histogram  = new LongAdder[BUCKETS.length + 1];
+
+        private MethodTimings(String method) {
+            this.method = method;
+
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = new LongAdder();
+            }
+        }
+
+        private void add(long nanos, boolean failed, boolean main) {
+            long micros = nanos / 1000;
+            int  bucket = 0;
+
+            while (bucket < BUCKETS.length && micros >= BUCKETS[bucket]) {
+                bucket++;
+            }
+
+            histogram[bucket].increment();
+            calls.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+
+            if (failed) {
+                errors.increment();
+            }
+
+            if (main) {
+                mainCalls.increment();
+                mainNanos.add(nanos);
+            }
+        }
+
+        /**
+         * Count a slow call and decide whether to log it.
+         */
+        private boolean shouldLogSlow() {
+            long now  = System.currentTimeMillis();
+            long last = lastSlow.get();
+
+            slow.increment();
+
+            return now - last >= SLOW_LOG_INTERVAL_MILLIS && lastSlow.compareAndSet(last, now);
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public long getCalls() {
+            return calls.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public long getSlowCalls() {
+            return slow.sum();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        public long getMainThreadCalls() {
+            return mainCalls.sum();
+        }
+
+        public long getMainThreadNanos() {
+            return mainNanos.sum();
+        }
+
+        /**
+         * Number of calls per latency bucket, see {@link InstrumentedDAO#getBuckets()}.
+         *
+         * @return call counts, one more than there are bucket bounds
+         */
+        public long[] getHistogram() {
+            long[] counts = new long[histogram.length];
+
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = histogram[i].sum();
+            }
+
+            return counts;
+        }
+
+        /**
+         * Estimate a percentile of the latency as the upper bound of the bucket it falls into.
+         *
+         * @param percentile between 0 and 100
+         * @return latency in microseconds, or -1 if it is above the last bucket bound
+         */
+        public long getPercentileMicros(double percentile) {
+            long[] counts = getHistogram();
+            long   total  = Arrays.stream(counts).sum();
+            long   rank   = (long) Math.ceil(total * percentile / 100);
+            long   seen   = 0;
+
+            for (int i = 0; i < BUCKETS.length; i++) {
+                seen += counts[i];
+
+                if (seen >= rank) {
+                    return BUCKETS[i];
+                }
+            }
+
+            return -1;
+        }
+    }
+}
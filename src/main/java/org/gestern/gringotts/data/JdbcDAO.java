@@ -0,0 +1,876 @@
+package org.gestern.gringotts.data;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.Sign;
+import org.gestern.gringotts.*;
+import org.gestern.gringotts.accountholder.AccountHolder;
+import org.gestern.gringotts.data.ConnectionPool.PooledConnection;
+import org.gestern.gringotts.event.CalculateStartBalanceEvent;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * DAO on plain JDBC with a small connection pool and cached prepared statements.
+ * <p>
+ * Uses the same tables as {@link EBeanDAO}, so an existing database can be used by either implementation.
+ * Reads run concurrently on pooled connections. Writes are serialized by this DAO, since the database allows only
+ * one writer at a time anyway.
+ */
+public class JdbcDAO implements DAO {
+    private static final String[] CREATE_TABLES = {
+            "CREATE TABLE IF NOT EXISTS gringotts_account (" +
+                    "id integer primary key, " +
+                    "type varchar(255) not null, " +
+                    "owner varchar(255) not null, " +
+                    "cents bigint not null, " +
+                    "constraint uq_gringotts_account_1 unique (type, owner))",
+            "CREATE TABLE IF NOT EXISTS gringotts_accountchest (" +
+                    "id integer primary key, " +
+                    "world varchar(255) not null, " +
+                    "x integer not null, " +
+                    "y integer not null, " +
+                    "z integer not null, " +
+                    "account integer not null, " +
+                    "constraint uq_gringotts_accountchest_1 unique (world, x, y, z))",
+            LedgerEntry.CREATE_TABLE
+    };
+
+    /**
+     * Marks accounts that differ only in case in {@link #upperCaseIds}.
+     */
+    private static final int AMBIGUOUS = -1;
+
+    private static JdbcDAO dao;
+
+    private final Logger               log          = Gringotts.instance.getLogger();
+    private final ConnectionPool       pool;
+    private final ReentrantLock        writeLock    = new ReentrantLock();
+    /**
+     * Primary keys of accounts by "type:owner", resolved once per account holder.
+     */
+    private final Map<String, Integer> accountIds   = new ConcurrentHashMap<>();
+    /**
+     * Primary keys of accounts stored with upper case letters, by lower case "type:owner". Only these can match a
+     * lower case account holder case-insensitively without matching it exactly.
+     */
+    private final Map<String, Integer> upperCaseIds = new ConcurrentHashMap<>();
+
+    private JdbcDAO(ConnectionPool pool) {
+        this.pool = pool;
+
+        createTables();
+    }
+
+    /**
+     * Gets dao.
+     *
+     * @return the dao
+     */
+    public synchronized static JdbcDAO getDao() {
+        if (dao != null) {
+            return dao;
+        }
+
+        dao = new JdbcDAO(new ConnectionPool(
+                Gringotts.instance.getDatabaseUrl(),
+                SqliteProfile.connectionProperties(),
+                Configuration.CONF.storagePoolSize,
+                10000
+        ));
+
+        return dao;
+    }
+
+    private static String key(String type, String owner) {
+        return type + ":" + owner;
+    }
+
+    private void createTables() {
+        writeLock.lock();
+
+        try (PooledConnection connection = pool.getConnection();
+             Statement statement = connection.connection().createStatement()) {
+            for (String sql : CREATE_TABLES) {
+                statement.executeUpdate(sql);
+            }
+
+            SchemaMigrator migrator = new SchemaMigrator(log);
+
+            migrator.migrate(connection.connection());
+            migrator.checkQueryPlans(connection.connection());
+
+            loadUpperCaseIds(connection);
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to create database tables.", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Read the accounts stored with upper case letters, which takes the only case-insensitive scan of the account
+     * table that most account holders need.
+     *
+     * @param connection connection to use
+     */
+    private void loadUpperCaseIds(PooledConnection connection) throws SQLException {
+        upperCaseIds.clear();
+
+        PreparedStatement upperCase = connection.prepare(
+                "SELECT id, type, owner FROM gringotts_account WHERE type <> lower(type) OR owner <> lower(owner)"
+        );
+
+        try (ResultSet result = upperCase.executeQuery()) {
+            while (result.next()) {
+                addUpperCaseId(key(result.getString(2), result.getString(3)), result.getInt(1));
+            }
+        }
+    }
+
+    private void addUpperCaseId(String key, int id) {
+        String lower = key.toLowerCase(Locale.ROOT);
+
+        if (!lower.equals(key)) {
+            upperCaseIds.merge(lower, id, (known, added) -> known.equals(added) ? known : AMBIGUOUS);
+        }
+    }
+
+    private void removeUpperCaseId(String key, int id) {
+        upperCaseIds.remove(key.toLowerCase(Locale.ROOT), id);
+    }
+
+    /**
+     * Get the primary key of the account of an account holder.
+     * Account ids are looked up by exact type and owner, falling back to a case-insensitive match for accounts
+     * stored with different case by older versions, and are remembered from then on. The fallback only queries the
+     * database for account holders with upper case letters in their id; all others can only match an account stored
+     * with upper case letters, which are kept in memory.
+     *
+     * @param connection connection to use
+     * @param type       account type
+     * @param owner      account holder id
+     * @return the account id, or null if there is no such account
+     */
+    private Integer accountId(PooledConnection connection, String type, String owner) throws SQLException {
+        String  key = key(type, owner);
+        Integer id  = accountIds.get(key);
+
+        if (id != null) {
+            return id;
+        }
+
+        PreparedStatement exact = connection.prepare(
+                "SELECT id FROM gringotts_account WHERE type = ? AND owner = ?"
+        );
+
+        exact.setString(1, type);
+        exact.setString(2, owner);
+
+        try (ResultSet result = exact.executeQuery()) {
+            if (result.next()) {
+                id = result.getInt(1);
+            }
+        }
+
+        if (id == null && key.toLowerCase(Locale.ROOT).equals(key)) {
+            id = upperCaseIds.get(key);
+
+            if (id == null || id == AMBIGUOUS) {
+                return null;
+            }
+        } else if (id == null) {
+            PreparedStatement ignoreCase = connection.prepare(
+                    "SELECT id FROM gringotts_account WHERE lower(type) = lower(?) AND lower(owner) = lower(?)"
+            );
+
+            ignoreCase.setString(1, type);
+            ignoreCase.setString(2, owner);
+
+            try (ResultSet result = ignoreCase.executeQuery()) {
+                if (!result.next()) {
+                    return null;
+                }
+
+                id = result.getInt(1);
+
+                // ambiguous
+                if (result.next()) {
+                    return null;
+                }
+            }
+        }
+
+        accountIds.put(key, id);
+
+        return id;
+    }
+
+    private Integer accountId(PooledConnection connection, AccountHolder owner) throws SQLException {
+        return accountId(connection, owner.getType(), owner.getId());
+    }
+
+    @Override
+    public boolean storeAccountChest(AccountChest chest) {
+        Sign mark = chest.sign;
+
+        writeLock.lock();
+
+        try (PooledConnection connection = pool.getConnection()) {
+            Integer account = accountId(connection, chest.account.owner);
+
+            if (account == null) {
+                return false;
+            }
+
+            PreparedStatement storeChest = connection.prepare(
+                    "INSERT INTO gringotts_accountchest (world, x, y, z, account) VALUES (?, ?, ?, ?, ?)"
+            );
+
+            storeChest.setString(1, mark.getWorld().getName());
+            storeChest.setInt(2, mark.getX());
+            storeChest.setInt(3, mark.getY());
+            storeChest.setInt(4, mark.getZ());
+            storeChest.setInt(5, account);
+
+            return storeChest.executeUpdate() > 0;
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to store account chest: " + chest, e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean deleteAccountChest(AccountChest chest) {
+        Sign mark = chest.sign;
+
+        return deleteAccountChest(mark.getWorld().getName(), mark.getX(), mark.getY(), mark.getZ());
+    }
+
+    private boolean deleteAccountChest(String world, int x, int y, int z) {
+        writeLock.lock();
+
+        try (PooledConnection connection = pool.getConnection()) {
+            PreparedStatement deleteChest = connection.prepare(
+                    "DELETE FROM gringotts_accountchest WHERE world = ? AND x = ? AND y = ? AND z = ?"
+            );
+
+            deleteChest.setString(1, world);
+            deleteChest.setInt(2, x);
+            deleteChest.setInt(3, y);
+            deleteChest.setInt(4, z);
+
+            return deleteChest.executeUpdate() > 0;
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to delete account chest.", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean storeAccount(GringottsAccount account) {
+        AccountHolder owner = account.owner;
+
+        if (hasAccount(owner)) {
+            return false;
+        }
+
+        // If removed, it will break backwards compatibility :(
+        if (Objects.equals(owner.getType(), "town") || Objects.equals(owner.getType(), "nation")) {
+            String legacyId = owner.getType() + "-" + owner.getName();
+
+            if (accountExists(owner.getType(), legacyId)) {
+                renameAccount(owner.getType(), legacyId, owner.getId());
+
+                return false;
+            }
+        }
+
+        writeLock.lock();
+
+        try (PooledConnection connection = pool.getConnection()) {
+            // another thread may have created the account since it was looked up, which is not an error
+            PreparedStatement storeAccount = connection.prepare(
+                    "INSERT INTO gringotts_account (type, owner, cents) SELECT ?, ?, 0 " +
+                            "WHERE NOT EXISTS (SELECT 1 FROM gringotts_account WHERE type = ? AND owner = ?)"
+            );
+
+            storeAccount.setString(1, owner.getType());
+            storeAccount.setString(2, owner.getId());
+            storeAccount.setString(3, owner.getType());
+            storeAccount.setString(4, owner.getId());
+
+            if (storeAccount.executeUpdate() == 0) {
+                return false;
+            }
+
+            Integer id = accountId(connection, owner);
+
+            if (id != null) {
+                addUpperCaseId(key(owner.getType(), owner.getId()), id);
+            }
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to store account: " + account, e);
+        } finally {
+            writeLock.unlock();
+        }
+
+        // the account has to exist before the start balance can be stored
+        CalculateStartBalanceEvent startBalanceEvent = new CalculateStartBalanceEvent(account.owner);
+
+        Bukkit.getPluginManager().callEvent(startBalanceEvent);
+
+        if (startBalanceEvent.startValue > 0) account.add(startBalanceEvent.startValue);
+
+        return true;
+    }
+
+    private boolean accountExists(String type, String owner) {
+        try (PooledConnection connection = pool.getConnection()) {
+            return accountId(connection, type, owner) != null;
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to look up account " + key(type, owner), e);
+        }
+    }
+
+    @Override
+    public boolean hasAccount(AccountHolder accountHolder) {
+        return accountExists(accountHolder.getType(), accountHolder.getId());
+    }
+
+    @Override
+    public Collection<AccountChest> retrieveChests() {
+        List<AccountChest> chests = new LinkedList<>();
+
+        for (AccountChestLocation location : retrieveChestLocations()) {
+            World world = Bukkit.getWorld(location.world);
+
+            if (world == null) {
+                continue; // skip vaults in non-existing worlds
+            }
+
+            Block signBlock = world.getBlockAt(location.x, location.y, location.z);
+            Optional<Sign> optionalSign = Util.getBlockStateAs(
+                    signBlock,
+                    Sign.class
+            );
+
+            if (optionalSign.isPresent()) {
+                AccountHolder owner = Gringotts.instance.getAccountHolderFactory().get(location.type, location.owner);
+
+                if (owner == null) {
+                    log.info(String.format(
+                            "AccountHolder %s:%s is not valid. Deleting associated account chest at %s",
+                            location.type,
+                            location.owner,
+                            signBlock.getLocation()
+                    ));
+
+                    deleteAccountChest(location.world, location.x, location.y, location.z);
+                } else {
+                    chests.add(new AccountChest(optionalSign.get(), new GringottsAccount(owner)));
+                }
+            } else {
+                // remove accountchest from storage if it is not a valid chest
+                deleteAccountChest(location.world, location.x, location.y, location.z);
+            }
+        }
+
+        return chests;
+    }
+
+    @Override
+    public Collection<AccountChestLocation> retrieveChestLocations() {
+        List<AccountChestLocation> locations = new ArrayList<>();
+
+        try (PooledConnection connection = pool.getConnection()) {
+            PreparedStatement getChests = connection.prepare(
+                    "SELECT ac.world, ac.x, ac.y, ac.z, a.type, a.owner " +
+                            "FROM gringotts_accountchest ac JOIN gringotts_account a ON ac.account = a.id"
+            );
+
+            try (ResultSet result = getChests.executeQuery()) {
+                while (result.next()) {
+                    locations.add(new AccountChestLocation(
+                            result.getString(1),
+                            result.getInt(2),
+                            result.getInt(3),
+                            result.getInt(4),
+                            result.getString(5),
+                            result.getString(6)
+                    ));
+                }
+            }
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to retrieve account chests.", e);
+        }
+
+        return locations;
+    }
+
+    @Override
+    public Collection<AccountChest> retrieveChests(GringottsAccount account) {
+        List<AccountChest>         chests    = new LinkedList<>();
+        List<AccountChestLocation> locations = new ArrayList<>();
+
+        try (PooledConnection connection = pool.getConnection()) {
+            Integer id = accountId(connection, account.owner);
+
+            if (id == null) {
+                return chests;
+            }
+
+            PreparedStatement getChests = connection.prepare(
+                    "SELECT world, x, y, z FROM gringotts_accountchest WHERE account = ?"
+            );
+
+            getChests.setInt(1, id);
+
+            try (ResultSet result = getChests.executeQuery()) {
+                while (result.next()) {
+                    locations.add(new AccountChestLocation(
+                            result.getString(1),
+                            result.getInt(2),
+                            result.getInt(3),
+                            result.getInt(4),
+                            account.owner.getType(),
+                            account.owner.getId()
+                    ));
+                }
+            }
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to retrieve account chests of " + account, e);
+        }
+
+        // the connection is returned before touching the world, deleting invalid chests needs one as well
+        for (AccountChestLocation location : locations) {
+            World world = Bukkit.getWorld(location.world);
+
+            if (world == null) {
+                continue; // skip chest if it is in non-existent world
+            }
+
+            Optional<Sign> optionalSign = Util.getBlockStateAs(
+                    world.getBlockAt(location.x, location.y, location.z),
+                    Sign.class
+            );
+
+            if (optionalSign.isPresent()) {
+                chests.add(new AccountChest(optionalSign.get(), account));
+            } else {
+                // remove accountchest from storage if it is not a valid chest
+                deleteAccountChest(location.world, location.x, location.y, location.z);
+            }
+        }
+
+        return chests;
+    }
+
+    @Override
+    public boolean renameAccount(String type, AccountHolder holder, String newName) {
+        return renameAccount(type, holder.getId(), newName);
+    }
+
+    @Override
+    public boolean renameAccount(String type, String oldName, String newName) {
+        writeLock.lock();
+
+        try (PooledConnection connection = pool.getConnection()) {
+            Integer id = accountId(connection, type, oldName);
+
+            if (id == null) {
+                return false;
+            }
+
+            PreparedStatement renameAccount = connection.prepare(
+                    "UPDATE gringotts_account SET owner = ? WHERE id = ?"
+            );
+
+            renameAccount.setString(1, newName);
+            renameAccount.setInt(2, id);
+
+            accountIds.remove(key(type, oldName));
+            accountIds.remove(key(type, newName));
+
+            if (renameAccount.executeUpdate() == 0) {
+                return false;
+            }
+
+            removeUpperCaseId(key(type, oldName), id);
+            addUpperCaseId(key(type, newName), id);
+
+            return true;
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to rename account " + key(type, oldName), e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<String> getAccounts() {
+        List<String> returned = new LinkedList<>();
+
+        try (PooledConnection connection = pool.getConnection()) {
+            PreparedStatement getAccounts = connection.prepare("SELECT type, owner FROM gringotts_account");
+
+            try (ResultSet result = getAccounts.executeQuery()) {
+                while (result.next()) {
+                    String type  = result.getString(1);
+                    String owner = result.getString(2);
+
+                    if (type != null && owner != null) {
+                        returned.add(type + ":" + owner);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to retrieve accounts.", e);
+        }
+
+        return returned;
+    }
+
+    @Override
+    public Collection<String> getAccounts(String type) {
+        List<String> returned = new LinkedList<>();
+
+        try (PooledConnection connection = pool.getConnection()) {
+            PreparedStatement getAccounts = connection.prepare("SELECT owner FROM gringotts_account WHERE type = ?");
+
+            getAccounts.setString(1, type);
+
+            try (ResultSet result = getAccounts.executeQuery()) {
+                while (result.next()) {
+                    String owner = result.getString(1);
+
+                    if (owner != null) {
+                        returned.add(type + ":" + owner);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to retrieve accounts.", e);
+        }
+
+        return returned;
+    }
+
+    @Override
+    public boolean storeCents(GringottsAccount account, long amount) {
+        writeLock.lock();
+
+        try (PooledConnection connection = pool.getConnection()) {
+            Integer id = accountId(connection, account.owner);
+
+            return id != null && updateCents(connection, id, amount) == 1;
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to store balance of " + account, e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean storeCents(Map<GringottsAccount, Long> balances) {
+        if (balances.isEmpty()) {
+            return true;
+        }
+
+        int updated = 0;
+
+        writeLock.lock();
+
+        try (PooledConnection connection = pool.getConnection()) {
+            connection.connection().setAutoCommit(false);
+
+            for (Map.Entry<GringottsAccount, Long> balance : balances.entrySet()) {
+                Integer id = accountId(connection, balance.getKey().owner);
+
+                if (id != null) {
+                    updated += updateCents(connection, id, balance.getValue());
+                }
+            }
+
+            connection.connection().commit();
+            connection.connection().setAutoCommit(true);
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to store " + balances.size() + " balances.", e);
+        } finally {
+            writeLock.unlock();
+        }
+
+        return updated == balances.size();
+    }
+
+    private int updateCents(PooledConnection connection, int id, long amount) throws SQLException {
+        PreparedStatement storeCents = connection.prepare("UPDATE gringotts_account SET cents = ? WHERE id = ?");
+
+        storeCents.setLong(1, amount);
+        storeCents.setInt(2, id);
+
+        return storeCents.executeUpdate();
+    }
+
+    @Override
+    public long retrieveCents(GringottsAccount account) {
+        Long cents = findCents(account);
+
+        return cents == null ? 0 : cents;
+    }
+
+    @Override
+    public Long findCents(GringottsAccount account) {
+        try (PooledConnection connection = pool.getConnection()) {
+            Integer id = accountId(connection, account.owner);
+
+            if (id == null) {
+                return null;
+            }
+
+            PreparedStatement retrieveCents = connection.prepare("SELECT cents FROM gringotts_account WHERE id = ?");
+
+            retrieveCents.setInt(1, id);
+
+            try (ResultSet result = retrieveCents.executeQuery()) {
+                // the account may have been deleted after its id was remembered
+                return result.next() ? result.getLong(1) : null;
+            }
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to retrieve balance of " + account, e);
+        }
+    }
+
+    @Override
+    public boolean deleteAccount(GringottsAccount acc) {
+        return deleteAccount(acc.owner.getType(), acc.owner.getId());
+    }
+
+    @Override
+    public boolean deleteAccount(String type, String account) {
+        writeLock.lock();
+
+        try (PooledConnection connection = pool.getConnection()) {
+            Integer id = accountId(connection, type, account);
+
+            if (id == null) {
+                return false;
+            }
+
+            PreparedStatement deleteAccount = connection.prepare("DELETE FROM gringotts_account WHERE id = ?");
+
+            deleteAccount.setInt(1, id);
+
+            accountIds.remove(key(type, account));
+            removeUpperCaseId(key(type, account), id);
+
+            return deleteAccount.executeUpdate() > 0;
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to delete account " + key(type, account), e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean deleteAccountChests(GringottsAccount acc) {
+        Integer id;
+
+        try (PooledConnection connection = pool.getConnection()) {
+            id = accountId(connection, acc.owner);
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to look up account " + acc, e);
+        }
+
+        return id != null && deleteAccountChests(String.valueOf(id));
+    }
+
+    @Override
+    public boolean deleteAccountChests(String account) {
+        writeLock.lock();
+
+        try (PooledConnection connection = pool.getConnection()) {
+            PreparedStatement deleteChests = connection.prepare("DELETE FROM gringotts_accountchest WHERE account = ?");
+
+            deleteChests.setString(1, account);
+
+            return deleteChests.executeUpdate() > 0;
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to delete account chests of account " + account, e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void forEachAccount(Consumer<StoredAccount> visitor) {
+        try (PooledConnection connection = pool.getConnection()) {
+            SqlTransfer.forEachAccount(connection.connection(), visitor);
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to read accounts.", e);
+        }
+    }
+
+    @Override
+    public void forEachChestLocation(Consumer<AccountChestLocation> visitor) {
+        try (PooledConnection connection = pool.getConnection()) {
+            SqlTransfer.forEachChestLocation(connection.connection(), visitor);
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to read account chests.", e);
+        }
+    }
+
+    @Override
+    public int importAccounts(Collection<StoredAccount> accounts) {
+        writeLock.lock();
+
+        try (PooledConnection connection = pool.getConnection()) {
+            connection.connection().setAutoCommit(false);
+
+            int created = SqlTransfer.importAccounts(connection.connection(), accounts);
+
+            connection.connection().commit();
+            connection.connection().setAutoCommit(true);
+
+            if (created > 0) {
+                loadUpperCaseIds(connection);
+            }
+
+            return created;
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to import " + accounts.size() + " accounts.", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public int importChestLocations(Collection<AccountChestLocation> locations) {
+        writeLock.lock();
+
+        try (PooledConnection connection = pool.getConnection()) {
+            connection.connection().setAutoCommit(false);
+
+            int stored = SqlTransfer.importChestLocations(connection.connection(), locations);
+
+            connection.connection().commit();
+            connection.connection().setAutoCommit(true);
+
+            return stored;
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to import " + locations.size() + " account chests.", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void forEachPurgeCandidate(String type,
+                                      long minCents,
+                                      long maxCents,
+                                      boolean withVaults,
+                                      Consumer<StoredAccount> visitor) {
+        try (PooledConnection connection = pool.getConnection()) {
+            SqlTransfer.forEachPurgeCandidate(connection.connection(), type, minCents, maxCents, withVaults, visitor);
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to read accounts to purge.", e);
+        }
+    }
+
+    @Override
+    public int purgeAccounts(Collection<StoredAccount> accounts) {
+        writeLock.lock();
+
+        try (PooledConnection connection = pool.getConnection()) {
+            connection.connection().setAutoCommit(false);
+
+            int purged = SqlTransfer.purgeAccounts(connection.connection(), accounts);
+
+            connection.connection().commit();
+            connection.connection().setAutoCommit(true);
+
+            loadUpperCaseIds(connection);
+
+            return purged;
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to purge " + accounts.size() + " accounts.", e);
+        } finally {
+            for (StoredAccount account : accounts) {
+                accountIds.remove(key(account.type, account.owner));
+            }
+
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean storeLedgerEntries(List<LedgerEntry> entries) {
+        if (entries.isEmpty()) {
+            return true;
+        }
+
+        writeLock.lock();
+
+        try (PooledConnection connection = pool.getConnection()) {
+            PreparedStatement insert = connection.prepare(LedgerEntry.INSERT);
+
+            connection.connection().setAutoCommit(false);
+
+            for (LedgerEntry entry : entries) {
+                entry.bind(insert);
+                insert.addBatch();
+            }
+
+            insert.executeBatch();
+
+            connection.connection().commit();
+            connection.connection().setAutoCommit(true);
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to store " + entries.size() + " ledger entries.", e);
+        } finally {
+            writeLock.unlock();
+        }
+
+        return true;
+    }
+
+    @Override
+    public Map<String, String> getStorageSettings() {
+        try (PooledConnection connection = pool.getConnection()) {
+            return SqliteProfile.report(connection.connection());
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to read database settings.", e);
+        }
+    }
+
+    @Override
+    public void checkpoint(boolean truncate) {
+        try (PooledConnection connection = pool.getConnection()) {
+            SqliteProfile.checkpoint(connection.connection(), truncate);
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to checkpoint database.", e);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        try {
+            checkpoint(true);
+        } catch (GringottsStorageException e) {
+            log.warning(e.getMessage());
+        }
+
+        pool.shutdown();
+    }
+}
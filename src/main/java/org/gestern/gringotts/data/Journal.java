@@ -0,0 +1,206 @@
+package org.gestern.gringotts.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of records in a memory-mapped file of fixed capacity.
+ * <p>
+ * The file starts with a header holding the generation of the snapshot the records apply to. Each record is stored
+ * as its length, its content and a checksum of generation and content, and is followed by a zero length marking the
+ * end of the log. Reading stops at the first record that is incomplete or fails its checksum, so a record torn by a
+ * crash, or left over from an earlier generation, is never applied.
+ */
+final class Journal implements AutoCloseable {
+    private static final int MAGIC   = 0x474a524e;
+    private static final int VERSION = 1;
+    private static final int HEADER  = 16;
+
+    private final FileChannel      channel;
+    private final MappedByteBuffer buffer;
+    private final CRC32            crc             = new CRC32();
+    private final ByteBuffer       generationBytes = ByteBuffer.allocate(Long.BYTES);
+    private       long             generation;
+
+    /**
+     * Open or create a journal file.
+     *
+     * @param file     path of the journal file
+     * @param capacity size of the file in bytes, if it doesn't exist yet or is smaller
+     * @throws IOException if the file can't be opened or mapped
+     */
+    Journal(Path file, long capacity) throws IOException {
+        this.channel = FileChannel.open(
+                file,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+        );
+
+        long size = Math.max(channel.size(), Math.max(capacity, 4096));
+
+        if (size > Integer.MAX_VALUE) {
+            channel.close();
+
+            throw new IOException("Journal size " + size + " exceeds the maximum of " + Integer.MAX_VALUE + " bytes.");
+        }
+
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * Generation of the snapshot the records of this journal apply to.
+     *
+     * @return generation in the header, or -1 if the file holds no journal
+     */
+    long generation() {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            return -1;
+        }
+
+        return buffer.getLong(8);
+    }
+
+    /**
+     * Apply all records of the given generation and position the journal after the last one.
+     * If the journal belongs to a different generation, it is emptied instead.
+     *
+     * @param generation generation of the snapshot that was loaded
+     * @param apply      called with the content of every record, in order
+     * @return number of applied records
+     */
+    int replay(long generation, Consumer<ByteBuffer> apply) {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getLong(8) != generation) {
+            reset(generation);
+
+            return 0;
+        }
+
+        this.generation = generation;
+
+        int position = HEADER;
+        int count    = 0;
+
+        while (position + Integer.BYTES * 2 <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+
+            if (length <= 0 || position + Integer.BYTES * 2 + length > buffer.capacity()) {
+                break;
+            }
+
+            ByteBuffer record = buffer.duplicate();
+
+            record.limit(position + Integer.BYTES + length);
+            record.position(position + Integer.BYTES);
+            record = record.slice();
+
+            if (checksum(record) != buffer.getInt(position + Integer.BYTES + length)) {
+                break;
+            }
+
+            apply.accept(record);
+
+            position += Integer.BYTES * 2 + length;
+            count++;
+        }
+
+        buffer.position(position);
+        terminate();
+
+        return count;
+    }
+
+    /**
+     * Append a record.
+     *
+     * @param record content of the record, from its position to its limit
+     * @return true if the record was appended, false if the journal is full
+     */
+    boolean append(ByteBuffer record) {
+        int length = record.remaining();
+
+        if (buffer.position() + Integer.BYTES * 3 + length > buffer.capacity()) {
+            return false;
+        }
+
+        int checksum = checksum(record);
+
+        buffer.putInt(length);
+        buffer.put(record);
+        buffer.putInt(checksum);
+        terminate();
+
+        return true;
+    }
+
+    /**
+     * Discard all records and start a new generation.
+     *
+     * @param generation generation of the snapshot that now holds the state
+     */
+    void reset(long generation) {
+        this.generation = generation;
+
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putLong(8, generation);
+        buffer.position(HEADER);
+        terminate();
+        buffer.force();
+    }
+
+    private void terminate() {
+        if (buffer.position() + Integer.BYTES <= buffer.capacity()) {
+            buffer.putInt(buffer.position(), 0);
+        }
+    }
+
+    private int checksum(ByteBuffer record) {
+        generationBytes.clear();
+        generationBytes.putLong(generation);
+        generationBytes.flip();
+
+        crc.reset();
+        crc.update(generationBytes);
+        crc.update(record.duplicate());
+
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Write changed pages of the journal to the disk.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    /**
+     * Bytes used by the header and records.
+     *
+     * @return used size
+     */
+    int size() {
+        return buffer.position();
+    }
+
+    /**
+     * Size of the journal file in bytes.
+     *
+     * @return capacity
+     */
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+}
@@ -0,0 +1,1166 @@
+package org.gestern.gringotts.data;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.Sign;
+import org.gestern.gringotts.*;
+import org.gestern.gringotts.accountholder.AccountHolder;
+import org.gestern.gringotts.event.CalculateStartBalanceEvent;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * DAO keeping all accounts and vault locations in memory, backed by files in the plugin data folder instead of a
+ * database.
+ * <p>
+ * Every change is appended to a memory-mapped {@link Journal}. On startup the snapshot is loaded and the journal
+ * replayed on top of it. On the first start, the accounts and vaults of the SQLite database are converted.
+ * <p>
+ * When the journal is half full, changes go on in a second journal file and the state up to that point is written to
+ * a new snapshot in the background, from a copy taken in memory, so that no change waits for the snapshot to reach the
+ * disk. Until the new snapshot is in place, the previous snapshot and both journals together hold the state. On
+ * shutdown, on {@link #checkpoint(boolean) truncating checkpoints} and when the journal fills up before the background
+ * snapshot is done, the snapshot is written right away instead.
+ * <p>
+ * Ledger entries are appended to a separate text file, since they are never read back.
+ */
+public class JournalDAO implements DAO {
+    private static final int    SNAPSHOT_MAGIC   = 0x47534e50;
+    private static final int    SNAPSHOT_VERSION = 1;
+    private static final String SNAPSHOT         = "snapshot.dat";
+    private static final String JOURNAL          = "journal.dat";
+    private static final String JOURNAL_NEXT     = "journal-next.dat";
+    private static final String LEDGER           = "ledger.log";
+
+    private static final byte ACCOUNT        = 1;
+    private static final byte CENTS          = 2;
+    private static final byte RENAME         = 3;
+    private static final byte DELETE_ACCOUNT = 4;
+    private static final byte CHEST          = 5;
+    private static final byte DELETE_CHEST   = 6;
+    private static final byte DELETE_CHESTS  = 7;
+
+    /**
+     * Marks a case-insensitive account key shared by several accounts.
+     */
+    private static final int AMBIGUOUS   = -1;
+    /**
+     * Number of accounts copied per lock acquisition when visiting all accounts or vaults.
+     */
+    private static final int VISIT_CHUNK = 1000;
+    /**
+     * Fraction of the journal after which the next snapshot is written in the background.
+     */
+    private static final double COMPACT_AT = 0.5;
+
+    private static JournalDAO dao;
+
+    private final Logger                                  log             = Gringotts.instance.getLogger();
+    private final Path                                    directory;
+    /**
+     * The two journal files, appended to in turns.
+     */
+    private final Journal[]                               journals        = new Journal[2];
+    /**
+     * Scratch buffer to encode journal records in. Guarded by this DAO's monitor.
+     */
+    private final ByteBuffer                              record          = ByteBuffer.allocate(64 * 1024);
+    /**
+     * Account ids by "type:owner".
+     */
+    private final Map<String, Integer>                    accountIds      = new HashMap<>();
+    /**
+     * Account ids by lower case "type:owner", for accounts stored with different case by older versions.
+     */
+    private final Map<String, Integer>                    lowerAccountIds = new HashMap<>();
+    /**
+     * Account ids of vaults by sign position. Keys only carry the position, the owner is looked up by id.
+     */
+    private final Map<AccountChestLocation, Integer>      chests          = new HashMap<>();
+    private final Map<Integer, Set<AccountChestLocation>> accountChests   = new HashMap<>();
+    private final LedgerFile                              ledger;
+    /**
+     * Account type, holder id and cents, indexed by account id. Deleted ids have a null type.
+     */
+    private       String[]                                types           = new String[1024];
+    private       String[]                                owners          = new String[1024];
+    private       long[]                                  cents           = new long[1024];
+    private       int                                     nextId          = 1;
+    /**
+     * Journal appended to, see {@link #journals}.
+     */
+    private       Journal                                 journal;
+    /**
+     * Generation of the journal appended to. Its records apply on top of the snapshot of the same generation.
+     */
+    private       long                                    generation;
+    /**
+     * Generation of the snapshot on disk. One less than {@link #generation} while the journal before the current one
+     * is still needed, because its snapshot is not written yet.
+     */
+    private volatile long                                 storedGeneration;
+    /**
+     * Snapshot being written in the background, or null.
+     */
+    private       Thread                                  compaction;
+    private       int                                     replayed;
+
+    private JournalDAO(Path directory, long journalSize) {
+        this.directory = directory;
+        this.ledger    = new LedgerFile(directory.resolve(LEDGER));
+
+        Path snapshot = directory.resolve(SNAPSHOT);
+
+        try {
+            Files.createDirectories(directory);
+            readSnapshot(snapshot);
+
+            journals[0] = new Journal(directory.resolve(JOURNAL), journalSize);
+            journals[1] = new Journal(directory.resolve(JOURNAL_NEXT), journalSize);
+        } catch (IOException e) {
+            throw new GringottsStorageException("Failed to open journal storage in " + directory, e);
+        }
+
+        storedGeneration = generation;
+
+        // the journal of the snapshot, then the one started while its successor was written, if any
+        for (long replay = generation; replay <= storedGeneration + 1; replay++) {
+            for (Journal candidate : journals) {
+                if (candidate.generation() == replay) {
+                    replayed += candidate.replay(replay, this::apply);
+
+                    journal    = candidate;
+                    generation = replay;
+                }
+            }
+        }
+
+        if (journal == null) {
+            journal = journals[0];
+            journal.reset(generation);
+        } else if (generation != storedGeneration) {
+            // the snapshot written while the server stopped did not complete
+            compact();
+        }
+
+        log.info(String.format(
+                "Loaded %d accounts and %d vaults from journal storage (generation %d, %d journal records).",
+                accountIds.size(),
+                chests.size(),
+                generation,
+                replayed
+        ));
+    }
+
+    /**
+     * Gets dao.
+     *
+     * @return the dao
+     */
+    public synchronized static JournalDAO getDao() {
+        if (dao != null) {
+            return dao;
+        }
+
+        File    folder    = Gringotts.instance.getDataFolder();
+        Path    directory = new File(folder, "journal").toPath();
+        File    database  = new File(folder, "Gringotts.db");
+        // a snapshot is written on first start, so its absence means nothing has been stored here yet
+        boolean empty     = !Files.exists(directory.resolve(SNAPSHOT));
+
+        dao = new JournalDAO(directory, Configuration.CONF.journalSize);
+
+        if (empty) {
+            if (database.exists()) {
+                dao.convert(Gringotts.instance.getDatabaseUrl());
+            } else {
+                dao.compact();
+            }
+        }
+
+        return dao;
+    }
+
+    private static String key(String type, String owner) {
+        return type + ":" + owner;
+    }
+
+    /**
+     * Copy all accounts and vaults from a database using the tables of {@link EBeanDAO} and {@link JdbcDAO}.
+     *
+     * @param url jdbc url of the database
+     */
+    private synchronized void convert(String url) {
+        log.info("Converting accounts and vaults from " + url + " to journal storage ...");
+
+        long start = System.nanoTime();
+
+        try (Connection connection = DriverManager.getConnection(url);
+             Statement statement = connection.createStatement()) {
+            try (ResultSet result = statement.executeQuery("SELECT id, type, owner, cents FROM gringotts_account")) {
+                while (result.next()) {
+                    String type  = result.getString(2);
+                    String owner = result.getString(3);
+
+                    if (type != null && owner != null) {
+                        applyAccount(result.getInt(1), type, owner, result.getLong(4));
+                    }
+                }
+            }
+
+            try (ResultSet result = statement.executeQuery(
+                    "SELECT world, x, y, z, account FROM gringotts_accountchest"
+            )) {
+                while (result.next()) {
+                    int account = result.getInt(5);
+
+                    // vaults of deleted accounts are no longer returned by the other backends either
+                    if (exists(account)) {
+                        applyChest(
+                                position(result.getString(1), result.getInt(2), result.getInt(3), result.getInt(4)),
+                                account
+                        );
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to convert database " + url, e);
+        }
+
+        compact();
+
+        log.info(String.format(
+                "Converted %d accounts and %d vaults in %d ms.",
+                accountIds.size(),
+                chests.size(),
+                (System.nanoTime() - start) / 1000000
+        ));
+    }
+
+    private static AccountChestLocation position(String world, int x, int y, int z) {
+        return new AccountChestLocation(world, x, y, z, null, null);
+    }
+
+    private boolean exists(int id) {
+        return id > 0 && id < nextId && types[id] != null;
+    }
+
+    /**
+     * Get the id of an account, by exact type and owner or, failing that, by a unique case-insensitive match.
+     *
+     * @return the account id, or null if there is no such account
+     */
+    private Integer accountId(String type, String owner) {
+        Integer id = accountIds.get(key(type, owner));
+
+        if (id != null) {
+            return id;
+        }
+
+        id = lowerAccountIds.get(key(type, owner).toLowerCase(Locale.ROOT));
+
+        return id == null || id == AMBIGUOUS ? null : id;
+    }
+
+    private Integer accountId(AccountHolder owner) {
+        return accountId(owner.getType(), owner.getId());
+    }
+
+    // ---- state changes, shared by live operations and journal replay ----
+
+    private void apply(ByteBuffer in) {
+        byte type = in.get();
+
+        switch (type) {
+            case ACCOUNT:
+                applyAccount(in.getInt(), getString(in), getString(in), in.getLong());
+                break;
+            case CENTS:
+                applyCents(in.getInt(), in.getLong());
+                break;
+            case RENAME:
+                applyRename(in.getInt(), getString(in));
+                break;
+            case DELETE_ACCOUNT:
+                applyDeleteAccount(in.getInt());
+                break;
+            case CHEST:
+                applyChest(position(getString(in), in.getInt(), in.getInt(), in.getInt()), in.getInt());
+                break;
+            case DELETE_CHEST:
+                applyDeleteChest(position(getString(in), in.getInt(), in.getInt(), in.getInt()));
+                break;
+            case DELETE_CHESTS:
+                applyDeleteChests(in.getInt());
+                break;
+            default:
+                throw new GringottsStorageException("Unknown journal record type " + type);
+        }
+    }
+
+    private void applyAccount(int id, String type, String owner, long amount) {
+        if (id >= types.length) {
+            int length = Math.max(types.length * 2, id + 1);
+
+            types  = Arrays.copyOf(types, length);
+            owners = Arrays.copyOf(owners, length);
+            cents  = Arrays.copyOf(cents, length);
+        }
+
+        types[id]  = type;
+        owners[id] = owner;
+        cents[id]  = amount;
+        nextId     = Math.max(nextId, id + 1);
+
+        index(id);
+    }
+
+    private void index(int id) {
+        String key = key(types[id], owners[id]);
+
+        accountIds.put(key, id);
+        // indexing the same account again, as renames and replays do, doesn't make it ambiguous
+        lowerAccountIds.merge(
+                key.toLowerCase(Locale.ROOT),
+                id,
+                (existing, added) -> existing.equals(added) ? existing : AMBIGUOUS
+        );
+    }
+
+    private void unindex(int id) {
+        String key = key(types[id], owners[id]);
+
+        accountIds.remove(key);
+        lowerAccountIds.remove(key.toLowerCase(Locale.ROOT), id);
+    }
+
+    private void applyCents(int id, long amount) {
+        if (exists(id)) {
+            cents[id] = amount;
+        }
+    }
+
+    private void applyRename(int id, String owner) {
+        if (exists(id)) {
+            unindex(id);
+            owners[id] = owner;
+            index(id);
+        }
+    }
+
+    private void applyDeleteAccount(int id) {
+        if (exists(id)) {
+            applyDeleteChests(id);
+            unindex(id);
+
+            types[id]  = null;
+            owners[id] = null;
+            cents[id]  = 0;
+        }
+    }
+
+    private void applyChest(AccountChestLocation position, int id) {
+        chests.put(position, id);
+        accountChests.computeIfAbsent(id, k -> new HashSet<>()).add(position);
+    }
+
+    private void applyDeleteChest(AccountChestLocation position) {
+        Integer id = chests.remove(position);
+
+        if (id != null) {
+            Set<AccountChestLocation> positions = accountChests.get(id);
+
+            positions.remove(position);
+
+            if (positions.isEmpty()) {
+                accountChests.remove(id);
+            }
+        }
+    }
+
+    private void applyDeleteChests(int id) {
+        Set<AccountChestLocation> positions = accountChests.remove(id);
+
+        if (positions != null) {
+            for (AccountChestLocation position : positions) {
+                chests.remove(position);
+            }
+        }
+    }
+
+    // ---- journal records ----
+
+    private static void putString(ByteBuffer out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+        out.putShort((short) bytes.length);
+        out.put(bytes);
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xffff];
+
+        in.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private ByteBuffer begin(byte type) {
+        record.clear();
+        record.put(type);
+
+        return record;
+    }
+
+    /**
+     * Append the record in the scratch buffer to the journal, compacting first if the journal is full.
+     */
+    private void write() {
+        record.flip();
+
+        if (journal.append(record)) {
+            if (journal.size() > journal.capacity() * COMPACT_AT) {
+                startCompaction();
+            }
+
+            return;
+        }
+
+        compact();
+
+        if (!journal.append(record)) {
+            throw new GringottsStorageException("Journal record of " + record.remaining() + " bytes does not fit " +
+                    "into the journal. Increase storage.journal.size.");
+        }
+    }
+
+    // ---- snapshots ----
+
+    /**
+     * Continue in the other journal and write the state up to here to a new snapshot in the background. Does nothing
+     * while a snapshot is being written, or if the previous one could not be written, since the other journal is still
+     * needed then.
+     */
+    private void startCompaction() {
+        if (compaction != null && compaction.isAlive()) {
+            return;
+        }
+
+        compaction = null;
+
+        if (storedGeneration != generation) {
+            return;
+        }
+
+        State state = new State();
+        long  next  = generation + 1;
+
+        switchJournal(next);
+
+        compaction = new Thread(() -> {
+            try {
+                storeSnapshot(state, next);
+            } catch (GringottsStorageException e) {
+                log.severe(e.getMessage());
+            }
+        }, "Gringotts Journal Compaction");
+        compaction.setDaemon(true);
+        compaction.start();
+    }
+
+    /**
+     * Write the whole state to a new snapshot and empty the journal, waiting for the snapshot to be written.
+     */
+    private synchronized void compact() {
+        awaitCompaction();
+
+        long next = generation + 1;
+
+        // both journals are kept until the snapshot holding everything is in place
+        storeSnapshot(new State(), next);
+        switchJournal(next);
+    }
+
+    private void awaitCompaction() {
+        if (compaction == null) {
+            return;
+        }
+
+        // the snapshot thread doesn't need this DAO's monitor, so it can be waited for while holding it
+        try {
+            compaction.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        compaction = null;
+    }
+
+    private void switchJournal(long next) {
+        Journal other = journal == journals[0] ? journals[1] : journals[0];
+
+        other.reset(next);
+
+        journal    = other;
+        generation = next;
+    }
+
+    private void storeSnapshot(State state, long snapshotGeneration) {
+        Path snapshot  = directory.resolve(SNAPSHOT);
+        Path temporary = directory.resolve(SNAPSHOT + ".tmp");
+
+        try {
+            writeSnapshot(temporary, state, snapshotGeneration);
+
+            Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new GringottsStorageException("Failed to write journal snapshot " + snapshot, e);
+        }
+
+        // the journal of the previous generation is no longer needed
+        storedGeneration = snapshotGeneration;
+    }
+
+    private static void writeSnapshot(Path file, State state, long snapshotGeneration) throws IOException {
+        CRC32 crc = new CRC32();
+
+        try (FileOutputStream stream = new FileOutputStream(file.toFile());
+             BufferedOutputStream buffered = new BufferedOutputStream(stream, 64 * 1024)) {
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(buffered, crc));
+
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(snapshotGeneration);
+            out.writeInt(state.nextId);
+            out.writeInt(state.accounts);
+
+            for (int id = 1; id < state.nextId; id++) {
+                if (state.types[id] != null) {
+                    out.writeInt(id);
+                    out.writeUTF(state.types[id]);
+                    out.writeUTF(state.owners[id]);
+                    out.writeLong(state.cents[id]);
+                }
+            }
+
+            out.writeInt(state.chests.length);
+
+            for (int i = 0; i < state.chests.length; i++) {
+                AccountChestLocation position = state.chests[i];
+
+                out.writeUTF(position.world);
+                out.writeInt(position.x);
+                out.writeInt(position.y);
+                out.writeInt(position.z);
+                out.writeInt(state.chestAccounts[i]);
+            }
+
+            out.flush();
+
+            new DataOutputStream(buffered).writeLong(crc.getValue());
+
+            buffered.flush();
+            stream.getFD().sync();
+        }
+    }
+
+    /**
+     * Copy of the state to write to a snapshot while changes go on.
+     */
+    private final class State {
+        private final int                    nextId        = JournalDAO.this.nextId;
+        private final int                    accounts      = accountIds.size();
+        private final String[]               types         = Arrays.copyOf(JournalDAO.this.types, nextId);
+        private final String[]               owners        = Arrays.copyOf(JournalDAO.this.owners, nextId);
+        private final long[]                 cents         = Arrays.copyOf(JournalDAO.this.cents, nextId);
+        private final AccountChestLocation[] chests        = new AccountChestLocation[JournalDAO.this.chests.size()];
+        private final int[]                  chestAccounts = new int[chests.length];
+
+        private State() {
+            int i = 0;
+
+            for (Map.Entry<AccountChestLocation, Integer> chest : JournalDAO.this.chests.entrySet()) {
+                chests[i]        = chest.getKey();
+                chestAccounts[i] = chest.getValue();
+                i++;
+            }
+        }
+    }
+
+    private void readSnapshot(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        CRC32 crc = new CRC32();
+
+        try (InputStream buffered = new BufferedInputStream(Files.newInputStream(file), 64 * 1024)) {
+            DataInputStream in = new DataInputStream(new CheckedInputStream(buffered, crc));
+
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new GringottsStorageException("Unsupported journal snapshot " + file);
+            }
+
+            long snapshotGeneration = in.readLong();
+            int  snapshotNextId     = in.readInt();
+            int  accounts           = in.readInt();
+
+            for (int i = 0; i < accounts; i++) {
+                applyAccount(in.readInt(), in.readUTF(), in.readUTF(), in.readLong());
+            }
+
+            int vaults = in.readInt();
+
+            for (int i = 0; i < vaults; i++) {
+                applyChest(position(in.readUTF(), in.readInt(), in.readInt(), in.readInt()), in.readInt());
+            }
+
+            long checksum = crc.getValue();
+
+            if (new DataInputStream(buffered).readLong() != checksum) {
+                throw new GringottsStorageException("Journal snapshot " + file + " is corrupted.");
+            }
+
+            generation = snapshotGeneration;
+            nextId     = Math.max(nextId, snapshotNextId);
+        }
+    }
+
+    // ---- DAO ----
+
+    @Override
+    public synchronized boolean storeAccountChest(AccountChest chest) {
+        Sign    mark    = chest.sign;
+        Integer account = accountId(chest.account.owner);
+
+        AccountChestLocation position = position(mark.getWorld().getName(), mark.getX(), mark.getY(), mark.getZ());
+
+        if (account == null || chests.containsKey(position)) {
+            return false;
+        }
+
+        addChest(position, account);
+
+        return true;
+    }
+
+    private void addChest(AccountChestLocation position, int account) {
+        ByteBuffer out = begin(CHEST);
+
+        putString(out, position.world);
+        out.putInt(position.x);
+        out.putInt(position.y);
+        out.putInt(position.z);
+        out.putInt(account);
+        write();
+
+        applyChest(position, account);
+    }
+
+    @Override
+    public boolean deleteAccountChest(AccountChest chest) {
+        Sign mark = chest.sign;
+
+        return deleteAccountChest(position(mark.getWorld().getName(), mark.getX(), mark.getY(), mark.getZ()));
+    }
+
+    private synchronized boolean deleteAccountChest(AccountChestLocation position) {
+        if (!chests.containsKey(position)) {
+            return false;
+        }
+
+        ByteBuffer out = begin(DELETE_CHEST);
+
+        putString(out, position.world);
+        out.putInt(position.x);
+        out.putInt(position.y);
+        out.putInt(position.z);
+        write();
+
+        applyDeleteChest(position);
+
+        return true;
+    }
+
+    @Override
+    public boolean storeAccount(GringottsAccount account) {
+        AccountHolder owner = account.owner;
+
+        if (hasAccount(owner)) {
+            return false;
+        }
+
+        // If removed, it will break backwards compatibility :(
+        if (Objects.equals(owner.getType(), "town") || Objects.equals(owner.getType(), "nation")) {
+            String legacyId = owner.getType() + "-" + owner.getName();
+
+            if (renameAccount(owner.getType(), legacyId, owner.getId())) {
+                return false;
+            }
+        }
+
+        synchronized (this) {
+            if (accountId(owner) != null) {
+                return false;
+            }
+
+            addAccount(owner.getType(), owner.getId(), 0);
+        }
+
+        // the account has to exist before the start balance can be stored
+        CalculateStartBalanceEvent startBalanceEvent = new CalculateStartBalanceEvent(account.owner);
+
+        Bukkit.getPluginManager().callEvent(startBalanceEvent);
+
+        if (startBalanceEvent.startValue > 0) account.add(startBalanceEvent.startValue);
+
+        return true;
+    }
+
+    private void addAccount(String type, String owner, long amount) {
+        int id = nextId;
+
+        ByteBuffer out = begin(ACCOUNT);
+
+        out.putInt(id);
+        putString(out, type);
+        putString(out, owner);
+        out.putLong(amount);
+        write();
+
+        applyAccount(id, type, owner, amount);
+    }
+
+    @Override
+    public synchronized boolean hasAccount(AccountHolder accountHolder) {
+        return accountId(accountHolder) != null;
+    }
+
+    @Override
+    public boolean renameAccount(String type, AccountHolder holder, String newName) {
+        return renameAccount(type, holder.getId(), newName);
+    }
+
+    @Override
+    public synchronized boolean renameAccount(String type, String oldName, String newName) {
+        Integer id = accountId(type, oldName);
+
+        if (id == null) {
+            return false;
+        }
+
+        ByteBuffer out = begin(RENAME);
+
+        out.putInt(id);
+        putString(out, newName);
+        write();
+
+        applyRename(id, newName);
+
+        return true;
+    }
+
+    @Override
+    public Collection<AccountChest> retrieveChests() {
+        List<AccountChest> chests = new LinkedList<>();
+
+        for (AccountChestLocation location : retrieveChestLocations()) {
+            World world = Bukkit.getWorld(location.world);
+
+            if (world == null) {
+                continue; // skip vaults in non-existing worlds
+            }
+
+            Block signBlock = world.getBlockAt(location.x, location.y, location.z);
+            Optional<Sign> optionalSign = Util.getBlockStateAs(
+                    signBlock,
+                    Sign.class
+            );
+
+            if (optionalSign.isPresent()) {
+                AccountHolder owner = Gringotts.instance.getAccountHolderFactory().get(location.type, location.owner);
+
+                if (owner == null) {
+                    log.info(String.format(
+                            "AccountHolder %s:%s is not valid. Deleting associated account chest at %s",
+                            location.type,
+                            location.owner,
+                            signBlock.getLocation()
+                    ));
+
+                    deleteAccountChest(location);
+                } else {
+                    chests.add(new AccountChest(optionalSign.get(), new GringottsAccount(owner)));
+                }
+            } else {
+                // remove accountchest from storage if it is not a valid chest
+                deleteAccountChest(location);
+            }
+        }
+
+        return chests;
+    }
+
+    @Override
+    public synchronized Collection<AccountChestLocation> retrieveChestLocations() {
+        List<AccountChestLocation> locations = new ArrayList<>(chests.size());
+
+        for (Map.Entry<AccountChestLocation, Integer> chest : chests.entrySet()) {
+            AccountChestLocation position = chest.getKey();
+            int                  id       = chest.getValue();
+
+            locations.add(new AccountChestLocation(
+                    position.world,
+                    position.x,
+                    position.y,
+                    position.z,
+                    types[id],
+                    owners[id]
+            ));
+        }
+
+        return locations;
+    }
+
+    @Override
+    public Collection<AccountChest> retrieveChests(GringottsAccount account) {
+        List<AccountChest>         chests = new LinkedList<>();
+        List<AccountChestLocation> locations;
+
+        synchronized (this) {
+            Integer id = accountId(account.owner);
+
+            if (id == null) {
+                return chests;
+            }
+
+            locations = new ArrayList<>(accountChests.getOrDefault(id, Collections.emptySet()));
+        }
+
+        for (AccountChestLocation location : locations) {
+            World world = Bukkit.getWorld(location.world);
+
+            if (world == null) {
+                continue; // skip chest if it is in non-existent world
+            }
+
+            Optional<Sign> optionalSign = Util.getBlockStateAs(
+                    world.getBlockAt(location.x, location.y, location.z),
+                    Sign.class
+            );
+
+            if (optionalSign.isPresent()) {
+                chests.add(new AccountChest(optionalSign.get(), account));
+            } else {
+                // remove accountchest from storage if it is not a valid chest
+                deleteAccountChest(location);
+            }
+        }
+
+        return chests;
+    }
+
+    @Override
+    public synchronized Collection<String> getAccounts() {
+        List<String> returned = new ArrayList<>(accountIds.size());
+
+        for (int id = 1; id < nextId; id++) {
+            if (types[id] != null) {
+                returned.add(key(types[id], owners[id]));
+            }
+        }
+
+        return returned;
+    }
+
+    @Override
+    public synchronized Collection<String> getAccounts(String type) {
+        List<String> returned = new ArrayList<>();
+
+        for (int id = 1; id < nextId; id++) {
+            if (type.equals(types[id])) {
+                returned.add(key(type, owners[id]));
+            }
+        }
+
+        return returned;
+    }
+
+    @Override
+    public synchronized boolean storeCents(GringottsAccount account, long amount) {
+        Integer id = accountId(account.owner);
+
+        if (id == null) {
+            return false;
+        }
+
+        setCents(id, amount);
+
+        return true;
+    }
+
+    private void setCents(int id, long amount) {
+        begin(CENTS).putInt(id).putLong(amount);
+        write();
+
+        applyCents(id, amount);
+    }
+
+    @Override
+    public synchronized boolean storeCents(Map<GringottsAccount, Long> balances) {
+        boolean stored = true;
+
+        for (Map.Entry<GringottsAccount, Long> balance : balances.entrySet()) {
+            stored &= storeCents(balance.getKey(), balance.getValue());
+        }
+
+        return stored;
+    }
+
+    @Override
+    public synchronized long retrieveCents(GringottsAccount account) {
+        Integer id = accountId(account.owner);
+
+        return id == null ? 0 : cents[id];
+    }
+
+    @Override
+    public boolean deleteAccount(GringottsAccount acc) {
+        return deleteAccount(acc.owner.getType(), acc.owner.getId());
+    }
+
+    @Override
+    public synchronized boolean deleteAccount(String type, String account) {
+        Integer id = accountId(type, account);
+
+        if (id == null) {
+            return false;
+        }
+
+        begin(DELETE_ACCOUNT).putInt(id);
+        write();
+
+        applyDeleteAccount(id);
+
+        return true;
+    }
+
+    @Override
+    public synchronized boolean deleteAccountChests(GringottsAccount acc) {
+        Integer id = accountId(acc.owner);
+
+        return id != null && deleteAccountChests(String.valueOf(id));
+    }
+
+    @Override
+    public synchronized boolean deleteAccountChests(String account) {
+        int id;
+
+        try {
+            id = Integer.parseInt(account);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+
+        if (!accountChests.containsKey(id)) {
+            return false;
+        }
+
+        begin(DELETE_CHESTS).putInt(id);
+        write();
+
+        applyDeleteChests(id);
+
+        return true;
+    }
+
+    @Override
+    public void forEachAccount(Consumer<StoredAccount> visitor) {
+        List<StoredAccount> chunk = new ArrayList<>(VISIT_CHUNK);
+        int                 id    = 1;
+
+        do {
+            chunk.clear();
+
+            // copy a chunk at a time, so that other operations don't wait for the visitor
+            synchronized (this) {
+                for (; id < nextId && chunk.size() < VISIT_CHUNK; id++) {
+                    if (types[id] != null) {
+                        chunk.add(new StoredAccount(types[id], owners[id], cents[id]));
+                    }
+                }
+            }
+
+            chunk.forEach(visitor);
+        } while (!chunk.isEmpty());
+    }
+
+    @Override
+    public void forEachChestLocation(Consumer<AccountChestLocation> visitor) {
+        List<AccountChestLocation> chunk = new ArrayList<>();
+        int                        id    = 1;
+        boolean                    more  = true;
+
+        while (more) {
+            chunk.clear();
+
+            synchronized (this) {
+                int end = Math.min(nextId, id + VISIT_CHUNK);
+
+                for (; id < end; id++) {
+                    for (AccountChestLocation position : accountChests.getOrDefault(id, Collections.emptySet())) {
+                        chunk.add(new AccountChestLocation(
+                                position.world,
+                                position.x,
+                                position.y,
+                                position.z,
+                                types[id],
+                                owners[id]
+                        ));
+                    }
+                }
+
+                more = id < nextId;
+            }
+
+            chunk.forEach(visitor);
+        }
+    }
+
+    @Override
+    public synchronized int importAccounts(Collection<StoredAccount> accounts) {
+        int created = 0;
+
+        for (StoredAccount account : accounts) {
+            Integer id = accountIds.get(key(account.type, account.owner));
+
+            if (id == null) {
+                addAccount(account.type, account.owner, account.cents);
+
+                created++;
+            } else {
+                setCents(id, account.cents);
+            }
+        }
+
+        return created;
+    }
+
+    @Override
+    public synchronized int importChestLocations(Collection<AccountChestLocation> locations) {
+        int stored = 0;
+
+        for (AccountChestLocation location : locations) {
+            Integer              account  = accountIds.get(key(location.type, location.owner));
+            AccountChestLocation position = position(location.world, location.x, location.y, location.z);
+
+            if (account != null && !chests.containsKey(position)) {
+                addChest(position, account);
+
+                stored++;
+            }
+        }
+
+        return stored;
+    }
+
+    @Override
+    public synchronized int purgeAccounts(Collection<StoredAccount> accounts) {
+        int purged = 0;
+
+        for (StoredAccount account : accounts) {
+            Integer id = accountIds.get(key(account.type, account.owner));
+
+            if (id == null || cents[id] != account.cents) {
+                continue;
+            }
+
+            // deleting an account deletes its vaults as well
+            begin(DELETE_ACCOUNT).putInt(id);
+            write();
+
+            applyDeleteAccount(id);
+
+            purged++;
+        }
+
+        return purged;
+    }
+
+    @Override
+    public boolean storeLedgerEntries(List<LedgerEntry> entries) {
+        ledger.append(entries);
+
+        return true;
+    }
+
+    @Override
+    public synchronized Map<String, String> getStorageSettings() {
+        Map<String, String> settings = new LinkedHashMap<>();
+
+        settings.put("directory", directory.toString());
+        settings.put("generation", String.valueOf(generation));
+        settings.put("accounts", String.valueOf(accountIds.size()));
+        settings.put("vaults", String.valueOf(chests.size()));
+        settings.put("journal_used", journal.size() + " of " + journal.capacity() + " bytes");
+        settings.put("snapshot_generation", String.valueOf(storedGeneration));
+        settings.put("journal_replayed", String.valueOf(replayed));
+
+        return settings;
+    }
+
+    /**
+     * Write the journal to the disk or, when truncating, compact it into a new snapshot.
+     */
+    @Override
+    public synchronized void checkpoint(boolean truncate) {
+        if (truncate) {
+            compact();
+        } else {
+            // records of the previous journal are still needed until its snapshot is written
+            for (Journal forced : journals) {
+                forced.force();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        try {
+            compact();
+        } catch (GringottsStorageException e) {
+            log.severe(e.getMessage());
+        }
+
+        for (Journal closed : journals) {
+            try {
+                closed.close();
+            } catch (IOException e) {
+                log.warning("Failed to close journal: " + e.getMessage());
+            }
+        }
+
+        try {
+            ledger.close();
+        } catch (IOException e) {
+            log.warning("Failed to close ledger file: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package org.gestern.gringotts.data;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.gestern.gringotts.Gringotts;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Append-only record of every change to account balances.
+ * <p>
+ * Entries are put into a bounded queue by the thread making the change and written to the database in batches by
+ * a background thread. When the queue is full, threads other than the main server thread wait for a short time
+ * for space. Entries that still don't fit are dropped and counted, so that a slow database can never stall the
+ * server. Remaining entries are written on shutdown.
+ */
+public class Ledger {
+    private static final long    WARNING_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+    private static final Callers CALLERS          = callers();
+
+    private final Logger                     log             = Gringotts.instance.getLogger();
+    private final DAO                        dao;
+    private final BlockingQueue<LedgerEntry> queue;
+    private final int                        batchSize;
+    private final long                       maxDelay;
+    private final long                       blockTimeout;
+    private final boolean                    recordPlugin;
+    private final AtomicLong                 recorded        = new AtomicLong();
+    private final AtomicLong                 written         = new AtomicLong();
+    private final AtomicLong                 blocked         = new AtomicLong();
+    private final AtomicLong                 dropped         = new AtomicLong();
+    private final AtomicLong                 failed          = new AtomicLong();
+    private final AtomicLong                 batches         = new AtomicLong();
+    private final AtomicLong                 lastWarning     = new AtomicLong();
+    /**
+     * Plugin names by the class loader of their classes, to find the plugin that started an operation.
+     * Class loaders that don't belong to a plugin map to an empty name.
+     */
+    private final Map<ClassLoader, String>   pluginsByLoader = new ConcurrentHashMap<>();
+    private final Thread                     writer;
+    private volatile boolean                 running         = true;
+
+    /**
+     * Create a ledger and start its writer thread.
+     *
+     * @param dao          storage to write entries to
+     * @param queueSize    maximum number of entries waiting to be written
+     * @param batchSize    maximum number of entries written in one transaction
+     * @param maxDelay     milliseconds an entry may wait for more entries to fill a batch
+     * @param blockTimeout milliseconds a thread other than the main thread waits for space in a full queue
+     * @param recordPlugin whether to record the plugin that started each operation
+     */
+    public Ledger(DAO dao, int queueSize, int batchSize, long maxDelay, long blockTimeout, boolean recordPlugin) {
+        this.dao          = dao;
+        this.queue        = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        this.batchSize    = Math.max(1, batchSize);
+        this.maxDelay     = Math.max(0, maxDelay);
+        this.blockTimeout = Math.max(0, blockTimeout);
+        this.recordPlugin = recordPlugin;
+
+        this.writer = new Thread(this::run, "Gringotts Ledger");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Record a change to one or two accounts.
+     *
+     * @param kind   kind of change
+     * @param source account money was taken from as "type:id", or null
+     * @param target account money was given to as "type:id", or null
+     * @param cents  amount in cents
+     * @param result name of the result of the change
+     */
+    public void record(LedgerEntry.Kind kind, String source, String target, long cents, String result) {
+        if (!running) {
+            return;
+        }
+
+        LedgerEntry entry = new LedgerEntry(
+                System.currentTimeMillis(),
+                kind,
+                source,
+                target,
+                cents,
+                result,
+                recordPlugin ? originatingPlugin() : null
+        );
+
+        recorded.incrementAndGet();
+
+        if (queue.offer(entry)) {
+            return;
+        }
+
+        if (blockTimeout > 0 && !Bukkit.isPrimaryThread()) {
+            blocked.incrementAndGet();
+
+            try {
+                if (queue.offer(entry, blockTimeout, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        dropped.incrementAndGet();
+
+        long now  = System.currentTimeMillis();
+        long last = lastWarning.get();
+
+        if (now - last >= WARNING_INTERVAL && lastWarning.compareAndSet(last, now)) {
+            log.warning("Transaction ledger queue is full, " + dropped.get() + " entries dropped so far. " +
+                    "Consider increasing storage.ledger.queue-size.");
+        }
+    }
+
+    /**
+     * Find the plugin that started the current operation: the first plugin other than Gringotts on the call stack.
+     *
+     * @return the plugin name, or the name of Gringotts if no other plugin is involved
+     */
+    private String originatingPlugin() {
+        ClassLoader own = Gringotts.class.getClassLoader();
+
+        for (Class<?> caller : CALLERS.get()) {
+            ClassLoader loader = caller.getClassLoader();
+
+            if (loader == null || loader == own) {
+                continue;
+            }
+
+            String name = pluginName(loader);
+
+            if (!name.isEmpty()) {
+                return name;
+            }
+        }
+
+        return Gringotts.instance.getName();
+    }
+
+    private String pluginName(ClassLoader loader) {
+        String name = pluginsByLoader.get(loader);
+
+        if (name == null) {
+            // plugins may have been loaded since the last lookup
+            for (Plugin plugin : Bukkit.getPluginManager().getPlugins()) {
+                pluginsByLoader.putIfAbsent(plugin.getClass().getClassLoader(), plugin.getName());
+            }
+
+            name = pluginsByLoader.computeIfAbsent(loader, l -> "");
+        }
+
+        return name;
+    }
+
+    private void run() {
+        List<LedgerEntry> batch = new ArrayList<>(batchSize);
+
+        while (running) {
+            try {
+                LedgerEntry first = queue.poll(1, TimeUnit.SECONDS);
+
+                if (first == null) {
+                    continue;
+                }
+
+                batch.add(first);
+                fill(batch);
+                write(batch);
+            } catch (InterruptedException e) {
+                // shutdown writes whatever is still queued
+                write(batch);
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Add queued entries to a batch, waiting up to the maximum delay for it to fill up.
+     */
+    private void fill(List<LedgerEntry> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelay);
+
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+
+            long remaining = deadline - System.nanoTime();
+
+            if (batch.size() >= batchSize || remaining <= 0) {
+                return;
+            }
+
+            LedgerEntry next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+
+            if (next == null) {
+                return;
+            }
+
+            batch.add(next);
+        }
+    }
+
+    private void write(List<LedgerEntry> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            if (dao.storeLedgerEntries(batch)) {
+                written.addAndGet(batch.size());
+                batches.incrementAndGet();
+            } else {
+                failed.addAndGet(batch.size());
+            }
+        } catch (RuntimeException e) {
+            failed.addAndGet(batch.size());
+
+            log.severe("Could not write " + batch.size() + " ledger entries: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stop the writer thread and write all remaining entries.
+     */
+    public void shutdown() {
+        running = false;
+
+        writer.interrupt();
+
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<LedgerEntry> batch = new ArrayList<>(batchSize);
+
+        while (queue.drainTo(batch, batchSize) > 0) {
+            write(batch);
+            batch.clear();
+        }
+
+        if (failed.get() > 0 || dropped.get() > 0) {
+            log.warning("Transaction ledger could not write " + (failed.get() + dropped.get()) + " entries.");
+        }
+    }
+
+    /**
+     * Number of entries waiting to be written.
+     *
+     * @return current queue length
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Number of entries recorded since startup.
+     *
+     * @return recorded entries
+     */
+    public long getRecorded() {
+        return recorded.get();
+    }
+
+    /**
+     * Number of entries written to the database.
+     *
+     * @return written entries
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * Number of batches written to the database.
+     *
+     * @return written batches
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * Number of times a thread had to wait for space in the queue.
+     *
+     * @return number of waits
+     */
+    public long getBlocked() {
+        return blocked.get();
+    }
+
+    /**
+     * Number of entries dropped because the queue was full.
+     *
+     * @return dropped entries
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Number of entries that could not be written to the database.
+     *
+     * @return failed entries
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Find the classes on the call stack with a stack walker, or with a security manager on Java 8, which has none.
+     */
+    private static Callers callers() {
+        try {
+            return new WalkerCallers();
+        } catch (ReflectiveOperationException e) {
+            return new SecurityManagerCallers();
+        }
+    }
+
+    /**
+     * Classes on the call stack, innermost first.
+     */
+    private interface Callers {
+        Class<?>[] get();
+    }
+
+    /**
+     * Reads the call stack with a stack walker. Used through method handles, since it doesn't exist on Java 8.
+     */
+    private static final class WalkerCallers implements Callers {
+        private final Object       walker;
+        private final MethodHandle walk;
+        private final MethodHandle declaringClass;
+
+        private WalkerCallers() throws ReflectiveOperationException {
+            Class<?>             walkerClass = Class.forName("java.lang.StackWalker");
+            Class<?>             option      = Class.forName("java.lang.StackWalker$Option");
+            Class<?>             frame       = Class.forName("java.lang.StackWalker$StackFrame");
+            MethodHandles.Lookup lookup      = MethodHandles.lookup();
+            MethodType           walkType    = MethodType.methodType(Object.class, Function.class);
+            MethodType           classType   = MethodType.methodType(Class.class);
+
+            walker         = walkerClass.getMethod("getInstance", option)
+                    .invoke(null, option.getField("RETAIN_CLASS_REFERENCE").get(null));
+            // walk checks its caller, so it can't be looked up with the public lookup
+            walk           = lookup.findVirtual(walkerClass, "walk", walkType)
+                    .asType(walkType.insertParameterTypes(0, Object.class));
+            declaringClass = lookup.findVirtual(frame, "getDeclaringClass", classType)
+                    .asType(classType.insertParameterTypes(0, Object.class));
+        }
+
+        @Override
+        public Class<?>[] get() {
+            Function<Stream<?>, Class<?>[]> classes = frames -> frames.map(this::declaringClass)
+                    .toArray(Class<?>[]::new);
+
+            try {
+                Object walked = walk.invokeExact(walker, (Function<?, ?>) classes);
+
+                return (Class<?>[]) walked;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Failed to walk the call stack.", e);
+            }
+        }
+
+        private Class<?> declaringClass(Object frame) {
+            try {
+                return (Class<?>) declaringClass.invokeExact(frame);
+            } catch (Throwable e) {
+                throw new IllegalStateException("Failed to read a stack frame.", e);
+            }
+        }
+    }
+
+    /**
+     * Exposes the classes on the call stack, which a security manager can see without being installed. Only used on
+     * Java 8, since security managers are deprecated for removal since.
+     */
+    @SuppressWarnings("removal")
+    private static final class SecurityManagerCallers extends SecurityManager implements Callers {
+        @Override
+        public Class<?>[] get() {
+            return getClassContext();
+        }
+    }
+}
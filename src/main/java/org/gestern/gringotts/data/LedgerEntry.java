@@ -0,0 +1,116 @@
+package org.gestern.gringotts.data;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * A single record of the transaction ledger.
+ */
+public final class LedgerEntry {
+    /**
+     * Statement creating the ledger table if it doesn't exist.
+     */
+    static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS gringotts_ledger (" +
+            "id integer primary key, " +
+            "time bigint not null, " +
+            "kind varchar(16) not null, " +
+            "source varchar(255), " +
+            "target varchar(255), " +
+            "cents bigint not null, " +
+            "result varchar(32) not null, " +
+            "plugin varchar(64))";
+
+    /**
+     * Statement inserting a ledger entry, with parameters in the order of the fields.
+     */
+    static final String INSERT = "INSERT INTO gringotts_ledger (time, kind, source, target, cents, result, plugin) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * Time of the operation in milliseconds since the epoch.
+     */
+    public final long   time;
+    public final Kind   kind;
+    /**
+     * Account money was taken from as "type:id", or null.
+     */
+    public final String source;
+    /**
+     * Account money was given to as "type:id", or null.
+     */
+    public final String target;
+    /**
+     * Amount in cents.
+     */
+    public final long   cents;
+    /**
+     * Name of the transaction result.
+     */
+    public final String result;
+    /**
+     * Name of the plugin that started the operation, or null if unknown.
+     */
+    public final String plugin;
+
+    public LedgerEntry(long time, Kind kind, String source, String target, long cents, String result, String plugin) {
+        this.time   = time;
+        this.kind   = kind;
+        this.source = source;
+        this.target = target;
+        this.cents  = cents;
+        this.result = result;
+        this.plugin = plugin;
+    }
+
+    /**
+     * Set the parameters of an {@link #INSERT} statement to this entry.
+     *
+     * @param insert prepared insert statement
+     * @throws SQLException if a parameter can't be set
+     */
+    void bind(PreparedStatement insert) throws SQLException {
+        insert.setLong(1, time);
+        insert.setString(2, kind.name());
+        setNullable(insert, 3, source);
+        setNullable(insert, 4, target);
+        insert.setLong(5, cents);
+        insert.setString(6, result);
+        setNullable(insert, 7, plugin);
+    }
+
+    private static void setNullable(PreparedStatement statement, int index, String value) throws SQLException {
+        if (value == null) {
+            statement.setNull(index, Types.VARCHAR);
+        } else {
+            statement.setString(index, value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LedgerEntry(" + time + "," + kind + "," + source + "->" + target + "," + cents + "," + result + "," + plugin + ")";
+    }
+
+    /**
+     * Kind of ledger entry.
+     */
+    public enum Kind {
+        /**
+         * Money added to an account.
+         */
+        ADD,
+        /**
+         * Money removed from an account.
+         */
+        REMOVE,
+        /**
+         * Money sent from one account to another. Recorded once, not as a remove and an add.
+         */
+        TRANSFER,
+        /**
+         * Tax paid on a transfer, to a tax collector account if there is one.
+         */
+        TAX
+    }
+}
@@ -0,0 +1,69 @@
+package org.gestern.gringotts.data;
+
+import org.gestern.gringotts.GringottsStorageException;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Ledger of the storage backends without a database: entries are appended to a text file as tab separated lines,
+ * since they are never read back.
+ */
+final class LedgerFile {
+    private final Path   file;
+    private       Writer writer;
+
+    /**
+     * Create a ledger file. The file is only opened when the first entries are stored.
+     *
+     * @param file path of the ledger file
+     */
+    LedgerFile(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Append entries to the file.
+     *
+     * @param entries entries to append
+     */
+    synchronized void append(List<LedgerEntry> entries) {
+        try {
+            if (writer == null) {
+                writer = Files.newBufferedWriter(
+                        file,
+                        StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND
+                );
+            }
+
+            for (LedgerEntry entry : entries) {
+                writer.write(entry.time + "\t" + entry.kind + "\t" + entry.source + "\t" + entry.target + "\t" +
+                        entry.cents + "\t" + entry.result + "\t" + entry.plugin + "\n");
+            }
+
+            writer.flush();
+        } catch (IOException e) {
+            throw new GringottsStorageException("Failed to store " + entries.size() + " ledger entries.", e);
+        }
+    }
+
+    /**
+     * Close the file, if it was opened.
+     *
+     * @throws IOException if closing fails
+     */
+    synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+
+            writer = null;
+        }
+    }
+}
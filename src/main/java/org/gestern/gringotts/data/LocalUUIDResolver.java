@@ -0,0 +1,313 @@
+package org.gestern.gringotts.data;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.bukkit.OfflinePlayer;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Resolves player names to UUIDs from the data the server keeps locally, without any network access:
+ * <ul>
+ * <li>{@code usercache.json} in the server folder</li>
+ * <li>the {@code playerdata} files of every world, which record the last known name of the player</li>
+ * <li>the offline players known to the server</li>
+ * </ul>
+ * When a name was used by more than one player, the most recently seen one wins. Names are matched ignoring case.
+ */
+public class LocalUUIDResolver implements Callable<Map<String, UUID>> {
+    private static final String USERCACHE_DATE = "yyyy-MM-dd HH:mm:ss Z";
+
+    private static final byte TAG_END        = 0;
+    private static final byte TAG_BYTE       = 1;
+    private static final byte TAG_SHORT      = 2;
+    private static final byte TAG_INT        = 3;
+    private static final byte TAG_LONG       = 4;
+    private static final byte TAG_FLOAT      = 5;
+    private static final byte TAG_DOUBLE     = 6;
+    private static final byte TAG_BYTE_ARRAY = 7;
+    private static final byte TAG_STRING     = 8;
+    private static final byte TAG_LIST       = 9;
+    private static final byte TAG_COMPOUND   = 10;
+    private static final byte TAG_INT_ARRAY  = 11;
+    private static final byte TAG_LONG_ARRAY = 12;
+
+    private final List<String>                     names;
+    private final File                             serverFolder;
+    private final Collection<OfflinePlayer>        offlinePlayers;
+    private final Logger                           log;
+    private final ConcurrentMap<String, Candidate> candidates = new ConcurrentHashMap<>();
+
+    /**
+     * Create a resolver.
+     *
+     * @param names          player names to resolve
+     * @param serverFolder   folder holding {@code usercache.json} and the world folders
+     * @param offlinePlayers players known to the server
+     * @param log            receives warnings about unreadable files
+     */
+    public LocalUUIDResolver(List<String> names,
+                             File serverFolder,
+                             Collection<OfflinePlayer> offlinePlayers,
+                             Logger log) {
+        this.names          = ImmutableList.copyOf(names);
+        this.serverFolder   = serverFolder;
+        this.offlinePlayers = ImmutableList.copyOf(offlinePlayers);
+        this.log            = log;
+    }
+
+    /**
+     * Resolve the names.
+     *
+     * @return UUID of every name that was found, keyed by the name as given
+     */
+    @Override
+    public Map<String, UUID> call() {
+        for (OfflinePlayer player : offlinePlayers) {
+            offer(player.getName(), player.getUniqueId(), player.getLastPlayed());
+        }
+
+        readUserCache(new File(serverFolder, "usercache.json"));
+
+        playerDataFiles().parallelStream().forEach(this::readPlayerData);
+
+        return names.parallelStream()
+                .filter(name -> candidates.containsKey(name.toLowerCase(Locale.ROOT)))
+                .distinct()
+                .collect(Collectors.toMap(
+                        name -> name,
+                        name -> candidates.get(name.toLowerCase(Locale.ROOT)).uuid
+                ));
+    }
+
+    /**
+     * Number of distinct names found in the local sources.
+     *
+     * @return known names
+     */
+    public int getKnownNames() {
+        return candidates.size();
+    }
+
+    private void offer(String name, UUID uuid, long seen) {
+        if (name == null || name.isEmpty() || uuid == null) {
+            return;
+        }
+
+        Candidate candidate = new Candidate(uuid, seen);
+
+        candidates.merge(name.toLowerCase(Locale.ROOT), candidate, (a, b) -> a.seen >= b.seen ? a : b);
+    }
+
+    private void readUserCache(File file) {
+        if (!file.isFile()) {
+            return;
+        }
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat(USERCACHE_DATE, Locale.ROOT);
+
+        try (Reader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            for (JsonElement element : JsonParser.parseReader(in).getAsJsonArray()) {
+                JsonObject  entry   = element.getAsJsonObject();
+                JsonElement name    = entry.get("name");
+                JsonElement uuid    = entry.get("uuid");
+                JsonElement expires = entry.get("expiresOn");
+
+                if (name == null || uuid == null) {
+                    continue;
+                }
+
+                long seen = 0;
+
+                if (expires != null) {
+                    try {
+                        seen = dateFormat.parse(expires.getAsString()).getTime();
+                    } catch (ParseException ignored) {
+                    }
+                }
+
+                try {
+                    offer(name.getAsString(), UUID.fromString(uuid.getAsString()), seen);
+                } catch (IllegalArgumentException ignored) {
+                    // not a valid uuid
+                }
+            }
+        } catch (IOException | JsonParseException | IllegalStateException e) {
+            log.log(Level.WARNING, "Unable to read " + file, e);
+        }
+    }
+
+    /**
+     * Player data files of all worlds in the server folder. Worlds don't need to be loaded for this.
+     */
+    private List<File> playerDataFiles() {
+        File[] worlds = serverFolder.listFiles(File::isDirectory);
+
+        if (worlds == null) {
+            return Collections.emptyList();
+        }
+
+        return Arrays.stream(worlds)
+                .map(world -> new File(world, "playerdata").listFiles((dir, name) -> name.endsWith(".dat")))
+                .filter(Objects::nonNull)
+                .flatMap(Arrays::stream)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Read the last known name of a player from the "bukkit" compound of their player data file,
+     * which is named after the player's UUID.
+     */
+    private void readPlayerData(File file) {
+        UUID uuid;
+
+        try {
+            uuid = UUID.fromString(file.getName().substring(0, file.getName().length() - ".dat".length()));
+        } catch (IllegalArgumentException ignored) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))
+        ))) {
+            if (in.readByte() != TAG_COMPOUND) {
+                return;
+            }
+
+            in.readUTF();
+
+            String name = findLastKnownName(in);
+
+            offer(name, uuid, file.lastModified());
+        } catch (IOException e) {
+            log.log(Level.FINE, "Unable to read player data file " + file, e);
+        }
+    }
+
+    /**
+     * Walk the payload of the root compound tag and return the value of bukkit.lastKnownName, skipping everything else.
+     */
+    private static String findLastKnownName(DataInputStream in) throws IOException {
+        byte type;
+
+        while ((type = in.readByte()) != TAG_END) {
+            String name = in.readUTF();
+
+            if (type == TAG_COMPOUND && "bukkit".equals(name)) {
+                byte inner;
+
+                while ((inner = in.readByte()) != TAG_END) {
+                    String innerName = in.readUTF();
+
+                    if (inner == TAG_STRING && "lastKnownName".equals(innerName)) {
+                        return in.readUTF();
+                    }
+
+                    skip(in, inner);
+                }
+
+                return null;
+            }
+
+            skip(in, type);
+        }
+
+        return null;
+    }
+
+    private static void skip(DataInputStream in, byte type) throws IOException {
+        switch (type) {
+            case TAG_BYTE:
+                skipFully(in, 1);
+                break;
+            case TAG_SHORT:
+                skipFully(in, 2);
+                break;
+            case TAG_INT:
+            case TAG_FLOAT:
+                skipFully(in, 4);
+                break;
+            case TAG_LONG:
+            case TAG_DOUBLE:
+                skipFully(in, 8);
+                break;
+            case TAG_BYTE_ARRAY:
+                skipFully(in, in.readInt());
+                break;
+            case TAG_STRING:
+                skipFully(in, in.readUnsignedShort());
+                break;
+            case TAG_LIST: {
+                byte elementType = in.readByte();
+                int  length      = in.readInt();
+
+                for (int i = 0; i < length; i++) {
+                    skip(in, elementType);
+                }
+
+                break;
+            }
+            case TAG_COMPOUND: {
+                byte inner;
+
+                while ((inner = in.readByte()) != TAG_END) {
+                    skipFully(in, in.readUnsignedShort());
+                    skip(in, inner);
+                }
+
+                break;
+            }
+            case TAG_INT_ARRAY:
+                skipFully(in, in.readInt() * 4L);
+                break;
+            case TAG_LONG_ARRAY:
+                skipFully(in, in.readInt() * 8L);
+                break;
+            default:
+                throw new IOException("Unknown NBT tag type " + type);
+        }
+    }
+
+    private static void skipFully(DataInputStream in, long bytes) throws IOException {
+        long remaining = bytes;
+
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException();
+                }
+
+                skipped = 1;
+            }
+
+            remaining -= skipped;
+        }
+    }
+
+    private static final class Candidate {
+        private final UUID uuid;
+        private final long seen;
+
+        private Candidate(UUID uuid, long seen) {
+            this.uuid = uuid;
+            this.seen = seen;
+        }
+    }
+}
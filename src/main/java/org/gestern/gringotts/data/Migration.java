@@ -1,16 +1,22 @@
 package org.gestern.gringotts.data;
 
-import com.avaje.ebean.EbeanServer;
+import com.avaje.ebean.Transaction;
+import org.bukkit.Bukkit;
 import org.gestern.gringotts.Gringotts;
+import org.gestern.gringotts.GringottsStorageException;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
-import java.util.UUID;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -22,11 +28,25 @@ import java.util.logging.Logger;
  */
 public class Migration {
 
-    private final EbeanServer db  = Gringotts.instance.getDatabase();
-    private final Logger      log = Gringotts.instance.getLogger();
+    /**
+     * Number of rows written to the new database per transaction.
+     */
+    private static final int    DERBY_CHUNK_SIZE        = 1000;
+    private static final long   DERBY_PROGRESS_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+    private static final String DERBY_INSERT_ACCOUNT    = "INSERT INTO gringotts_account (id, type, owner, cents) " +
+            "SELECT ?, ?, ?, ? WHERE NOT EXISTS (SELECT 1 FROM gringotts_account WHERE id = ?)";
+    private static final String DERBY_INSERT_CHEST      = "INSERT INTO gringotts_accountchest " +
+            "(id, world, x, y, z, account) SELECT ?, ?, ?, ?, ?, ? " +
+            "WHERE NOT EXISTS (SELECT 1 FROM gringotts_accountchest WHERE id = ?)";
+
+    private static final int    UUID_CHUNK_SIZE         = 1000;
+    private static final String UUID_UPDATE_OWNER       = "UPDATE gringotts_account SET owner = ? WHERE id = ?";
+
+    private final Logger log = Gringotts.instance.getLogger();
 
     private final File gringottsFolder   = Gringotts.instance.getDataFolder();
     private final File derbyMigratedFlag = new File(gringottsFolder, ".derby-migrated");
+    private final File derbyProgressFile = new File(gringottsFolder, ".derby-migration-progress");
     private final File uuidsMigratedFlag = new File(Gringotts.instance.getDataFolder(), ".uuids-migrated");
 
     /**
@@ -46,6 +66,8 @@ public class Migration {
 
     /**
      * Perform migration of player names in db to uuids.
+     * Names are resolved from the server's local player data by {@link LocalUUIDResolver}, so no network access is
+     * needed, and the accounts are updated in batches of {@link #UUID_CHUNK_SIZE}.
      */
     public void doUUIDMigration() {
         // create backup copy of Gringotts.db
@@ -63,52 +85,75 @@ public class Migration {
             log.info("Created backup of Gringotts database as Gringotts.db.bak");
         }
 
+        long start = System.nanoTime();
+
         // only players need to be updated
-        List<EBeanAccount> accounts = db.find(EBeanAccount.class).where().eq("type", "player").findList();
-        List<String> names = new LinkedList<>();
+        List<Integer> ids    = new ArrayList<>();
+        List<String>  names  = new ArrayList<>();
+        Set<String>   owners = new HashSet<>();
 
-        for (EBeanAccount account : accounts) {
-            String owner = account.getOwner();
-            try {
-                UUID.fromString(owner);
-            } catch (IllegalArgumentException ignored) {
-                // when owner string is not a valid uuid, do the migration thing
-                String name = account.getOwner();
-                names.add(name);
-            }
-        }
+        readPlayerAccounts(ids, names, owners);
 
-        Map<String, UUID> nameUUIDs;
+        if (!names.isEmpty()) {
+            LocalUUIDResolver resolver = new LocalUUIDResolver(
+                    names,
+                    Bukkit.getWorldContainer(),
+                    Arrays.asList(Bukkit.getOfflinePlayers()),
+                    log
+            );
 
-        try {
-            nameUUIDs = new UUIDFetcher(names, true).call();
-        } catch (Exception err) {
-            log.log(Level.WARNING, "Could not migrate player accounts to UUIDS.", err);
-            return;
-        }
+            Map<String, UUID> nameUUIDs = resolver.call();
 
-        try {
-            // either update all, or nothing
-            db.beginTransaction();
+            log.info("Resolved " + nameUUIDs.size() + " of " + names.size() + " player names from " +
+                    resolver.getKnownNames() + " locally known players.");
 
-            for (EBeanAccount account : accounts) {
-                String name = account.getOwner();
+            List<Integer> updateIds    = new ArrayList<>(UUID_CHUNK_SIZE);
+            List<String>  updateOwners = new ArrayList<>(UUID_CHUNK_SIZE);
+            int           updated      = 0;
 
-                if (nameUUIDs.containsKey(name)) {
-                    account.setOwner(nameUUIDs.get(name).toString());
-                    db.update(account);
-                } else {
+            for (int i = 0; i < names.size(); i++) {
+                String name = names.get(i);
+                UUID   uuid = nameUUIDs.get(name);
+
+                if (uuid == null) {
                     log.info("No UUID found for player " + name);
+                } else if (!owners.add(uuid.toString())) {
+                    // the player got a new account after Gringotts started using UUIDs
+                    log.info("Player " + name + " already has an account under UUID " + uuid + ". Skipping.");
+                } else {
+                    updateIds.add(ids.get(i));
+                    updateOwners.add(uuid.toString());
+                }
+
+                if (updateIds.size() >= UUID_CHUNK_SIZE || (i == names.size() - 1 && !updateIds.isEmpty())) {
+                    try {
+                        writeBatch(UUID_UPDATE_OWNER, update -> {
+                            for (int j = 0; j < updateIds.size(); j++) {
+                                update.setString(1, updateOwners.get(j));
+                                update.setInt(2, updateIds.get(j));
+                                update.addBatch();
+                            }
+                        });
+                    } catch (GringottsStorageException e) {
+                        // chunks already written hold UUIDs now and are skipped when the migration runs again
+                        log.log(Level.WARNING,
+                                "Unable to update names to UUIDs. The migration will be repeated on the next start. " +
+                                        "If it keeps failing, shutdown the server and replace Gringotts.db with " +
+                                        "Gringotts.db.bak", e.getCause());
+                        return;
+                    }
+
+                    updated += updateIds.size();
+                    updateIds.clear();
+                    updateOwners.clear();
                 }
             }
 
-            db.commitTransaction();
-            db.endTransaction();
-        } catch (Exception e) {
-            log.log(Level.WARNING,
-                    "Unable to update names to UUIDs. " +
-                            "Please shutdown server and replace Gringotts.db with Gringotts.db.bak", e);
-            return;
+            log.info(String.format(
+                    "Migrated %d player accounts to UUIDs in %.1f s.",
+                    updated,
+                    (System.nanoTime() - start) / 1e9
+            ));
         }
 
         try {
@@ -121,41 +166,92 @@ public class Migration {
         }
     }
 
+    /**
+     * Read the player accounts. Accounts still owned by a name go to ids and names, the UUIDs of all others to owners.
+     */
+    private void readPlayerAccounts(List<Integer> ids, List<String> names, Set<String> owners) {
+        Transaction transaction = Gringotts.instance.getDatabase().createTransaction();
+
+        try (PreparedStatement select = transaction.getConnection().prepareStatement(
+                "SELECT id, owner FROM gringotts_account WHERE type = 'player'"
+        ); ResultSet result = select.executeQuery()) {
+            while (result.next()) {
+                String owner = result.getString(2);
+
+                if (owner == null) {
+                    continue;
+                }
+
+                try {
+                    owners.add(UUID.fromString(owner).toString());
+                } catch (IllegalArgumentException ignored) {
+                    // when owner string is not a valid uuid, do the migration thing
+                    ids.add(result.getInt(1));
+                    names.add(owner);
+                }
+            }
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to read player accounts for UUID migration.", e);
+        } finally {
+            transaction.end();
+        }
+    }
+
     /**
      * Migrate an existing Derby DB to Bukkit-internal EBean.
+     * <p>
+     * Rows are streamed from the Derby database in order of id and written in chunks of {@link #DERBY_CHUNK_SIZE},
+     * each in its own transaction. The id of the last written row is recorded after every chunk, so a migration
+     * that was interrupted continues where it stopped on the next start. Ids are kept, so chests keep pointing at
+     * their accounts, and rows that exist already are skipped, so a chunk written twice does no harm.
      */
     public void doDerbyMigration(DerbyDAO derbyDAO) {
-        log.info("Reading account data from Derby database ...");
+        Properties progress = readDerbyProgress();
+        int        accounts = Integer.parseInt(progress.getProperty("accounts", "0"));
+        int        chests   = Integer.parseInt(progress.getProperty("chests", "0"));
 
-        List<DerbyDAO.DerbyAccount> accounts = derbyDAO.getAccountsRaw();
-        List<DerbyDAO.DerbyAccountChest> chests = derbyDAO.getChestsRaw();
+        if (accounts > 0 || chests > 0) {
+            log.info("Resuming Derby migration after account " + accounts + " and chest " + chests + " ...");
+        } else {
+            log.info("Reading account data from Derby database ...");
+        }
 
-        db.beginTransaction();
-        for (DerbyDAO.DerbyAccount da : accounts) {
-            EBeanAccount acc = new EBeanAccount();
-            acc.setOwner(da.owner);
-            acc.setType(da.type);
-            acc.setCents(da.cents);
+        DerbyProgress counter = new DerbyProgress(derbyDAO.countRaw("account") + derbyDAO.countRaw("accountchest"));
 
-            db.insert(acc);
-        }
+        try {
+            List<DerbyDAO.DerbyAccount> accountChunk = new ArrayList<>(DERBY_CHUNK_SIZE);
+
+            derbyDAO.forEachAccountRaw(accounts, account -> {
+                accountChunk.add(account);
+
+                if (accountChunk.size() >= DERBY_CHUNK_SIZE) {
+                    writeDerbyAccounts(accountChunk, progress, counter);
+                }
+            });
+            writeDerbyAccounts(accountChunk, progress, counter);
 
-        for (DerbyDAO.DerbyAccountChest dac : chests) {
-            EBeanAccountChest chest = new EBeanAccountChest();
-            chest.setId(dac.id);
-            chest.setWorld(dac.world);
-            chest.setX(dac.x);
-            chest.setY(dac.y);
-            chest.setZ(dac.z);
-            chest.setAccount(dac.account);
+            List<DerbyDAO.DerbyAccountChest> chestChunk = new ArrayList<>(DERBY_CHUNK_SIZE);
 
-            db.insert(chest);
+            derbyDAO.forEachChestRaw(chests, chest -> {
+                chestChunk.add(chest);
+
+                if (chestChunk.size() >= DERBY_CHUNK_SIZE) {
+                    writeDerbyChests(chestChunk, progress, counter);
+                }
+            });
+            writeDerbyChests(chestChunk, progress, counter);
+        } catch (GringottsStorageException e) {
+            throw new GringottsStorageException(
+                    "Derby migration failed. It will resume from the last complete chunk on the next start.",
+                    e.getCause()
+            );
         }
-        db.commitTransaction();
 
+        log.info(counter.report("Migrated"));
 
         try {
             Files.createFile(derbyMigratedFlag.toPath());
+            Files.deleteIfExists(derbyProgressFile.toPath());
 
             log.info("Wrote account data to EBean-supported database. Migration complete.");
         } catch (IOException e) {
@@ -163,4 +259,153 @@ public class Migration {
                     "Failed to set derby migration complete flag (but it probably completed anyway)", e);
         }
     }
+
+    private void writeDerbyAccounts(List<DerbyDAO.DerbyAccount> chunk, Properties progress, DerbyProgress counter) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+
+        writeBatch(DERBY_INSERT_ACCOUNT, insert -> {
+            for (DerbyDAO.DerbyAccount account : chunk) {
+                insert.setInt(1, account.id);
+                insert.setString(2, account.type);
+                insert.setString(3, account.owner);
+                insert.setLong(4, account.cents);
+                insert.setInt(5, account.id);
+                insert.addBatch();
+            }
+        });
+
+        progress.setProperty("accounts", Integer.toString(chunk.get(chunk.size() - 1).id));
+        writeDerbyProgress(progress);
+        counter.add(chunk.size());
+
+        chunk.clear();
+    }
+
+    private void writeDerbyChests(List<DerbyDAO.DerbyAccountChest> chunk,
+                                  Properties progress,
+                                  DerbyProgress counter) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+
+        writeBatch(DERBY_INSERT_CHEST, insert -> {
+            for (DerbyDAO.DerbyAccountChest chest : chunk) {
+                insert.setInt(1, chest.id);
+                insert.setString(2, chest.world);
+                insert.setInt(3, chest.x);
+                insert.setInt(4, chest.y);
+                insert.setInt(5, chest.z);
+                insert.setInt(6, chest.account);
+                insert.setInt(7, chest.id);
+                insert.addBatch();
+            }
+        });
+
+        progress.setProperty("chests", Integer.toString(chunk.get(chunk.size() - 1).id));
+        writeDerbyProgress(progress);
+        counter.add(chunk.size());
+
+        chunk.clear();
+    }
+
+    /**
+     * Run a batch statement in a transaction of its own.
+     */
+    private void writeBatch(String sql, BatchBinder binder) {
+        Transaction transaction = Gringotts.instance.getDatabase().createTransaction();
+
+        try (PreparedStatement insert = transaction.getConnection().prepareStatement(sql)) {
+            binder.bind(insert);
+
+            insert.executeBatch();
+            transaction.commit();
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to write migration batch.", e);
+        } finally {
+            transaction.end();
+        }
+    }
+
+    private Properties readDerbyProgress() {
+        Properties progress = new Properties();
+
+        if (derbyProgressFile.exists()) {
+            try (Reader in = Files.newBufferedReader(derbyProgressFile.toPath(), StandardCharsets.UTF_8)) {
+                progress.load(in);
+            } catch (IOException e) {
+                // rows already written are skipped, so starting over is safe, just slower
+                log.log(Level.WARNING, "Unable to read Derby migration progress. Starting from the beginning.", e);
+
+                progress.clear();
+            }
+        }
+
+        return progress;
+    }
+
+    private void writeDerbyProgress(Properties progress) {
+        File temporary = new File(gringottsFolder, derbyProgressFile.getName() + ".tmp");
+
+        try {
+            try (Writer out = Files.newBufferedWriter(temporary.toPath(), StandardCharsets.UTF_8)) {
+                progress.store(out, "Gringotts Derby migration progress: last migrated ids");
+            }
+
+            Files.move(
+                    temporary.toPath(),
+                    derbyProgressFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE
+            );
+        } catch (IOException e) {
+            // not fatal: a resumed migration repeats the chunks since the last recorded progress
+            log.log(Level.WARNING, "Unable to record Derby migration progress.", e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface BatchBinder {
+        void bind(PreparedStatement insert) throws SQLException;
+    }
+
+    /**
+     * Counts migrated rows and reports the throughput every few seconds.
+     */
+    private class DerbyProgress {
+        private final int  total;
+        private final long start      = System.nanoTime();
+        private       long lastReport = start;
+        private       int  rows;
+
+        private DerbyProgress(int total) {
+            this.total = total;
+        }
+
+        private void add(int count) {
+            rows += count;
+
+            long now = System.nanoTime();
+
+            if (now - lastReport >= DERBY_PROGRESS_INTERVAL) {
+                lastReport = now;
+
+                log.info(report("Migrating Derby database:"));
+            }
+        }
+
+        private String report(String action) {
+            double seconds = Math.max(1, System.nanoTime() - start) / 1e9;
+
+            return String.format(
+                    "%s %d of %d rows in %.1f s (%.0f rows/s)",
+                    action,
+                    rows,
+                    total,
+                    seconds,
+                    rows / seconds
+            );
+        }
+    }
 }
@@ -0,0 +1,63 @@
+package org.gestern.gringotts.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects the SQL statements a storage call runs on the current thread, so that slow calls can be reported together
+ * with their statements. Collecting only happens between {@link #begin()} and {@link #end()}, so the DAOs can report
+ * every statement without cost when nobody is tracing.
+ */
+final class QueryTrace {
+    /**
+     * Maximum number of statements kept per call.
+     */
+    private static final int LIMIT = 10;
+
+    private static final ThreadLocal<List<String>> STATEMENTS = new ThreadLocal<>();
+
+    private QueryTrace() {
+    }
+
+    /**
+     * Start collecting statements on this thread. Nested calls keep collecting into the outer trace.
+     *
+     * @return true if this call started the trace, and has to end it
+     */
+    static boolean begin() {
+        if (STATEMENTS.get() != null) {
+            return false;
+        }
+
+        STATEMENTS.set(new ArrayList<>(2));
+
+        return true;
+    }
+
+    /**
+     * Stop collecting statements on this thread.
+     *
+     * @return the statements run since {@link #begin()}
+     */
+    static List<String> end() {
+        List<String> statements = STATEMENTS.get();
+
+        STATEMENTS.remove();
+
+        return statements == null ? Collections.emptyList() : statements;
+    }
+
+    /**
+     * Report a statement that is about to run.
+     *
+     * @param sql the statement
+     */
+    static void statement(String sql) {
+        List<String> statements = STATEMENTS.get();
+
+        if (statements != null && statements.size() < LIMIT) {
+            statements.add(sql);
+        }
+    }
+}
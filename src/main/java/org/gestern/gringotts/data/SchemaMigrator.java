@@ -0,0 +1,235 @@
+package org.gestern.gringotts.data;
+
+import org.gestern.gringotts.GringottsStorageException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Applies the numbered schema scripts {@code /schema/V1.sql}, {@code /schema/V2.sql}, ... to the database.
+ * <p>
+ * The versions applied so far are recorded in the table gringotts_schema_version, so every script runs exactly once.
+ * Each script runs in its own transaction together with recording its version. The first line comment of a script
+ * is its description. Scripts are applied after the tables themselves were created, by Ebean or by {@link JdbcDAO}.
+ */
+final class SchemaMigrator {
+    private static final String SCRIPT = "/schema/V%d.sql";
+
+    private static final String CREATE_VERSION_TABLE = "CREATE TABLE IF NOT EXISTS gringotts_schema_version (" +
+            "version integer primary key, " +
+            "description varchar(255) not null, " +
+            "installed bigint not null)";
+
+    /**
+     * Queries the DAOs run all the time, which have to look rows up through an index instead of scanning a table.
+     */
+    private static final String[] HOT_QUERIES = {
+            "SELECT id FROM gringotts_account WHERE type = ? AND owner = ?",
+            "SELECT id FROM gringotts_account WHERE lower(type) = lower(?) AND lower(owner) = lower(?)",
+            "SELECT owner FROM gringotts_account WHERE type = ?",
+            "SELECT world, x, y, z FROM gringotts_accountchest WHERE account = ?",
+            "DELETE FROM gringotts_accountchest WHERE world = ? AND x = ? AND y = ? AND z = ?",
+            "DELETE FROM gringotts_accountchest WHERE account = ?"
+    };
+
+    private final Logger log;
+
+    /**
+     * Create a migrator.
+     *
+     * @param log receives information about applied scripts and query plans
+     */
+    SchemaMigrator(Logger log) {
+        this.log = log;
+    }
+
+    /**
+     * Apply all scripts that were not applied yet.
+     *
+     * @param connection connection to the database
+     * @return the schema version after migrating
+     */
+    int migrate(Connection connection) {
+        boolean autoCommit;
+
+        try {
+            autoCommit = connection.getAutoCommit();
+        } catch (SQLException e) {
+            throw new GringottsStorageException("Failed to migrate database schema.", e);
+        }
+
+        int version = 0;
+
+        try {
+            connection.setAutoCommit(false);
+
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate(CREATE_VERSION_TABLE);
+
+                try (ResultSet result = statement.executeQuery("SELECT max(version) FROM gringotts_schema_version")) {
+                    version = result.next() ? result.getInt(1) : 0;
+                }
+            }
+
+            connection.commit();
+
+            List<String> script;
+
+            while ((script = readScript(version + 1)) != null) {
+                version++;
+
+                apply(connection, version, script);
+
+                log.info("Updated database schema to version " + version + ": " + description(script));
+            }
+
+            return version;
+        } catch (SQLException e) {
+            rollback(connection);
+
+            throw new GringottsStorageException("Failed to update database schema to version " + (version + 1), e);
+        } finally {
+            try {
+                connection.setAutoCommit(autoCommit);
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+
+    private void apply(Connection connection, int version, List<String> script) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : statements(script)) {
+                statement.executeUpdate(sql);
+            }
+        }
+
+        try (PreparedStatement record = connection.prepareStatement(
+                "INSERT INTO gringotts_schema_version (version, description, installed) VALUES (?, ?, ?)"
+        )) {
+            record.setInt(1, version);
+            record.setString(2, description(script));
+            record.setLong(3, System.currentTimeMillis());
+            record.executeUpdate();
+        }
+
+        connection.commit();
+    }
+
+    /**
+     * Check that the hot queries look up their rows through an index, and log a warning for every query that
+     * scans a table instead. Only SQLite query plans are understood, so this does nothing for other databases.
+     *
+     * @param connection connection to the database
+     * @return true if all queries use an index, or the database is not SQLite
+     */
+    boolean checkQueryPlans(Connection connection) {
+        boolean indexed = true;
+
+        try {
+            if (!"SQLite".equalsIgnoreCase(connection.getMetaData().getDatabaseProductName())) {
+                return true;
+            }
+
+            for (String query : HOT_QUERIES) {
+                List<String> plan = new ArrayList<>();
+
+                // parameters of an explained statement don't need to be bound
+                try (PreparedStatement explain = connection.prepareStatement("EXPLAIN QUERY PLAN " + query);
+                     ResultSet result = explain.executeQuery()) {
+                    while (result.next()) {
+                        plan.add(result.getString("detail"));
+                    }
+                }
+
+                if (plan.stream().anyMatch(step -> step.startsWith("SCAN"))) {
+                    indexed = false;
+
+                    log.warning("Query does not use an index: " + query + " (plan: " + String.join("; ", plan) + ")");
+                }
+            }
+        } catch (SQLException e) {
+            log.warning("Unable to check query plans: " + e.getMessage());
+        }
+
+        return indexed;
+    }
+
+    /**
+     * Read the lines of a script.
+     *
+     * @param version version of the script
+     * @return the lines, or null if there is no script of that version
+     */
+    private static List<String> readScript(int version) throws SQLException {
+        InputStream in = SchemaMigrator.class.getResourceAsStream(String.format(SCRIPT, version));
+
+        if (in == null) {
+            return null;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new SQLException("Failed to read schema script version " + version, e);
+        }
+    }
+
+    private static String description(List<String> script) {
+        if (!script.isEmpty() && script.get(0).startsWith("--")) {
+            return script.get(0).substring(2).trim();
+        }
+
+        return "";
+    }
+
+    /**
+     * Split a script into statements at semicolons ending a line. Comment lines are skipped.
+     *
+     * @param script lines of the script
+     * @return the statements, without their semicolons
+     */
+    static List<String> statements(List<String> script) {
+        List<String>  statements = new ArrayList<>();
+        StringBuilder current    = new StringBuilder();
+
+        for (String line : script) {
+            String trimmed = line.trim();
+
+            if (trimmed.isEmpty() || trimmed.startsWith("--")) {
+                continue;
+            }
+
+            current.append(trimmed).append(' ');
+
+            if (trimmed.endsWith(";")) {
+                statements.add(current.substring(0, current.lastIndexOf(";")));
+                current.setLength(0);
+            }
+        }
+
+        if (current.length() > 0) {
+            statements.add(current.toString().trim());
+        }
+
+        return statements;
+    }
+
+    private static void rollback(Connection connection) {
+        try {
+            connection.rollback();
+        } catch (SQLException ignored) {
+        }
+    }
+}
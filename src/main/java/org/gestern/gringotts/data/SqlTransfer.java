@@ -0,0 +1,231 @@
+package org.gestern.gringotts.data;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * Bulk reads and writes of the account and vault tables shared by the database DAOs.
+ * <p>
+ * Reads use forward-only cursors, so rows are passed on as they are fetched instead of being collected first.
+ * Writes use JDBC batches and don't commit, so the caller decides about the transaction.
+ */
+final class SqlTransfer {
+    /**
+     * Number of rows fetched from the database at once.
+     */
+    private static final int FETCH_SIZE = 500;
+
+    private static final String INSERT_ACCOUNT = "INSERT INTO gringotts_account (type, owner, cents) " +
+            "SELECT ?, ?, ? WHERE NOT EXISTS (SELECT 1 FROM gringotts_account WHERE type = ? AND owner = ?)";
+    private static final String UPDATE_CENTS   = "UPDATE gringotts_account SET cents = ? WHERE type = ? AND owner = ?";
+    private static final String INSERT_CHEST   = "INSERT INTO gringotts_accountchest (world, x, y, z, account) " +
+            "SELECT ?, ?, ?, ?, id FROM gringotts_account WHERE type = ? AND owner = ? AND NOT EXISTS " +
+            "(SELECT 1 FROM gringotts_accountchest WHERE world = ? AND x = ? AND y = ? AND z = ?)";
+    private static final String PURGE_SELECT   = "SELECT a.type, a.owner, a.cents FROM gringotts_account a " +
+            "WHERE a.type = ? AND a.cents BETWEEN ? AND ? AND %s " +
+            "(SELECT 1 FROM gringotts_accountchest ac WHERE ac.account = a.id)";
+    private static final String PURGE_CHESTS   = "DELETE FROM gringotts_accountchest WHERE account IN " +
+            "(SELECT id FROM gringotts_account WHERE type = ? AND owner = ? AND cents = ?)";
+    private static final String PURGE_ACCOUNT  = "DELETE FROM gringotts_account " +
+            "WHERE type = ? AND owner = ? AND cents = ?";
+
+    private SqlTransfer() {
+    }
+
+    /**
+     * Pass every stored account to a visitor.
+     *
+     * @param connection connection to read from
+     * @param visitor    called for each account
+     * @throws SQLException if reading fails
+     */
+    static void forEachAccount(Connection connection, Consumer<StoredAccount> visitor) throws SQLException {
+        try (Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            statement.setFetchSize(FETCH_SIZE);
+
+            try (ResultSet result = statement.executeQuery("SELECT type, owner, cents FROM gringotts_account")) {
+                while (result.next()) {
+                    String type  = result.getString(1);
+                    String owner = result.getString(2);
+
+                    if (type != null && owner != null) {
+                        visitor.accept(new StoredAccount(type, owner, result.getLong(3)));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Pass the location of every stored vault to a visitor.
+     *
+     * @param connection connection to read from
+     * @param visitor    called for each vault
+     * @throws SQLException if reading fails
+     */
+    static void forEachChestLocation(Connection connection,
+                                     Consumer<AccountChestLocation> visitor) throws SQLException {
+        try (Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            statement.setFetchSize(FETCH_SIZE);
+
+            try (ResultSet result = statement.executeQuery(
+                    "SELECT ac.world, ac.x, ac.y, ac.z, a.type, a.owner " +
+                            "FROM gringotts_accountchest ac JOIN gringotts_account a ON ac.account = a.id"
+            )) {
+                while (result.next()) {
+                    visitor.accept(new AccountChestLocation(
+                            result.getString(1),
+                            result.getInt(2),
+                            result.getInt(3),
+                            result.getInt(4),
+                            result.getString(5),
+                            result.getString(6)
+                    ));
+                }
+            }
+        }
+    }
+
+    /**
+     * Create missing accounts and set the balance of all given accounts.
+     *
+     * @param connection connection to write to
+     * @param accounts   accounts to write
+     * @return number of accounts that were created
+     * @throws SQLException if writing fails
+     */
+    static int importAccounts(Connection connection, Collection<StoredAccount> accounts) throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement(INSERT_ACCOUNT);
+             PreparedStatement update = connection.prepareStatement(UPDATE_CENTS)) {
+            for (StoredAccount account : accounts) {
+                insert.setString(1, account.type);
+                insert.setString(2, account.owner);
+                insert.setLong(3, account.cents);
+                insert.setString(4, account.type);
+                insert.setString(5, account.owner);
+                insert.addBatch();
+
+                update.setLong(1, account.cents);
+                update.setString(2, account.type);
+                update.setString(3, account.owner);
+                update.addBatch();
+            }
+
+            int created = count(insert.executeBatch());
+
+            update.executeBatch();
+
+            return created;
+        }
+    }
+
+    /**
+     * Store vaults whose position is not taken yet. Vaults of accounts that don't exist are skipped.
+     *
+     * @param connection connection to write to
+     * @param locations  vaults to write
+     * @return number of vaults that were stored
+     * @throws SQLException if writing fails
+     */
+    static int importChestLocations(Connection connection,
+                                    Collection<AccountChestLocation> locations) throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement(INSERT_CHEST)) {
+            for (AccountChestLocation location : locations) {
+                insert.setString(1, location.world);
+                insert.setInt(2, location.x);
+                insert.setInt(3, location.y);
+                insert.setInt(4, location.z);
+                insert.setString(5, location.type);
+                insert.setString(6, location.owner);
+                insert.setString(7, location.world);
+                insert.setInt(8, location.x);
+                insert.setInt(9, location.y);
+                insert.setInt(10, location.z);
+                insert.addBatch();
+            }
+
+            return count(insert.executeBatch());
+        }
+    }
+
+    /**
+     * Pass the accounts of a type that may hold little enough money to be purged to a visitor,
+     * see {@link DAO#forEachPurgeCandidate(String, long, long, boolean, Consumer)}.
+     *
+     * @param connection connection to read from
+     * @param type       account type
+     * @param minCents   lowest balance to purge
+     * @param maxCents   highest balance to purge
+     * @param withVaults true to visit the accounts with vaults, false to visit the accounts without
+     * @param visitor    called for each account
+     * @throws SQLException if reading fails
+     */
+    static void forEachPurgeCandidate(Connection connection,
+                                      String type,
+                                      long minCents,
+                                      long maxCents,
+                                      boolean withVaults,
+                                      Consumer<StoredAccount> visitor) throws SQLException {
+        try (PreparedStatement select = connection.prepareStatement(
+                String.format(PURGE_SELECT, withVaults ? "EXISTS" : "NOT EXISTS"),
+                ResultSet.TYPE_FORWARD_ONLY,
+                ResultSet.CONCUR_READ_ONLY
+        )) {
+            select.setFetchSize(FETCH_SIZE);
+            select.setString(1, type);
+            // the vaults may hold any amount on top of the virtual balance
+            select.setLong(2, withVaults ? Long.MIN_VALUE : minCents);
+            select.setLong(3, maxCents);
+
+            try (ResultSet result = select.executeQuery()) {
+                while (result.next()) {
+                    visitor.accept(new StoredAccount(result.getString(1), result.getString(2), result.getLong(3)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete accounts together with their vaults, unless their balance changed.
+     *
+     * @param connection connection to write to
+     * @param accounts   accounts to delete, with the balance they were chosen with
+     * @return number of accounts that were deleted
+     * @throws SQLException if writing fails
+     */
+    static int purgeAccounts(Connection connection, Collection<StoredAccount> accounts) throws SQLException {
+        try (PreparedStatement chests = connection.prepareStatement(PURGE_CHESTS);
+             PreparedStatement delete = connection.prepareStatement(PURGE_ACCOUNT)) {
+            for (StoredAccount account : accounts) {
+                for (PreparedStatement statement : new PreparedStatement[]{chests, delete}) {
+                    statement.setString(1, account.type);
+                    statement.setString(2, account.owner);
+                    statement.setLong(3, account.cents);
+                    statement.addBatch();
+                }
+            }
+
+            // vaults first, their account id is looked up through the account row
+            chests.executeBatch();
+
+            return count(delete.executeBatch());
+        }
+    }
+
+    private static int count(int[] updateCounts) {
+        int count = 0;
+
+        for (int updated : updateCounts) {
+            if (updated > 0) {
+                count += updated;
+            }
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,107 @@
+package org.gestern.gringotts.data;
+
+import org.gestern.gringotts.Configuration;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * SQLite connection settings from the <code>storage.sqlite</code> configuration section.
+ * <p>
+ * The settings are passed to the SQLite driver as connection properties, which it applies as pragmas
+ * whenever a connection is opened.
+ */
+public final class SqliteProfile {
+    /**
+     * Pragmas shown in the report of effective settings.
+     */
+    private static final String[] REPORTED = {
+            "journal_mode",
+            "synchronous",
+            "mmap_size",
+            "cache_size",
+            "busy_timeout",
+            "temp_store",
+            "journal_size_limit",
+            "wal_autocheckpoint"
+    };
+
+    private SqliteProfile() {
+    }
+
+    /**
+     * Configured pragmas, by pragma name.
+     *
+     * @return pragma values
+     */
+    public static Map<String, String> pragmas() {
+        Configuration       conf    = Configuration.CONF;
+        Map<String, String> pragmas = new HashMap<>();
+
+        pragmas.put("journal_mode", conf.sqliteJournalMode);
+        pragmas.put("synchronous", conf.sqliteSynchronous);
+        pragmas.put("mmap_size", String.valueOf(conf.sqliteMmapSize));
+        pragmas.put("cache_size", String.valueOf(conf.sqliteCacheSize));
+        pragmas.put("busy_timeout", String.valueOf(conf.sqliteBusyTimeout));
+        pragmas.put("temp_store", conf.sqliteTempStore);
+        pragmas.put("journal_size_limit", String.valueOf(conf.sqliteJournalSizeLimit));
+
+        return pragmas;
+    }
+
+    /**
+     * Configured pragmas as driver connection properties.
+     *
+     * @return connection properties
+     */
+    public static Properties connectionProperties() {
+        Properties properties = new Properties();
+
+        properties.putAll(pragmas());
+
+        return properties;
+    }
+
+    /**
+     * Read the settings in effect for a connection.
+     *
+     * @param connection the connection
+     * @return pragma values in effect, by pragma name
+     * @throws SQLException if the settings could not be read
+     */
+    public static Map<String, String> report(Connection connection) throws SQLException {
+        Map<String, String> settings = new LinkedHashMap<>();
+
+        try (Statement statement = connection.createStatement()) {
+            for (String pragma : REPORTED) {
+                try (ResultSet result = statement.executeQuery("PRAGMA " + pragma)) {
+                    settings.put(pragma, result.next() ? result.getString(1) : "");
+                }
+            }
+        }
+
+        return settings;
+    }
+
+    /**
+     * Copy the write-ahead log into the database.
+     * A passive checkpoint copies what it can without waiting for readers or writers;
+     * a truncating checkpoint waits for them and then empties the log file.
+     * Does nothing if the database is not in WAL mode.
+     *
+     * @param connection the connection
+     * @param truncate   whether to do a truncating checkpoint
+     * @throws SQLException if the checkpoint failed
+     */
+    public static void checkpoint(Connection connection, boolean truncate) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA wal_checkpoint(" + (truncate ? "TRUNCATE" : "PASSIVE") + ")");
+        }
+    }
+}
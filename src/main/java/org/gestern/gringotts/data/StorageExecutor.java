@@ -0,0 +1,113 @@
+package org.gestern.gringotts.data;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded thread pool for database access.
+ * <p>
+ * Tasks wait in a queue of limited size. When it is full, the submitting thread runs the task itself, which slows
+ * down callers instead of letting the queue grow without bound.
+ */
+public class StorageExecutor extends ThreadPoolExecutor {
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong    callerRuns    = new AtomicLong();
+
+    /**
+     * Create a storage executor.
+     *
+     * @param threads   number of storage threads
+     * @param queueSize maximum number of waiting tasks
+     */
+    public StorageExecutor(int threads, int queueSize) {
+        super(
+                Math.max(1, threads),
+                Math.max(1, threads),
+                0,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueSize)),
+                new StorageThreadFactory()
+        );
+
+        setRejectedExecutionHandler((task, executor) -> {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Storage executor has been shut down.");
+            }
+
+            callerRuns.incrementAndGet();
+            task.run();
+        });
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        super.execute(command);
+
+        int depth = getQueue().size();
+
+        maxQueueDepth.accumulateAndGet(depth, Math::max);
+    }
+
+    /**
+     * Number of tasks currently waiting for a storage thread.
+     *
+     * @return current queue depth
+     */
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    /**
+     * Highest number of tasks that have been waiting at the same time.
+     *
+     * @return maximum queue depth
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * Number of tasks that were run by the submitting thread because the queue was full.
+     *
+     * @return number of tasks run by callers
+     */
+    public long getCallerRuns() {
+        return callerRuns.get();
+    }
+
+    /**
+     * Stop accepting tasks and wait for the queued ones to finish.
+     *
+     * @param timeoutSeconds maximum seconds to wait
+     * @return true if all tasks finished in time
+     */
+    public boolean shutdownAndWait(long timeoutSeconds) {
+        shutdown();
+
+        try {
+            return awaitTermination(timeoutSeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            return false;
+        }
+    }
+
+    private static final class StorageThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Gringotts Storage #" + count.incrementAndGet());
+
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
+}
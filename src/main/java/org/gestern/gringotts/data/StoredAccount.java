@@ -0,0 +1,31 @@
+package org.gestern.gringotts.data;
+
+/**
+ * Stored state of an account: its holder and its virtual balance.
+ * Unlike {@link org.gestern.gringotts.GringottsAccount}, this does not require the account holder to be resolved.
+ */
+public final class StoredAccount {
+    /**
+     * Type of the account holder.
+     */
+    public final String type;
+    /**
+     * Id of the account holder.
+     */
+    public final String owner;
+    /**
+     * Virtual balance in cents.
+     */
+    public final long   cents;
+
+    public StoredAccount(String type, String owner, long cents) {
+        this.type  = type;
+        this.owner = owner;
+        this.cents = cents;
+    }
+
+    @Override
+    public String toString() {
+        return "StoredAccount(" + type + ":" + owner + "," + cents + ")";
+    }
+}
@@ -0,0 +1,687 @@
+package org.gestern.gringotts.data;
+
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+import org.gestern.gringotts.AccountChest;
+import org.gestern.gringotts.AccountLocks;
+import org.gestern.gringotts.Configuration;
+import org.gestern.gringotts.Gringotts;
+import org.gestern.gringotts.GringottsAccount;
+import org.gestern.gringotts.accountholder.AccountHolder;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind cache for the virtual balance (cents) of accounts.
+ * <p>
+ * Balances are read from the wrapped DAO once and then kept in memory, which is authoritative from then on. Only
+ * balances of stored accounts are kept. Changed balances are marked dirty and written to the wrapped DAO in a single
+ * batch:
+ * <ul>
+ * <li>every {@link Configuration#centsCacheFlushInterval} seconds,</li>
+ * <li>as soon as {@link Configuration#centsCacheMaxPending} balances are waiting to be written,</li>
+ * <li>when the JVM reports the heap usage threshold as exceeded after a garbage collection,</li>
+ * <li>on shutdown.</li>
+ * </ul>
+ * If the server crashes, balance increases since the last flush are lost. Decreases are lost as well, unless
+ * {@link Configuration#centsCacheFlushDecreases} is set, in which case they are written before the operation returns,
+ * so that a crash can never hand out money a second time.
+ * <p>
+ * With {@link Configuration#centsCacheGroupCommit}, all changed balances are instead collected during a server tick
+ * and written in a single batch by the storage executor at the start of the next one. A transfer touches the same
+ * balances several times, so each of them is written once per tick with its latest value, and all of them in one
+ * transaction. Reads are answered from memory meanwhile. Decreases are then no longer written before the operation
+ * returns, so a crash can lose those of the last tick.
+ * <p>
+ * An entry is only replaced, marked dirty, taken for a write or dropped within {@link Map#compute} and its variants,
+ * which lock the entry's key, so that a change can't come in between a flush or eviction reading the dirty mark and
+ * acting on it. Flushes copy the balances while holding the {@link AccountLocks} of their accounts, so that a batch
+ * never holds only some of the balances of a transfer, and write them after releasing the locks.
+ * <p>
+ * All other operations are passed through to the wrapped DAO. Only database backends are wrapped, since the others
+ * keep all balances in memory already.
+ */
+public class WriteBehindDAO implements DAO {
+    private final DAO                      backend;
+    private final Logger                   log;
+    private final Map<String, CachedCents> cents           = new ConcurrentHashMap<>();
+    private final Set<String>              dirty           = ConcurrentHashMap.newKeySet();
+    private final Object                   flushLock       = new Object();
+    private final AtomicBoolean            flushPending    = new AtomicBoolean();
+    /**
+     * Changed balances to write at the next tick.
+     */
+    private final Set<String>              tickCommit      = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean            commitScheduled = new AtomicBoolean();
+    private final NotificationListener     memoryListener  = this::onMemoryNotification;
+    private       BukkitTask               flushTask;
+
+    /**
+     * Create a write-behind cache in front of the given DAO.
+     *
+     * @param backend DAO to read balances from and write them back to
+     */
+    public WriteBehindDAO(DAO backend) {
+        this(backend, Gringotts.instance.getLogger());
+    }
+
+    /**
+     * Create a write-behind cache in front of the given DAO, logging to the given logger.
+     *
+     * @param backend DAO to read balances from and write them back to
+     * @param log     receives failed writes
+     */
+    WriteBehindDAO(DAO backend, Logger log) {
+        this.backend = backend;
+        this.log     = log;
+    }
+
+    private static String key(AccountHolder owner) {
+        return owner.getType() + ":" + owner.getId();
+    }
+
+    /**
+     * Start the periodic flush and register for low memory notifications.
+     */
+    public void start() {
+        long interval = Math.max(1, Configuration.CONF.centsCacheFlushInterval) * 20L;
+
+        flushTask = Bukkit.getScheduler().runTaskTimerAsynchronously(
+                Gringotts.instance,
+                this::flush,
+                interval,
+                interval
+        );
+
+        registerMemoryListener();
+    }
+
+    /**
+     * Write all pending balances to the wrapped DAO in a single batch.
+     * If writing fails, the balances stay pending and are retried on the next flush.
+     */
+    public void flush() {
+        flushPending.set(false);
+
+        String[] keys = dirty.toArray(new String[0]);
+
+        if (keys.length > 0) {
+            flushLocked(Arrays.asList(keys));
+        }
+    }
+
+    /**
+     * Number of balances that have been changed but not yet written.
+     *
+     * @return number of pending balances
+     */
+    public int getPendingCount() {
+        return dirty.size();
+    }
+
+    /**
+     * Number of balances held in memory.
+     *
+     * @return number of cached balances
+     */
+    public int getCachedCount() {
+        return cents.size();
+    }
+
+    /**
+     * Write the given pending balances. Their values are copied while holding the locks of their accounts, so that a
+     * transfer is copied either whole or not at all, and written after the locks are released, so that changes on
+     * the main thread don't wait for the database.
+     *
+     * @param keys keys of the balances to write
+     */
+    private void flushLocked(Collection<String> keys) {
+        Map<String, CachedCents> taken = AccountLocks.call(() -> take(keys), keys.toArray(new String[0]));
+
+        synchronized (flushLock) {
+            write(taken);
+        }
+    }
+
+    /**
+     * Write the given pending balances. Must be called while holding the flush lock.
+     *
+     * @param keys keys of the balances to write
+     */
+    private void flush(Collection<String> keys) {
+        write(take(keys));
+    }
+
+    /**
+     * Copy the given pending balances. A key without an entry stays pending rather than dropping a change that was
+     * not written.
+     *
+     * @param keys keys of the balances
+     * @return the entries of the pending balances by key
+     */
+    private Map<String, CachedCents> take(Collection<String> keys) {
+        Map<String, CachedCents> taken = new HashMap<>();
+
+        for (String key : keys) {
+            CachedCents entry = cents.get(key);
+
+            if (entry != null && dirty.contains(key)) {
+                taken.put(key, entry);
+            }
+        }
+
+        return taken;
+    }
+
+    /**
+     * Write copied balances. Must be called while holding the flush lock.
+     * An entry that was replaced since it was copied is left dirty and written with its new value later, and one that
+     * was dropped is not written at all, so that an older copy never overwrites a newer write.
+     *
+     * @param taken entries to write by key
+     */
+    private void write(Map<String, CachedCents> taken) {
+        Map<GringottsAccount, Long> batch = new HashMap<>();
+
+        for (Map.Entry<String, CachedCents> copied : taken.entrySet()) {
+            cents.computeIfPresent(copied.getKey(), (k, entry) -> {
+                if (entry == copied.getValue() && dirty.remove(k)) {
+                    batch.put(entry.account, entry.value);
+                }
+
+                return entry;
+            });
+        }
+
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            if (!backend.storeCents(batch)) {
+                log.warning("Some virtual balances could not be written, their accounts may no longer exist.");
+            }
+        } catch (RuntimeException e) {
+            for (GringottsAccount account : batch.keySet()) {
+                dirty.add(key(account.owner));
+            }
+
+            log.log(Level.SEVERE, "Failed to write " + batch.size() + " virtual balances. Will retry.", e);
+        }
+    }
+
+    /**
+     * Write the balances changed since the last tick commit in a single batch.
+     */
+    private void commitTick() {
+        commitScheduled.set(false);
+
+        List<String> keys = new ArrayList<>(tickCommit.size());
+
+        for (Iterator<String> it = tickCommit.iterator(); it.hasNext(); ) {
+            keys.add(it.next());
+            it.remove();
+        }
+
+        flushLocked(keys);
+    }
+
+    /**
+     * Write a changed balance at the next tick, together with all others changed during this one.
+     *
+     * @param key key of the balance
+     */
+    private void commitNextTick(String key) {
+        tickCommit.add(key);
+
+        if (!commitScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        if (Gringotts.instance.isEnabled()) {
+            // the tick only marks the end of the batch, the database is written off the main thread
+            Bukkit.getScheduler().runTask(Gringotts.instance, () -> {
+                StorageExecutor executor = Gringotts.instance.getStorageExecutor();
+
+                if (executor == null || executor.isShutdown()) {
+                    commitTick();
+                } else {
+                    executor.execute(this::commitTick);
+                }
+            });
+        } else {
+            // no more ticks while shutting down
+            commitTick();
+        }
+    }
+
+    /**
+     * Schedule an asynchronous flush, unless one is already scheduled.
+     */
+    private void requestFlush() {
+        if (flushPending.compareAndSet(false, true)) {
+            Bukkit.getScheduler().runTaskAsynchronously(Gringotts.instance, this::flush);
+        }
+    }
+
+    /**
+     * Drop all balances from memory that have no pending changes.
+     */
+    void evictClean() {
+        synchronized (flushLock) {
+            for (String key : cents.keySet()) {
+                cents.computeIfPresent(key, (k, entry) -> dirty.contains(k) ? entry : null);
+            }
+        }
+    }
+
+    private void registerMemoryListener() {
+        double threshold = Configuration.CONF.centsCacheMemoryThreshold;
+
+        if (threshold <= 0 || threshold >= 1) {
+            return;
+        }
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP || !pool.isCollectionUsageThresholdSupported()) {
+                continue;
+            }
+
+            long max = pool.getUsage().getMax();
+
+            // don't override a threshold somebody else has already set up
+            if (max > 0 && pool.getCollectionUsageThreshold() == 0) {
+                pool.setCollectionUsageThreshold((long) (max * threshold));
+            }
+        }
+
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(
+                memoryListener,
+                null,
+                null
+        );
+    }
+
+    private void unregisterMemoryListener() {
+        try {
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(memoryListener);
+        } catch (Exception ignored) {
+            // was never registered
+        }
+    }
+
+    private void onMemoryNotification(Notification notification, Object handback) {
+        if (!MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+            return;
+        }
+
+        if (flushPending.compareAndSet(false, true)) {
+            Bukkit.getScheduler().runTaskAsynchronously(Gringotts.instance, () -> {
+                flush();
+                evictClean();
+            });
+        }
+    }
+
+    @Override
+    public boolean storeCents(GringottsAccount account, long amount) {
+        String        key       = key(account.owner);
+        AtomicBoolean decreased = new AtomicBoolean();
+
+        CachedCents entry = cents.computeIfPresent(key, (k, old) -> {
+            decreased.set(amount < old.value);
+            dirty.add(k);
+
+            return new CachedCents(account, amount);
+        });
+
+        if (entry == null) {
+            // unknown balance: write through, so that we learn whether the account exists at all
+            if (!backend.storeCents(account, amount)) {
+                return false;
+            }
+
+            // replaces a balance another thread read from the wrapped DAO before it was written, but not a change
+            // made since
+            cents.compute(key, (k, old) -> old != null && dirty.contains(k) ? old : new CachedCents(account, amount));
+
+            return true;
+        }
+
+        if (Configuration.CONF.centsCacheGroupCommit) {
+            commitNextTick(key);
+        } else if (decreased.get() && Configuration.CONF.centsCacheFlushDecreases) {
+            flushLocked(Collections.singleton(key));
+        } else if (dirty.size() >= Configuration.CONF.centsCacheMaxPending) {
+            requestFlush();
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean storeCents(Map<GringottsAccount, Long> balances) {
+        boolean stored = true;
+
+        for (Map.Entry<GringottsAccount, Long> balance : balances.entrySet()) {
+            stored &= storeCents(balance.getKey(), balance.getValue());
+        }
+
+        return stored;
+    }
+
+    @Override
+    public long retrieveCents(GringottsAccount account) {
+        Long stored = findCents(account);
+
+        return stored == null ? 0 : stored;
+    }
+
+    @Override
+    public Long findCents(GringottsAccount account) {
+        String      key   = key(account.owner);
+        CachedCents entry = cents.get(key);
+
+        if (entry != null) {
+            return entry.value;
+        }
+
+        Long stored = backend.findCents(account);
+
+        // accounts that don't exist are not kept, so that they are still unknown once they are created
+        if (stored == null) {
+            return null;
+        }
+
+        entry = cents.putIfAbsent(key, new CachedCents(account, stored));
+
+        return entry == null ? stored : entry.value;
+    }
+
+    @Override
+    public boolean storeAccountChest(AccountChest chest) {
+        return backend.storeAccountChest(chest);
+    }
+
+    @Override
+    public boolean deleteAccountChest(AccountChest chest) {
+        return backend.deleteAccountChest(chest);
+    }
+
+    @Override
+    public boolean storeAccount(GringottsAccount account) {
+        return backend.storeAccount(account);
+    }
+
+    @Override
+    public boolean hasAccount(AccountHolder accountHolder) {
+        return cents.containsKey(key(accountHolder)) || backend.hasAccount(accountHolder);
+    }
+
+    @Override
+    public boolean renameAccount(String type, AccountHolder holder, String newName) {
+        return renameAccount(type, holder.getId(), newName);
+    }
+
+    @Override
+    public boolean renameAccount(String type, String oldName, String newName) {
+        String oldKey = type + ":" + oldName;
+        String newKey = type + ":" + newName;
+
+        return AccountLocks.call(() -> {
+            synchronized (flushLock) {
+                // pending balance has to reach the database under the old name before the rename
+                flush(Collections.singleton(oldKey));
+                cents.remove(oldKey);
+                cents.remove(newKey);
+
+                return backend.renameAccount(type, oldName, newName);
+            }
+        }, oldKey, newKey);
+    }
+
+    @Override
+    public Collection<AccountChest> retrieveChests() {
+        return backend.retrieveChests();
+    }
+
+    @Override
+    public Collection<AccountChestLocation> retrieveChestLocations() {
+        return backend.retrieveChestLocations();
+    }
+
+    @Override
+    public Collection<AccountChest> retrieveChests(GringottsAccount account) {
+        return backend.retrieveChests(account);
+    }
+
+    @Override
+    public Collection<String> getAccounts() {
+        return backend.getAccounts();
+    }
+
+    @Override
+    public Collection<String> getAccounts(String type) {
+        return backend.getAccounts(type);
+    }
+
+    @Override
+    public boolean deleteAccount(GringottsAccount acc) {
+        return deleteAccount(acc.owner.getType(), acc.owner.getId());
+    }
+
+    @Override
+    public boolean deleteAccount(String type, String account) {
+        String key = type + ":" + account;
+
+        return AccountLocks.call(() -> {
+            synchronized (flushLock) {
+                dirty.remove(key);
+                cents.remove(key);
+
+                return backend.deleteAccount(type, account);
+            }
+        }, key);
+    }
+
+    @Override
+    public boolean deleteAccountChests(GringottsAccount acc) {
+        return backend.deleteAccountChests(acc);
+    }
+
+    @Override
+    public boolean deleteAccountChests(String account) {
+        return backend.deleteAccountChests(account);
+    }
+
+    @Override
+    public void forEachAccount(Consumer<StoredAccount> visitor) {
+        // write pending balances first, so that the wrapped DAO has the current ones
+        flush();
+
+        backend.forEachAccount(visitor);
+    }
+
+    @Override
+    public void forEachChestLocation(Consumer<AccountChestLocation> visitor) {
+        backend.forEachChestLocation(visitor);
+    }
+
+    @Override
+    public int importAccounts(Collection<StoredAccount> accounts) {
+        synchronized (flushLock) {
+            int created = backend.importAccounts(accounts);
+
+            // imported balances replace the cached ones, including changes that were not written yet
+            for (StoredAccount account : accounts) {
+                cents.computeIfPresent(account.type + ":" + account.owner, (k, entry) -> {
+                    dirty.remove(k);
+
+                    return null;
+                });
+            }
+
+            return created;
+        }
+    }
+
+    @Override
+    public int importChestLocations(Collection<AccountChestLocation> locations) {
+        return backend.importChestLocations(locations);
+    }
+
+    @Override
+    public void forEachPurgeCandidate(String type,
+                                      long minCents,
+                                      long maxCents,
+                                      boolean withVaults,
+                                      Consumer<StoredAccount> visitor) {
+        flush();
+
+        backend.forEachPurgeCandidate(type, minCents, maxCents, withVaults, visitor);
+    }
+
+    @Override
+    public int purgeAccounts(Collection<StoredAccount> accounts) {
+        // accounts are not locked while they are deleted. Changes made meanwhile are checked for per account below
+        synchronized (flushLock) {
+            return purgeNow(accounts);
+        }
+    }
+
+    /**
+     * Delete accounts. Must be called while holding the flush lock.
+     *
+     * @param accounts the accounts
+     * @return number of accounts deleted
+     */
+    private int purgeNow(Collection<StoredAccount> accounts) {
+        List<String> keys = new ArrayList<>(accounts.size());
+
+        for (StoredAccount account : accounts) {
+            keys.add(account.type + ":" + account.owner);
+        }
+
+        // balances changed since the accounts were chosen have to reach the wrapped DAO, which then keeps them
+        flush(keys);
+
+        int purged;
+
+        try {
+            purged = backend.purgeAccounts(accounts);
+        } finally {
+            // a balance that changed after the flush, or could not be written, stays pending
+            for (String key : keys) {
+                cents.computeIfPresent(key, (k, entry) -> dirty.contains(k) ? entry : null);
+            }
+        }
+
+        return purged - restore(keys);
+    }
+
+    /**
+     * Write the pending balances among the given ones, creating their accounts again if they were deleted before the
+     * change could reach the wrapped DAO. Must be called while holding the flush lock.
+     *
+     * @param keys keys of the balances
+     * @return number of accounts created again
+     */
+    private int restore(Collection<String> keys) {
+        Map<String, StoredAccount> batch = new HashMap<>();
+
+        for (String key : keys) {
+            cents.computeIfPresent(key, (k, entry) -> {
+                if (dirty.remove(k)) {
+                    AccountHolder owner = entry.account.owner;
+
+                    batch.put(k, new StoredAccount(owner.getType(), owner.getId(), entry.value));
+                }
+
+                return entry;
+            });
+        }
+
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        try {
+            int created = backend.importAccounts(batch.values());
+
+            if (created > 0) {
+                log.info("Kept " + created + " purged accounts whose balance changed while they were deleted.");
+            }
+
+            return created;
+        } catch (RuntimeException e) {
+            dirty.addAll(batch.keySet());
+
+            log.log(Level.SEVERE, "Failed to write " + batch.size() + " virtual balances. Will retry.", e);
+
+            return 0;
+        }
+    }
+
+    @Override
+    public boolean storeLedgerEntries(List<LedgerEntry> entries) {
+        return backend.storeLedgerEntries(entries);
+    }
+
+    @Override
+    public Map<String, String> getStorageSettings() {
+        return backend.getStorageSettings();
+    }
+
+    @Override
+    public void checkpoint(boolean truncate) {
+        backend.checkpoint(truncate);
+    }
+
+    @Override
+    public void shutdown() {
+        if (flushTask != null) {
+            flushTask.cancel();
+        }
+
+        unregisterMemoryListener();
+
+        flush();
+
+        if (!dirty.isEmpty()) {
+            log.severe("Could not write " + dirty.size() + " virtual balances before shutdown.");
+        }
+
+        backend.shutdown();
+    }
+
+    /**
+     * In-memory balance of a single account. A changed balance replaces the entry.
+     */
+    private static final class CachedCents {
+        /**
+         * Account the balance belongs to, used to write it back.
+         */
+        final GringottsAccount account;
+        /**
+         * Balance in cents.
+         */
+        final long             value;
+
+        CachedCents(GringottsAccount account, long value) {
+            this.account = account;
+            this.value   = value;
+        }
+    }
+}
@@ -3,6 +3,8 @@ package org.gestern.gringotts.dependency.placeholdersapi.placeholders;
 import me.clip.placeholderapi.expansion.PlaceholderExpansion;
 import org.bukkit.Location;
 import org.bukkit.OfflinePlayer;
+import org.gestern.gringotts.BalanceTop;
+import org.gestern.gringotts.Configuration;
 import org.gestern.gringotts.Gringotts;
 import org.gestern.gringotts.api.Account;
 import org.gestern.gringotts.api.impl.GringottsEco;
@@ -33,8 +35,13 @@ public class PlaceholdersRegister extends PlaceholderExpansion {
 
     @Override
     public String onRequest(OfflinePlayer player, String paramString) {
-        String[] params  = paramString.split("_");
-        Account  account = eco.player(player.getUniqueId());
+        String[] params = paramString.split("_");
+
+        if (params[0].equalsIgnoreCase("top") && params.length == 3) {
+            return top(params[1], params[2]);
+        }
+
+        Account account = eco.player(player.getUniqueId());
 
         if (params[0].equalsIgnoreCase("balance") || params[0].equalsIgnoreCase("money")) {
 
@@ -84,4 +91,26 @@ public class PlaceholdersRegister extends PlaceholderExpansion {
 
         return null; // Placeholder is unknown by the Expansion
     }
+
+    /**
+     * Name or balance of the player at a rank of the balance leaderboard, for any requesting player.
+     */
+    private String top(String rankParam, String field) {
+        try {
+            BalanceTop.Entry entry = Gringotts.instance.getBalanceTop().get(Integer.parseInt(rankParam));
+
+            if (field.equalsIgnoreCase("name")) {
+                return entry == null ? "" : entry.getName();
+            }
+            if (field.equalsIgnoreCase("balance")) {
+                return entry == null ? "" : String.valueOf(
+                        Configuration.CONF.getCurrency().getDisplayValue(entry.cents)
+                );
+            }
+        } catch (NumberFormatException e) {
+            return "invalid index";
+        }
+
+        return null;
+    }
 }
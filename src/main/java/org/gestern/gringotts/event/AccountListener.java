@@ -1,13 +1,25 @@
 package org.gestern.gringotts.event;
 
 import org.bukkit.Bukkit;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
 import org.bukkit.block.Sign;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockBurnEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
 import org.bukkit.event.block.SignChangeEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 import org.gestern.gringotts.Configuration;
+import org.gestern.gringotts.Gringotts;
 import org.gestern.gringotts.Util;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -64,4 +76,87 @@ public class AccountListener implements Listener {
             Bukkit.getServer().getPluginManager().callEvent(creation);
         }
     }
+
+    /**
+     * Drop cached vaults affected by a broken sign or container.
+     *
+     * @param event Event data.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBreak(BlockBreakEvent event) {
+        Gringotts.instance.getAccounting().invalidateChests(event.getBlock());
+    }
+
+    /**
+     * Drop cached vaults affected by a burnt sign.
+     *
+     * @param event Event data.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBurn(BlockBurnEvent event) {
+        Gringotts.instance.getAccounting().invalidateChests(event.getBlock());
+    }
+
+    /**
+     * Drop cached vaults affected by an explosion.
+     *
+     * @param event Event data.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockExplode(BlockExplodeEvent event) {
+        invalidateChests(event.blockList());
+    }
+
+    /**
+     * Drop cached vaults affected by an explosion.
+     *
+     * @param event Event data.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityExplode(EntityExplodeEvent event) {
+        invalidateChests(event.blockList());
+    }
+
+    /**
+     * Drop cached vaults affected by blocks a piston pushes, which breaks signs in their way.
+     *
+     * @param event Event data.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPistonExtend(BlockPistonExtendEvent event) {
+        invalidateMoved(event.getBlocks(), event.getDirection());
+    }
+
+    /**
+     * Drop cached vaults affected by blocks a sticky piston pulls.
+     *
+     * @param event Event data.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPistonRetract(BlockPistonRetractEvent event) {
+        invalidateMoved(event.getBlocks(), event.getDirection());
+    }
+
+    /**
+     * Drop cached vaults in an unloaded world.
+     *
+     * @param event Event data.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        Gringotts.instance.getAccounting().invalidateChests(event.getWorld());
+    }
+
+    private void invalidateMoved(List<Block> blocks, BlockFace direction) {
+        for (Block block : blocks) {
+            Gringotts.instance.getAccounting().invalidateChests(block);
+            Gringotts.instance.getAccounting().invalidateChests(block.getRelative(direction));
+        }
+    }
+
+    private void invalidateChests(List<Block> blocks) {
+        for (Block block : blocks) {
+            Gringotts.instance.getAccounting().invalidateChests(block);
+        }
+    }
 }
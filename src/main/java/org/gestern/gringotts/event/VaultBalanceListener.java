@@ -0,0 +1,107 @@
+package org.gestern.gringotts.event;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockDispenseEvent;
+import org.bukkit.event.block.SignChangeEvent;
+import org.bukkit.event.inventory.FurnaceBurnEvent;
+import org.bukkit.event.inventory.FurnaceSmeltEvent;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryDragEvent;
+import org.bukkit.event.inventory.InventoryMoveItemEvent;
+import org.bukkit.event.inventory.InventoryPickupItemEvent;
+import org.gestern.gringotts.Gringotts;
+import org.gestern.gringotts.VaultBalances;
+
+/**
+ * Drops the counted balances of vaults whose contents are about to change.
+ * Broken and exploded vaults are handled by {@link AccountListener}.
+ */
+public class VaultBalanceListener implements Listener {
+
+    private static VaultBalances balances() {
+        return Gringotts.instance.getAccounting().getVaultBalances();
+    }
+
+    /**
+     * A player moves items in or out of an open container.
+     *
+     * @param event Event data.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onInventoryClick(InventoryClickEvent event) {
+        balances().invalidate(event.getInventory());
+    }
+
+    /**
+     * A player drags items over an open container.
+     *
+     * @param event Event data.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onInventoryDrag(InventoryDragEvent event) {
+        balances().invalidate(event.getInventory());
+    }
+
+    /**
+     * A hopper or dropper moves an item from one container to another.
+     *
+     * @param event Event data.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onInventoryMoveItem(InventoryMoveItemEvent event) {
+        balances().invalidate(event.getSource());
+        balances().invalidate(event.getDestination());
+    }
+
+    /**
+     * A hopper picks up an item.
+     *
+     * @param event Event data.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onInventoryPickupItem(InventoryPickupItemEvent event) {
+        balances().invalidate(event.getInventory());
+    }
+
+    /**
+     * A dispenser vault dispenses an item.
+     *
+     * @param event Event data.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockDispense(BlockDispenseEvent event) {
+        balances().invalidate(event.getBlock());
+    }
+
+    /**
+     * A furnace vault burns fuel.
+     *
+     * @param event Event data.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onFurnaceBurn(FurnaceBurnEvent event) {
+        balances().invalidate(event.getBlock());
+    }
+
+    /**
+     * A furnace vault smelts an item.
+     *
+     * @param event Event data.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onFurnaceSmelt(FurnaceSmeltEvent event) {
+        balances().invalidate(event.getBlock());
+    }
+
+    /**
+     * A vault sign is edited, which may make the vault invalid.
+     *
+     * @param event Event data.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onSignChange(SignChangeEvent event) {
+        balances().invalidate(event.getBlock());
+    }
+}
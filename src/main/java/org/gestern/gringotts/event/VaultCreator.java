@@ -2,6 +2,7 @@ package org.gestern.gringotts.event;
 
 import org.bukkit.ChatColor;
 import org.bukkit.block.Sign;
+import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
@@ -47,8 +48,11 @@ public class VaultCreator implements Listener {
         // create account chest
         AccountChest accountChest = new AccountChest(optionalSign.get(), account);
 
-        // check for existence / add to tracking
-        if (accounting.addChest(accountChest)) {
+        Player player = cause.getPlayer();
+
+        // check for existence / add to tracking. The vault is stored after the sign is marked, so a failure is only
+        // reported later
+        if (accounting.addChest(accountChest, () -> player.sendMessage(Language.LANG.vault_error))) {
             String firstLine = cause.getLine(0);
 
             if (firstLine != null && firstLine.length() <= 16) {
@@ -56,10 +60,10 @@ public class VaultCreator implements Listener {
             }
 
             cause.setLine(2, owner.getName());
-            cause.getPlayer().sendMessage(Language.LANG.vault_created);
+            player.sendMessage(Language.LANG.vault_created);
         } else {
             cause.setCancelled(true);
-            cause.getPlayer().sendMessage(Language.LANG.vault_error);
+            player.sendMessage(Language.LANG.vault_error);
         }
     }
 }
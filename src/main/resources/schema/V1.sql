@@ -0,0 +1,5 @@
+-- account lookups by holder
+-- used by the id lookup by type and owner, and for listing the owners of one type
+CREATE INDEX IF NOT EXISTS ix_gringotts_account_holder ON gringotts_account (type, owner);
+-- case-insensitive fallback lookup for accounts stored with different case by older versions
+CREATE INDEX IF NOT EXISTS ix_gringotts_account_holder_lower ON gringotts_account (lower(type), lower(owner));
@@ -0,0 +1,5 @@
+-- vault lookups by position and by account
+-- covers deleting a vault by its position and finding the account of a position
+CREATE INDEX IF NOT EXISTS ix_gringotts_accountchest_location ON gringotts_accountchest (world, x, y, z, account);
+-- covers listing and deleting the vaults of an account
+CREATE INDEX IF NOT EXISTS ix_gringotts_accountchest_account ON gringotts_accountchest (account, world, x, y, z);
@@ -0,0 +1,113 @@
+package org.gestern.gringotts;
+
+import org.gestern.gringotts.accountholder.AccountHolder;
+
+import java.util.List;
+
+public class BalanceTopTest {
+    public static void main(String[] args) {
+        richestComeFirst();
+        changesReorder();
+        ranksBeyondTheSnapshot();
+
+        System.out.println("BalanceTopTest passed");
+    }
+
+    private static void richestComeFirst() {
+        BalanceTop top = new BalanceTop();
+
+        top.observed(player("b"), 50);
+        top.observed(player("a"), 50);
+        top.observed(player("c"), 200);
+        top.observed(holder("town", "rich"), 1000);
+
+        check(top.size() == 3, "only player accounts are ranked");
+        check(top.get(1).owner.equals("c"), "richest account is first");
+        check(top.get(2).owner.equals("a") && top.get(3).owner.equals("b"), "equal balances are ordered by id");
+        check(top.get(4) == null && top.get(0) == null, "ranks outside the ranking are empty");
+
+        List<BalanceTop.Entry> page = top.getPage(2, 2);
+
+        check(page.size() == 1 && page.get(0).owner.equals("b"), "last page holds the rest");
+    }
+
+    private static void changesReorder() {
+        BalanceTop top = new BalanceTop();
+
+        top.observed(player("a"), 10);
+        top.observed(player("b"), 20);
+
+        check(top.get(1).owner.equals("b"), "b is first");
+
+        top.changed(player("a"), 15);
+
+        check(top.get(1).owner.equals("a") && top.get(1).cents == 25, "added amount moves a up");
+
+        top.observed(player("b"), 30);
+
+        check(top.get(1).owner.equals("b") && top.get(1).cents == 30, "new balance replaces the old one");
+
+        top.changed(player("unknown"), 100);
+
+        check(top.size() == 2, "change of an unranked account is ignored");
+
+        top.remove("player", "b");
+
+        check(top.get(1).owner.equals("a") && top.get(2) == null, "removed account is gone");
+    }
+
+    private static void ranksBeyondTheSnapshot() {
+        BalanceTop top = new BalanceTop();
+
+        for (int i = 0; i < 250; i++) {
+            top.observed(player(String.format("p%03d", i)), i);
+        }
+
+        check(top.get(1).cents == 249, "first rank");
+        check(top.get(100).cents == 150, "last rank of the snapshot");
+        check(top.get(101).cents == 149, "first rank after the snapshot");
+        check(top.get(250).cents == 0, "last rank");
+        check(top.get(251) == null, "no rank after the last");
+
+        List<BalanceTop.Entry> page = top.getPage(10, 11);
+
+        check(page.size() == 11 && page.get(0).cents == 150 && page.get(10).cents == 140, "page across the snapshot");
+
+        top.changed(player("p000"), 1000);
+
+        check(top.get(1).owner.equals("p000"), "change is seen in the snapshot");
+    }
+
+    private static AccountHolder player(String id) {
+        return holder("player", id);
+    }
+
+    private static AccountHolder holder(String type, String id) {
+        return new AccountHolder() {
+            @Override
+            public String getName() {
+                return id;
+            }
+
+            @Override
+            public void sendMessage(String message) {
+            }
+
+            @Override
+            public String getType() {
+                return type;
+            }
+
+            @Override
+            public String getId() {
+                return id;
+            }
+        };
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
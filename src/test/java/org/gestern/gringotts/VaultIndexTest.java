@@ -0,0 +1,79 @@
+package org.gestern.gringotts;
+
+import org.gestern.gringotts.data.AccountChestLocation;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public class VaultIndexTest {
+    public static void main(String[] args) {
+        packedPositionsAreDistinct();
+        negativeCoordinatesAreFound();
+        chunksAreSplitAtZero();
+
+        System.out.println("VaultIndexTest passed");
+    }
+
+    private static void packedPositionsAreDistinct() {
+        Set<Long> packed = new HashSet<>();
+        int       count  = 0;
+
+        for (int x = -2; x <= 1; x++) {
+            for (int y = -64; y <= 319; y += 383) {
+                for (int z = -2; z <= 1; z++) {
+                    packed.add(VaultIndex.pack(x, y, z));
+                    count++;
+                }
+            }
+        }
+
+        packed.add(VaultIndex.pack(-30000000, 0, 30000000));
+        packed.add(VaultIndex.pack(30000000, 0, -30000000));
+        count += 2;
+
+        check(packed.size() == count, "every position packs to its own value");
+    }
+
+    private static void negativeCoordinatesAreFound() {
+        VaultIndex index = new VaultIndex();
+
+        index.add(vault(-1, -64, -1));
+        index.add(vault(-17, 70, -33));
+        index.add(vault(0, 70, 0));
+
+        check(index.size() == 3, "all vaults are indexed");
+        check(index.get("world", -1, -64, -1) != null, "vault below zero is found");
+        check(index.get("world", -17, 70, -33) != null, "vault in a negative chunk is found");
+        check(index.get("world", -1, 64, -1) == null, "height is not folded into another position");
+        check(index.get("world", 1, -64, 1) == null, "sign is not folded into another position");
+        check(index.get("other", -1, -64, -1) == null, "worlds are kept apart");
+
+        check(index.remove("world", -17, 70, -33) != null, "vault in a negative chunk is removed");
+        check(index.get("world", -17, 70, -33) == null, "removed vault is gone");
+        check(index.size() == 2, "other vaults are kept");
+    }
+
+    private static void chunksAreSplitAtZero() {
+        VaultIndex index = new VaultIndex();
+
+        index.add(vault(-1, 70, -1));
+        index.add(vault(0, 70, 0));
+        index.add(vault(-16, 70, -16));
+        index.add(vault(-17, 70, -16));
+
+        check(VaultIndex.chunkKey(-1, -1) != VaultIndex.chunkKey(0, 0), "chunks on both sides of zero differ");
+        check(index.getChunk("world", -1, -1).size() == 2, "chunk -1,-1 holds its two vaults");
+        check(index.getChunk("world", 0, 0).size() == 1, "chunk 0,0 holds its vault");
+        check(index.getChunk("world", -2, -1).size() == 1, "chunk -2,-1 holds its vault");
+    }
+
+    private static AccountChestLocation vault(int x, int y, int z) {
+        return new AccountChestLocation("world", x, y, z, "player", "owner");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.gestern.gringotts;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.gestern.gringotts.currency.GringottsCurrency;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+public class WithdrawalPlanTest {
+    /**
+     * Slots written by {@link Inventory#setItem(int, ItemStack)}, in order.
+     */
+    private static final List<Integer> written = new ArrayList<>();
+
+    public static void main(String[] args) throws ReflectiveOperationException {
+        GringottsCurrency currency = new GringottsCurrency("Emerald", "Emeralds", 2, false);
+
+        currency.addDenomination(new ItemStack(Material.EMERALD), 1, "Emerald", "Emeralds");
+        currency.addDenomination(new ItemStack(Material.EMERALD_BLOCK), 9, "Emerald Block", "Emerald Blocks");
+
+        Field field = Configuration.class.getDeclaredField("currency");
+
+        field.setAccessible(true);
+        field.set(Configuration.CONF, currency);
+
+        Configuration.CONF.includeShulkerBoxes = false;
+
+        smallestDenominationsFirst();
+        changeIsGivenBack();
+        inventoriesInOrder();
+        changeWithoutSpace();
+
+        System.out.println("WithdrawalPlanTest passed");
+    }
+
+    private static void smallestDenominationsFirst() {
+        ItemStack[] contents = {
+                item(Material.EMERALD, 5),
+                item(Material.EMERALD_BLOCK, 2),
+                null,
+                item(Material.STONE, 1)
+        };
+
+        WithdrawalPlan plan = new WithdrawalPlan();
+
+        plan.add(inventory(contents), null);
+
+        check(plan.getBalance() == 2300, "balance counts all money items, was " + plan.getBalance());
+        check(plan.take(300) == 0, "exact amount is taken");
+
+        plan.apply();
+
+        check(contents[0].getAmount() == 2, "emeralds are taken first");
+        check(contents[1].getAmount() == 2, "blocks are kept");
+        check(written.size() == 1 && written.get(0) == 0, "only the changed slot is written, were " + written);
+    }
+
+    private static void changeIsGivenBack() {
+        ItemStack[]    contents = {item(Material.EMERALD, 5), item(Material.EMERALD_BLOCK, 2), null};
+        WithdrawalPlan plan     = new WithdrawalPlan();
+
+        plan.add(inventory(contents), null);
+
+        long remaining = plan.take(700);
+
+        check(remaining == -700, "a whole block is taken for the rest, leaving change of 700, was " + remaining);
+        check(plan.give(-remaining) == 0, "change fits");
+
+        plan.apply();
+
+        check(contents[0] != null && contents[0].getType() == Material.EMERALD, "change goes to the emerald slot");
+        check(contents[0].getAmount() == 7, "change is given as emeralds, was " + contents[0].getAmount());
+        check(contents[1].getAmount() == 1, "one block is taken");
+        check(contents[2] == null, "empty slot stays empty");
+        check(written.size() == 2, "each changed slot is written once, were " + written);
+    }
+
+    private static void inventoriesInOrder() {
+        ItemStack[]    first  = {item(Material.EMERALD_BLOCK, 1)};
+        ItemStack[]    second = {item(Material.EMERALD, 64)};
+        WithdrawalPlan plan   = new WithdrawalPlan();
+
+        plan.add(inventory(first), null);
+        plan.add(inventory(second), null);
+
+        long remaining = plan.take(1000);
+
+        check(remaining == 0, "the second inventory covers the rest, was " + remaining);
+
+        plan.apply();
+
+        check(first[0] == null, "first inventory is emptied first");
+        check(second[0].getAmount() == 63, "second inventory gives the rest");
+    }
+
+    private static void changeWithoutSpace() {
+        ItemStack[]    contents = {item(Material.EMERALD_BLOCK, 1), item(Material.STONE, 1)};
+        WithdrawalPlan plan     = new WithdrawalPlan();
+
+        plan.add(inventory(contents), null);
+
+        check(plan.take(100) == -800, "a block is taken for a single emerald");
+        check(plan.give(800) == 0, "change goes to the emptied slot");
+
+        plan.apply();
+
+        check(contents[0].getType() == Material.EMERALD && contents[0].getAmount() == 8, "change replaces the block");
+
+        ItemStack[]    full    = {item(Material.STONE, 1)};
+        WithdrawalPlan noSpace = new WithdrawalPlan();
+
+        noSpace.add(inventory(full), null);
+
+        check(noSpace.give(250) == 250, "change without space is left over");
+    }
+
+    private static ItemStack item(Material type, int amount) {
+        return new ItemStack(type, amount);
+    }
+
+    private static Inventory inventory(ItemStack[] contents) {
+        written.clear();
+
+        return (Inventory) Proxy.newProxyInstance(
+                Inventory.class.getClassLoader(),
+                new Class<?>[]{Inventory.class},
+                (proxy, method, arguments) -> {
+                    switch (method.getName()) {
+                        case "getStorageContents":
+                            return contents.clone();
+                        case "getMaxStackSize":
+                            return 64;
+                        case "setItem":
+                            contents[(Integer) arguments[0]] = (ItemStack) arguments[1];
+                            written.add((Integer) arguments[0]);
+
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                }
+        );
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
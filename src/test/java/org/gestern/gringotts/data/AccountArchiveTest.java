@@ -0,0 +1,164 @@
+package org.gestern.gringotts.data;
+
+import org.gestern.gringotts.GringottsStorageException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
+
+public class AccountArchiveTest {
+    public static void main(String[] args) throws IOException {
+        exportIsImportedUnchanged();
+        existingAccountsAreUpdated();
+        otherFilesAreRejected();
+
+        System.out.println("AccountArchiveTest passed");
+    }
+
+    private static void exportIsImportedUnchanged() throws IOException {
+        Storage source = new Storage();
+        Storage target = new Storage();
+        File    file   = Files.createTempFile("export", ".jsonl.gz").toFile();
+
+        source.accounts.put("player:a", new StoredAccount("player", "a", 1050));
+        source.accounts.put("faction:\"quoted\" \u00e9", new StoredAccount("faction", "\"quoted\" \u00e9", -3));
+        source.accounts.put("bank:big", new StoredAccount("bank", "big", Long.MAX_VALUE));
+        source.vaults.add(new AccountChestLocation("world", 10, 64, -3, "player", "a"));
+        source.vaults.add(new AccountChestLocation("world_nether", -30000000, -64, 30000000, "bank", "big"));
+
+        try {
+            new AccountArchive(source.dao(), message -> {
+            }).export(file);
+
+            check(!new File(file.getPath() + ".tmp").exists(), "temporary file is removed");
+
+            new AccountArchive(target.dao(), message -> {
+            }).importFrom(file);
+        } finally {
+            Files.delete(file.toPath());
+        }
+
+        check(target.accounts.size() == 3, "all accounts are imported");
+
+        for (StoredAccount account : source.accounts.values()) {
+            StoredAccount imported = target.accounts.get(account.type + ":" + account.owner);
+
+            check(imported != null, "account " + account.owner + " is imported");
+            check(imported.cents == account.cents, "balance of " + account.owner + " is kept");
+        }
+
+        check(target.vaults.size() == 2, "all vaults are imported");
+
+        for (int i = 0; i < source.vaults.size(); i++) {
+            AccountChestLocation vault    = source.vaults.get(i);
+            AccountChestLocation imported = target.vaults.get(i);
+
+            check(imported.equals(vault), "position of vault " + i + " is kept");
+            check(imported.type.equals(vault.type), "owner type of vault " + i + " is kept");
+            check(imported.owner.equals(vault.owner), "owner of vault " + i + " is kept");
+        }
+    }
+
+    private static void existingAccountsAreUpdated() throws IOException {
+        Storage source = new Storage();
+        Storage target = new Storage();
+        File    file   = Files.createTempFile("export", ".jsonl.gz").toFile();
+
+        source.accounts.put("player:a", new StoredAccount("player", "a", 20));
+        source.accounts.put("player:b", new StoredAccount("player", "b", 30));
+        target.accounts.put("player:a", new StoredAccount("player", "a", 5));
+
+        String summary;
+
+        try {
+            new AccountArchive(source.dao(), message -> {
+            }).export(file);
+
+            summary = new AccountArchive(target.dao(), message -> {
+            }).importFrom(file);
+        } finally {
+            Files.delete(file.toPath());
+        }
+
+        check(target.accounts.get("player:a").cents == 20, "existing account gets the exported balance");
+        check(summary.endsWith("1 new accounts, 0 new vaults"), "only the missing account is new: " + summary);
+    }
+
+    private static void otherFilesAreRejected() throws IOException {
+        File file = Files.createTempFile("export", ".jsonl.gz").toFile();
+
+        try (Writer out = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file)),
+                StandardCharsets.UTF_8)) {
+            out.write("{\"kind\":\"something-else\",\"version\":1}\n");
+        }
+
+        try {
+            new AccountArchive(new Storage().dao(), message -> {
+            }).importFrom(file);
+
+            throw new AssertionError("file of another format is imported");
+        } catch (GringottsStorageException expected) {
+            check(expected.getMessage().contains("Not a Gringotts export file"), "format is reported");
+        } finally {
+            Files.delete(file.toPath());
+        }
+    }
+
+    /**
+     * Accounts and vaults of a DAO backed by collections.
+     */
+    private static final class Storage {
+        private final Map<String, StoredAccount> accounts = new LinkedHashMap<>();
+        private final List<AccountChestLocation> vaults   = new ArrayList<>();
+
+        @SuppressWarnings("unchecked")
+        private DAO dao() {
+            return (DAO) Proxy.newProxyInstance(
+                    DAO.class.getClassLoader(),
+                    new Class<?>[]{DAO.class},
+                    (proxy, method, arguments) -> {
+                        switch (method.getName()) {
+                            case "forEachAccount":
+                                accounts.values().forEach((Consumer<StoredAccount>) arguments[0]);
+
+                                return null;
+                            case "forEachChestLocation":
+                                vaults.forEach((Consumer<AccountChestLocation>) arguments[0]);
+
+                                return null;
+                            case "importAccounts":
+                                int created = 0;
+
+                                for (StoredAccount account : (Collection<StoredAccount>) arguments[0]) {
+                                    if (accounts.put(account.type + ":" + account.owner, account) == null) {
+                                        created++;
+                                    }
+                                }
+
+                                return created;
+                            case "importChestLocations":
+                                vaults.addAll((Collection<AccountChestLocation>) arguments[0]);
+
+                                return ((Collection<?>) arguments[0]).size();
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    }
+            );
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.gestern.gringotts.data;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class JournalTest {
+    public static void main(String[] args) throws IOException {
+        tornRecordIsNotReplayed();
+        otherGenerationIsEmptied();
+
+        System.out.println("JournalTest passed");
+    }
+
+    private static void tornRecordIsNotReplayed() throws IOException {
+        Path file = Files.createTempFile("journal", ".dat");
+        int  torn;
+
+        try (Journal journal = new Journal(file, 4096)) {
+            journal.reset(7);
+
+            check(journal.append(record("first")), "first record is appended");
+            check(journal.append(record("second")), "second record is appended");
+
+            torn = journal.size();
+
+            check(journal.append(record("third")), "third record is appended");
+        }
+
+        // a crash while the last record was written leaves only part of its content
+        try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            raw.seek(torn + Integer.BYTES + 2);
+            raw.write(new byte[]{0, 0, 0});
+        }
+
+        try (Journal journal = new Journal(file, 4096)) {
+            List<String> replayed = new ArrayList<>();
+
+            check(journal.generation() == 7, "generation is kept in the header");
+            check(journal.replay(7, record -> replayed.add(text(record))) == 2, "complete records are replayed");
+            check(replayed.get(0).equals("first") && replayed.get(1).equals("second"), "records keep their order");
+            check(journal.size() == torn, "appending continues after the last complete record");
+            check(journal.append(record("fourth")), "record is appended after the torn one");
+        }
+
+        try (Journal journal = new Journal(file, 4096)) {
+            List<String> replayed = new ArrayList<>();
+
+            check(journal.replay(7, record -> replayed.add(text(record))) == 3, "appended record is replayed");
+            check(replayed.get(2).equals("fourth"), "torn record is replaced");
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static void otherGenerationIsEmptied() throws IOException {
+        Path file = Files.createTempFile("journal", ".dat");
+
+        try (Journal journal = new Journal(file, 4096)) {
+            check(journal.generation() == -1, "new file holds no journal");
+
+            journal.reset(3);
+            journal.append(record("old"));
+        }
+
+        try (Journal journal = new Journal(file, 4096)) {
+            check(journal.replay(4, record -> {
+                throw new AssertionError("record of another generation is replayed");
+            }) == 0, "no record of another generation is replayed");
+            check(journal.generation() == 4, "journal starts the loaded generation");
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static ByteBuffer record(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String text(ByteBuffer record) {
+        byte[] bytes = new byte[record.remaining()];
+
+        record.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
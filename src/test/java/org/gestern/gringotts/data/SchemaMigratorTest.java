@@ -0,0 +1,59 @@
+package org.gestern.gringotts.data;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class SchemaMigratorTest {
+    public static void main(String[] args) {
+        statementsAreSplitAtLineEnds();
+        commentsAreSkipped();
+        lastStatementNeedsNoSemicolon();
+
+        System.out.println("SchemaMigratorTest passed");
+    }
+
+    private static void statementsAreSplitAtLineEnds() {
+        List<String> statements = SchemaMigrator.statements(Arrays.asList(
+                "CREATE INDEX a ON t (x);",
+                "CREATE INDEX b",
+                "    ON t (y, z);",
+                "INSERT INTO t (s) VALUES ('a;b');"
+        ));
+
+        check(statements.size() == 3, "one statement per terminating semicolon, got " + statements);
+        check(statements.get(0).equals("CREATE INDEX a ON t (x)"), "semicolon is removed");
+        check(statements.get(1).equals("CREATE INDEX b ON t (y, z)"), "lines are joined with a space");
+        check(statements.get(2).equals("INSERT INTO t (s) VALUES ('a;b')"), "semicolon within a line is kept");
+    }
+
+    private static void commentsAreSkipped() {
+        List<String> statements = SchemaMigrator.statements(Arrays.asList(
+                "-- description",
+                "",
+                "CREATE INDEX a",
+                "  -- explains the columns;",
+                "ON t (x);"
+        ));
+
+        check(statements.size() == 1, "comments and blank lines are no statements, got " + statements);
+        check(statements.get(0).equals("CREATE INDEX a ON t (x)"), "comment within a statement is skipped");
+        check(SchemaMigrator.statements(Collections.singletonList("-- only a comment")).isEmpty(), "empty script");
+    }
+
+    private static void lastStatementNeedsNoSemicolon() {
+        List<String> statements = SchemaMigrator.statements(Arrays.asList(
+                "CREATE INDEX a ON t (x);",
+                "CREATE INDEX b ON t (y)"
+        ));
+
+        check(statements.size() == 2, "unterminated last statement is kept");
+        check(statements.get(1).equals("CREATE INDEX b ON t (y)"), "unterminated statement is trimmed");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
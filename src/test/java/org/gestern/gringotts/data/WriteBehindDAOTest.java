@@ -0,0 +1,247 @@
+package org.gestern.gringotts.data;
+
+import org.gestern.gringotts.Configuration;
+import org.gestern.gringotts.GringottsAccount;
+import org.gestern.gringotts.accountholder.AccountHolder;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+public class WriteBehindDAOTest {
+    /**
+     * Balances of the wrapped DAO, by account id.
+     */
+    private static final Map<String, Long> stored      = new ConcurrentHashMap<>();
+    /**
+     * Runs within purgeAccounts of the wrapped DAO, before the accounts are deleted.
+     */
+    private static       Runnable          beforePurge = () -> {
+    };
+
+    public static void main(String[] args) throws Exception {
+        // nothing may be scheduled without a server
+        Configuration.CONF.centsCacheFlushDecreases = false;
+        Configuration.CONF.centsCacheMaxPending     = Integer.MAX_VALUE;
+
+        missingAccountsAreNotCached();
+        flushWritesLatestBalance();
+        evictionKeepsPendingBalances();
+        evictionDuringWritesLosesNothing();
+        purgeKeepsBalancesChangedMeanwhile();
+
+        System.out.println("WriteBehindDAOTest passed");
+    }
+
+    private static void missingAccountsAreNotCached() {
+        WriteBehindDAO   dao     = cache();
+        GringottsAccount account = account("missing");
+
+        check(dao.retrieveCents(account) == 0, "missing account has no balance");
+        check(dao.getCachedCount() == 0, "missing account is not cached");
+        check(!dao.hasAccount(account.owner), "missing account does not exist");
+        check(!dao.storeCents(account, 5), "balance of a missing account is not stored");
+
+        stored.put("missing", 7L);
+
+        check(dao.retrieveCents(account) == 7, "account created later is read");
+        check(dao.hasAccount(account.owner), "account created later exists");
+    }
+
+    private static void flushWritesLatestBalance() {
+        WriteBehindDAO   dao     = cache();
+        GringottsAccount account = account("flush");
+
+        stored.put("flush", 10L);
+
+        check(dao.retrieveCents(account) == 10, "balance is read from the wrapped DAO");
+
+        dao.storeCents(account, 20);
+        dao.storeCents(account, 30);
+
+        check(stored.get("flush") == 10, "balance is not written before a flush");
+        check(dao.getPendingCount() == 1, "changed balance is pending");
+        check(dao.retrieveCents(account) == 30, "changed balance is read from memory");
+
+        dao.flush();
+
+        check(stored.get("flush") == 30, "latest balance is written");
+        check(dao.getPendingCount() == 0, "nothing is pending after a flush");
+    }
+
+    private static void evictionKeepsPendingBalances() {
+        WriteBehindDAO   dao     = cache();
+        GringottsAccount clean   = account("clean");
+        GringottsAccount changed = account("changed");
+
+        stored.put("clean", 1L);
+        stored.put("changed", 2L);
+
+        dao.retrieveCents(clean);
+        dao.retrieveCents(changed);
+        dao.storeCents(changed, 3);
+        dao.evictClean();
+
+        check(dao.getCachedCount() == 1, "only the changed balance is kept");
+
+        dao.flush();
+
+        check(stored.get("changed") == 3, "kept balance is written");
+        check(dao.retrieveCents(clean) == 1, "evicted balance is read again");
+    }
+
+    private static void evictionDuringWritesLosesNothing() throws InterruptedException {
+        WriteBehindDAO   dao     = cache();
+        GringottsAccount account = account("race");
+        AtomicBoolean    done    = new AtomicBoolean();
+        int              writes  = 200000;
+
+        stored.put("race", 0L);
+
+        Thread evictor = new Thread(() -> {
+            while (!done.get()) {
+                dao.evictClean();
+                dao.flush();
+            }
+        });
+
+        evictor.start();
+
+        for (int i = 1; i <= writes; i++) {
+            dao.storeCents(account, i);
+        }
+
+        done.set(true);
+        evictor.join();
+        dao.flush();
+
+        check(stored.get("race") == writes, "last balance is written, was " + stored.get("race"));
+        check(dao.retrieveCents(account) == writes, "last balance is read");
+    }
+
+    private static void purgeKeepsBalancesChangedMeanwhile() {
+        WriteBehindDAO   dao       = cache();
+        GringottsAccount unchanged = account("unchanged");
+        GringottsAccount deposited = account("deposited");
+
+        stored.put("unchanged", 1L);
+        stored.put("deposited", 1L);
+
+        dao.retrieveCents(unchanged);
+        dao.retrieveCents(deposited);
+
+        // a deposit after the pending balances were written, while the accounts are being deleted
+        beforePurge = () -> dao.storeCents(deposited, 50);
+
+        int purged = dao.purgeAccounts(Arrays.asList(
+                new StoredAccount("player", "unchanged", 1),
+                new StoredAccount("player", "deposited", 1)
+        ));
+
+        beforePurge = () -> {
+        };
+
+        check(purged == 1, "only the unchanged account counts as purged, was " + purged);
+        check(!stored.containsKey("unchanged"), "unchanged account is deleted");
+        check(stored.get("deposited") == 50, "account with a deposit is kept with its new balance");
+        check(dao.getPendingCount() == 0, "deposit is written");
+        check(dao.retrieveCents(deposited) == 50, "deposit is read");
+    }
+
+    private static WriteBehindDAO cache() {
+        DAO backend = (DAO) Proxy.newProxyInstance(
+                DAO.class.getClassLoader(),
+                new Class<?>[]{DAO.class},
+                (proxy, method, arguments) -> {
+                    switch (method.getName()) {
+                        case "findCents":
+                            return stored.get(((GringottsAccount) arguments[0]).owner.getId());
+                        case "hasAccount":
+                            return stored.containsKey(((AccountHolder) arguments[0]).getId());
+                        case "storeCents":
+                            if (arguments.length == 2) {
+                                return stored.replace(
+                                        ((GringottsAccount) arguments[0]).owner.getId(),
+                                        (Long) arguments[1]
+                                ) != null;
+                            }
+
+                            boolean all = true;
+
+                            for (Map.Entry<?, ?> balance : ((Map<?, ?>) arguments[0]).entrySet()) {
+                                all &= stored.replace(
+                                        ((GringottsAccount) balance.getKey()).owner.getId(),
+                                        (Long) balance.getValue()
+                                ) != null;
+                            }
+
+                            return all;
+                        case "purgeAccounts":
+                            beforePurge.run();
+
+                            int purged = 0;
+
+                            for (Object account : (Collection<?>) arguments[0]) {
+                                StoredAccount candidate = (StoredAccount) account;
+
+                                // deleted only if the balance didn't change since it was chosen
+                                if (stored.remove(candidate.owner, candidate.cents)) {
+                                    purged++;
+                                }
+                            }
+
+                            return purged;
+                        case "importAccounts":
+                            int created = 0;
+
+                            for (Object account : (Collection<?>) arguments[0]) {
+                                StoredAccount imported = (StoredAccount) account;
+
+                                if (stored.put(imported.owner, imported.cents) == null) {
+                                    created++;
+                                }
+                            }
+
+                            return created;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                }
+        );
+
+        return new WriteBehindDAO(backend, Logger.getLogger(WriteBehindDAOTest.class.getName()));
+    }
+
+    private static GringottsAccount account(String id) {
+        return new GringottsAccount(new AccountHolder() {
+            @Override
+            public String getName() {
+                return id;
+            }
+
+            @Override
+            public void sendMessage(String message) {
+            }
+
+            @Override
+            public String getType() {
+                return "player";
+            }
+
+            @Override
+            public String getId() {
+                return id;
+            }
+        });
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}